@@ -16,8 +16,22 @@
  */
 package com.bc.util.geom;
 
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+
 public abstract class AbstractGeometry implements Geometry {
 
+    /**
+     * Gets the envelope of this geometry, which is the smallest rectangle with sides parallel to the axes containing
+     * the geometry.
+     *
+     * @return the envelope, or null if the geometry is empty
+     */
+    public Rectangle2D getEnvelope() {
+        final Rectangle2D envelope = envelope();
+        return envelope != null ? (Rectangle2D) envelope.clone() : null;
+    }
+
     public String toString() {
         return getAsText();
     }
@@ -50,4 +64,102 @@ public abstract class AbstractGeometry implements Geometry {
         }
         return g.getContains(this);
     }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Gets the envelope without copying it. Geometries compute it from their shape by default, but may override this
+     * method to return a cached envelope.
+     *
+     * @return the envelope, which must not be modified, or null if the geometry is empty
+     */
+    Rectangle2D envelope() {
+        final Shape shape = getAsShape();
+        return shape != null ? shape.getBounds2D() : null;
+    }
+
+    static Rectangle2D envelopeOf(Geometry g) {
+        if (g instanceof AbstractGeometry) {
+            return ((AbstractGeometry) g).envelope();
+        }
+        final Shape shape = g.getAsShape();
+        return shape != null ? shape.getBounds2D() : null;
+    }
+
+    /**
+     * Computes the distance of a point to a geometry. The distance of points, shape geometries and collections of them
+     * is exact, the distance of other geometries is approximated by the distance to their envelope.
+     *
+     * @return the distance, or {@link Double#POSITIVE_INFINITY} if the geometry is empty
+     */
+    static double distance(Geometry g, double x, double y) {
+        if (g instanceof PointGeometry) {
+            final PointGeometry pg = (PointGeometry) g;
+            return Math.hypot(pg.getX() - x, pg.getY() - y);
+        } else if (g instanceof ShapeGeometry) {
+            final ShapeGeometry sg = (ShapeGeometry) g;
+            return sg.envelope() != null ? sg.getCoordinates().distance(x, y) : Double.POSITIVE_INFINITY;
+        } else if (g instanceof GeometryCollection) {
+            final GeometryCollection gc = (GeometryCollection) g;
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < gc.getGeometryCount(); i++) {
+                min = Math.min(min, distance(gc.getGeometry(i), x, y));
+            }
+            return min;
+        } else if (g instanceof MultiPolygonGeometry) {
+            final MultiPolygonGeometry mg = (MultiPolygonGeometry) g;
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < mg.getPolygonCount(); i++) {
+                min = Math.min(min, distance(mg.getPolygon(i), x, y));
+            }
+            return min;
+        } else if (g instanceof MultiLineStringGeometry) {
+            final MultiLineStringGeometry mg = (MultiLineStringGeometry) g;
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < mg.getLineStringCount(); i++) {
+                min = Math.min(min, distance(mg.getLineString(i), x, y));
+            }
+            return min;
+        } else if (g instanceof MultiPointGeometry) {
+            final MultiPointGeometry mg = (MultiPointGeometry) g;
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < mg.getPointCount(); i++) {
+                min = Math.min(min, distance(mg.getPoint(i), x, y));
+            }
+            return min;
+        }
+        final Rectangle2D e = envelopeOf(g);
+        if (e == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return distance(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY(), x, y);
+    }
+
+    /**
+     * Computes the distance of a point to an envelope given by its bounds, which is zero for points inside.
+     */
+    static double distance(double minX, double minY, double maxX, double maxY, double x, double y) {
+        final double dx = x < minX ? minX - x : x > maxX ? x - maxX : 0.0;
+        final double dy = y < minY ? minY - y : y > maxY ? y - maxY : 0.0;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Tests whether two envelopes intersect. Unlike {@link Rectangle2D#intersects}, the test includes the boundaries
+     * and therefore works for envelopes of zero width or height.
+     */
+    static boolean intersects(Rectangle2D e1, Rectangle2D e2) {
+        return e1.getMinX() <= e2.getMaxX() && e2.getMinX() <= e1.getMaxX() &&
+               e1.getMinY() <= e2.getMaxY() && e2.getMinY() <= e1.getMaxY();
+    }
+
+    /**
+     * Tests whether the first envelope covers the second, including the boundaries.
+     */
+    static boolean covers(Rectangle2D e1, Rectangle2D e2) {
+        return e1.getMinX() <= e2.getMinX() && e2.getMaxX() <= e1.getMaxX() &&
+               e1.getMinY() <= e2.getMinY() && e2.getMaxY() <= e1.getMaxY();
+    }
 }
@@ -0,0 +1,337 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The base class of the R-tree implementations of a {@link SpatialIndex}. The tree stores the envelopes of the
+ * geometries in its leaves, and each node stores the union of the envelopes of its children.
+ * <p/>
+ * Queries are answered by descending into all nodes whose envelope matches the query, the candidate items found in
+ * the leaves are then refined with the predicates of the {@link Geometry} interface. Nearest neighbours are found by
+ * a best-first search ordered by the distance of the envelopes, which is a lower bound of the distance of the
+ * geometries.
+ */
+public abstract class AbstractRTree<T> implements SpatialIndex<T> {
+
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    final int nodeCapacity;
+    int size;
+
+    AbstractRTree(int nodeCapacity) {
+        if (nodeCapacity < 4) {
+            throw new IllegalArgumentException("nodeCapacity must be at least 4");
+        }
+        this.nodeCapacity = nodeCapacity;
+    }
+
+    /**
+     * @return the maximum number of children of a node
+     */
+    public int getNodeCapacity() {
+        return nodeCapacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Rectangle2D getBounds() {
+        final Node root = root();
+        if (root.count == 0) {
+            return null;
+        }
+        return new Rectangle2D.Double(root.minX, root.minY, root.maxX - root.minX, root.maxY - root.minY);
+    }
+
+    public List<T> query(Rectangle2D window) {
+        if (window == null) {
+            throw new IllegalArgumentException("window is null");
+        }
+        final List<T> result = new ArrayList<T>();
+        search(root(), window.getMinX(), window.getMinY(), window.getMaxX(), window.getMaxY(), null, result);
+        return result;
+    }
+
+    public List<T> queryIntersects(final Geometry g) {
+        if (g == null) {
+            throw new IllegalArgumentException("g is null");
+        }
+        final List<T> result = new ArrayList<T>();
+        final Rectangle2D e = AbstractGeometry.envelopeOf(g);
+        if (e != null) {
+            search(root(), e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY(), new Filter() {
+                public boolean accept(Entry entry) {
+                    return entry.geometry.getIntersects(g) == Geometry.TRUE;
+                }
+            }, result);
+        }
+        return result;
+    }
+
+    public List<T> queryWithin(final Geometry g) {
+        if (g == null) {
+            throw new IllegalArgumentException("g is null");
+        }
+        final List<T> result = new ArrayList<T>();
+        final Rectangle2D e = AbstractGeometry.envelopeOf(g);
+        if (e != null) {
+            final double minX = e.getMinX();
+            final double minY = e.getMinY();
+            final double maxX = e.getMaxX();
+            final double maxY = e.getMaxY();
+            search(root(), minX, minY, maxX, maxY, new Filter() {
+                public boolean accept(Entry entry) {
+                    return minX <= entry.minX && entry.maxX <= maxX && minY <= entry.minY && entry.maxY <= maxY &&
+                           g.getContains(entry.geometry) == Geometry.TRUE;
+                }
+            }, result);
+        }
+        return result;
+    }
+
+    public List<T> queryContains(double x, double y) {
+        final List<T> result = new ArrayList<T>();
+        final PointGeometry point = new PointGeometry(x, y);
+        search(root(), x, y, x, y, new Filter() {
+            public boolean accept(Entry entry) {
+                // points and lines have no interior, and line strings do not implement the predicate
+                return entry.geometry.getDimension() == 2 && entry.geometry.getContains(point) == Geometry.TRUE;
+            }
+        }, result);
+        return result;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public List<T> queryNearest(double x, double y, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative");
+        }
+        final List<T> result = new ArrayList<T>(Math.min(k, size));
+        final Node root = root();
+        if (k == 0 || root.count == 0) {
+            return result;
+        }
+        final PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        queue.add(new Candidate(root, root.distance(x, y), false));
+        while (!queue.isEmpty() && result.size() < k) {
+            final Candidate candidate = queue.poll();
+            if (candidate.bounded instanceof Node) {
+                final Node node = (Node) candidate.bounded;
+                for (int i = 0; i < node.count; i++) {
+                    final Bounded child = node.children[i];
+                    queue.add(new Candidate(child, child.distance(x, y), false));
+                }
+            } else if (!candidate.exact) {
+                // the envelope distance is a lower bound, the entry is queued again with its exact distance
+                final Entry entry = (Entry) candidate.bounded;
+                queue.add(new Candidate(entry, AbstractGeometry.distance(entry.geometry, x, y), true));
+            } else {
+                result.add((T) ((Entry) candidate.bounded).item);
+            }
+        }
+        return result;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the root node, which is an empty leaf if the tree is empty
+     */
+    abstract Node root();
+
+    /**
+     * @return the number of levels of the tree
+     */
+    int getHeight() {
+        int height = 1;
+        for (Node node = root(); !node.leaf; node = (Node) node.children[0]) {
+            height++;
+        }
+        return height;
+    }
+
+    static Entry createEntry(Geometry geometry, Object item) {
+        if (geometry == null) {
+            throw new IllegalArgumentException("geometry is null");
+        }
+        final Rectangle2D e = AbstractGeometry.envelopeOf(geometry);
+        if (e == null) {
+            throw new IllegalArgumentException("geometry is empty");
+        }
+        return new Entry(geometry, item, e);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private static void search(Node node, double minX, double minY, double maxX, double maxY, Filter filter,
+                               List result) {
+        for (int i = 0; i < node.count; i++) {
+            final Bounded child = node.children[i];
+            if (child.intersects(minX, minY, maxX, maxY)) {
+                if (!node.leaf) {
+                    search((Node) child, minX, minY, maxX, maxY, filter, result);
+                } else if (filter == null || filter.accept((Entry) child)) {
+                    result.add(((Entry) child).item);
+                }
+            }
+        }
+    }
+
+    private interface Filter {
+
+        boolean accept(Entry entry);
+    }
+
+    /**
+     * An axis-parallel rectangle given by its bounds.
+     */
+    static class Bounded {
+
+        double minX;
+        double minY;
+        double maxX;
+        double maxY;
+
+        final boolean intersects(double minX, double minY, double maxX, double maxY) {
+            return this.minX <= maxX && minX <= this.maxX && this.minY <= maxY && minY <= this.maxY;
+        }
+
+        final boolean covers(Bounded b) {
+            return minX <= b.minX && b.maxX <= maxX && minY <= b.minY && b.maxY <= maxY;
+        }
+
+        final double distance(double x, double y) {
+            return AbstractGeometry.distance(minX, minY, maxX, maxY, x, y);
+        }
+
+        final double getArea() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        /**
+         * @return the area of the union of this rectangle and the given one
+         */
+        final double getUnionArea(Bounded b) {
+            return (Math.max(maxX, b.maxX) - Math.min(minX, b.minX)) *
+                   (Math.max(maxY, b.maxY) - Math.min(minY, b.minY));
+        }
+
+        final double getCenterX() {
+            return 0.5 * (minX + maxX);
+        }
+
+        final double getCenterY() {
+            return 0.5 * (minY + maxY);
+        }
+    }
+
+    /**
+     * A leaf entry, holding an item and its geometry.
+     */
+    static final class Entry extends Bounded {
+
+        final Geometry geometry;
+        final Object item;
+
+        Entry(Geometry geometry, Object item, Rectangle2D envelope) {
+            this.geometry = geometry;
+            this.item = item;
+            this.minX = envelope.getMinX();
+            this.minY = envelope.getMinY();
+            this.maxX = envelope.getMaxX();
+            this.maxY = envelope.getMaxY();
+        }
+    }
+
+    /**
+     * A node holding either entries or other nodes. The array of children has room for one more child than the node
+     * capacity, so an overflowing node can be split after the child has been added.
+     */
+    static final class Node extends Bounded {
+
+        final boolean leaf;
+        final Bounded[] children;
+        int count;
+
+        Node(boolean leaf, int capacity) {
+            this.leaf = leaf;
+            this.children = new Bounded[capacity + 1];
+        }
+
+        void add(Bounded child) {
+            children[count++] = child;
+            if (count == 1) {
+                minX = child.minX;
+                minY = child.minY;
+                maxX = child.maxX;
+                maxY = child.maxY;
+            } else {
+                include(child);
+            }
+        }
+
+        void include(Bounded b) {
+            minX = Math.min(minX, b.minX);
+            minY = Math.min(minY, b.minY);
+            maxX = Math.max(maxX, b.maxX);
+            maxY = Math.max(maxY, b.maxY);
+        }
+
+        void remove(int index) {
+            children[index] = children[--count];
+            children[count] = null;
+        }
+
+        void clear() {
+            for (int i = 0; i < count; i++) {
+                children[i] = null;
+            }
+            count = 0;
+        }
+
+        void updateBounds() {
+            if (count > 0) {
+                minX = children[0].minX;
+                minY = children[0].minY;
+                maxX = children[0].maxX;
+                maxY = children[0].maxY;
+                for (int i = 1; i < count; i++) {
+                    include(children[i]);
+                }
+            }
+        }
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+
+        final Bounded bounded;
+        final double distance;
+        final boolean exact;
+
+        Candidate(Bounded bounded, double distance, boolean exact) {
+            this.bounded = bounded;
+            this.distance = distance;
+            this.exact = exact;
+        }
+
+        public int compareTo(Candidate other) {
+            final int c = Double.compare(distance, other.distance);
+            if (c != 0) {
+                return c;
+            }
+            // among equal distances, exact entries come first
+            return exact == other.exact ? 0 : exact ? -1 : 1;
+        }
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An immutable sequence of points in double precision, divided into rings. The coordinates are packed into a single
+ * array, x-values on even and y-values on odd positions, and the rings are given by offsets into the sequence of
+ * points.
+ * <p/>
+ * The rings of a closed sequence, as used for polygons, are implicitly closed: the last point of a ring is not
+ * repeated. Creating a closed sequence drops the last point of a ring if it equals the first one.
+ */
+public final class CoordinateSequence implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final double FLATNESS = 1.0e-6;
+    private static final int[] NO_RING_ENDS = new int[0];
+
+    final double[] coordinates;
+    final int[] ringOffsets;
+    final boolean closed;
+
+    /**
+     * Creates a sequence with a single ring. The coordinates are copied.
+     *
+     * @param coordinates the coordinates, x-values on even and y-values on odd positions, must not be null
+     * @param closed      true, if the ring is closed
+     *
+     * @return the sequence
+     */
+    public static CoordinateSequence create(double[] coordinates, boolean closed) {
+        if (coordinates == null) {
+            throw new IllegalArgumentException("coordinates is null");
+        }
+        return create(coordinates, new int[]{0}, closed);
+    }
+
+    /**
+     * Creates a sequence with any number of rings. The coordinates are copied.
+     *
+     * @param coordinates the coordinates, x-values on even and y-values on odd positions, must not be null
+     * @param ringOffsets the indices of the first point of each ring in ascending order, must not be null; empty
+     *                    rings are dropped
+     * @param closed      true, if the rings are closed
+     *
+     * @return the sequence
+     */
+    public static CoordinateSequence create(double[] coordinates, int[] ringOffsets, boolean closed) {
+        if (coordinates == null) {
+            throw new IllegalArgumentException("coordinates is null");
+        }
+        if (ringOffsets == null) {
+            throw new IllegalArgumentException("ringOffsets is null");
+        }
+        if (coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("illegal number of coordinates");
+        }
+        final int pointCount = coordinates.length / 2;
+        if (pointCount > 0 && ringOffsets.length == 0) {
+            throw new IllegalArgumentException("illegal ring offsets");
+        }
+        final int[] ringEnds = new int[ringOffsets.length];
+        for (int i = 0; i < ringOffsets.length; i++) {
+            final int end = i + 1 < ringOffsets.length ? ringOffsets[i + 1] : pointCount;
+            if (ringOffsets[i] < 0 || end < ringOffsets[i] || end > pointCount || i == 0 && ringOffsets[0] != 0) {
+                throw new IllegalArgumentException("illegal ring offsets");
+            }
+            ringEnds[i] = 2 * end;
+        }
+        return create(coordinates, ringEnds, ringEnds.length, closed);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getRingCount() {
+        return ringOffsets.length - 1;
+    }
+
+    /**
+     * @param ring the ring index, may be equal to the number of rings
+     *
+     * @return the index of the first point of the ring, or the number of points for the index following the last ring
+     */
+    public int getRingOffset(int ring) {
+        return ringOffsets[ring];
+    }
+
+    public int getPointCount() {
+        return coordinates.length / 2;
+    }
+
+    public double getX(int pointIndex) {
+        return coordinates[2 * pointIndex];
+    }
+
+    public double getY(int pointIndex) {
+        return coordinates[2 * pointIndex + 1];
+    }
+
+    /**
+     * @return a copy of the packed coordinates
+     */
+    public double[] getCoordinates() {
+        return coordinates.clone();
+    }
+
+    /**
+     * @return the bounding box of all points
+     */
+    public Rectangle2D getBounds() {
+        if (coordinates.length == 0) {
+            return new Rectangle2D.Double();
+        }
+        double minX = coordinates[0];
+        double minY = coordinates[1];
+        double maxX = minX;
+        double maxY = minY;
+        for (int i = 2; i < coordinates.length; i += 2) {
+            final double x = coordinates[i];
+            final double y = coordinates[i + 1];
+            if (x < minX) {
+                minX = x;
+            } else if (x > maxX) {
+                maxX = x;
+            }
+            if (y < minY) {
+                minY = y;
+            } else if (y > maxY) {
+                maxY = y;
+            }
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Tests whether a point is inside the rings, which are implicitly closed for this test. The test counts the
+     * signed crossings of a ray in direction of the positive x-axis with the edges and uses the non-zero winding
+     * rule, so the insideness of a point is that of {@link Path2D#contains(double, double)}.
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     *
+     * @return true, if the point is inside
+     */
+    public boolean contains(double x, double y) {
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            return false;
+        }
+        final double[] c = coordinates;
+        int crossings = 0;
+        for (int ring = 0; ring < ringOffsets.length - 1; ring++) {
+            final int start = 2 * ringOffsets[ring];
+            final int end = 2 * ringOffsets[ring + 1];
+            // the first edge is the one closing the ring
+            double x0 = c[end - 2];
+            double y0 = c[end - 1];
+            for (int i = start; i < end; i += 2) {
+                final double x1 = c[i];
+                final double y1 = c[i + 1];
+                if ((y < y0 || y < y1) && (y >= y0 || y >= y1) && (x < x0 || x < x1)) {
+                    if (x < x0 && x < x1 || x < x0 + (y - y0) * (x1 - x0) / (y1 - y0)) {
+                        crossings += y0 < y1 ? 1 : -1;
+                    }
+                }
+                x0 = x1;
+                y0 = y1;
+            }
+        }
+        return crossings != 0;
+    }
+
+    /**
+     * Computes the euclidean distance of a point to the rings. The distance of a point inside closed rings is zero.
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     *
+     * @return the distance, or {@link Double#POSITIVE_INFINITY} if the sequence is empty
+     */
+    public double distance(double x, double y) {
+        if (closed && contains(x, y)) {
+            return 0.0;
+        }
+        final double[] c = coordinates;
+        double min = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ring < ringOffsets.length - 1; ring++) {
+            final int start = 2 * ringOffsets[ring];
+            final int end = 2 * ringOffsets[ring + 1];
+            double x0 = closed ? c[end - 2] : c[start];
+            double y0 = closed ? c[end - 1] : c[start + 1];
+            for (int i = closed ? start : start + 2; i < end; i += 2) {
+                min = Math.min(min, segmentDistanceSq(x, y, x0, y0, c[i], c[i + 1]));
+                x0 = c[i];
+                y0 = c[i + 1];
+            }
+            if (!closed && end - start == 2) {
+                // a line string of a single point
+                min = Math.min(min, segmentDistanceSq(x, y, x0, y0, x0, y0));
+            }
+        }
+        return Math.sqrt(min);
+    }
+
+    /**
+     * Creates an immutable shape view of this sequence.
+     *
+     * @return the shape
+     */
+    public Shape createShape() {
+        return new SequenceShape(this);
+    }
+
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof CoordinateSequence)) {
+            return false;
+        }
+        final CoordinateSequence other = (CoordinateSequence) obj;
+        return closed == other.closed && Arrays.equals(ringOffsets, other.ringOffsets) &&
+               Arrays.equals(coordinates, other.coordinates);
+    }
+
+    public int hashCode() {
+        return 31 * Arrays.hashCode(coordinates) + Arrays.hashCode(ringOffsets);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private CoordinateSequence(double[] coordinates, int[] ringOffsets, boolean closed) {
+        this.coordinates = coordinates;
+        this.ringOffsets = ringOffsets;
+        this.closed = closed;
+    }
+
+    private static double segmentDistanceSq(double x, double y, double x0, double y0, double x1, double y1) {
+        final double dx = x1 - x0;
+        final double dy = y1 - y0;
+        final double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq > 0.0 ? ((x - x0) * dx + (y - y0) * dy) / lengthSq : 0.0;
+        t = Math.max(0.0, Math.min(1.0, t));
+        final double ex = x0 + t * dx - x;
+        final double ey = y0 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * Creates a sequence from the rings stored in a coordinate buffer, which may be reused afterwards.
+     *
+     * @param buffer    the coordinate buffer
+     * @param ringEnds  the indices in the buffer following the last y-value of each ring
+     * @param ringCount the number of rings
+     * @param closed    true, if the rings are closed
+     *
+     * @return the sequence
+     */
+    static CoordinateSequence create(double[] buffer, int[] ringEnds, int ringCount, boolean closed) {
+        // empty rings are dropped
+        final int[] ringStarts = new int[ringCount];
+        final int[] offsets = new int[ringCount + 1];
+        int count = 0;
+        int length = 0;
+        int start = 0;
+        for (int i = 0; i < ringCount; i++) {
+            int end = ringEnds[i];
+            if (closed && end - start > 2 &&
+                buffer[end - 2] == buffer[start] && buffer[end - 1] == buffer[start + 1]) {
+                end -= 2;
+            }
+            if (end > start) {
+                ringStarts[count] = start;
+                length += end - start;
+                offsets[++count] = length / 2;
+            }
+            start = ringEnds[i];
+        }
+        final double[] coordinates = new double[length];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(buffer, ringStarts[i], coordinates, 2 * offsets[i], 2 * (offsets[i + 1] - offsets[i]));
+        }
+        return new CoordinateSequence(coordinates, count == ringCount ? offsets : Arrays.copyOf(offsets, count + 1),
+                                      closed);
+    }
+
+    /**
+     * Creates a sequence from the subpaths of a shape. Curves are flattened. If the sequence is open, a closed
+     * subpath ends with its first point.
+     *
+     * @param shape  the shape
+     * @param closed true, if the rings are closed
+     *
+     * @return the sequence
+     */
+    static CoordinateSequence create(Shape shape, boolean closed) {
+        double[] buffer = new double[64];
+        int[] ringEnds = NO_RING_ENDS;
+        int ringCount = 0;
+        int n = 0;
+        int ringStart = -1;
+        double moveX = 0.0;
+        double moveY = 0.0;
+        final double[] segment = new double[6];
+        for (PathIterator it = shape.getPathIterator(null, FLATNESS); !it.isDone(); it.next()) {
+            final int type = it.currentSegment(segment);
+            if (type == PathIterator.SEG_CLOSE) {
+                if (ringStart >= 0) {
+                    if (!closed && (buffer[n - 2] != moveX || buffer[n - 1] != moveY)) {
+                        buffer = ensureCapacity(buffer, n + 2);
+                        buffer[n++] = moveX;
+                        buffer[n++] = moveY;
+                    }
+                    ringEnds = ensureCapacity(ringEnds, ringCount + 1);
+                    ringEnds[ringCount++] = n;
+                    ringStart = -1;
+                }
+                continue;
+            }
+            if (type == PathIterator.SEG_MOVETO || ringStart < 0) {
+                if (ringStart >= 0) {
+                    ringEnds = ensureCapacity(ringEnds, ringCount + 1);
+                    ringEnds[ringCount++] = n;
+                }
+                ringStart = n;
+                if (type == PathIterator.SEG_MOVETO) {
+                    moveX = segment[0];
+                    moveY = segment[1];
+                } else {
+                    // a segment following a close starts at the point the closed subpath started
+                    buffer = ensureCapacity(buffer, n + 2);
+                    buffer[n++] = moveX;
+                    buffer[n++] = moveY;
+                }
+            }
+            buffer = ensureCapacity(buffer, n + 2);
+            buffer[n++] = segment[0];
+            buffer[n++] = segment[1];
+        }
+        if (ringStart >= 0) {
+            ringEnds = ensureCapacity(ringEnds, ringCount + 1);
+            ringEnds[ringCount++] = n;
+        }
+        return create(buffer, ringEnds, ringCount, closed);
+    }
+
+    private static double[] ensureCapacity(double[] array, int length) {
+        return array.length >= length ? array : Arrays.copyOf(array, Math.max(length, 2 * array.length));
+    }
+
+    private static int[] ensureCapacity(int[] array, int length) {
+        return array.length >= length ? array : Arrays.copyOf(array, Math.max(length, 2 * array.length + 1));
+    }
+
+    /**
+     * An immutable shape view of a coordinate sequence. The containment and intersection tests are those of
+     * {@link Path2D} with the non-zero winding rule.
+     */
+    private static final class SequenceShape implements Shape {
+
+        private final CoordinateSequence sequence;
+        private final Rectangle2D bounds;
+
+        private SequenceShape(CoordinateSequence sequence) {
+            this.sequence = sequence;
+            this.bounds = sequence.getBounds();
+        }
+
+        public Rectangle getBounds() {
+            return getBounds2D().getBounds();
+        }
+
+        public Rectangle2D getBounds2D() {
+            return (Rectangle2D) bounds.clone();
+        }
+
+        public boolean contains(double x, double y) {
+            return x >= bounds.getMinX() && x <= bounds.getMaxX() && y >= bounds.getMinY() && y <= bounds.getMaxY() &&
+                   sequence.contains(x, y);
+        }
+
+        public boolean contains(Point2D p) {
+            return contains(p.getX(), p.getY());
+        }
+
+        public boolean intersects(double x, double y, double w, double h) {
+            return Path2D.intersects(getPathIterator(null), x, y, w, h);
+        }
+
+        public boolean intersects(Rectangle2D r) {
+            return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+        }
+
+        public boolean contains(double x, double y, double w, double h) {
+            return Path2D.contains(getPathIterator(null), x, y, w, h);
+        }
+
+        public boolean contains(Rectangle2D r) {
+            return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+        }
+
+        public PathIterator getPathIterator(AffineTransform at) {
+            return new SequencePathIterator(sequence, at);
+        }
+
+        public PathIterator getPathIterator(AffineTransform at, double flatness) {
+            return getPathIterator(at);
+        }
+    }
+
+    private static final class SequencePathIterator implements PathIterator {
+
+        private final double[] coordinates;
+        private final int[] ringOffsets;
+        private final boolean closed;
+        private final AffineTransform transform;
+        private int ring;
+        private int point;
+        private boolean closing;
+
+        private SequencePathIterator(CoordinateSequence sequence, AffineTransform transform) {
+            this.coordinates = sequence.coordinates;
+            this.ringOffsets = sequence.ringOffsets;
+            this.closed = sequence.closed;
+            this.transform = transform;
+        }
+
+        public int getWindingRule() {
+            return WIND_NON_ZERO;
+        }
+
+        public boolean isDone() {
+            return ring >= ringOffsets.length - 1;
+        }
+
+        public void next() {
+            if (closing) {
+                closing = false;
+                ring++;
+            } else {
+                point++;
+                if (point == ringOffsets[ring + 1]) {
+                    if (closed) {
+                        closing = true;
+                    } else {
+                        ring++;
+                    }
+                }
+            }
+        }
+
+        public int currentSegment(float[] coords) {
+            if (closing) {
+                return SEG_CLOSE;
+            }
+            if (transform != null) {
+                transform.transform(coordinates, 2 * point, coords, 0, 1);
+            } else {
+                coords[0] = (float) coordinates[2 * point];
+                coords[1] = (float) coordinates[2 * point + 1];
+            }
+            return point == ringOffsets[ring] ? SEG_MOVETO : SEG_LINETO;
+        }
+
+        public int currentSegment(double[] coords) {
+            if (closing) {
+                return SEG_CLOSE;
+            }
+            if (transform != null) {
+                transform.transform(coordinates, 2 * point, coords, 0, 1);
+            } else {
+                coords[0] = coordinates[2 * point];
+                coords[1] = coordinates[2 * point + 1];
+            }
+            return point == ringOffsets[ring] ? SEG_MOVETO : SEG_LINETO;
+        }
+    }
+}
@@ -27,10 +27,12 @@ public class GeometryCollection extends AbstractGeometry {
 
     public void addGeometry(Geometry p) {
         geometries.add(p);
+        envelope = null;
     }
 
     public void removeGeometry(Geometry p) {
         geometries.remove(p);
+        envelope = null;
     }
 
     public Geometry getGeometry(int i) {
@@ -109,5 +111,42 @@ public class GeometryCollection extends AbstractGeometry {
     /////// END OF PUBLIC
     ////////////////////////////////////////////////////////////////////////////////
 
+    private static final Rectangle2D NO_ENVELOPE = new Rectangle2D.Double();
+
     private final List<Geometry> geometries;
+    /**
+     * The cached union of the envelopes, {@link #NO_ENVELOPE} if there is none, or null if not computed yet.
+     */
+    private transient volatile Rectangle2D envelope;
+
+    /**
+     * Gets the union of the envelopes of all geometries. It is computed once and cached until a geometry is added or
+     * removed, so geometries must not be modified after they have been added.
+     *
+     * @return the union of the envelopes of all geometries, or null if there are none
+     */
+    Rectangle2D envelope() {
+        Rectangle2D e = envelope;
+        if (e == null) {
+            e = computeEnvelope();
+            envelope = e != null ? e : NO_ENVELOPE;
+            return e;
+        }
+        return e != NO_ENVELOPE ? e : null;
+    }
+
+    private Rectangle2D computeEnvelope() {
+        Rectangle2D envelope = null;
+        for (Geometry geometry : geometries) {
+            final Rectangle2D e = envelopeOf(geometry);
+            if (e != null) {
+                if (envelope == null) {
+                    envelope = (Rectangle2D) e.clone();
+                } else {
+                    envelope.add(e);
+                }
+            }
+        }
+        return envelope;
+    }
 }
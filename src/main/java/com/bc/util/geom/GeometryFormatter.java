@@ -26,11 +26,23 @@ public class GeometryFormatter {
     }
 
     public String format(LineStringGeometry g) {
-        return formatLineString(g.getAsShape());
+        if (g.isShapeBased()) {
+            return formatLineString(g.getAsShape());
+        }
+        StringBuffer sb = new StringBuffer(BUFFER_SIZE);
+        append(sb, Geometry.LINESTRING);
+        appendLineStringBody(sb, g.getCoordinates());
+        return sb.toString();
     }
 
     public String format(PolygonGeometry g) {
-        return formatPolygon(g.getAsShape());
+        if (g.isShapeBased()) {
+            return formatPolygon(g.getAsShape());
+        }
+        StringBuffer sb = new StringBuffer(BUFFER_SIZE);
+        append(sb, Geometry.POLYGON);
+        appendPolygonBody(sb, g);
+        return sb.toString();
     }
 
     public String format(MultiPointGeometry g) {
@@ -54,7 +66,11 @@ public class GeometryFormatter {
         append(sb, "(");
         for (int i = 0; i < g.getLineStringCount(); i++) {
             final LineStringGeometry lineString = g.getLineString(i);
-            appendLineStringPath(sb, lineString.getAsShape(), true);
+            if (lineString.isShapeBased()) {
+                appendLineStringPath(sb, lineString.getAsShape(), true);
+            } else {
+                appendLineStringBody(sb, lineString.getCoordinates());
+            }
             if (i != g.getLineStringCount() - 1) {
                 append(sb, ",");
             }
@@ -69,7 +85,7 @@ public class GeometryFormatter {
         append(sb, "(");
         for (int i = 0; i < g.getPolygonCount(); i++) {
             final PolygonGeometry pg = g.getPolygon(i);
-            appendPolygonBody(sb, pg.getAsShape());
+            appendPolygonBody(sb, pg);
             if (i != g.getPolygonCount() - 1) {
                 append(sb, ",");
             }
@@ -201,6 +217,50 @@ public class GeometryFormatter {
         append(sb, ")");
     }
 
+    private void appendPolygonBody(StringBuffer sb, PolygonGeometry g) {
+        if (g.isShapeBased()) {
+            appendPolygonBody(sb, g.getAsShape());
+            return;
+        }
+        final CoordinateSequence coordinates = g.getCoordinates();
+        append(sb, "(");
+        for (int i = 0; i < coordinates.getRingCount(); i++) {
+            if (i > 0) {
+                append(sb, ",");
+            }
+            appendRing(sb, coordinates, i);
+        }
+        append(sb, ")");
+    }
+
+    private void appendLineStringBody(StringBuffer sb, CoordinateSequence coordinates) {
+        if (coordinates.getRingCount() > 1) {
+            throw new IllegalStateException("line string has " + coordinates.getRingCount() + " parts");
+        }
+        if (coordinates.getRingCount() == 0) {
+            append(sb, "()");
+        } else {
+            appendRing(sb, coordinates, 0);
+        }
+    }
+
+    private void appendRing(StringBuffer sb, CoordinateSequence coordinates, int ring) {
+        final int start = coordinates.getRingOffset(ring);
+        final int end = coordinates.getRingOffset(ring + 1);
+        append(sb, "(");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                append(sb, ",");
+            }
+            append(sb, coordinates.getX(i), coordinates.getY(i));
+        }
+        if (coordinates.isClosed()) {
+            append(sb, ",");
+            append(sb, coordinates.getX(start), coordinates.getY(start));
+        }
+        append(sb, ")");
+    }
+
     private void appendPolygonBody(StringBuffer sb, Shape s) {
         append(sb, "(");
         appendLineStringPath(sb, s, false);
@@ -6,18 +6,36 @@
  */
 package com.bc.util.geom;
 
-import java.awt.geom.GeneralPath;
-import java.awt.geom.Point2D;
-import java.io.IOException;
-import java.io.StreamTokenizer;
-import java.io.StringReader;
 import java.text.ParseException;
-
+import java.util.Arrays;
+
+/**
+ * Parses geometries from their well-known-text (WKT) representation.
+ * <p/>
+ * The parser scans the text in a single pass over a character array, dispatches on the geometry type keyword once and
+ * collects the coordinates of each point list in a reused coordinate array, from which the {@link CoordinateSequence}
+ * of the geometry is created. Numbers are converted directly from the characters, only numbers with more than 15
+ * significant digits or a large exponent are passed to {@link Double#parseDouble}. A parser instance may be used for
+ * parsing any number of geometries, but it is not thread-safe.
+ */
 public class GeometryParser {
 
-    private StreamTokenizer tokenizer;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private char[] chars;
+    private int length;
+    private int pos;
+    private double[] coords;
+    private int[] ringEnds;
 
     public GeometryParser() {
+        chars = new char[256];
+        coords = new double[256];
+        ringEnds = new int[8];
     }
 
     /**
@@ -34,334 +52,282 @@ public class GeometryParser {
         if (wkt == null) {
             throw new IllegalArgumentException("wkt is null");
         }
-
-        initTokenizer(wkt);
-
-        Geometry geometry = null;
-        try {
-            geometry = parseGeometryTaggedText();
-        } catch (IOException e) {
-            throw new IllegalStateException(e.getMessage());
-        } finally {
-            disposeTokenizer();
-        }
-
-        return geometry;
-    }
-
-    private Geometry parseGeometryTaggedText() throws IOException,
-                                                      ParseException {
-        Geometry geometry = parsePointTaggedText();
-        if (geometry == null) {
-            geometry = parseLineStringTaggedText();
-        }
-        if (geometry == null) {
-            geometry = parsePolygonTaggedText();
+        length = wkt.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
         }
-        if (geometry == null) {
-            geometry = parseMultiPointTaggedText();
-        }
-        if (geometry == null) {
-            geometry = parseMultiLineStringTaggedText();
-        }
-        if (geometry == null) {
-            geometry = parseMultiPolygonTaggedText();
-        }
-        if (geometry == null) {
-            geometry = parseGeometryCollectionTaggedText();
-        }
-        if (geometry == null) {
-            fail("geometry type name expected");
-        }
-        return geometry;
+        wkt.getChars(0, length, chars, 0);
+        pos = 0;
+        return parseGeometryTaggedText();
     }
 
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
 
-    private PointGeometry parsePointTaggedText() throws IOException,
-                                                        ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(Geometry.POINT)) {
-            return parsePointBody();
+    private Geometry parseGeometryTaggedText() throws ParseException {
+        skipWhitespace();
+        final int start = pos;
+        while (pos < length && isWordChar(chars[pos])) {
+            pos++;
         }
-        tokenizer.pushBack();
-        return null;
-    }
-
-    private Geometry parseLineStringTaggedText() throws IOException,
-                                                        ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(Geometry.LINESTRING)) {
+        final int wordLength = pos - start;
+        if (isKeyword(Geometry.POINT, start, wordLength)) {
+            return parsePointBody();
+        } else if (isKeyword(Geometry.LINESTRING, start, wordLength)) {
             return parseLineStringBody();
-        }
-        tokenizer.pushBack();
-        return null;
-    }
-
-    private Geometry parsePolygonTaggedText() throws IOException,
-                                                     ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(Geometry.POLYGON)) {
+        } else if (isKeyword(Geometry.POLYGON, start, wordLength)) {
             return parsePolygonBody();
-        }
-        tokenizer.pushBack();
-        return null;
-    }
-
-    private Geometry parseMultiPointTaggedText() throws IOException,
-                                                        ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(Geometry.MULTIPOINT)) {
+        } else if (isKeyword(Geometry.MULTIPOINT, start, wordLength)) {
             return parseMultiPointBody();
-        }
-        tokenizer.pushBack();
-        return null;
-    }
-
-    private Geometry parseMultiLineStringTaggedText() throws IOException,
-                                                             ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(Geometry.MULTILINESTRING)) {
+        } else if (isKeyword(Geometry.MULTILINESTRING, start, wordLength)) {
             return parseMultiLineStringBody();
-        }
-        tokenizer.pushBack();
-        return null;
-    }
-
-    private Geometry parseMultiPolygonTaggedText() throws IOException,
-                                                          ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(Geometry.MULTIPOLYGON)) {
+        } else if (isKeyword(Geometry.MULTIPOLYGON, start, wordLength)) {
             return parseMultiPolygonBody();
-        }
-        tokenizer.pushBack();
-        return null;
-    }
-
-    private Geometry parseGeometryCollectionTaggedText() throws IOException,
-                                                                ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(Geometry.GEOMETRYCOLLECTION)) {
+        } else if (isKeyword(Geometry.GEOMETRYCOLLECTION, start, wordLength)) {
             return parseGeometryCollectionBody();
         }
-        tokenizer.pushBack();
+        pos = start;
+        fail("geometry type name expected");
         return null;
     }
 
-    private PointGeometry parsePointBody() throws IOException,
-                                                  ParseException {
-        final Point2D point = new Point2D.Double();
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_EOF) {
-            parseListStart(tt);
-            parsePoint(point);
-            tt = tokenizer.nextToken();
-            if (tt != ')') {
-                tokenizer.pushBack();
+    private PointGeometry parsePointBody() throws ParseException {
+        double x = 0.0;
+        double y = 0.0;
+        if (parseListStart()) {
+            x = parseDouble("x-value");
+            y = parseDouble("y-value");
+            skipWhitespace();
+            if (pos >= length || chars[pos] != ')') {
                 fail("')' expected");
             }
+            pos++;
         }
-        return new PointGeometry(point.getX(), point.getY());
+        return new PointGeometry(x, y);
     }
 
-    private LineStringGeometry parseLineStringBody() throws IOException,
-                                                            ParseException {
-        return parseLineStringBody(false);
+    private LineStringGeometry parseLineStringBody() throws ParseException {
+        int ringCount = 0;
+        if (parseListStart()) {
+            ringEnds[ringCount++] = parseCoordinates(0);
+        }
+        return new LineStringGeometry(CoordinateSequence.create(coords, ringEnds, ringCount, false));
     }
 
-    private LineStringGeometry parseLineStringBody(boolean autoClose) throws IOException,
-                                                                             ParseException {
-        final GeneralPath gp = new GeneralPath();
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_EOF) {
-            parseListStart(tt);
-            Point2D.Double point = new Point2D.Double();
-            int numElems = 0;
-            float x0 = 0, y0 = 0;
-            float xi = 0, yi = 0;
-            boolean mustLineTo = false;
+    private PolygonGeometry parsePolygonBody() throws ParseException {
+        int ringCount = 0;
+        if (parseListStart()) {
+            int end = 0;
             do {
-                if (mustLineTo) {
-                    gp.lineTo(xi, yi);
-                }
-                parsePoint(point);
-                if (numElems == 0) {
-                    x0 = (float) point.x;
-                    y0 = (float) point.y;
-                    gp.moveTo(x0, y0);
-                } else {
-                    xi = (float) point.x;
-                    yi = (float) point.y;
-                    mustLineTo = true;
+                if (!parseListStart()) {
+                    fail("'(' expected");
                 }
-                numElems++;
-            } while (!parseListEnd());
-            if (autoClose) {
-                // lineTo(xi, yi) only if it is not first point,
-                // because  path.closePath() does the job for us
-                if (mustLineTo && (x0 != xi || y0 != yi)) {
-                    gp.lineTo(xi, yi);
+                end = parseCoordinates(end);
+                if (ringCount == ringEnds.length) {
+                    ringEnds = Arrays.copyOf(ringEnds, 2 * ringCount);
                 }
-                gp.closePath();
-            } else if (mustLineTo) {
-                gp.lineTo(xi, yi);
-            }
-        }
-        return new LineStringGeometry(gp);
-    }
-
-    private PolygonGeometry parsePolygonBody() throws IOException,
-                                                      ParseException {
-        GeneralPath path = new GeneralPath();
-        ShapeGeometry elem = null;
-        int numElems = 0;
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_EOF) {
-            parseListStart(tt);
-            do {
-                elem = parseLineStringBody(true);
-                path.append(elem.getAsShape(), false);
-                numElems++;
+                ringEnds[ringCount++] = end;
             } while (!parseListEnd());
         }
-
-        return new PolygonGeometry(numElems == 1 ? elem.getAsShape() : path);
+        return new PolygonGeometry(CoordinateSequence.create(coords, ringEnds, ringCount, true));
     }
 
-    private MultiPointGeometry parseMultiPointBody() throws IOException,
-                                                            ParseException {
-        MultiPointGeometry mp = new MultiPointGeometry();
-        PointGeometry p;
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_EOF) {
-            parseListStart(tt);
+    private MultiPointGeometry parseMultiPointBody() throws ParseException {
+        final MultiPointGeometry mp = new MultiPointGeometry();
+        if (parseListStart()) {
             do {
-                p = parsePointBody();
-                mp.addPoint(p);
+                mp.addPoint(parsePointBody());
             } while (!parseListEnd());
         }
         return mp;
     }
 
-    private MultiLineStringGeometry parseMultiLineStringBody() throws IOException,
-                                                                      ParseException {
-        MultiLineStringGeometry ml = new MultiLineStringGeometry();
-        LineStringGeometry l = null;
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_EOF) {
-            parseListStart(tt);
+    private MultiLineStringGeometry parseMultiLineStringBody() throws ParseException {
+        final MultiLineStringGeometry ml = new MultiLineStringGeometry();
+        if (parseListStart()) {
             do {
-                l = parseLineStringBody();
-                ml.addLineString(l);
+                ml.addLineString(parseLineStringBody());
             } while (!parseListEnd());
         }
         return ml;
     }
 
-    private MultiPolygonGeometry parseMultiPolygonBody() throws IOException,
-                                                                ParseException {
-        MultiPolygonGeometry mp = new MultiPolygonGeometry();
-        PolygonGeometry p = null;
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_EOF) {
-            parseListStart(tt);
+    private MultiPolygonGeometry parseMultiPolygonBody() throws ParseException {
+        final MultiPolygonGeometry mp = new MultiPolygonGeometry();
+        if (parseListStart()) {
             do {
-                p = parsePolygonBody();
-                mp.addPolygon(p);
+                mp.addPolygon(parsePolygonBody());
             } while (!parseListEnd());
         }
         return mp;
     }
 
-    private GeometryCollection parseGeometryCollectionBody() throws IOException,
-                                                                    ParseException {
-        GeometryCollection gc = new GeometryCollection();
-        Geometry g;
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_EOF) {
-            parseListStart(tt);
+    private GeometryCollection parseGeometryCollectionBody() throws ParseException {
+        final GeometryCollection gc = new GeometryCollection();
+        if (parseListStart()) {
             do {
-                g = parseGeometryTaggedText();
-                gc.addGeometry(g);
-            } while (parseListEnd());
+                gc.addGeometry(parseGeometryTaggedText());
+            } while (!parseListEnd());
         }
         return gc;
     }
 
-    private void parsePoint(Point2D point) throws IOException,
-                                                  ParseException {
-        final double x = parseDouble(tokenizer, "x-value");
-        final double y = parseDouble(tokenizer, "y-value");
-        point.setLocation(x, y);
-    }
-
     /**
-     * Private helper method to enable parsing of floating point numbers in "e" notation. This contains the most basic
-     * implementation that seems to be suitable for this kind of operation but will fail on certain unexpected values,
-     * e.g. 1e3b4 where 1 will be the mantissa and 3b4 will be the exponent (which would fail...)
-     *
-     * @param tokenizer
-     * @param valueName
+     * Parses a list of points up to and including the closing parenthesis into the coordinate array.
      *
-     * @return
+     * @param offset the index in the coordinate array the first x-value is stored at
      *
-     * @throws ParseException
-     * @throws IOException
+     * @return the index following the last y-value stored
+     */
+    private int parseCoordinates(int offset) throws ParseException {
+        int n = offset;
+        do {
+            if (n + 2 > coords.length) {
+                coords = Arrays.copyOf(coords, 2 * coords.length);
+            }
+            coords[n++] = parseDouble("x-value");
+            coords[n++] = parseDouble("y-value");
+        } while (!parseListEnd());
+        return n;
+    }
+
+    /**
+     * Parses a floating point number. The number is converted directly if it has at most 15 significant digits and a
+     * decimal exponent within the range of exactly representable powers of ten, in which case the result is
+     * correctly rounded. Otherwise {@link Double#parseDouble} is used.
      */
-    private double parseDouble(StreamTokenizer tokenizer, String valueName) throws ParseException,
-                                                                                   IOException {
-        int tt = tokenizer.nextToken();
-        if (tt != StreamTokenizer.TT_NUMBER) {
-            tokenizer.pushBack();
+    private double parseDouble(String valueName) throws ParseException {
+        skipWhitespace();
+        final int start = pos;
+        boolean negative = false;
+        if (pos < length && (chars[pos] == '-' || chars[pos] == '+')) {
+            negative = chars[pos] == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digitCount = 0;
+        int significantDigitCount = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for (; pos < length; pos++) {
+            final char c = chars[pos];
+            if (c >= '0' && c <= '9') {
+                digitCount++;
+                if (mantissa != 0 || c != '0') {
+                    significantDigitCount++;
+                    if (significantDigitCount <= MAX_FAST_DIGITS) {
+                        mantissa = 10 * mantissa + (c - '0');
+                        if (fraction) {
+                            exponent--;
+                        }
+                    } else if (!fraction) {
+                        exponent++;
+                    }
+                } else if (fraction) {
+                    exponent--;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digitCount == 0) {
+            pos = start;
             fail(valueName + " expected");
         }
-        double result = tokenizer.nval;
-        tt = tokenizer.nextToken();
-        if (tt == StreamTokenizer.TT_WORD &&
-            (tokenizer.sval.startsWith("e") || tokenizer.sval.startsWith("E"))) {
-            result = new Double(result + tokenizer.sval).doubleValue();
-        } else {
-            tokenizer.pushBack();
+        if (pos < length && (chars[pos] == 'e' || chars[pos] == 'E')) {
+            final int exponentStart = pos;
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < length && (chars[pos] == '-' || chars[pos] == '+')) {
+                negativeExponent = chars[pos] == '-';
+                pos++;
+            }
+            int explicitExponent = 0;
+            final int exponentDigitsStart = pos;
+            while (pos < length && chars[pos] >= '0' && chars[pos] <= '9') {
+                if (explicitExponent < 10000) {
+                    explicitExponent = 10 * explicitExponent + (chars[pos] - '0');
+                }
+                pos++;
+            }
+            if (pos == exponentDigitsStart) {
+                // not an exponent, leave the characters to the caller
+                pos = exponentStart;
+            } else {
+                exponent += negativeExponent ? -explicitExponent : explicitExponent;
+            }
+        }
+        if (significantDigitCount > MAX_FAST_DIGITS || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(new String(chars, start, pos - start));
         }
-        return result;
+        final double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
     }
 
-    private void parseListStart(int tt) throws ParseException {
-        if (tt != '(') {
-            tokenizer.pushBack();
+    /**
+     * @return false, if the end of the text has been reached
+     */
+    private boolean parseListStart() throws ParseException {
+        skipWhitespace();
+        if (pos >= length) {
+            return false;
+        }
+        if (chars[pos] != '(') {
             fail("'(' expected");
         }
+        pos++;
+        return true;
     }
 
-    private boolean parseListEnd() throws IOException,
-                                          ParseException {
-        int tt = tokenizer.nextToken();
-        if (tt == ')') {
-            return true;
-        } else if (tt != ',') {
-            tokenizer.pushBack();
-            fail("',' or ')' expected");
+    private boolean parseListEnd() throws ParseException {
+        skipWhitespace();
+        if (pos < length) {
+            final char c = chars[pos];
+            if (c == ')') {
+                pos++;
+                return true;
+            } else if (c == ',') {
+                pos++;
+                return false;
+            }
         }
+        fail("',' or ')' expected");
         return false;
     }
 
-    private void initTokenizer(String wkt) {
-        StringReader r = new StringReader(wkt);
-        tokenizer = new StreamTokenizer(r);
-        tokenizer.resetSyntax();
-        tokenizer.parseNumbers();
-        tokenizer.whitespaceChars(0, 32);
-        tokenizer.eolIsSignificant(false);
-        tokenizer.wordChars('a', 'z');
-        tokenizer.wordChars('A', 'Z');
-        tokenizer.wordChars('_', '_');
-        tokenizer.quoteChar('"');
+    private boolean isKeyword(String keyword, int start, int wordLength) {
+        if (wordLength != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i++) {
+            if (Character.toUpperCase(chars[start + i]) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private void disposeTokenizer() {
-        tokenizer = null;
+    private static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+    }
+
+    private void skipWhitespace() {
+        while (pos < length && chars[pos] <= ' ') {
+            pos++;
+        }
     }
 
     private void fail(String message) throws ParseException {
-        throw new ParseException(message, tokenizer.lineno());
+        // the error offset is the line number, as it used to be with the stream tokenizer
+        int lineNumber = 1;
+        for (int i = 0; i < pos; i++) {
+            if (chars[i] == '\n') {
+                lineNumber++;
+            }
+        }
+        throw new ParseException(message, lineNumber);
     }
 }
@@ -16,6 +16,19 @@ public class LineStringGeometry extends ShapeGeometry {
         super(shape);
     }
 
+    /**
+     * Creates a line string from a coordinate sequence. The sequence must not be closed, a closed line string
+     * repeats its first point.
+     *
+     * @param coordinates the coordinates, must not be null
+     */
+    public LineStringGeometry(CoordinateSequence coordinates) {
+        super(coordinates);
+        if (coordinates.isClosed()) {
+            throw new IllegalArgumentException("coordinates are closed");
+        }
+    }
+
     public int getDimension() {
         return 1;
     }
@@ -9,6 +9,7 @@ package com.bc.util.geom;
 import com.bc.util.NotImplementedException;
 
 import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
 
 public class MultiLineStringGeometry extends AbstractGeometry {
 
@@ -76,4 +77,12 @@ public class MultiLineStringGeometry extends AbstractGeometry {
     public int getContains(Geometry g) {
         throw new NotImplementedException();
     }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    Rectangle2D envelope() {
+        return lineStrings.envelope();
+    }
 }
@@ -9,6 +9,7 @@ package com.bc.util.geom;
 import com.bc.util.NotImplementedException;
 
 import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
 
 
 public class MultiPointGeometry extends AbstractGeometry {
@@ -77,4 +78,12 @@ public class MultiPointGeometry extends AbstractGeometry {
     public int getContains(Geometry g) {
         throw new NotImplementedException();
     }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    Rectangle2D envelope() {
+        return points.envelope();
+    }
 }
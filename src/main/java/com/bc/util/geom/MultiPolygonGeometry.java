@@ -7,6 +7,7 @@
 package com.bc.util.geom;
 
 import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
 
 public class MultiPolygonGeometry extends AbstractGeometry {
 
@@ -70,6 +71,11 @@ public class MultiPolygonGeometry extends AbstractGeometry {
 
     // @todo - 2 nf/nf write test for this
     public int getDisjoint(Geometry g) {
+        final Rectangle2D e1 = envelope();
+        final Rectangle2D e2 = g != null ? envelopeOf(g) : null;
+        if (e1 != null && e2 != null && !intersects(e1, e2)) {
+            return TRUE;
+        }
         PolygonGeometry polygon;
         int status;
         for (int i = 0; i < getPolygonCount(); i++) {
@@ -86,6 +92,11 @@ public class MultiPolygonGeometry extends AbstractGeometry {
 
     // @todo - 2 nf/nf write test for this
     public int getContains(Geometry g) {
+        final Rectangle2D e1 = envelope();
+        final Rectangle2D e2 = g != null ? envelopeOf(g) : null;
+        if (e1 != null && e2 != null && !covers(e1, e2)) {
+            return FALSE;
+        }
         PolygonGeometry polygon;
         int status;
         for (int i = 0; i < getPolygonCount(); i++) {
@@ -99,4 +110,15 @@ public class MultiPolygonGeometry extends AbstractGeometry {
         }
         return FALSE;
     }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the envelope cached by the collection of polygons, which is updated when a polygon is added or removed
+     */
+    Rectangle2D envelope() {
+        return polygons.envelope();
+    }
 }
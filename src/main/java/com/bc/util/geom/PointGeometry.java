@@ -9,6 +9,7 @@ package com.bc.util.geom;
 import java.awt.Shape;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 
 public class PointGeometry extends AbstractGeometry {
 
@@ -85,6 +86,8 @@ public class PointGeometry extends AbstractGeometry {
                 return TRUE;
             }
             return status;
+        } else if (g instanceof ShapeGeometry) {
+            return ((ShapeGeometry) g).containsPoint(getX(), getY()) ? FALSE : TRUE;
         } else {
             return g.getAsShape().contains(getX(), getY()) ? FALSE : TRUE;
         }
@@ -101,4 +104,12 @@ public class PointGeometry extends AbstractGeometry {
         }
         return false;
     }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    Rectangle2D envelope() {
+        return new Rectangle2D.Double(getX(), getY(), 0.0, 0.0);
+    }
 }
@@ -15,6 +15,18 @@ public class PolygonGeometry extends ShapeGeometry {
         super(shape);
     }
 
+    /**
+     * Creates a polygon from a coordinate sequence. The first ring is the exterior ring, all others are holes.
+     *
+     * @param coordinates the coordinates, must not be null and must be closed
+     */
+    public PolygonGeometry(CoordinateSequence coordinates) {
+        super(coordinates);
+        if (!coordinates.isClosed()) {
+            throw new IllegalArgumentException("coordinates are not closed");
+        }
+    }
+
     /**
      * Creates a new polygon geometry from an array of points.
      *
@@ -59,18 +71,7 @@ public class PolygonGeometry extends ShapeGeometry {
         if (points.length < 6 || points.length % 2 != 0) {
             throw new IllegalArgumentException("illegal number of points");
         }
-        GeneralPath generalPath = new GeneralPath(GeneralPath.WIND_NON_ZERO, points.length / 2);
-        for (int i = 0; i < points.length; i += 2) {
-            float x = (float) points[i];
-            float y = (float) points[i + 1];
-            if (i == 0) {
-                generalPath.moveTo(x, y);
-            } else {
-                generalPath.lineTo(x, y);
-            }
-        }
-        generalPath.closePath();
-        return new PolygonGeometry(generalPath);
+        return new PolygonGeometry(CoordinateSequence.create(points, true));
     }
 
     public int getDimension() {
@@ -0,0 +1,547 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+/**
+ * A geometry prepared for testing many other geometries against it. The envelope, the flattened rings and an index of
+ * the edges of the prepared geometry are computed once, so the predicates do not need to construct
+ * {@link java.awt.geom.Area}s.
+ * <p/>
+ * Polygons are prepared with the winding rule of their shape. Points, polygons and multi-geometries of them are tested
+ * with the index: if the edges of the two geometries cross, they intersect and neither contains the other; if the
+ * edges do not meet at all, the relation follows from testing single vertices against the rings. If the boundaries
+ * only touch, the predicate of the wrapped geometry decides. Polygons whose rings overlap, so that an edge may have
+ * the interior on both sides, are only prepared for points and for the disjoint predicate. All other geometries are
+ * passed on to the wrapped geometry after the envelopes have been compared.
+ * <p/>
+ * The polygons of a multi-polygon are prepared one by one, and the predicates are evaluated polygon by polygon like
+ * those of the {@link MultiPolygonGeometry}. Apart from the insideness of points exactly on the boundary, the results
+ * are the ones of the wrapped geometry.
+ * <p/>
+ * A prepared geometry is immutable and can be used by several threads.
+ */
+public class PreparedGeometry extends AbstractGeometry {
+
+    private static final int MAX_BAND_COUNT = 1 << 16;
+
+    private final Geometry geometry;
+    private final Rectangle2D envelope;
+    private transient EdgeIndex index;
+    private transient PreparedGeometry[] parts;
+
+    /**
+     * @param geometry the geometry to prepare, must not be null and must not be modified afterwards
+     */
+    public PreparedGeometry(Geometry geometry) {
+        if (geometry == null) {
+            throw new IllegalArgumentException("geometry is null");
+        }
+        if (geometry instanceof PreparedGeometry) {
+            geometry = ((PreparedGeometry) geometry).geometry;
+        }
+        this.geometry = geometry;
+        final Rectangle2D e = envelopeOf(geometry);
+        this.envelope = e != null ? (Rectangle2D) e.clone() : null;
+        this.index = createIndex(geometry);
+        this.parts = createParts(geometry);
+    }
+
+    /**
+     * @return the wrapped geometry
+     */
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public PointGeometry getCenterPoint() {
+        return geometry.getCenterPoint();
+    }
+
+    public String getGeometryType() {
+        return geometry.getGeometryType();
+    }
+
+    public int getDimension() {
+        return geometry.getDimension();
+    }
+
+    public Shape getAsShape() {
+        return geometry.getAsShape();
+    }
+
+    public String getAsText() {
+        return geometry.getAsText();
+    }
+
+    public int getEquals(Geometry g) {
+        return geometry.getEquals(unwrap(g));
+    }
+
+    public int getDisjoint(Geometry g) {
+        if (g == null) {
+            return UNKNOWN;
+        }
+        g = unwrap(g);
+        final Rectangle2D e2 = envelopeOf(g);
+        if (envelope != null && e2 != null && !intersects(envelope, e2)) {
+            return TRUE;
+        }
+        if (parts != null) {
+            for (PreparedGeometry part : parts) {
+                final int status = part.getDisjoint(g);
+                if (status != TRUE) {
+                    return status;
+                }
+            }
+            return TRUE;
+        }
+        if (index == null) {
+            return geometry.getDisjoint(g);
+        }
+        if (g instanceof PointGeometry) {
+            final PointGeometry pg = (PointGeometry) g;
+            return index.contains(pg.getX(), pg.getY()) ? FALSE : TRUE;
+        } else if (g instanceof ShapeGeometry && g.getDimension() == 2) {
+            final ShapeGeometry sg = (ShapeGeometry) g;
+            final CoordinateSequence cs = sg.getCoordinates();
+            if (cs.getPointCount() == 0) {
+                return geometry.getDisjoint(g);
+            }
+            final int edges = index.intersectEdges(cs);
+            if (edges == PROPER) {
+                return FALSE;
+            } else if (edges == TOUCH) {
+                return geometry.getDisjoint(g);
+            }
+            // without contact of the boundaries, one geometry either contains a vertex of the other or none
+            if (index.contains(cs.getX(0), cs.getY(0)) || index.hasVertexIn(sg)) {
+                return FALSE;
+            }
+            return TRUE;
+        } else if (g instanceof MultiPolygonGeometry) {
+            final MultiPolygonGeometry mg = (MultiPolygonGeometry) g;
+            for (int i = 0; i < mg.getPolygonCount(); i++) {
+                final int status = getDisjoint(mg.getPolygon(i));
+                if (status != TRUE) {
+                    return status;
+                }
+            }
+            return TRUE;
+        } else if (g instanceof MultiPointGeometry) {
+            final MultiPointGeometry mg = (MultiPointGeometry) g;
+            for (int i = 0; i < mg.getPointCount(); i++) {
+                final int status = getDisjoint(mg.getPoint(i));
+                if (status != TRUE) {
+                    return status;
+                }
+            }
+            return TRUE;
+        }
+        return geometry.getDisjoint(g);
+    }
+
+    public int getIntersects(Geometry g) {
+        final int status = getDisjoint(g);
+        if (status == TRUE) {
+            return FALSE;
+        } else if (status == FALSE) {
+            return TRUE;
+        }
+        return UNKNOWN;
+    }
+
+    public int getContains(Geometry g) {
+        if (g == null) {
+            return UNKNOWN;
+        }
+        g = unwrap(g);
+        final Rectangle2D e2 = envelopeOf(g);
+        if (envelope != null && e2 != null && !covers(envelope, e2)) {
+            return FALSE;
+        }
+        if (parts != null) {
+            for (PreparedGeometry part : parts) {
+                final int status = part.getContains(g);
+                if (status != FALSE) {
+                    return status;
+                }
+            }
+            return FALSE;
+        }
+        if (index == null) {
+            return geometry.getContains(g);
+        }
+        if (g instanceof PointGeometry) {
+            final PointGeometry pg = (PointGeometry) g;
+            return index.contains(pg.getX(), pg.getY()) ? TRUE : FALSE;
+        } else if (g instanceof ShapeGeometry && g.getDimension() == 2) {
+            if (!index.simple) {
+                return geometry.getContains(g);
+            }
+            final ShapeGeometry sg = (ShapeGeometry) g;
+            final CoordinateSequence cs = sg.getCoordinates();
+            if (cs.getPointCount() == 0) {
+                return geometry.getContains(g);
+            }
+            final int edges = index.intersectEdges(cs);
+            if (edges == PROPER) {
+                return FALSE;
+            } else if (edges == TOUCH) {
+                return geometry.getContains(g);
+            }
+            // without contact of the boundaries, the other geometry is contained if one of its vertices is inside,
+            // and if none of the rings of this geometry, e.g. a hole, lies inside of it
+            if (index.contains(cs.getX(0), cs.getY(0)) && !index.hasVertexIn(sg)) {
+                return TRUE;
+            }
+            return FALSE;
+        } else if (g instanceof MultiPolygonGeometry && index.simple) {
+            // a single polygon contains a multi-polygon if it contains all of its polygons
+            final MultiPolygonGeometry mg = (MultiPolygonGeometry) g;
+            for (int i = 0; i < mg.getPolygonCount(); i++) {
+                final int status = getContains(mg.getPolygon(i));
+                if (status != TRUE) {
+                    return status;
+                }
+            }
+            return mg.getPolygonCount() > 0 ? TRUE : geometry.getContains(g);
+        }
+        return geometry.getContains(g);
+    }
+
+    public int getWithin(Geometry g) {
+        if (g == null) {
+            return UNKNOWN;
+        }
+        return unwrap(g).getContains(geometry);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private static final int NONE = 0;
+    private static final int TOUCH = 1;
+    private static final int PROPER = 2;
+
+    Rectangle2D envelope() {
+        return envelope;
+    }
+
+    private static Geometry unwrap(Geometry g) {
+        return g instanceof PreparedGeometry ? ((PreparedGeometry) g).geometry : g;
+    }
+
+    /**
+     * Creates the index of the rings of a polygon.
+     *
+     * @return the index, or null if the geometry is not prepared
+     */
+    private static EdgeIndex createIndex(Geometry geometry) {
+        if (geometry instanceof ShapeGeometry && geometry.getDimension() == 2) {
+            final ShapeGeometry sg = (ShapeGeometry) geometry;
+            final CoordinateSequence cs = sg.getCoordinates();
+            if (cs.getPointCount() == 0) {
+                return null;
+            }
+            // the coordinates do not keep the winding rule of the shape a geometry has been created from
+            final boolean evenOdd = sg.isShapeBased() &&
+                                    sg.getShape().getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD;
+            return new EdgeIndex(cs.coordinates, cs.ringOffsets, evenOdd);
+        }
+        return null;
+    }
+
+    /**
+     * Prepares the polygons of a multi-polygon.
+     *
+     * @return the prepared polygons, or null if the geometry is not a multi-polygon
+     */
+    private static PreparedGeometry[] createParts(Geometry geometry) {
+        if (geometry instanceof MultiPolygonGeometry) {
+            final MultiPolygonGeometry mg = (MultiPolygonGeometry) geometry;
+            final PreparedGeometry[] parts = new PreparedGeometry[mg.getPolygonCount()];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new PreparedGeometry(mg.getPolygon(i));
+            }
+            return parts;
+        }
+        return null;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        index = createIndex(geometry);
+        parts = createParts(geometry);
+    }
+
+    /**
+     * An index of the edges of closed rings. The envelope is cut into horizontal bands of equal height, and each band
+     * lists the edges whose y-range overlaps it. A point is tested with the edges of its band only, an edge with the
+     * edges of the bands overlapped by its y-range.
+     * <p/>
+     * The rings are simple if every edge separates the interior from the exterior. With the non-zero winding rule
+     * this is not the case if rings cross each other, or if a ring lies inside another ring of the same orientation.
+     */
+    private static final class EdgeIndex {
+
+        private final double[] coordinates;
+        private final int[] ringOffsets;
+        private final boolean evenOdd;
+        private final boolean simple;
+        /**
+         * The edges as x0, y0, x1, y1, for each ring beginning with the edge closing it.
+         */
+        private final double[] edges;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+        private final int bandCount;
+        private final double bandScale;
+        private final int[] bandStarts;
+        private final int[] bandEdges;
+
+        EdgeIndex(double[] coordinates, int[] ringOffsets, boolean evenOdd) {
+            this.coordinates = coordinates;
+            this.ringOffsets = ringOffsets;
+            this.evenOdd = evenOdd;
+            final int edgeCount = coordinates.length / 2;
+            edges = new double[4 * edgeCount];
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            int edge = 0;
+            for (int ring = 0; ring < ringOffsets.length - 1; ring++) {
+                final int start = 2 * ringOffsets[ring];
+                final int end = 2 * ringOffsets[ring + 1];
+                double x0 = coordinates[end - 2];
+                double y0 = coordinates[end - 1];
+                for (int i = start; i < end; i += 2) {
+                    final double x1 = coordinates[i];
+                    final double y1 = coordinates[i + 1];
+                    edges[edge++] = x0;
+                    edges[edge++] = y0;
+                    edges[edge++] = x1;
+                    edges[edge++] = y1;
+                    minX = Math.min(minX, x1);
+                    minY = Math.min(minY, y1);
+                    maxX = Math.max(maxX, x1);
+                    maxY = Math.max(maxY, y1);
+                    x0 = x1;
+                    y0 = y1;
+                }
+            }
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            bandCount = maxY > minY ? Math.max(1, Math.min(edgeCount, MAX_BAND_COUNT)) : 1;
+            bandScale = maxY > minY ? bandCount / (maxY - minY) : 0.0;
+
+            // count the edges of each band, then fill the bands
+            bandStarts = new int[bandCount + 1];
+            for (int i = 0; i < edges.length; i += 4) {
+                final int last = getBand(Math.max(edges[i + 1], edges[i + 3]));
+                for (int band = getBand(Math.min(edges[i + 1], edges[i + 3])); band <= last; band++) {
+                    bandStarts[band + 1]++;
+                }
+            }
+            for (int band = 0; band < bandCount; band++) {
+                bandStarts[band + 1] += bandStarts[band];
+            }
+            bandEdges = new int[bandStarts[bandCount]];
+            final int[] fill = new int[bandCount];
+            for (int i = 0; i < edges.length; i += 4) {
+                final int last = getBand(Math.max(edges[i + 1], edges[i + 3]));
+                for (int band = getBand(Math.min(edges[i + 1], edges[i + 3])); band <= last; band++) {
+                    bandEdges[bandStarts[band] + fill[band]++] = i;
+                }
+            }
+            simple = evenOdd || isSimple();
+        }
+
+        /**
+         * Tests whether a point is inside the rings, with the same crossing rule as
+         * {@link CoordinateSequence#contains(double, double)} and the winding rule of the prepared geometry.
+         */
+        boolean contains(double x, double y) {
+            if (!(x >= minX && x <= maxX && y >= minY && y <= maxY)) {
+                return false;
+            }
+            final int crossings = getCrossings(x, y, 0, 0);
+            return evenOdd ? (crossings & 1) != 0 : crossings != 0;
+        }
+
+        /**
+         * Counts the signed crossings of a ray from the given point in direction of the positive x-axis with the edges,
+         * excluding the edges in the given range.
+         */
+        private int getCrossings(double x, double y, int excludedStart, int excludedEnd) {
+            final int band = getBand(y);
+            int crossings = 0;
+            for (int i = bandStarts[band]; i < bandStarts[band + 1]; i++) {
+                final int edge = bandEdges[i];
+                if (edge >= excludedStart && edge < excludedEnd) {
+                    continue;
+                }
+                final double x0 = edges[edge];
+                final double y0 = edges[edge + 1];
+                final double x1 = edges[edge + 2];
+                final double y1 = edges[edge + 3];
+                if ((y < y0 || y < y1) && (y >= y0 || y >= y1) && (x < x0 || x < x1)) {
+                    if (x < x0 && x < x1 || x < x0 + (y - y0) * (x1 - x0) / (y1 - y0)) {
+                        crossings += y0 < y1 ? 1 : -1;
+                    }
+                }
+            }
+            return crossings;
+        }
+
+        /**
+         * Tests with the non-zero winding rule whether every edge separates the interior from the exterior. This is
+         * the case if no two edges cross, and if for each ring the winding number of the other rings at its first
+         * vertex is zero outside or inside of the ring.
+         */
+        private boolean isSimple() {
+            for (int i = 0; i < edges.length; i += 4) {
+                if (intersectEdge(edges[i], edges[i + 1], edges[i + 2], edges[i + 3]) == PROPER) {
+                    return false;
+                }
+            }
+            for (int ring = 0; ring < ringOffsets.length - 1; ring++) {
+                final int start = 4 * ringOffsets[ring];
+                final int end = 4 * ringOffsets[ring + 1];
+                // the doubled signed area, positive for rings with a winding number of +1 inside
+                double area = 0.0;
+                for (int i = start; i < end; i += 4) {
+                    area += edges[i] * edges[i + 3] - edges[i + 2] * edges[i + 1];
+                }
+                if (area == 0.0) {
+                    continue;
+                }
+                final int winding = getCrossings(edges[start + 2], edges[start + 3], start, end);
+                if (winding != 0 && winding + (area > 0 ? 1 : -1) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Tests the edges of the closed rings of a sequence against the indexed edges.
+         *
+         * @return {@link #PROPER} if two edges cross, otherwise {@link #TOUCH} if two edges meet, otherwise
+         *         {@link #NONE}
+         */
+        int intersectEdges(CoordinateSequence cs) {
+            final double[] c = cs.coordinates;
+            int result = NONE;
+            for (int ring = 0; ring < cs.getRingCount(); ring++) {
+                final int start = 2 * cs.ringOffsets[ring];
+                final int end = 2 * cs.ringOffsets[ring + 1];
+                double ax = c[end - 2];
+                double ay = c[end - 1];
+                for (int i = start; i < end; i += 2) {
+                    final double bx = c[i];
+                    final double by = c[i + 1];
+                    final int r = intersectEdge(ax, ay, bx, by);
+                    if (r == PROPER) {
+                        return PROPER;
+                    }
+                    result = Math.max(result, r);
+                    ax = bx;
+                    ay = by;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Tests whether the first vertex of one of the indexed rings is inside the given geometry.
+         */
+        boolean hasVertexIn(ShapeGeometry g) {
+            for (int ring = 0; ring < ringOffsets.length - 1; ring++) {
+                final int i = 2 * ringOffsets[ring];
+                if (g.containsPoint(coordinates[i], coordinates[i + 1])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int intersectEdge(double ax, double ay, double bx, double by) {
+            final double sMinX = Math.min(ax, bx);
+            final double sMaxX = Math.max(ax, bx);
+            final double sMinY = Math.min(ay, by);
+            final double sMaxY = Math.max(ay, by);
+            if (sMaxX < minX || sMinX > maxX || sMaxY < minY || sMinY > maxY) {
+                return NONE;
+            }
+            int result = NONE;
+            final int lastBand = getBand(sMaxY);
+            for (int band = getBand(sMinY); band <= lastBand; band++) {
+                for (int i = bandStarts[band]; i < bandStarts[band + 1]; i++) {
+                    final int edge = bandEdges[i];
+                    final double px = edges[edge];
+                    final double py = edges[edge + 1];
+                    final double qx = edges[edge + 2];
+                    final double qy = edges[edge + 3];
+                    if (Math.max(px, qx) < sMinX || Math.min(px, qx) > sMaxX ||
+                        Math.max(py, qy) < sMinY || Math.min(py, qy) > sMaxY) {
+                        continue;
+                    }
+                    final int r = intersectSegments(ax, ay, bx, by, px, py, qx, qy);
+                    if (r == PROPER) {
+                        return PROPER;
+                    }
+                    result = Math.max(result, r);
+                }
+            }
+            return result;
+        }
+
+        private int getBand(double y) {
+            final int band = (int) ((y - minY) * bandScale);
+            return band < 0 ? 0 : band >= bandCount ? bandCount - 1 : band;
+        }
+
+        /**
+         * Classifies the intersection of two segments whose bounding boxes overlap.
+         */
+        private static int intersectSegments(double ax, double ay, double bx, double by,
+                                             double px, double py, double qx, double qy) {
+            final double d1 = orientation(px, py, qx, qy, ax, ay);
+            final double d2 = orientation(px, py, qx, qy, bx, by);
+            final double d3 = orientation(ax, ay, bx, by, px, py);
+            final double d4 = orientation(ax, ay, bx, by, qx, qy);
+            if ((d1 > 0 && d2 < 0 || d1 < 0 && d2 > 0) && (d3 > 0 && d4 < 0 || d3 < 0 && d4 > 0)) {
+                return PROPER;
+            }
+            if (d1 == 0 && isInBox(ax, ay, px, py, qx, qy) || d2 == 0 && isInBox(bx, by, px, py, qx, qy) ||
+                d3 == 0 && isInBox(px, py, ax, ay, bx, by) || d4 == 0 && isInBox(qx, qy, ax, ay, bx, by)) {
+                return TOUCH;
+            }
+            return NONE;
+        }
+
+        private static double orientation(double x0, double y0, double x1, double y1, double x, double y) {
+            return (x1 - x0) * (y - y0) - (y1 - y0) * (x - x0);
+        }
+
+        private static boolean isInBox(double x, double y, double x0, double y0, double x1, double y1) {
+            return x >= Math.min(x0, x1) && x <= Math.max(x0, x1) && y >= Math.min(y0, y1) && y <= Math.max(y0, y1);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dynamic R-tree, which allows items to be inserted and removed at any time. Items are inserted into the subtree
+ * whose envelope needs the least enlargement, overflowing nodes are split with the quadratic split of Guttman.
+ * Nodes which underflow after a removal are dissolved and their children are inserted again at their own level.
+ * <p/>
+ * If all items are known in advance, an {@link STRtree} gives better query performance. The tree is not
+ * thread-safe.
+ */
+public class RTree<T> extends AbstractRTree<T> {
+
+    private final int minNodeCapacity;
+    private Node root;
+
+    public RTree() {
+        this(DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * @param nodeCapacity the maximum number of children of a node, must be at least 4
+     */
+    public RTree(int nodeCapacity) {
+        super(nodeCapacity);
+        this.minNodeCapacity = Math.max(2, (2 * nodeCapacity) / 5);
+        this.root = new Node(true, nodeCapacity);
+    }
+
+    /**
+     * Inserts an item.
+     *
+     * @param geometry the geometry of the item, must not be null or empty
+     * @param item     the item
+     */
+    public void insert(Geometry geometry, T item) {
+        insert(createEntry(geometry, item));
+        size++;
+    }
+
+    /**
+     * Removes an item. The item is found by its envelope, so the geometry passed in must have the same envelope as
+     * the geometry the item has been inserted with.
+     *
+     * @param geometry the geometry of the item, must not be null
+     * @param item     the item
+     *
+     * @return true, if the item has been found and removed
+     */
+    public boolean remove(Geometry geometry, T item) {
+        if (geometry == null) {
+            throw new IllegalArgumentException("geometry is null");
+        }
+        final Rectangle2D e = AbstractGeometry.envelopeOf(geometry);
+        if (e == null) {
+            return false;
+        }
+        final Entry key = new Entry(geometry, item, e);
+        final List<Node> path = new ArrayList<Node>();
+        if (!findLeaf(root, key, path)) {
+            return false;
+        }
+        final Node leaf = path.get(path.size() - 1);
+        for (int i = 0; i < leaf.count; i++) {
+            final Entry entry = (Entry) leaf.children[i];
+            if (matches(entry, key)) {
+                leaf.remove(i);
+                break;
+            }
+        }
+        condense(path);
+        size--;
+        return true;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    Node root() {
+        return root;
+    }
+
+    private void insert(Entry entry) {
+        insert(entry, 1);
+    }
+
+    /**
+     * Inserts an entry or a subtree into a node of the given height, where leaves have the height 1. If the tree is
+     * not high enough for a subtree, its children are inserted instead.
+     */
+    private void insert(Bounded child, int height) {
+        final int rootHeight = getHeight();
+        if (height > rootHeight) {
+            final Node subtree = (Node) child;
+            for (int i = 0; i < subtree.count; i++) {
+                insert(subtree.children[i], height - 1);
+            }
+            return;
+        }
+        final List<Node> path = new ArrayList<Node>();
+        Node node = root;
+        for (int h = rootHeight; h > height; h--) {
+            path.add(node);
+            node = chooseSubtree(node, child);
+        }
+        node.add(child);
+        Node split = node.count > nodeCapacity ? split(node) : null;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            final Node parent = path.get(i);
+            parent.include(child);
+            if (split != null) {
+                parent.add(split);
+                split = parent.count > nodeCapacity ? split(parent) : null;
+            }
+        }
+        if (split != null) {
+            final Node newRoot = new Node(false, nodeCapacity);
+            newRoot.add(root);
+            newRoot.add(split);
+            root = newRoot;
+        }
+    }
+
+    private static Node chooseSubtree(Node node, Bounded b) {
+        Node best = null;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < node.count; i++) {
+            final Node child = (Node) node.children[i];
+            final double area = child.getArea();
+            final double enlargement = child.getUnionArea(b) - area;
+            if (enlargement < bestEnlargement || enlargement == bestEnlargement && area < bestArea) {
+                best = child;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits an overflowing node with the quadratic split of Guttman. The node keeps one group of children, the other
+     * group is moved to a new sibling.
+     *
+     * @return the new sibling
+     */
+    private Node split(Node node) {
+        final Bounded[] children = new Bounded[node.count];
+        System.arraycopy(node.children, 0, children, 0, node.count);
+        node.clear();
+
+        // the seeds are the pair of children which would waste the most area in a common node
+        int seed1 = 0;
+        int seed2 = 1;
+        double maxWaste = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < children.length; i++) {
+            for (int j = i + 1; j < children.length; j++) {
+                final double waste = children[i].getUnionArea(children[j]) - children[i].getArea() -
+                                     children[j].getArea();
+                if (waste > maxWaste) {
+                    seed1 = i;
+                    seed2 = j;
+                    maxWaste = waste;
+                }
+            }
+        }
+        final Node sibling = new Node(node.leaf, nodeCapacity);
+        node.add(children[seed1]);
+        sibling.add(children[seed2]);
+        final boolean[] assigned = new boolean[children.length];
+        assigned[seed1] = true;
+        assigned[seed2] = true;
+
+        int remaining = children.length - 2;
+        while (remaining > 0) {
+            if (node.count + remaining == minNodeCapacity || sibling.count + remaining == minNodeCapacity) {
+                final Node group = node.count + remaining == minNodeCapacity ? node : sibling;
+                for (int i = 0; i < children.length; i++) {
+                    if (!assigned[i]) {
+                        group.add(children[i]);
+                    }
+                }
+                break;
+            }
+            // the next child is the one with the greatest preference for one of the groups
+            int next = -1;
+            double maxDifference = Double.NEGATIVE_INFINITY;
+            double nextEnlargement1 = 0.0;
+            double nextEnlargement2 = 0.0;
+            for (int i = 0; i < children.length; i++) {
+                if (!assigned[i]) {
+                    final double enlargement1 = node.getUnionArea(children[i]) - node.getArea();
+                    final double enlargement2 = sibling.getUnionArea(children[i]) - sibling.getArea();
+                    final double difference = Math.abs(enlargement1 - enlargement2);
+                    if (difference > maxDifference) {
+                        next = i;
+                        maxDifference = difference;
+                        nextEnlargement1 = enlargement1;
+                        nextEnlargement2 = enlargement2;
+                    }
+                }
+            }
+            final Node group;
+            if (nextEnlargement1 != nextEnlargement2) {
+                group = nextEnlargement1 < nextEnlargement2 ? node : sibling;
+            } else if (node.getArea() != sibling.getArea()) {
+                group = node.getArea() < sibling.getArea() ? node : sibling;
+            } else {
+                group = node.count <= sibling.count ? node : sibling;
+            }
+            group.add(children[next]);
+            assigned[next] = true;
+            remaining--;
+        }
+        return sibling;
+    }
+
+    private static boolean findLeaf(Node node, Entry key, List<Node> path) {
+        path.add(node);
+        for (int i = 0; i < node.count; i++) {
+            final Bounded child = node.children[i];
+            if (node.leaf) {
+                if (matches((Entry) child, key)) {
+                    return true;
+                }
+            } else if (child.covers(key) && findLeaf((Node) child, key, path)) {
+                return true;
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    private static boolean matches(Entry entry, Entry key) {
+        return entry.minX == key.minX && entry.minY == key.minY && entry.maxX == key.maxX && entry.maxY == key.maxY &&
+               (entry.item == null ? key.item == null : entry.item.equals(key.item));
+    }
+
+    /**
+     * Dissolves the underflowing nodes on the path to a leaf an entry has been removed from, and shrinks the envelopes
+     * of the others. The children of dissolved nodes, entries or subtrees, are inserted again into nodes of the height
+     * of the dissolved node, higher subtrees first.
+     */
+    private void condense(List<Node> path) {
+        final List<Bounded> orphans = new ArrayList<Bounded>();
+        final List<Integer> orphanHeights = new ArrayList<Integer>();
+        for (int i = path.size() - 1; i > 0; i--) {
+            final Node node = path.get(i);
+            if (node.count < minNodeCapacity) {
+                final Node parent = path.get(i - 1);
+                for (int j = 0; j < parent.count; j++) {
+                    if (parent.children[j] == node) {
+                        parent.remove(j);
+                        break;
+                    }
+                }
+                for (int j = 0; j < node.count; j++) {
+                    orphans.add(node.children[j]);
+                    orphanHeights.add(path.size() - i);
+                }
+            } else {
+                node.updateBounds();
+            }
+        }
+        root.updateBounds();
+        while (!root.leaf && root.count == 1) {
+            root = (Node) root.children[0];
+        }
+        if (root.count == 0) {
+            root = new Node(true, nodeCapacity);
+        }
+        for (int i = orphans.size() - 1; i >= 0; i--) {
+            insert(orphans.get(i), orphanHeights.get(i));
+        }
+    }
+}
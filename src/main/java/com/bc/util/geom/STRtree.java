@@ -0,0 +1,125 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A static R-tree, bulk loaded with the Sort-Tile-Recursive (STR) algorithm. Items are added with
+ * {@link #add(Geometry, Object)} and the tree is built once, either by calling {@link #build()} or by the first query.
+ * No items can be added afterwards; use an {@link RTree} if items have to be inserted or removed at any time.
+ * <p/>
+ * STR sorts the envelopes by the x-coordinate of their center, cuts them into vertical slices and packs each slice,
+ * sorted by the y-coordinate of the center, into full nodes. The same is repeated for the nodes of each level up to
+ * the root. The resulting tree has nodes filled to capacity and little overlap, so it is smaller and faster to query
+ * than a tree built by inserting the items one by one.
+ * <p/>
+ * Once built, the tree may be queried concurrently by several threads.
+ */
+public class STRtree<T> extends AbstractRTree<T> {
+
+    private static final Comparator<Bounded> X_ORDER = new Comparator<Bounded>() {
+        public int compare(Bounded b1, Bounded b2) {
+            return Double.compare(b1.minX + b1.maxX, b2.minX + b2.maxX);
+        }
+    };
+    private static final Comparator<Bounded> Y_ORDER = new Comparator<Bounded>() {
+        public int compare(Bounded b1, Bounded b2) {
+            return Double.compare(b1.minY + b1.maxY, b2.minY + b2.maxY);
+        }
+    };
+
+    private Bounded[] entries;
+    private volatile Node root;
+
+    public STRtree() {
+        this(DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * @param nodeCapacity the maximum number of children of a node, must be at least 4
+     */
+    public STRtree(int nodeCapacity) {
+        super(nodeCapacity);
+        this.entries = new Bounded[64];
+    }
+
+    /**
+     * Adds an item to the tree.
+     *
+     * @param geometry the geometry of the item, must not be null or empty
+     * @param item     the item
+     *
+     * @throws IllegalStateException if the tree has already been built
+     */
+    public synchronized void add(Geometry geometry, T item) {
+        if (root != null) {
+            throw new IllegalStateException("tree has already been built");
+        }
+        final Entry entry = createEntry(geometry, item);
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, 2 * size);
+        }
+        entries[size++] = entry;
+    }
+
+    /**
+     * Builds the tree, if not already done.
+     */
+    public synchronized void build() {
+        if (root != null) {
+            return;
+        }
+        Bounded[] level = Arrays.copyOf(entries, size);
+        entries = null;
+        boolean leaf = true;
+        while (level.length > nodeCapacity) {
+            level = pack(level, leaf);
+            leaf = false;
+        }
+        final Node node = new Node(leaf, nodeCapacity);
+        for (Bounded child : level) {
+            node.add(child);
+        }
+        root = node;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    Node root() {
+        final Node node = root;
+        if (node == null) {
+            build();
+            return root;
+        }
+        return node;
+    }
+
+    private Node[] pack(Bounded[] children, boolean leaf) {
+        final int nodeCount = (children.length + nodeCapacity - 1) / nodeCapacity;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        final int sliceSize = ((nodeCount + sliceCount - 1) / sliceCount) * nodeCapacity;
+        final Node[] nodes = new Node[nodeCount];
+        int nodeIndex = 0;
+        Arrays.sort(children, X_ORDER);
+        for (int sliceStart = 0; sliceStart < children.length; sliceStart += sliceSize) {
+            final int sliceEnd = Math.min(children.length, sliceStart + sliceSize);
+            Arrays.sort(children, sliceStart, sliceEnd, Y_ORDER);
+            for (int i = sliceStart; i < sliceEnd; i += nodeCapacity) {
+                final Node node = new Node(leaf, nodeCapacity);
+                for (int j = i; j < Math.min(sliceEnd, i + nodeCapacity); j++) {
+                    node.add(children[j]);
+                }
+                nodes[nodeIndex++] = node;
+            }
+        }
+        return nodes;
+    }
+}
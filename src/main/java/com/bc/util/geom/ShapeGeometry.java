@@ -12,22 +12,86 @@ import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.RectangularShape;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 
+/**
+ * A geometry given by a {@link CoordinateSequence} or by a {@link Shape}.
+ * <p/>
+ * Geometries created from coordinates store them in double precision and derive an immutable shape only when
+ * {@link #getAsShape()} is called. Geometries created from a shape keep the shape and derive the coordinates only when
+ * {@link #getCoordinates()} is called.
+ */
 public abstract class ShapeGeometry extends AbstractGeometry {
 
     private final transient Shape shape;
+    private CoordinateSequence coordinates;
+    private transient Shape coordinateShape;
+    private final Rectangle2D envelope;
+    private final boolean rectangle;
     public static final double EPS = 1e-5;
 
+    /**
+     * Creates a geometry from a shape. The envelope of the geometry is computed from the shape, which therefore must
+     * not be modified afterwards.
+     *
+     * @param shape the shape
+     */
     protected ShapeGeometry(Shape shape) {
         this.shape = shape;
+        this.envelope = shape != null ? shape.getBounds2D() : null;
+        this.rectangle = shape instanceof Rectangle2D;
+    }
+
+    protected ShapeGeometry(CoordinateSequence coordinates) {
+        if (coordinates == null) {
+            throw new IllegalArgumentException("coordinates is null");
+        }
+        this.shape = null;
+        this.coordinates = coordinates;
+        this.envelope = coordinates.getPointCount() > 0 ? coordinates.getBounds() : null;
+        this.rectangle = isRectangle(coordinates);
     }
 
     public PointGeometry getCenterPoint() {
-        final Rectangle2D bounds2D = shape.getBounds2D();
+        final Rectangle2D bounds2D = envelope != null ? envelope : new Rectangle2D.Double();
         return new PointGeometry(bounds2D.getCenterX(), bounds2D.getCenterY());
     }
 
+    /**
+     * Gets the coordinates of this geometry. If the geometry has been created from a shape, the coordinates are
+     * derived from the shape.
+     *
+     * @return the coordinates
+     */
+    public CoordinateSequence getCoordinates() {
+        CoordinateSequence c = coordinates;
+        if (c == null) {
+            c = CoordinateSequence.create(shape, isClosed());
+            coordinates = c;
+        }
+        return c;
+    }
+
+    /**
+     * Gets the shape of this geometry. The shape of a geometry created from coordinates is immutable and therefore
+     * not copied, the shape a geometry has been created from is copied if it is a {@link RectangularShape} or a
+     * {@link GeneralPath}.
+     *
+     * @return the shape
+     */
     public Shape getAsShape() {
+        if (shape == null) {
+            if (coordinates == null) {
+                return null;
+            }
+            Shape s = coordinateShape;
+            if (s == null) {
+                s = coordinates.createShape();
+                coordinateShape = s;
+            }
+            return s;
+        }
         if (shape instanceof RectangularShape) {
             return (Shape) ((RectangularShape) shape).clone();
         } else if (shape instanceof GeneralPath) {
@@ -45,16 +109,18 @@ public abstract class ShapeGeometry extends AbstractGeometry {
             return FALSE;
         } else if (g instanceof ShapeGeometry) {
             final ShapeGeometry sg = (ShapeGeometry) g;
-            if (shape.equals(sg.shape)) {
+            if (shape != null ? shape.equals(sg.shape) : coordinates.equals(sg.coordinates)) {
                 return TRUE;
             }
             //
             // test if path iterators are equal
             //
-            final PathIterator p1 = shape.getPathIterator(null);
-            final PathIterator p2 = sg.shape.getPathIterator(null);
-            final float[] c1 = new float[6];
-            final float[] c2 = new float[6];
+            final Shape shape1 = getShape();
+            final Shape shape2 = sg.getShape();
+            final PathIterator p1 = shape1.getPathIterator(null);
+            final PathIterator p2 = shape2.getPathIterator(null);
+            final double[] c1 = new double[6];
+            final double[] c2 = new double[6];
             int s1, s2;
             double dx, dy;
             boolean done = false;
@@ -89,8 +155,8 @@ public abstract class ShapeGeometry extends AbstractGeometry {
             // and we compare the areas
             //
             if (getDimension() == 2) {
-                final Area a1 = new Area(shape);
-                final Area a2 = new Area(sg.shape);
+                final Area a1 = new Area(shape1);
+                final Area a2 = new Area(shape2);
                 return a1.equals(a2) ? TRUE : FALSE;
             }
             return FALSE;
@@ -98,19 +164,37 @@ public abstract class ShapeGeometry extends AbstractGeometry {
         return FALSE;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Geometries with disjoint envelopes are disjoint without further computation. Points are tested directly on the
+     * coordinates, and rectangles are tested without constructing areas.
+     */
     public int getDisjoint(Geometry g) {
         if (g == null) {
             return UNKNOWN;
         }
-        final Shape s1 = getAsShape();
+        final Shape s1 = getShape();
         if (s1 == null) {
             return UNKNOWN;
         }
+        final Rectangle2D e2 = envelopeOf(g);
+        if (envelope != null && e2 != null && !intersects(envelope, e2)) {
+            return TRUE;
+        }
         if (g instanceof PointGeometry) {
             PointGeometry pg = (PointGeometry) g;
-            return s1.contains(pg.getX(), pg.getY()) ? FALSE : TRUE;
+            return containsPoint(pg.getX(), pg.getY()) ? FALSE : TRUE;
         } else {
-            final Shape s2 = g.getAsShape();
+            if (g instanceof ShapeGeometry && getDimension() == 2 && g.getDimension() == 2) {
+                final ShapeGeometry sg = (ShapeGeometry) g;
+                if (sg.rectangle) {
+                    return s1.intersects(sg.envelope) ? FALSE : TRUE;
+                } else if (rectangle) {
+                    return sg.getShape().intersects(envelope) ? FALSE : TRUE;
+                }
+            }
+            final Shape s2 = g instanceof ShapeGeometry ? ((ShapeGeometry) g).getShape() : g.getAsShape();
             if (s2 == null) {
                 return UNKNOWN;
             }
@@ -121,22 +205,108 @@ public abstract class ShapeGeometry extends AbstractGeometry {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * A geometry whose envelope is not covered by the envelope of this geometry is not contained without further
+     * computation. Points are tested directly on the coordinates, and rectangles are tested without constructing
+     * areas.
+     */
     public int getContains(Geometry g) {
         if (g == null) {
             return UNKNOWN;
         }
+        final Rectangle2D e2 = envelopeOf(g);
+        if (envelope != null && e2 != null && !covers(envelope, e2)) {
+            return FALSE;
+        }
         if (g instanceof PointGeometry) {
             final PointGeometry pg = (PointGeometry) g;
-            if (getAsShape().contains(pg.getPoint())) {
+            if (containsPoint(pg.getX(), pg.getY())) {
                 return TRUE;
             } else {
                 return FALSE;
             }
         } else {
-            final Area a1 = new Area(getAsShape());
-            final Area a2 = new Area(g.getAsShape());
+            if (rectangle && getDimension() == 2 && e2 != null) {
+                // the envelope of the other geometry is covered by this rectangle
+                return TRUE;
+            }
+            if (g instanceof ShapeGeometry && ((ShapeGeometry) g).rectangle && getDimension() == 2) {
+                return getShape().contains(e2) ? TRUE : FALSE;
+            }
+            final Area a1 = new Area(getShape());
+            final Area a2 = new Area(g instanceof ShapeGeometry ? ((ShapeGeometry) g).getShape() : g.getAsShape());
             a1.intersect(a2);
             return a1.equals(a2) ? TRUE : FALSE;
         }
     }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return true, if the rings of the geometry are closed, as they are for polygons
+     */
+    boolean isClosed() {
+        return getDimension() == 2;
+    }
+
+    /**
+     * @return true, if the geometry has been created from a shape
+     */
+    boolean isShapeBased() {
+        return shape != null;
+    }
+
+    Rectangle2D envelope() {
+        return envelope;
+    }
+
+    /**
+     * @return true, if the geometry is an axis-parallel rectangle
+     */
+    boolean isRectangle() {
+        return rectangle;
+    }
+
+    /**
+     * Tests whether a point is contained, with the insideness rules of {@link Shape#contains(double, double)}.
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     *
+     * @return true, if the point is contained
+     */
+    boolean containsPoint(double x, double y) {
+        if (envelope == null || !(x >= envelope.getMinX() && x <= envelope.getMaxX() &&
+                                  y >= envelope.getMinY() && y <= envelope.getMaxY())) {
+            return false;
+        }
+        return shape != null ? shape.contains(x, y) : coordinates.contains(x, y);
+    }
+
+    /**
+     * @return the shape without copying it
+     */
+    Shape getShape() {
+        return shape != null ? shape : getAsShape();
+    }
+
+    private static boolean isRectangle(CoordinateSequence coordinates) {
+        if (!coordinates.isClosed() || coordinates.getRingCount() != 1 || coordinates.getPointCount() != 4) {
+            return false;
+        }
+        final double[] c = coordinates.coordinates;
+        final boolean verticalFirst = c[0] == c[2] && c[3] == c[5] && c[4] == c[6] && c[7] == c[1];
+        final boolean horizontalFirst = c[1] == c[3] && c[2] == c[4] && c[5] == c[7] && c[6] == c[0];
+        return (verticalFirst || horizontalFirst) && c[0] != c[4] && c[1] != c[5];
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // the shape is not serializable, the coordinates are written instead
+        getCoordinates();
+        out.defaultWriteObject();
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+
+/**
+ * An index of items associated with geometries. The index is searched by the envelopes of the geometries, the
+ * candidates found are refined with the predicates of the {@link Geometry} interface.
+ */
+public interface SpatialIndex<T> {
+
+    /**
+     * @return the number of items in the index
+     */
+    int size();
+
+    /**
+     * @return the union of the envelopes of all geometries, or null if the index is empty
+     */
+    Rectangle2D getBounds();
+
+    /**
+     * Finds all items whose geometry envelope intersects the given window. Boundaries are included, so windows of
+     * zero width or height can be used.
+     *
+     * @param window the window, must not be null
+     *
+     * @return the items found
+     */
+    List<T> query(Rectangle2D window);
+
+    /**
+     * Finds all items whose geometry intersects the given geometry.
+     *
+     * @param g the geometry, must not be null
+     *
+     * @return the items found
+     */
+    List<T> queryIntersects(Geometry g);
+
+    /**
+     * Finds all items whose geometry is within the given geometry.
+     *
+     * @param g the geometry, must not be null
+     *
+     * @return the items found
+     */
+    List<T> queryWithin(Geometry g);
+
+    /**
+     * Finds all items whose geometry contains the given point. Only geometries of dimension 2 are considered.
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     *
+     * @return the items found
+     */
+    List<T> queryContains(double x, double y);
+
+    /**
+     * Finds the items whose geometries are nearest to the given point, ordered by increasing distance. The distance
+     * of a point inside a polygon is zero.
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @param k the maximum number of items to find, must not be negative
+     *
+     * @return the items found
+     */
+    List<T> queryNearest(double x, double y, int k);
+}
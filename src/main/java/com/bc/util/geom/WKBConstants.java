@@ -30,4 +30,11 @@ public interface WKBConstants {
   int MULTILINESTRING = 5;
   int MULTIPOLYGON = 6;
   int GEOMETRYCOLLECTION = 7;
+
+  /** EWKB flag indicating that the geometry type is followed by a spatial reference system identifier */
+  int EWKB_SRID_FLAG = 0x20000000;
+  /** EWKB flag indicating coordinates with a Z value */
+  int EWKB_Z_FLAG = 0x80000000;
+  /** EWKB flag indicating coordinates with an M value */
+  int EWKB_M_FLAG = 0x40000000;
 }
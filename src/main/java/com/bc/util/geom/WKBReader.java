@@ -16,20 +16,28 @@
  */
 package com.bc.util.geom;
 
-import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InvalidClassException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import com.bc.util.NotImplementedException;
 
 /**
  * Reads a {@link Geometry}from a byte stream in Well-Known Binary format.
  * <p>
+ * The PostGIS extended format (EWKB) is read as well: the spatial reference
+ * system identifier is available from {@link #getSRID()} after reading, and Z
+ * and M values of coordinates are skipped.
+ * <p>
+ * Line strings and polygons keep their coordinates in double precision, see
+ * {@link CoordinateSequence}.
+ * <p>
  * This class is designed to support reuse of a single instance to read multiple
  * geometries. This class is not thread-safe; each thread should create its own
  * instance.
@@ -44,8 +52,28 @@ public class WKBReader {
 
 	private final ByteBuffer bBuffer;
 
+	private int srid;
+
+	private int ordinateCount;
+
+	private double[] coordinates;
+
+	private int[] ringEnds;
+
 	public WKBReader() {
-		bBuffer = ByteBuffer.allocate(2*8);
+		bBuffer = ByteBuffer.allocate(4*8);
+		coordinates = new double[256];
+		ringEnds = new int[8];
+	}
+
+	/**
+	 * Returns the spatial reference system identifier of the last geometry
+	 * read.
+	 * 
+	 * @return the SRID, or 0 if the geometry has been read from plain WKB
+	 */
+	public int getSRID() {
+		return srid;
 	}
 
 	/**
@@ -72,19 +100,30 @@ public class WKBReader {
 	 */
 	public Geometry read(InputStream is) throws IOException {
 		this.inputStream = is;
+		this.srid = 0;
 		return readGeometry();
 	}
 
 	private Geometry readGeometry() throws IOException {
-		// determine byte order
+		// determine byte order, each (nested) geometry has its own
 		int byteOrder = inputStream.read();
-		// default is big endian
-		if (byteOrder == WKBConstants.NDR) {
-			bBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (byteOrder == -1) {
+			throw new EOFException("unexpected end of WKB data");
 		}
+		bBuffer.order(byteOrder == WKBConstants.NDR ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
 
 		int typeInt = readInt();
 		int geometryType = typeInt & 0xff;
+		if ((typeInt & WKBConstants.EWKB_SRID_FLAG) != 0) {
+			srid = readInt();
+		}
+		ordinateCount = 2;
+		if ((typeInt & WKBConstants.EWKB_Z_FLAG) != 0) {
+			ordinateCount++;
+		}
+		if ((typeInt & WKBConstants.EWKB_M_FLAG) != 0) {
+			ordinateCount++;
+		}
 
 		switch (geometryType) {
 		case WKBConstants.POINT:
@@ -111,31 +150,51 @@ public class WKBReader {
 	}
 
 	private LineStringGeometry readLineString() throws IOException {
-		return new LineStringGeometry(readLinearRing());
+		final int end = readLinearRing(0);
+		ringEnds[0] = end;
+		return new LineStringGeometry(CoordinateSequence.create(coordinates, ringEnds, end > 0 ? 1 : 0, false));
 	}
 
-	private GeneralPath readLinearRing() throws IOException {
+	/**
+	 * Reads the points of a ring into the coordinate buffer.
+	 * 
+	 * @param offset
+	 *            the index in the coordinate buffer the first x-value is
+	 *            stored at
+	 * @return the index following the last y-value stored
+	 */
+	private int readLinearRing(int offset) throws IOException {
 		final int size = readInt();
-		GeneralPath linearRing = new GeneralPath();
+		if (size < 0) {
+			throw new InvalidClassException("Invalid number of points " + size);
+		}
+		int n = offset;
 		for (int i = 0; i < size; i++) {
-			Point2D point = readPoint2D();
-			if (i == 0) {
-				linearRing.moveTo((float) point.getX(), (float) point.getY());
-			} else {
-				linearRing.lineTo((float) point.getX(), (float) point.getY());
+			if (n + 2 > coordinates.length) {
+				coordinates = Arrays.copyOf(coordinates, Math.max(n + 2, 2 * coordinates.length));
 			}
+			bBuffer.rewind();
+			readFully(ordinateCount * 8);
+			coordinates[n++] = bBuffer.getDouble();
+			coordinates[n++] = bBuffer.getDouble();
 		}
-		return linearRing;
+		return n;
 	}
 
 	private PolygonGeometry readPolygon() throws IOException {
 		int numRings = readInt();
-		GeneralPath polygon = new GeneralPath();
+		if (numRings < 0) {
+			throw new InvalidClassException("Invalid number of rings " + numRings);
+		}
+		if (ringEnds.length < numRings) {
+			ringEnds = new int[numRings];
+		}
+		int end = 0;
 		for (int i = 0; i < numRings; i++) {
-			GeneralPath ring = readLinearRing();
-			polygon.append(ring, false);
+			end = readLinearRing(end);
+			ringEnds[i] = end;
 		}
-		return new PolygonGeometry(polygon);
+		return new PolygonGeometry(CoordinateSequence.create(coordinates, ringEnds, numRings, true));
 	}
 
 	private MultiPointGeometry readMultiPoint() throws IOException {
@@ -188,7 +247,7 @@ public class WKBReader {
 
 	private Point2D readPoint2D() throws IOException {
 		bBuffer.rewind();
-		inputStream.read(bBuffer.array(), 0, 2 * 8);
+		readFully(ordinateCount * 8);
 		double x = bBuffer.getDouble();
 		double y = bBuffer.getDouble();
 		return new Point2D.Double(x, y);
@@ -196,8 +255,19 @@ public class WKBReader {
 
 	private int readInt() throws IOException {
 		bBuffer.rewind();
-		inputStream.read(bBuffer.array(), 0, 4);
+		readFully(4);
 		return bBuffer.getInt();
 	}
 
+	private void readFully(int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int n = inputStream.read(bBuffer.array(), offset, length - offset);
+			if (n == -1) {
+				throw new EOFException("unexpected end of WKB data");
+			}
+			offset += n;
+		}
+	}
+
 }
\ No newline at end of file
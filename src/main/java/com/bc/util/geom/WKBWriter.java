@@ -16,16 +16,12 @@
  */
 package com.bc.util.geom;
 
-import java.awt.Shape;
-import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
 
 
 /**
@@ -33,6 +29,9 @@ import java.util.List;
  * <p/>
  * The WKB format is specified in the OGC Simple Features for SQL specification.
  * <p/>
+ * If a spatial reference system identifier is given, the PostGIS extended
+ * format (EWKB) is written, which stores the SRID with the outermost geometry.
+ * <p/>
  * Empty Points cannot be represented in WKB; an
  * {@link IllegalArgumentException} will be thrown if one is written.
  * <p/>
@@ -49,6 +48,10 @@ public class WKBWriter {
     // holds output data values
     private final ByteBuffer bBuffer;
 
+    private final int srid;
+
+    private boolean sridPending;
+
     /**
      * Creates a writer that writes {@link Geometry}s in BIG_ENDIAN byte order
      */
@@ -62,6 +65,18 @@ public class WKBWriter {
      * @param byteOrder the byte ordering to use
      */
     public WKBWriter(ByteOrder byteOrder) {
+        this(byteOrder, 0);
+    }
+
+    /**
+     * Creates a writer that writes {@link Geometry}s in EWKB format with the given byte order and spatial reference
+     * system identifier.
+     *
+     * @param byteOrder the byte ordering to use
+     * @param srid      the SRID, or 0 to write plain WKB
+     */
+    public WKBWriter(ByteOrder byteOrder, int srid) {
+        this.srid = srid;
         bBuffer = ByteBuffer.allocate(2 * 8);
         bBuffer.order(byteOrder);
         byteArrayOS = new ByteArrayOutputStream();
@@ -94,6 +109,7 @@ public class WKBWriter {
      * @throws IOException if an I/O error occurs
      */
     public void write(Geometry geom, OutputStream os) throws IOException {
+        sridPending = srid != 0;
         if (geom instanceof PointGeometry) {
             writePoint((PointGeometry) geom, os);
         } else if (geom instanceof LineStringGeometry) {
@@ -125,25 +141,25 @@ public class WKBWriter {
             throws IOException {
         writeByteOrder(os);
         writeGeometryType(WKBConstants.LINESTRING, os);
-        List<List<Point2D>> pointListList = extractPoints(line.getAsShape());
-        if (pointListList.size() > 1) {
+        final CoordinateSequence coordinates = line.getCoordinates();
+        if (coordinates.getRingCount() > 1) {
             throw new IllegalStateException(
                     "LineString must only contain one startingpoint");
         }
-        List<Point2D> pointList = pointListList.get(0);
-        writeInt(pointList.size(), os);
-        writePointList(pointList, os);
+        writeInt(coordinates.getPointCount(), os);
+        writeRing(coordinates, 0, os);
     }
 
     private void writePolygon(PolygonGeometry poly, OutputStream os)
             throws IOException {
         writeByteOrder(os);
         writeGeometryType(WKBConstants.POLYGON, os);
-        List<List<Point2D>> pointListList = extractPoints(poly.getAsShape());
-        writeInt(pointListList.size(), os);
-        for (List<Point2D> pointList : pointListList) {
-            writeInt(pointList.size(), os);
-            writePointList(pointList, os);
+        final CoordinateSequence coordinates = poly.getCoordinates();
+        writeInt(coordinates.getRingCount(), os);
+        for (int i = 0; i < coordinates.getRingCount(); i++) {
+            // WKB rings repeat their first point
+            writeInt(coordinates.getRingOffset(i + 1) - coordinates.getRingOffset(i) + 1, os);
+            writeRing(coordinates, i, os);
         }
     }
 
@@ -200,7 +216,13 @@ public class WKBWriter {
 
     private void writeGeometryType(int geometryType, OutputStream os)
             throws IOException {
-        writeInt(geometryType, os);
+        if (sridPending) {
+            sridPending = false;
+            writeInt(geometryType | WKBConstants.EWKB_SRID_FLAG, os);
+            writeInt(srid, os);
+        } else {
+            writeInt(geometryType, os);
+        }
     }
 
     private void writeInt(int intValue, OutputStream os) throws IOException {
@@ -209,64 +231,25 @@ public class WKBWriter {
         os.write(bBuffer.array(), 0, 4);
     }
 
-    private List<List<Point2D>> extractPoints(Shape shape) {
-        float[] coords1 = new float[6];
-        float x0 = 0, y0 = 0;
-        float xi = 0, yi = 0;
-        List<Point2D> listOfPoints = new ArrayList<Point2D>();
-        List<List<Point2D>> listOfListOfPoints = new ArrayList<List<Point2D>>();
-        final PathIterator pathIterator = shape.getPathIterator(null);
-        int openCount = 0;
-        while (!pathIterator.isDone()) {
-            final int type = pathIterator.currentSegment(coords1);
-            if (type == PathIterator.SEG_MOVETO) {
-                x0 = coords1[0];
-                y0 = coords1[1];
-                if (openCount > 0) {
-                    listOfListOfPoints.add(listOfPoints);
-                    listOfPoints = new ArrayList<Point2D>();
-                    openCount--;
-                }
-                listOfPoints.add(new Point2D.Float(x0, y0));
-                openCount++;
-            } else if (type == PathIterator.SEG_LINETO) {
-                xi = coords1[0];
-                yi = coords1[1];
-                listOfPoints.add(new Point2D.Float(xi, yi));
-            } else if (type == PathIterator.SEG_CLOSE) {
-                openCount--;
-                if (x0 != xi || y0 != yi) {
-                    listOfPoints.add(new Point2D.Float(x0, y0));
-                }
-                listOfListOfPoints.add(listOfPoints);
-                listOfPoints = new ArrayList<Point2D>();
-            } else {
-                throw new IllegalStateException("unexpected segment type: "
-                                                + type);
-            }
-            pathIterator.next();
-        }
-        if (openCount > 0 && listOfPoints.size() != 0) {
-            listOfListOfPoints.add(listOfPoints);
-            openCount--;
+    private void writeRing(CoordinateSequence coordinates, int ring, OutputStream os) throws IOException {
+        final int start = coordinates.getRingCount() > 0 ? coordinates.getRingOffset(ring) : 0;
+        final int end = coordinates.getRingCount() > 0 ? coordinates.getRingOffset(ring + 1) : 0;
+        for (int i = start; i < end; i++) {
+            writeCoordinate(coordinates.getX(i), coordinates.getY(i), os);
         }
-        if (openCount != 0) {
-            throw new IllegalStateException("strange path");
+        if (coordinates.isClosed() && end > start) {
+            writeCoordinate(coordinates.getX(start), coordinates.getY(start), os);
         }
-        return listOfListOfPoints;
     }
 
-    private void writePointList(List<Point2D> pointlist, OutputStream os)
-            throws IOException {
-        for (Point2D point2D : pointlist) {
-            writePoint2D(point2D, os);
-        }
+    private void writePoint2D(Point2D point, OutputStream os) throws IOException {
+        writeCoordinate(point.getX(), point.getY(), os);
     }
 
-    private void writePoint2D(Point2D point, OutputStream os) throws IOException {
+    private void writeCoordinate(double x, double y, OutputStream os) throws IOException {
         bBuffer.rewind();
-        bBuffer.putDouble(point.getX());
-        bBuffer.putDouble(point.getY());
+        bBuffer.putDouble(x);
+        bBuffer.putDouble(y);
         os.write(bBuffer.array(), 0, 16);
     }
 }
\ No newline at end of file
@@ -0,0 +1,285 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A transaction manager which executes transactions asynchronously by means of another, blocking transaction
+ * manager. Independent transactions, e.g. several read-only queries needed by a request, can so be executed in
+ * parallel:
+ * <pre>
+ *     final CompletableFuture&lt;QueryForListTransaction&gt; users = atm.submit(new QueryForListTransaction(...));
+ *     final CompletableFuture&lt;QueryForObjectTransaction&gt; stats = atm.submit(new QueryForObjectTransaction(...));
+ *     final List userList = users.get().fetchResultList();
+ * </pre>
+ * At most {@link #getMaxConcurrency() maxConcurrency} transactions are executed at the same time, which should match
+ * the size of the connection pool. If all of them are in use, {@link #submit} blocks the calling thread until a
+ * transaction has completed or the acquire timeout has elapsed, so that callers are slowed down instead of queueing
+ * up an unbounded number of transactions.
+ * <p/>
+ * Transactions are executed by virtual threads if the Java runtime provides them, otherwise by a fixed pool of
+ * <code>maxConcurrency</code> named daemon threads, so that a manager which is not shut down does not keep the Java
+ * runtime alive. Note that transactions executed asynchronously never take part in a transaction
+ * context of the submitting thread, see {@link SimpleTransactionManager#begin()}.
+ */
+public class AsyncTransactionManager implements TransactionManager {
+
+    private final TransactionManager transactionManager;
+    private final int maxConcurrency;
+    private final long acquireTimeoutMillis;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * Constructs a new asynchronous transaction manager.
+     *
+     * @param transactionManager   the transaction manager which executes the transactions, must not be null
+     * @param maxConcurrency       the maximum number of transactions executed at the same time, must be greater than
+     *                             zero
+     * @param acquireTimeoutMillis the maximum time {@link #submit} waits for a transaction to complete if
+     *                             <code>maxConcurrency</code> transactions are being executed, a negative value to
+     *                             wait indefinitely
+     */
+    public AsyncTransactionManager(TransactionManager transactionManager, int maxConcurrency,
+                                   long acquireTimeoutMillis) {
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is null");
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be greater than zero");
+        }
+        this.transactionManager = transactionManager;
+        this.maxConcurrency = maxConcurrency;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.permits = new Semaphore(maxConcurrency, true);
+        final ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+        this.virtualThreads = virtualThreadExecutor != null;
+        this.executor = virtualThreads ? virtualThreadExecutor
+                                       : Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory());
+    }
+
+    /**
+     * Creates an asynchronous transaction manager whose concurrency matches the maximum number of active connections
+     * of the data source of the given transaction manager. If the data source is not a <code>BasicDataSource</code>
+     * or its pool is unbounded, the number of available processors is used. {@link #submit} waits indefinitely.
+     *
+     * @param transactionManager the transaction manager which executes the transactions, must not be null
+     *
+     * @return the asynchronous transaction manager
+     */
+    public static AsyncTransactionManager create(TransactionManager transactionManager) {
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is null");
+        }
+        int maxConcurrency = Runtime.getRuntime().availableProcessors();
+        final DataSource dataSource = transactionManager.getDataSource();
+        if (dataSource instanceof BasicDataSource && ((BasicDataSource) dataSource).getMaxActive() > 0) {
+            maxConcurrency = ((BasicDataSource) dataSource).getMaxActive();
+        }
+        return new AsyncTransactionManager(transactionManager, maxConcurrency, -1L);
+    }
+
+    public DataSource getDataSource() {
+        return transactionManager.getDataSource();
+    }
+
+    public TransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    /**
+     * @return true, if transactions are executed by virtual threads
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return the number of transactions currently executed
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return an estimate of the number of threads blocked in {@link #submit}
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Executes the given transaction in the calling thread.
+     *
+     * @param transaction the transaction
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void execute(Transaction transaction) throws SQLException {
+        transactionManager.execute(transaction);
+    }
+
+    /**
+     * Submits the given transaction for asynchronous execution. Blocks while the maximum number of transactions is
+     * being executed.
+     *
+     * @param transaction the transaction, must not be null
+     *
+     * @return a future which completes with the executed transaction, so that its results can be fetched, or
+     *         completes exceptionally with the <code>SQLException</code> or runtime exception thrown by the
+     *         transaction. If the acquire timeout elapses, the future completes exceptionally with a
+     *         <code>RejectedExecutionException</code>.
+     */
+    public <T extends Transaction> CompletableFuture<T> submit(final T transaction) {
+        if (transaction == null) {
+            throw new IllegalArgumentException("transaction is null");
+        }
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            if (!acquirePermit()) {
+                future.completeExceptionally(new RejectedExecutionException(
+                        "no transaction completed within " + acquireTimeoutMillis + " ms"));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    Throwable error = null;
+                    try {
+                        transactionManager.execute(transaction);
+                    } catch (Throwable t) {
+                        error = t;
+                    } finally {
+                        // release before completing, so that dependent stages can submit without blocking
+                        permits.release();
+                    }
+                    if (error == null) {
+                        future.complete(transaction);
+                    } else {
+                        future.completeExceptionally(error);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Submits all given transactions for asynchronous execution. The transactions must be independent from each
+     * other since they may be executed in any order and in parallel.
+     *
+     * @param transactions the transactions, must not be null
+     *
+     * @return a future which completes when all transactions have completed, exceptionally if one of them failed
+     */
+    public CompletableFuture<Void> submitAll(Collection<? extends Transaction> transactions) {
+        if (transactions == null) {
+            throw new IllegalArgumentException("transactions is null");
+        }
+        final CompletableFuture[] futures = new CompletableFuture[transactions.size()];
+        int i = 0;
+        for (Transaction transaction : transactions) {
+            futures[i++] = submit(transaction);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Shuts down the executor. Transactions already submitted are still executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until all submitted transactions have been executed after a shutdown.
+     *
+     * @param timeoutMillis the maximum time to wait
+     *
+     * @return true, if all transactions have been executed
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private boolean acquirePermit() throws InterruptedException {
+        if (acquireTimeoutMillis < 0) {
+            permits.acquire();
+            return true;
+        }
+        return permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            // only available since Java 21, looked up reflectively in order to run on older runtimes
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the daemon threads of the fixed pool, named after the pool and the thread number.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger poolCount = new AtomicInteger();
+
+        private final String namePrefix;
+        private final AtomicInteger threadCount;
+
+        DaemonThreadFactory() {
+            this.namePrefix = "AsyncTransactionManager-" + poolCount.incrementAndGet() + "-thread-";
+            this.threadCount = new AtomicInteger();
+        }
+
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * An update transaction which executes its template SQL once for each of a number of parameter objects using JDBC
+ * batch updates. Use this transaction instead of a {@link CompositeTransaction} of {@link UpdateTransaction}s in
+ * order to load a large number of rows.
+ */
+public class BatchUpdateTransaction extends TemplateTransaction {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final Iterable parameterObjects;
+    private final int batchSize;
+    private int[] resultValues;
+
+    public BatchUpdateTransaction(String templateSql, Class parameterType, Iterable parameterObjects) {
+        this(templateSql, parameterType, parameterObjects, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a new batch update transaction.
+     *
+     * @param templateSql      the template SQL, refer to {@link Template} for it's syntax. Must not be null.
+     * @param parameterType    the type of the parameter objects
+     * @param parameterObjects the parameter objects, one for each row to be updated, must not be null
+     * @param batchSize        the maximum number of rows sent to the database in one batch
+     */
+    public BatchUpdateTransaction(String templateSql, Class parameterType, Iterable parameterObjects, int batchSize) {
+        super(templateSql, parameterType, null, parameterObjects);
+        if (parameterObjects == null) {
+            throw new IllegalArgumentException("parameterObjects is null");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than zero");
+        }
+        this.parameterObjects = parameterObjects;
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Fetches the update counts of the last execution.
+     *
+     * @return the update counts, one for each parameter object, or null if not executed
+     */
+    public int[] fetchResultValues() {
+        final int[] resultValues = this.resultValues;
+        this.resultValues = null;
+        return resultValues;
+    }
+
+    public boolean isUpdate() {
+        return true;
+    }
+
+    public void execute(Connection connection) throws SQLException {
+        resultValues = getTemplate().executeBatch(connection, parameterObjects, batchSize);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A transaction manager which caches the results of {@link QueryForListTransaction}s and
+ * {@link QueryForObjectTransaction}s in a {@link QueryResultCache} and executes all other transactions by means of
+ * another transaction manager.
+ * <p/>
+ * After an update transaction has been executed, all cached results which depend on a table modified by the update
+ * are invalidated. Updates which are not executed by this transaction manager are not seen, so it should be used for
+ * data which is either rarely modified or only modified through this transaction manager.
+ * <p/>
+ * Queries executed within a transaction context of a {@link SimpleTransactionManager} bypass the cache, since they
+ * may see uncommitted changes of the context. Updates executed within a context invalidate the cache once the
+ * context has been committed, so that no other thread caches the old data in between; if the update is rolled back,
+ * the cache is kept.
+ * <p/>
+ * The result lists returned on a cache hit are copies, but the result objects are shared and must not be modified.
+ */
+public class CachingTransactionManager implements TransactionManager {
+
+    private final TransactionManager transactionManager;
+    private final QueryResultCache cache;
+
+    /**
+     * Constructs a new caching transaction manager.
+     *
+     * @param transactionManager the transaction manager which executes the transactions, must not be null
+     * @param cache              the query result cache, must not be null
+     */
+    public CachingTransactionManager(TransactionManager transactionManager, QueryResultCache cache) {
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is null");
+        }
+        if (cache == null) {
+            throw new IllegalArgumentException("cache is null");
+        }
+        this.transactionManager = transactionManager;
+        this.cache = cache;
+    }
+
+    public DataSource getDataSource() {
+        return transactionManager.getDataSource();
+    }
+
+    public TransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public QueryResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Executes the given transaction. Results of queries are taken from the cache if possible.
+     *
+     * @param transaction the transaction
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void execute(Transaction transaction) throws SQLException {
+        if (transaction.isUpdate()) {
+            final Set<String> tableNames = getModifiedTableNames(transaction);
+            if (isInTransactionContext()) {
+                try {
+                    transactionManager.execute(transaction);
+                } finally {
+                    // also after failures, since the context may still be committed
+                    ((SimpleTransactionManager) transactionManager).addCommitCallback(new Runnable() {
+                        public void run() {
+                            invalidate(tableNames);
+                        }
+                    });
+                }
+            } else {
+                try {
+                    transactionManager.execute(transaction);
+                } finally {
+                    // also after failures, since parts of the update may have been committed
+                    invalidate(tableNames);
+                }
+            }
+        } else if (isCacheable(transaction)) {
+            executeCached((TemplateTransaction) transaction);
+        } else {
+            transactionManager.execute(transaction);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private boolean isCacheable(Transaction transaction) {
+        if (!(transaction instanceof QueryForListTransaction || transaction instanceof QueryForObjectTransaction)) {
+            return false;
+        }
+        return !isInTransactionContext();
+    }
+
+    private boolean isInTransactionContext() {
+        return transactionManager instanceof SimpleTransactionManager &&
+               ((SimpleTransactionManager) transactionManager).isTransactionContextActive();
+    }
+
+    private void executeCached(TemplateTransaction transaction) throws SQLException {
+        final Template template = transaction.getTemplate();
+        final QueryResultCache.Key key = QueryResultCache.createKey(template, transaction.getParameterObject());
+        final Object cachedResult = cache.get(key);
+        if (cachedResult != null) {
+            setResult(transaction, cachedResult);
+            return;
+        }
+        final Set<String> tableNames = cache.getTableNames(template.getSql());
+        final long version = cache.getVersion(tableNames);
+        transactionManager.execute(transaction);
+        final Object result = getResult(transaction);
+        if (result != null) {
+            cache.put(key, tableNames, version, result);
+        }
+    }
+
+    private static Object getResult(TemplateTransaction transaction) {
+        if (transaction instanceof QueryForListTransaction) {
+            final List resultList = ((QueryForListTransaction) transaction).getResultList();
+            return resultList != null ? Collections.unmodifiableList(new ArrayList(resultList)) : null;
+        }
+        return ((QueryForObjectTransaction) transaction).getResultObject();
+    }
+
+    private static void setResult(TemplateTransaction transaction, Object result) {
+        if (transaction instanceof QueryForListTransaction) {
+            ((QueryForListTransaction) transaction).setResultList(new ArrayList((List) result));
+        } else {
+            ((QueryForObjectTransaction) transaction).setResultObject(result);
+        }
+    }
+
+    /**
+     * @return the names of the tables modified by the given transaction, or null if they are unknown
+     */
+    private Set<String> getModifiedTableNames(Transaction transaction) {
+        final Set<String> tableNames = new HashSet<String>();
+        return collectTableNames(transaction, tableNames) ? tableNames : null;
+    }
+
+    private void invalidate(Set<String> tableNames) {
+        if (tableNames != null) {
+            cache.invalidateTables(tableNames);
+        } else {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Collects the names of the tables modified by the given transaction.
+     *
+     * @return false, if the tables are unknown
+     */
+    private boolean collectTableNames(Transaction transaction, Set<String> tableNames) {
+        if (!transaction.isUpdate()) {
+            return true;
+        }
+        if (transaction instanceof CompositeTransaction) {
+            for (Transaction t : ((CompositeTransaction) transaction).getTransactions()) {
+                if (!collectTableNames(t, tableNames)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (transaction instanceof TemplateTransaction) {
+            final Set<String> names = cache.getTableNames(((TemplateTransaction) transaction).getTemplate().getSql());
+            tableNames.addAll(names);
+            return !names.isEmpty();
+        }
+        return false;
+    }
+}
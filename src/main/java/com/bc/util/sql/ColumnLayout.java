@@ -0,0 +1,95 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The positions and SQL types of the result columns of a compiled template. The layout is resolved from the
+ * <code>ResultSetMetaData</code> of the first query execution and then cached on the {@link CompiledTemplate}, so
+ * that rows are read by column index instead of by column label.
+ */
+final class ColumnLayout {
+
+    private final int columnCount;
+    private final int[] columnIndexes;
+    private final int[] columnTypes;
+
+    private ColumnLayout(int columnCount, int[] columnIndexes, int[] columnTypes) {
+        this.columnCount = columnCount;
+        this.columnIndexes = columnIndexes;
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * Resolves the layout of the given columns.
+     *
+     * @param rs          the result set
+     * @param md          the meta data of the result set
+     * @param columnNames the names of the columns to be resolved, matched case-insensitively against the column
+     *                    labels
+     *
+     * @return the column layout
+     *
+     * @throws SQLException if a column could not be found
+     */
+    static ColumnLayout resolve(ResultSet rs, ResultSetMetaData md, String[] columnNames) throws SQLException {
+        final int columnCount = md.getColumnCount();
+        final Map<String, Integer> labelIndexMap = new HashMap<String, Integer>(2 * columnCount);
+        for (int i = columnCount; i >= 1; i--) {
+            // iterate backwards so that the first of several equally labelled columns wins, as for findColumn()
+            final String label = md.getColumnLabel(i);
+            if (label != null) {
+                labelIndexMap.put(label.toUpperCase(), i);
+            }
+        }
+        final int[] columnIndexes = new int[columnNames.length];
+        final int[] columnTypes = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            final Integer index = labelIndexMap.get(columnNames[i].toUpperCase());
+            columnIndexes[i] = index != null ? index : rs.findColumn(columnNames[i]);
+            columnTypes[i] = md.getColumnType(columnIndexes[i]);
+        }
+        return new ColumnLayout(columnCount, columnIndexes, columnTypes);
+    }
+
+    /**
+     * Tests whether this layout is valid for a result set with the given meta data. Since the SQL of a template is
+     * fixed, the number of columns is sufficient to detect a changed layout.
+     *
+     * @param md the meta data
+     *
+     * @return true, if this layout can be used
+     *
+     * @throws SQLException if a database error occurs
+     */
+    boolean matches(ResultSetMetaData md) throws SQLException {
+        return md.getColumnCount() == columnCount;
+    }
+
+    /**
+     * @param i the index of the resolved column name
+     *
+     * @return the 1-based column index of the i-th column name
+     */
+    int getColumnIndex(int i) {
+        return columnIndexes[i];
+    }
+
+    /**
+     * @param i the index of the resolved column name
+     *
+     * @return the SQL type of the i-th column name as defined in <code>java.sql.Types</code>
+     */
+    int getColumnType(int i) {
+        return columnTypes[i];
+    }
+}
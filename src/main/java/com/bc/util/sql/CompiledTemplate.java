@@ -0,0 +1,361 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import com.bc.util.prop.ArrayProperty;
+import com.bc.util.prop.BeanProperty;
+import com.bc.util.prop.NestedProperty;
+import com.bc.util.prop.Property;
+import com.bc.util.prop.PropertyNotFoundException;
+import com.bc.util.prop.PropertyParser;
+import com.bc.util.sql.conv.DefaultValueConverter;
+import com.bc.util.sql.conv.JdbcToJavaValueConverter;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * The immutable result of parsing template SQL code for a given parameter and result type. A compiled template holds
+ * the executable SQL (with all <code>${</code><i>propertyName</i><code>}</code> placeholders replaced by
+ * <code>?</code>) and the resolved parameter and result properties.
+ * <p/>
+ * Instances do not carry any per-execution state and can therefore be shared between threads and between any number
+ * of {@link Template}s. Use the {@link TemplateCache} in order to obtain shared instances. The only state derived
+ * from query executions is the {@link ColumnLayout} of the result columns, which is resolved once and then reused.
+ * <p/>
+ * The default JDBC to Java value converter of each result property is chosen when the template is compiled, from the
+ * type of the property, so that values are converted without any lookup per row.
+ */
+public final class CompiledTemplate {
+
+    private final String sql;
+    private final Class parameterType;
+    private final Class resultType;
+    private final List<String> parameterNames;
+    private final List<String> resultNames;
+    private final Property[] parameterProperties;
+    private final Property[] resultProperties;
+    private final boolean resultPropertiesShareable;
+    private final Property resultValueProperty;
+    private final RowMapper rowMapper;
+    private final JdbcToJavaValueConverter[] resultConverters;
+    private final JdbcToJavaValueConverter resultValueConverter;
+    private final String[] columnNames;
+    private volatile ColumnLayout columnLayout;
+
+    /**
+     * Compiles the given template SQL for the given parameter and result types.
+     *
+     * @param templateSql   the template SQL code, refer to {@link Template} for its syntax
+     * @param parameterType the type of parameter objects, can be null
+     * @param resultType    the type of result objects, can be null
+     *
+     * @throws RuntimeException if a placeholder or result property cannot be resolved
+     */
+    public CompiledTemplate(String templateSql, Class parameterType, Class resultType) {
+        if (templateSql == null) {
+            throw new IllegalArgumentException("templateSql is null");
+        }
+        final StringTokenizer st = new StringTokenizer(templateSql, " \t\n\r,()", false);
+        final List<String> paramNameList = new ArrayList<String>();
+        final List<String> resultNameList = new ArrayList<String>();
+        boolean asSeen = false;
+        while (st.hasMoreTokens()) {
+            final String token = st.nextToken();
+            if (!asSeen) {
+                if (token.equalsIgnoreCase("AS")) {
+                    asSeen = true;
+                } else if (token.startsWith("${") && token.endsWith("}")) {
+                    paramNameList.add(token);
+                }
+            } else {
+                resultNameList.add(token);
+                asSeen = false;
+            }
+        }
+        if (paramNameList.size() > 0) {
+            final StringBuffer sb = new StringBuffer(templateSql);
+            for (int i = 0; i < paramNameList.size(); i++) {
+                final String token = paramNameList.get(i);
+                final int index = sb.indexOf(token);
+                sb.replace(index, index + token.length(), "?");
+                paramNameList.set(i, token.substring(2, token.length() - 1));
+            }
+            templateSql = sb.toString();
+        }
+
+        this.sql = templateSql;
+        this.parameterType = parameterType;
+        this.resultType = resultType;
+        this.parameterNames = Collections.unmodifiableList(paramNameList);
+        this.resultNames = Collections.unmodifiableList(resultNameList);
+        this.resultValueProperty = isValueType(resultType) ? new ValueProperty(resultType) : null;
+        this.parameterProperties = createProperties(paramNameList, parameterType, true);
+        this.resultProperties = createProperties(resultNameList, resultType, true);
+        this.resultPropertiesShareable = isShareable(resultProperties);
+        this.rowMapper = resultPropertiesShareable ? RowMapper.create(resultType, resultProperties) : null;
+        this.resultConverters = resultPropertiesShareable ? createConverters(resultProperties) : null;
+        this.resultValueConverter = resultValueProperty != null ?
+                                    DefaultValueConverter.getJdbcToJavaValueConverter(resultType) : null;
+        this.columnNames = getNames(resultProperties);
+    }
+
+    /**
+     * @return the executable SQL, never null
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the parameter type or null
+     */
+    public Class getParameterType() {
+        return parameterType;
+    }
+
+    /**
+     * @return the result type or null
+     */
+    public Class getResultType() {
+        return resultType;
+    }
+
+    /**
+     * @return the names of the parameter placeholders in order of their occurrence, never null
+     */
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * @return the names following the "AS" keywords in order of their occurrence, never null
+     */
+    public List<String> getResultNames() {
+        return resultNames;
+    }
+
+    /**
+     * @return the properties of the parameter type or null if a parameter type is not specified
+     */
+    public Property[] getParameterProperties() {
+        return parameterProperties;
+    }
+
+    /**
+     * Returns the properties of the result type. Map-backed properties keep track of the type of the last value
+     * assigned and must not be shared, so a new array of properties is created on each call if the result type
+     * requires such properties.
+     *
+     * @return the properties of the result type or null if a result type is not specified
+     */
+    public Property[] getResultProperties() {
+        if (!resultPropertiesShareable) {
+            return createProperties(resultNames, resultType, true);
+        }
+        return resultProperties;
+    }
+
+    /**
+     * @return the special property "value" if the result type is a value type (a number, string or date), otherwise
+     *         null
+     */
+    public Property getResultValueProperty() {
+        return resultValueProperty;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the row mapper specialized for the result type, or null if results must be mapped reflectively
+     */
+    RowMapper getRowMapper() {
+        return rowMapper;
+    }
+
+    /**
+     * @return the default converters for the result properties, or null if the types of the result properties are
+     *         not fixed (e.g. for map-backed properties) or if a result type is not specified
+     */
+    JdbcToJavaValueConverter[] getResultConverters() {
+        return resultConverters;
+    }
+
+    /**
+     * @return the default converter for the result value property, or null if the result type is not a value type
+     */
+    JdbcToJavaValueConverter getResultValueConverter() {
+        return resultValueConverter;
+    }
+
+    /**
+     * Gets the layout of the result columns for the given result set. The layout is resolved from the result set meta
+     * data on the first call and cached; it is resolved again only if the number of columns has changed.
+     *
+     * @param rs the result set of a query executed for the SQL of this template
+     *
+     * @return the column layout, never null
+     *
+     * @throws SQLException if a result column could not be found
+     */
+    ColumnLayout getColumnLayout(ResultSet rs) throws SQLException {
+        final ResultSetMetaData md = rs.getMetaData();
+        ColumnLayout layout = columnLayout;
+        if (layout == null || !layout.matches(md)) {
+            layout = ColumnLayout.resolve(rs, md, columnNames);
+            columnLayout = layout;
+        }
+        return layout;
+    }
+
+    private static JdbcToJavaValueConverter[] createConverters(Property[] properties) {
+        if (properties == null) {
+            return null;
+        }
+        final JdbcToJavaValueConverter[] converters = new JdbcToJavaValueConverter[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            converters[i] = DefaultValueConverter.getJdbcToJavaValueConverter(properties[i].getType());
+        }
+        return converters;
+    }
+
+    static boolean isValueType(final Class beanType) {
+        if (beanType == null) {
+            return false;
+        }
+        return beanType.isPrimitive() ||
+               java.lang.Boolean.class.isAssignableFrom(beanType) ||
+               java.lang.Character.class.isAssignableFrom(beanType) ||
+               java.lang.Number.class.isAssignableFrom(beanType) ||
+               java.lang.String.class.isAssignableFrom(beanType) ||
+               java.util.Date.class.isAssignableFrom(beanType);
+    }
+
+    private static boolean isShareable(final Property[] properties) {
+        if (properties != null) {
+            for (int i = 0; i < properties.length; i++) {
+                if (!isShareable(properties[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isShareable(final Property property) {
+        if (property instanceof BeanProperty || property instanceof ValueProperty) {
+            return true;
+        } else if (property instanceof NestedProperty) {
+            final NestedProperty np = (NestedProperty) property;
+            return isShareable(np.getParent()) && isShareable(np.getChild());
+        } else if (property instanceof ArrayProperty) {
+            return isShareable(((ArrayProperty) property).getArray());
+        }
+        return false;
+    }
+
+    private static String[] getNames(final Property[] properties) {
+        if (properties == null) {
+            return new String[0];
+        }
+        final String[] names = new String[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            names[i] = properties[i].getName();
+        }
+        return names;
+    }
+
+    private static Property[] createProperties(final List<String> nameList, final Class beanType, boolean strict) {
+        if (nameList == null || beanType == null) {
+            return null;
+        }
+        ArrayList<Property> propertyList = new ArrayList<Property>();
+        if (isValueType(beanType)) {
+            for (int i = 0; i < nameList.size(); i++) {
+                final String propertyName = nameList.get(i);
+                if (propertyName.equalsIgnoreCase(ValueProperty.NAME)) {
+                    final Property property = new ValueProperty(beanType);
+                    propertyList.add(property);
+                } else if (strict) {
+                    throw new IllegalArgumentException("parameter property '" + ValueProperty.NAME + "' expected but found '" +
+                                                       propertyName + "'");
+                }
+            }
+        } else {
+            for (int i = 0; i < nameList.size(); i++) {
+                final String propertyName = nameList.get(i);
+                try {
+                    final Property property = PropertyParser.parseProperty(beanType, propertyName);
+                    propertyList.add(property);
+                } catch (ParseException e) {
+                    if (strict) {
+                        throw new RuntimeException(
+                                "failed to parse parameter property '" + propertyName + "' for class '" + beanType.getName() + "'",
+                                e);
+                    }
+                } catch (PropertyNotFoundException e) {
+                    if (strict) {
+                        throw new RuntimeException(
+                                "parameter property '" + propertyName + "' not found in class '" + beanType.getName() + "'",
+                                e);
+                    }
+                }
+            }
+        }
+        if (propertyList.size() == 0) {
+            return null;
+        }
+        Property[] properties = new Property[propertyList.size()];
+        propertyList.toArray(properties);
+        return properties;
+    }
+
+    private static class ValueProperty implements Property {
+
+        private static final String NAME = "value";
+        private final Class type;
+
+        public String getTreeAsString() {
+            return "ValueProperty['" + NAME + "'," + type + "]";
+        }
+
+        public ValueProperty(Class type) {
+            this.type = type;
+        }
+
+        public String getName() {
+            return NAME;
+        }
+
+        public Class getType() {
+            return type;
+        }
+
+        public Object getValue(Object beanInstance) {
+            return beanInstance;
+        }
+
+        public void setValue(Object beanInstance, Object value) {
+            throw new IllegalStateException("cannot set special property '" + getName() + "'");
+        }
+
+        public boolean isAssignable(Object beanInstance) {
+            return true;
+        }
+
+        public void makeAssignable(Object beanInstance) {
+        }
+    }
+}
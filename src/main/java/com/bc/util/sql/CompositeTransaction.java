@@ -8,30 +8,70 @@ package com.bc.util.sql;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * A transaction which is composed of other transactions.
+ * <p/>
+ * Read-only transactions can be added as independent transactions. If an {@link AsyncTransactionManager} has been
+ * set, independent transactions are executed in parallel on separate connections while the other transactions are
+ * executed one by one on the connection of this transaction. Independent transactions therefore must not depend on
+ * the effects of the other transactions. Without an asynchronous transaction manager, all transactions are executed on
+ * the connection of this transaction.
  */
 public class CompositeTransaction implements Transaction {
 
    public CompositeTransaction() {
-        this.transactions = new LinkedList<Transaction>();
+        this.transactions = new ArrayList<Transaction>();
+        this.independentTransactions = new ArrayList<Transaction>();
     }
 
     public void addTransaction(Transaction transaction) {
         transactions.add(transaction);
     }
 
+    /**
+     * Adds a read-only transaction which does not depend on the other transactions of this composite.
+     *
+     * @param transaction the transaction, must not be an update
+     */
+    public void addIndependentTransaction(Transaction transaction) {
+        if (transaction.isUpdate()) {
+            throw new IllegalArgumentException("independent transaction must not be an update");
+        }
+        independentTransactions.add(transaction);
+    }
+
     public void removeTransaction(Transaction transaction) {
-        transactions.remove(transaction);
+        if (!transactions.remove(transaction)) {
+            independentTransactions.remove(transaction);
+        }
     }
 
-    public boolean isUpdate() {
+    /**
+     * @return the asynchronous transaction manager used to execute independent transactions, or null
+     */
+    public AsyncTransactionManager getAsyncTransactionManager() {
+        return asyncTransactionManager;
+    }
+
+    /**
+     * Sets the asynchronous transaction manager used to execute independent transactions in parallel. It must not be
+     * the one this composite is submitted to, since the composite would then wait for transactions which may not get
+     * a permit to run.
+     *
+     * @param asyncTransactionManager the asynchronous transaction manager, or null to execute all transactions on the
+     *                                connection of this transaction
+     */
+    public void setAsyncTransactionManager(AsyncTransactionManager asyncTransactionManager) {
+        this.asyncTransactionManager = asyncTransactionManager;
+    }
 
-        for (int i = 0; i < transactions.size(); i++) {
-            final Transaction t = transactions.get(i);
+    public boolean isUpdate() {
+        for (Transaction t : transactions) {
             if (t.isUpdate()) {
                 return true;
             }
@@ -41,25 +81,62 @@ public class CompositeTransaction implements Transaction {
 
     /**
      * Executes this transactions by delegating the call to all contained transactions.
-     * Order of execution is order of adding delegates to this transaction.
+     * Order of execution is order of adding delegates to this transaction. Independent transactions are executed
+     * in parallel if an asynchronous transaction manager has been set, otherwise after all other transactions.
      * @param connection
      * @param connection the connection to be used for the transaction
      *
      * @throws SQLException if a database error occurs
      */
     public void execute(Connection connection) throws SQLException {
-        for (int i = 0; i < transactions.size(); i++) {
-
-            final Transaction t = transactions.get(i);
-//            if (t instanceof UpdateTransaction && i < 2) {
-//                final String sql = ((UpdateTransaction) t).getTemplate().getSql();
-//                if (i < 4) {
-//                    System.out.println("Trying to execute: " + sql);
-//                    System.out.println(((UpdateTransaction) t).getParameterObject());
-//                }
-//            }
+        final AsyncTransactionManager atm = asyncTransactionManager;
+        if (atm == null || independentTransactions.isEmpty()) {
+            for (Transaction t : transactions) {
+                t.execute(connection);
+            }
+            for (Transaction t : independentTransactions) {
+                t.execute(connection);
+            }
+            return;
+        }
 
-            t.execute(connection);
+        final List<CompletableFuture<Transaction>> futures =
+                new ArrayList<CompletableFuture<Transaction>>(independentTransactions.size());
+        for (Transaction t : independentTransactions) {
+            futures.add(atm.submit(t));
+        }
+        Throwable error = null;
+        try {
+            for (Transaction t : transactions) {
+                t.execute(connection);
+            }
+        } catch (SQLException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        // wait for all independent transactions, even if one has failed, so that none is still running on return.
+        // The transactions have already been started and cannot be cancelled, so waiting is not interrupted, an
+        // interrupt of this thread stays pending for the caller.
+        for (CompletableFuture<Transaction> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (error == null) {
+                    error = e.getCause();
+                }
+            }
+        }
+        if (error instanceof InterruptedException) {
+            throw new SQLException("interrupted while submitting independent transactions", error);
+        } else if (error instanceof SQLException) {
+            throw (SQLException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
         }
     }
 
@@ -68,4 +145,10 @@ public class CompositeTransaction implements Transaction {
     ///////////////////////////////////////////////////////////////////////////
 
     private List<Transaction> transactions;
+    private List<Transaction> independentTransactions;
+    private volatile AsyncTransactionManager asyncTransactionManager;
+
+    List<Transaction> getTransactions() {
+        return transactions;
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Builds the <code>WHERE</code> clause of a template together with its parameter map, such that the resulting SQL
+ * only depends on the shape of the criteria and not on the exact number of values. This allows prepared statements
+ * and {@link CompiledTemplate}s to be reused by the {@link StatementCache} and the {@link TemplateCache}.
+ * <p/>
+ * IN-lists and alternative patterns are padded up to the next of a small set of bucket sizes (1, 2, 4, 8, ...) by
+ * repeating the last value, which does not change the result of the query. Lists longer than the maximum IN-list size
+ * are split into several IN-lists of maximum size. Parameter names are derived from the position of the criterion,
+ * so equal shapes always produce equal SQL. Alternatively, IN-lists can be expressed as a single array parameter
+ * (<code>column = ANY(${name})</code>) for drivers which support SQL arrays, e.g. the PostgreSQL driver. The value
+ * of an array parameter is a {@link SqlArray}, which is bound with the SQL type of its elements.
+ * <p/>
+ * Use the parameter map returned by {@link #getParameterMap()} as parameter object of the template.
+ */
+public class CriteriaBuilder {
+
+    public static final int DEFAULT_MAX_IN_LIST_SIZE = 256;
+
+    private final List<String> criteria;
+    private final Map<String, Object> parameterMap;
+    private int maxInListSize;
+    private boolean arrayParameters;
+
+    public CriteriaBuilder() {
+        this.criteria = new ArrayList<String>();
+        this.parameterMap = new HashMap<String, Object>();
+        this.maxInListSize = DEFAULT_MAX_IN_LIST_SIZE;
+    }
+
+    public int getMaxInListSize() {
+        return maxInListSize;
+    }
+
+    /**
+     * Sets the maximum number of values in a single IN-list. It is rounded down to a power of two.
+     *
+     * @param maxInListSize the maximum size, must be greater than zero
+     */
+    public void setMaxInListSize(int maxInListSize) {
+        if (maxInListSize < 1) {
+            throw new IllegalArgumentException("maxInListSize must be greater than zero");
+        }
+        this.maxInListSize = Integer.highestOneBit(maxInListSize);
+    }
+
+    public boolean isArrayParameters() {
+        return arrayParameters;
+    }
+
+    /**
+     * Sets whether IN-lists are expressed as a single array parameter. The driver must support
+     * <code>Connection.createArrayOf</code> for the element type.
+     *
+     * @param arrayParameters true, if array parameters are used
+     */
+    public void setArrayParameters(boolean arrayParameters) {
+        this.arrayParameters = arrayParameters;
+    }
+
+    /**
+     * Adds a literal criterion, which may contain <code>${name}</code> placeholders for parameters put into the
+     * parameter map by the caller.
+     *
+     * @param criterion the criterion
+     *
+     * @return this builder
+     */
+    public CriteriaBuilder add(String criterion) {
+        criteria.add(criterion);
+        return this;
+    }
+
+    /**
+     * Adds the criterion <code>column = value</code>.
+     *
+     * @param columnName the column name
+     * @param value      the value
+     *
+     * @return this builder
+     */
+    public CriteriaBuilder addEquals(String columnName, Object value) {
+        final String name = nextParameterPrefix();
+        parameterMap.put(name, value);
+        criteria.add(columnName + " = ${" + name + "}");
+        return this;
+    }
+
+    /**
+     * Adds the criterion <code>column IN (values)</code>. No criterion is added if the values are empty. The SQL type
+     * of an array parameter is derived from the values, see {@link SqlArray#getTypeName(Class)}.
+     *
+     * @param columnName the column name
+     * @param values     the values
+     *
+     * @return this builder
+     */
+    public CriteriaBuilder addIn(String columnName, Collection values) {
+        return addIn(columnName, values, null);
+    }
+
+    /**
+     * Adds the criterion <code>column IN (values)</code>. No criterion is added if the values are empty.
+     *
+     * @param columnName the column name
+     * @param values     the values
+     * @param typeName   the SQL type name of the values used for an array parameter, or null to derive it from the
+     *                   values
+     *
+     * @return this builder
+     */
+    public CriteriaBuilder addIn(String columnName, Collection values, String typeName) {
+        if (!values.isEmpty()) {
+            criteria.add(createInExpression(columnName, new ArrayList(values), nextParameterPrefix(), typeName));
+        }
+        return this;
+    }
+
+    /**
+     * Adds the alternatives of a semicolon-separated list of values and patterns, the same way as
+     * {@link SqlUtils#appendWildcardAlternatives(String, String, String, Map, List, boolean)} does: <code>*</code>
+     * is a wildcard and, if underscore sensitive, <code>_</code> is matched literally. Values without wildcards are
+     * collected into a single IN-list, patterns are matched with <code>LIKE</code>.
+     *
+     * @param columnName          the column name
+     * @param columnValuePattern  the values and patterns separated by semicolons
+     * @param underscoreSensitive true, if an underscore matches only an underscore
+     *
+     * @return this builder
+     */
+    public CriteriaBuilder addWildcardAlternatives(String columnName, String columnValuePattern,
+                                                   boolean underscoreSensitive) {
+        final List<String> values = new ArrayList<String>();
+        final List<String> patterns = new ArrayList<String>();
+        final StringTokenizer st = new StringTokenizer(columnValuePattern, ";");
+        while (st.hasMoreTokens()) {
+            String token = st.nextToken().trim();
+            if (token.length() > 0) {
+                token = token.replace('*', '%');
+                if (underscoreSensitive) {
+                    token = token.replace("_", "\\_");
+                }
+                if (token.indexOf('%') != -1 || token.indexOf("\\_") != -1) {
+                    patterns.add(token);
+                } else {
+                    values.add(token);
+                }
+            }
+        }
+        if (values.isEmpty() && patterns.isEmpty()) {
+            return this;
+        }
+        final String prefix = nextParameterPrefix();
+        final StringBuilder expression = new StringBuilder();
+        if (!values.isEmpty()) {
+            expression.append(createInExpression(columnName, values, prefix + "v", "varchar"));
+        }
+        if (!patterns.isEmpty()) {
+            final int size = getBucketSize(patterns.size());
+            for (int i = 0; i < size; i++) {
+                final String name = prefix + "p" + i;
+                parameterMap.put(name, patterns.get(Math.min(i, patterns.size() - 1)));
+                if (expression.length() > 0) {
+                    expression.append(" OR ");
+                }
+                expression.append(columnName).append(" LIKE ${").append(name).append('}');
+            }
+        }
+        final boolean alternatives = !patterns.isEmpty() && (!values.isEmpty() || patterns.size() > 1);
+        criteria.add(alternatives ? "(" + expression + ")" : expression.toString());
+        return this;
+    }
+
+    /**
+     * @return the criteria added so far
+     */
+    public List<String> getCriteria() {
+        return criteria;
+    }
+
+    /**
+     * @return the parameter map holding the values of all parameters of the criteria
+     */
+    public Map<String, Object> getParameterMap() {
+        return parameterMap;
+    }
+
+    /**
+     * Appends the criteria as <code>WHERE</code> clause, as {@link SqlUtils#appendCriteriaToSqlBuffer} does.
+     *
+     * @param sql the buffer to append to
+     */
+    public void appendTo(StringBuffer sql) {
+        SqlUtils.appendCriteriaToSqlBuffer(new ArrayList(criteria), sql);
+    }
+
+    /**
+     * Gets the bucket size for the given number of values, which is the smallest power of two not less than the
+     * number of values.
+     *
+     * @param n the number of values, must be greater than zero
+     *
+     * @return the bucket size
+     */
+    public static int getBucketSize(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be greater than zero");
+        }
+        final int size = Integer.highestOneBit(n);
+        return size == n ? n : size << 1;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private String nextParameterPrefix() {
+        return "c" + criteria.size() + "_";
+    }
+
+    private String createInExpression(String columnName, List values, String prefix, String typeName) {
+        if (arrayParameters) {
+            parameterMap.put(prefix, typeName != null ? new SqlArray(typeName, values.toArray())
+                                                      : SqlArray.create(values));
+            return columnName + " = ANY(${" + prefix + "})";
+        }
+        final StringBuilder expression = new StringBuilder();
+        final int listCount = (values.size() + maxInListSize - 1) / maxInListSize;
+        for (int list = 0; list < listCount; list++) {
+            final int from = list * maxInListSize;
+            final int count = Math.min(maxInListSize, values.size() - from);
+            final int size = listCount > 1 ? maxInListSize : getBucketSize(count);
+            if (list > 0) {
+                expression.append(" OR ");
+            }
+            if (size == 1) {
+                final String name = prefix + from;
+                parameterMap.put(name, values.get(from));
+                expression.append(columnName).append(" = ${").append(name).append('}');
+                continue;
+            }
+            expression.append(columnName).append(" IN (");
+            for (int i = 0; i < size; i++) {
+                final String name = prefix + (from + i);
+                // pad by repeating the last value, which does not change the result
+                parameterMap.put(name, values.get(from + Math.min(i, count - 1)));
+                if (i > 0) {
+                    expression.append(", ");
+                }
+                expression.append("${").append(name).append('}');
+            }
+            expression.append(')');
+        }
+        return listCount > 1 ? "(" + expression + ")" : expression.toString();
+    }
+}
@@ -6,6 +6,11 @@
  */
 package com.bc.util.sql;
 
+/**
+ * The configuration of a pooled data source as created by {@link SqlUtils#createPooledDataSource(DataSourceConfig)}.
+ * Besides the connection parameters, it holds the settings of the connection pool. Their defaults are those of the
+ * commons-dbcp <code>BasicDataSource</code>.
+ */
 public class DataSourceConfig {
 
     public DataSourceConfig() {
@@ -50,6 +55,173 @@ public class DataSourceConfig {
         this.password = password;
     }
 
+    /**
+     * @return the number of connections created when the pool is started
+     */
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    public void setInitialSize(int initialSize) {
+        this.initialSize = initialSize;
+    }
+
+    /**
+     * @return the maximum number of active connections, a negative value for no limit
+     */
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    /**
+     * @return the maximum number of idle connections kept in the pool, a negative value for no limit
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return the minimum number of idle connections kept in the pool by the evictor
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * @return the maximum time in milliseconds to wait for a connection if the pool is exhausted, a negative value to
+     *         wait indefinitely
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @return the SQL query used to validate connections, e.g. <code>SELECT 1</code>, or null
+     */
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * @return whether connections are validated before they are borrowed from the pool
+     */
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * @return whether idle connections are validated by the evictor
+     */
+    public boolean isTestWhileIdle() {
+        return testWhileIdle;
+    }
+
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        this.testWhileIdle = testWhileIdle;
+    }
+
+    /**
+     * @return the time in milliseconds between runs of the evictor, a non-positive value if the evictor is not
+     *         run
+     */
+    public long getTimeBetweenEvictionRunsMillis() {
+        return timeBetweenEvictionRunsMillis;
+    }
+
+    public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+        this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+    }
+
+    /**
+     * @return the minimum time in milliseconds a connection may sit idle before it is evicted
+     */
+    public long getMinEvictableIdleTimeMillis() {
+        return minEvictableIdleTimeMillis;
+    }
+
+    public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+        this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @return whether prepared statements are pooled per connection
+     */
+    public boolean isPoolPreparedStatements() {
+        return poolPreparedStatements;
+    }
+
+    public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+        this.poolPreparedStatements = poolPreparedStatements;
+    }
+
+    /**
+     * @return the maximum number of pooled prepared statements, a negative value for no limit
+     */
+    public int getMaxOpenPreparedStatements() {
+        return maxOpenPreparedStatements;
+    }
+
+    public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+        this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+    }
+
+    /**
+     * @return whether connections not returned to the pool are reclaimed after the abandoned timeout
+     */
+    public boolean isRemoveAbandoned() {
+        return removeAbandoned;
+    }
+
+    public void setRemoveAbandoned(boolean removeAbandoned) {
+        this.removeAbandoned = removeAbandoned;
+    }
+
+    /**
+     * @return the time in seconds after which an unreturned connection is considered abandoned
+     */
+    public int getRemoveAbandonedTimeout() {
+        return removeAbandonedTimeout;
+    }
+
+    public void setRemoveAbandonedTimeout(int removeAbandonedTimeout) {
+        this.removeAbandonedTimeout = removeAbandonedTimeout;
+    }
+
+    /**
+     * @return whether the stack traces of the code which borrowed abandoned connections are logged
+     */
+    public boolean isLogAbandoned() {
+        return logAbandoned;
+    }
+
+    public void setLogAbandoned(boolean logAbandoned) {
+        this.logAbandoned = logAbandoned;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////
     /////// END OF PUBLIC
     ////////////////////////////////////////////////////////////////////////////////
@@ -58,4 +230,19 @@ public class DataSourceConfig {
     private String url;
     private String username;
     private String password;
+    private int initialSize = 0;
+    private int maxActive = 8;
+    private int maxIdle = 8;
+    private int minIdle = 0;
+    private long maxWait = -1L;
+    private String validationQuery;
+    private boolean testOnBorrow = true;
+    private boolean testWhileIdle = false;
+    private long timeBetweenEvictionRunsMillis = -1L;
+    private long minEvictableIdleTimeMillis = 1000L * 60L * 30L;
+    private boolean poolPreparedStatements = false;
+    private int maxOpenPreparedStatements = -1;
+    private boolean removeAbandoned = false;
+    private int removeAbandonedTimeout = 300;
+    private boolean logAbandoned = false;
 }
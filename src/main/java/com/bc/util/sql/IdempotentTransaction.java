@@ -0,0 +1,15 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+/**
+ * A marker interface for update transactions which may safely be executed more than once, e.g. because they only
+ * set values or delete rows by key. The {@link RetryPolicy} retries such transactions also after connection failures,
+ * where it is unknown whether the commit has reached the database.
+ */
+public interface IdempotentTransaction extends Transaction {
+}
@@ -0,0 +1,156 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of latencies with exponentially growing buckets. Bucket <code>i</code> counts latencies
+ * up to {@link #getUpperBoundMicros(int) 2<sup>i</sup> microseconds}, the last bucket counts all larger latencies.
+ * Recording a value is lock-free and does not allocate.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets. The upper bound of the last but one bucket is 2<sup>25</sup> microseconds (about 33
+     * seconds).
+     */
+    public static final int BUCKET_COUNT = 27;
+
+    private final AtomicLongArray bucketCounts;
+    private final AtomicLong count;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+
+    public LatencyHistogram() {
+        bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+        count = new AtomicLong();
+        totalNanos = new AtomicLong();
+        maxNanos = new AtomicLong();
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values are counted as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        bucketCounts.incrementAndGet(getBucketIndex(nanos / 1000));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all recorded latencies in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * @return the largest recorded latency in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the mean latency in milliseconds, zero if nothing has been recorded
+     */
+    public double getMeanMillis() {
+        final long n = count.get();
+        return n > 0 ? totalNanos.get() / (n * 1.0e6) : 0.0;
+    }
+
+    /**
+     * @param bucketIndex the bucket index
+     *
+     * @return the number of latencies counted in the given bucket
+     */
+    public long getBucketCount(int bucketIndex) {
+        return bucketCounts.get(bucketIndex);
+    }
+
+    /**
+     * @param bucketIndex the bucket index
+     *
+     * @return the inclusive upper bound of the given bucket in microseconds, <code>Long.MAX_VALUE</code> for the
+     *         last bucket
+     */
+    public static long getUpperBoundMicros(int bucketIndex) {
+        if (bucketIndex < 0 || bucketIndex >= BUCKET_COUNT) {
+            throw new IllegalArgumentException("bucketIndex out of range");
+        }
+        return bucketIndex == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucketIndex;
+    }
+
+    /**
+     * Estimates a percentile of the recorded latencies by the upper bound of the bucket containing it.
+     *
+     * @param percentile the percentile in the range 0 to 100
+     *
+     * @return the estimated percentile in microseconds, zero if nothing has been recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("percentile out of range");
+        }
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            sum += bucketCounts.get(i);
+            if (sum >= rank) {
+                return getUpperBoundMicros(i);
+            }
+        }
+        return getUpperBoundMicros(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Resets all counts to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private static int getBucketIndex(long micros) {
+        if (micros <= 1) {
+            return 0;
+        }
+        // smallest i with micros <= 2^i
+        final int index = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+}
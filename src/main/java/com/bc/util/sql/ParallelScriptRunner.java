@@ -0,0 +1,469 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Executes a set of SQL scripts concurrently, each on its own connection, while keeping the order of scripts which
+ * depend on each other.
+ * <p/>
+ * Scripts are executed in the order they have been added, except that a script may start before an earlier one has
+ * finished if the two do not reference a common database object. The referenced objects are found by a simple scan
+ * for the names following <code>FROM</code>, <code>JOIN</code>, <code>INTO</code>, <code>UPDATE</code>,
+ * <code>ON</code>, <code>REFERENCES</code> and the kinds of objects created, altered or dropped: <code>TABLE</code>,
+ * <code>VIEW</code>, <code>SEQUENCE</code>, <code>INDEX</code>, <code>SCHEMA</code>, <code>FUNCTION</code>,
+ * <code>PROCEDURE</code>, <code>TYPE</code>, <code>DOMAIN</code> and <code>TRIGGER</code>. The schema of a qualified
+ * name counts as an object as well, so all scripts using a schema depend on each other.
+ * <p/>
+ * The scan errs on the safe side: a script in which no object is found, or which contains a statement the scan cannot
+ * classify, e.g. <code>CALL</code>, <code>GRANT</code> or the <code>CREATE</code> of another kind of object, is
+ * executed after all earlier scripts have finished and before any later one is started.
+ * <p/>
+ * A single script can be split into sections by lines of the form <code>-- @section name</code>, see
+ * {@link #addScriptSections}. If a script fails, no further scripts are started, neither those depending on it nor
+ * independent ones, and the error is thrown once the running scripts have finished. The
+ * {@link #getTimings() timing profile} of the last run tells when each script has been started and how long it took.
+ */
+public class ParallelScriptRunner {
+
+    public static final String SECTION_PREFIX = "-- @section";
+
+    private static final Set<String> OBJECT_KINDS = new HashSet<String>(Arrays.asList(
+            "TABLE", "VIEW", "SEQUENCE", "INDEX", "SCHEMA", "FUNCTION", "PROCEDURE", "TYPE", "DOMAIN", "TRIGGER"));
+    private static final Set<String> OBJECT_KIND_MODIFIERS = new HashSet<String>(Arrays.asList(
+            "OR", "REPLACE", "UNIQUE", "TEMPORARY", "TEMP", "GLOBAL", "LOCAL", "CACHED", "MEMORY", "TEXT",
+            "UNLOGGED"));
+    private static final Set<String> DML_KEYWORDS = new HashSet<String>(Arrays.asList(
+            "SELECT", "INSERT", "UPDATE", "DELETE", "MERGE"));
+    private static final Set<String> DDL_KEYWORDS = new HashSet<String>(Arrays.asList(
+            "CREATE", "ALTER", "DROP", "TRUNCATE"));
+    private static final SqlObjectNameScanner OBJECT_NAME_SCANNER;
+
+    static {
+        final Set<String> keywords = new HashSet<String>(Arrays.asList(
+                "FROM", "JOIN", "INTO", "UPDATE", "ON", "REFERENCES"));
+        keywords.addAll(OBJECT_KINDS);
+        OBJECT_NAME_SCANNER = new SqlObjectNameScanner(keywords, true, true);
+    }
+
+    private final DataSource dataSource;
+    private final int parallelism;
+    private final List<Script> scripts;
+    private Logger logger;
+    private boolean bulkMode;
+    private List<Timing> timings;
+    private long elapsedMillis;
+
+    /**
+     * Constructs a new parallel script runner.
+     *
+     * @param dataSource  the data source providing a connection for each script, must not be null
+     * @param parallelism the maximum number of scripts executed concurrently, must be greater than zero
+     */
+    public ParallelScriptRunner(DataSource dataSource, int parallelism) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be greater than zero");
+        }
+        this.dataSource = dataSource;
+        this.parallelism = parallelism;
+        this.scripts = new ArrayList<Script>();
+        this.timings = Collections.emptyList();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public boolean isBulkMode() {
+        return bulkMode;
+    }
+
+    /**
+     * @param bulkMode true, if the scripts are executed by {@link ScriptRunner}s in bulk mode
+     */
+    public void setBulkMode(boolean bulkMode) {
+        this.bulkMode = bulkMode;
+    }
+
+    /**
+     * Adds a script.
+     *
+     * @param name       the name of the script used in the timing profile and in log messages
+     * @param scriptText the SQL script
+     */
+    public void addScript(String name, String scriptText) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        if (scriptText == null) {
+            throw new IllegalArgumentException("scriptText is null");
+        }
+        scripts.add(new Script(name, scriptText, scanObjectNames(scriptText)));
+    }
+
+    /**
+     * Adds a script loaded from a resource, as {@link ScriptRunner#runScriptFromResourcePath} does.
+     *
+     * @param scriptResourcePath the resource path, also used as name of the script
+     */
+    public void addScriptFromResourcePath(String scriptResourcePath) {
+        final InputStream inputStream = getClass().getResourceAsStream(scriptResourcePath);
+        if (inputStream == null) {
+            throw new IllegalArgumentException("resource not found: " + scriptResourcePath);
+        }
+        final Reader reader = new InputStreamReader(inputStream);
+        try {
+            addScript(scriptResourcePath, readText(reader));
+        } catch (IOException e) {
+            throw new RuntimeException("unexpected I/O error", e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Adds the sections of a script as separate scripts. Sections start with a line of the form
+     * <code>-- @section name</code>, the section name is appended to the name of the script. Text before the first
+     * section forms a section named after the script.
+     *
+     * @param name       the name of the script
+     * @param scriptText the SQL script
+     */
+    public void addScriptSections(String name, String scriptText) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        final LineNumberReader reader = new LineNumberReader(new StringReader(scriptText));
+        final StringBuilder section = new StringBuilder();
+        String sectionName = name;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String trimmedLine = line.trim();
+                if (trimmedLine.startsWith(SECTION_PREFIX)) {
+                    addSection(sectionName, section);
+                    sectionName = name + "#" + trimmedLine.substring(SECTION_PREFIX.length()).trim();
+                } else {
+                    section.append(line).append('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("unexpected I/O error", e);
+        }
+        addSection(sectionName, section);
+    }
+
+    public int getScriptCount() {
+        return scripts.size();
+    }
+
+    public void clearScripts() {
+        scripts.clear();
+    }
+
+    /**
+     * @return the timing profile of the last run in the order the scripts have been added
+     */
+    public List<Timing> getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return the time taken by the last run in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Executes all scripts added.
+     *
+     * @throws SQLException the first error which occurred
+     */
+    public void run() throws SQLException {
+        final int n = scripts.size();
+        final Timing[] runTimings = new Timing[n];
+        final CompletableFuture[] futures = new CompletableFuture[n];
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, n)));
+        final AtomicBoolean failed = new AtomicBoolean();
+        final long startTime = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < n; i++) {
+                final Script script = scripts.get(i);
+                final Timing timing = new Timing(script.name);
+                runTimings[i] = timing;
+                final List<CompletableFuture> dependencies = new ArrayList<CompletableFuture>();
+                for (int j = 0; j < i; j++) {
+                    if (dependsOn(script, scripts.get(j))) {
+                        dependencies.add(futures[j]);
+                    }
+                }
+                timing.dependencyCount = dependencies.size();
+                futures[i] = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[dependencies.size()]))
+                        .thenRunAsync(new Runnable() {
+                            public void run() {
+                                runScript(script, timing, startTime, failed);
+                            }
+                        }, executor);
+            }
+            Throwable error = null;
+            for (CompletableFuture future : futures) {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    }
+                }
+            }
+            if (error instanceof ScriptException) {
+                throw (SQLException) error.getCause();
+            } else if (error != null) {
+                throw new RuntimeException(error);
+            }
+        } finally {
+            executor.shutdown();
+            elapsedMillis = System.currentTimeMillis() - startTime;
+            timings = Collections.unmodifiableList(Arrays.asList(runTimings));
+        }
+        if (logger != null) {
+            logger.info(n + " SQL script(s) executed in " + elapsedMillis + " ms");
+            for (Timing timing : timings) {
+                logger.info("  " + timing);
+            }
+        }
+    }
+
+    /**
+     * The timing of a script executed by a {@link ParallelScriptRunner}.
+     */
+    public static class Timing {
+
+        private final String name;
+        private volatile int dependencyCount;
+        private volatile long startMillis;
+        private volatile long elapsedMillis;
+        private volatile long statementCount;
+        private volatile boolean executed;
+
+        private Timing(String name) {
+            this.name = name;
+            this.startMillis = -1;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of earlier scripts this script had to wait for
+         */
+        public int getDependencyCount() {
+            return dependencyCount;
+        }
+
+        /**
+         * @return the time the script has been started, relative to the start of the run, or -1 if the script has
+         *         not been executed
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public long getStatementCount() {
+            return statementCount;
+        }
+
+        /**
+         * @return true, if the script has been executed successfully
+         */
+        public boolean isExecuted() {
+            return executed;
+        }
+
+        public String toString() {
+            if (startMillis < 0) {
+                return name + ": not executed";
+            }
+            return name + ": started at " + startMillis + " ms, took " + elapsedMillis + " ms, " +
+                   statementCount + " statement(s)" + (executed ? "" : ", failed");
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Gets the names of the objects referenced by the given script.
+     *
+     * @return the names, empty if the script contains a statement which cannot be classified
+     */
+    static Set<String> scanObjectNames(String scriptText) {
+        final Set<String> names = new HashSet<String>();
+        final ScriptStatementReader reader = new ScriptStatementReader(new StringReader(scriptText));
+        try {
+            String statement;
+            while ((statement = reader.readStatement()) != null) {
+                if (!isClassified(statement)) {
+                    return Collections.emptySet();
+                }
+                names.addAll(OBJECT_NAME_SCANNER.scan(statement));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("unexpected I/O error", e);
+        }
+        return names;
+    }
+
+    /**
+     * Tells whether the objects of the given statement are found by the scan, which is the case for DML statements
+     * and for DDL statements on the known kinds of objects.
+     */
+    private static boolean isClassified(String statement) {
+        final StringTokenizer st = new StringTokenizer(statement.toUpperCase(), " \t\n\r(");
+        if (!st.hasMoreTokens()) {
+            return true;
+        }
+        final String command = st.nextToken();
+        if (DML_KEYWORDS.contains(command)) {
+            return true;
+        }
+        if (!DDL_KEYWORDS.contains(command)) {
+            return false;
+        }
+        while (st.hasMoreTokens()) {
+            final String token = st.nextToken();
+            if (!OBJECT_KIND_MODIFIERS.contains(token)) {
+                return OBJECT_KINDS.contains(token);
+            }
+        }
+        return false;
+    }
+
+    static boolean dependsOn(Script script, Script earlierScript) {
+        if (script.objectNames.isEmpty() || earlierScript.objectNames.isEmpty()) {
+            return true;
+        }
+        return !Collections.disjoint(script.objectNames, earlierScript.objectNames);
+    }
+
+    private void addSection(String name, StringBuilder section) {
+        if (section.toString().trim().length() > 0) {
+            addScript(name, section.toString());
+        }
+        section.setLength(0);
+    }
+
+    /**
+     * Executes a script unless another script of the run has failed.
+     */
+    private void runScript(Script script, Timing timing, long startTime, AtomicBoolean failed) {
+        if (failed.get()) {
+            return;
+        }
+        final long scriptStartTime = System.currentTimeMillis();
+        timing.startMillis = scriptStartTime - startTime;
+        final ScriptRunner scriptRunner = new ScriptRunner();
+        scriptRunner.setLogger(logger);
+        scriptRunner.setBulkMode(bulkMode);
+        try {
+            final Connection connection = dataSource.getConnection();
+            try {
+                scriptRunner.runScriptFromText(connection, script.text);
+            } finally {
+                connection.close();
+            }
+            timing.executed = true;
+        } catch (SQLException e) {
+            failed.set(true);
+            if (logger != null) {
+                logger.severe("SQL script '" + script.name + "' failed: " + e.getMessage());
+            }
+            throw new ScriptException(e);
+        } finally {
+            timing.statementCount = scriptRunner.getStatementCount();
+            timing.elapsedMillis = System.currentTimeMillis() - scriptStartTime;
+        }
+    }
+
+    private static String readText(Reader reader) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        final char[] buffer = new char[8192];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, n);
+        }
+        return sb.toString();
+    }
+
+    static final class Script {
+
+        private final String name;
+        private final String text;
+        private final Set<String> objectNames;
+
+        private Script(String name, String text, Set<String> objectNames) {
+            this.name = name;
+            this.text = text;
+            this.objectNames = objectNames;
+        }
+    }
+
+    private static final class ScriptException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private ScriptException(SQLException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A commons-dbcp <code>BasicDataSource</code> which records metrics about borrowing connections from the pool. Along
+ * with the number of active and idle connections provided by <code>BasicDataSource</code>, the metrics help to size
+ * the pool under load: a growing wait time or a shift of the {@link #getBorrowLatencyHistogram() borrow latency
+ * histogram} towards higher latencies indicates that the pool is exhausted.
+ * <p/>
+ * Access to the underlying connections is allowed, so the {@link SimpleTransactionManager} can cache prepared
+ * statements per physical connection.
+ * <p/>
+ * Instances are usually created by {@link SqlUtils#createPooledDataSource(DataSourceConfig)}.
+ */
+public class PooledDataSource extends BasicDataSource {
+
+    private final LatencyHistogram borrowLatencyHistogram;
+    private final AtomicLong borrowFailureCount;
+
+    public PooledDataSource() {
+        borrowLatencyHistogram = new LatencyHistogram();
+        borrowFailureCount = new AtomicLong();
+        setAccessToUnderlyingConnectionAllowed(true);
+    }
+
+    /**
+     * Borrows a connection from the pool and records the time spent waiting for it.
+     *
+     * @return the connection
+     *
+     * @throws SQLException if no connection could be obtained, e.g. because the maximum wait time was exceeded
+     */
+    public Connection getConnection() throws SQLException {
+        final long t0 = System.nanoTime();
+        boolean success = false;
+        try {
+            final Connection connection = super.getConnection();
+            success = true;
+            return connection;
+        } finally {
+            borrowLatencyHistogram.record(System.nanoTime() - t0);
+            if (!success) {
+                borrowFailureCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the histogram of the times spent in {@link #getConnection()}, including failed attempts
+     */
+    public LatencyHistogram getBorrowLatencyHistogram() {
+        return borrowLatencyHistogram;
+    }
+
+    /**
+     * @return the number of calls to {@link #getConnection()}
+     */
+    public long getBorrowCount() {
+        return borrowLatencyHistogram.getCount();
+    }
+
+    /**
+     * @return the number of calls to {@link #getConnection()} which failed
+     */
+    public long getBorrowFailureCount() {
+        return borrowFailureCount.get();
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting in {@link #getConnection()}
+     */
+    public long getTotalWaitTimeMillis() {
+        return borrowLatencyHistogram.getTotalNanos() / 1000000L;
+    }
+
+    /**
+     * @return the longest time in milliseconds spent waiting in a single call to {@link #getConnection()}
+     */
+    public long getMaxWaitTimeMillis() {
+        return borrowLatencyHistogram.getMaxNanos() / 1000000L;
+    }
+
+    /**
+     * Resets the borrow metrics.
+     */
+    public void resetMetrics() {
+        borrowLatencyHistogram.reset();
+        borrowFailureCount.set(0);
+    }
+}
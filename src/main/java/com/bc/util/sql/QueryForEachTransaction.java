@@ -0,0 +1,92 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A query transaction which passes each result object to a {@link RowHandler} instead of collecting the results, so
+ * that large result sets can be processed in constant memory.
+ * <p/>
+ * Some drivers, e.g. the PostgreSQL driver, ignore the fetch size and read the whole result set into memory if the
+ * connection is in auto-commit mode. Therefore the query is executed in a read-only transaction: if the connection
+ * is in auto-commit mode, auto-commit is switched off for the query, the transaction is committed after the last row
+ * has been handled and auto-commit is switched on again. The transaction is still not an update transaction.
+ */
+public class QueryForEachTransaction extends TemplateTransaction {
+
+    private final RowHandler rowHandler;
+    private int rowCount;
+
+    public QueryForEachTransaction(String templateSql, Class resultType, Object parameterObject, RowHandler rowHandler) {
+        this(templateSql, resultType, parameterObject, rowHandler, 0);
+    }
+
+    /**
+     * Constructs a new query-for-each transaction.
+     *
+     * @param templateSql     the template SQL, refer to {@link Template} for it's syntax. Must not be null.
+     * @param resultType      the type of the result objects
+     * @param parameterObject the parameter object, can be null if the template SQL does not contain parameters
+     * @param rowHandler      the handler receiving the result objects, must not be null
+     * @param fetchSize       the number of rows fetched from the database at once, zero to use the driver's default.
+     *                        The query is executed with auto-commit switched off, so that drivers respect it.
+     */
+    public QueryForEachTransaction(String templateSql, Class resultType, Object parameterObject, RowHandler rowHandler,
+                                   int fetchSize) {
+        super(templateSql, resultType, parameterObject);
+        if (rowHandler == null) {
+            throw new IllegalArgumentException("rowHandler is null");
+        }
+        this.rowHandler = rowHandler;
+        this.rowCount = -1;
+        getTemplate().setFetchSize(fetchSize);
+    }
+
+    public RowHandler getRowHandler() {
+        return rowHandler;
+    }
+
+    /**
+     * Fetches the number of rows handled by the last execution.
+     *
+     * @return the number of rows, -1 if not executed
+     */
+    public int fetchRowCount() {
+        final int rowCount = this.rowCount;
+        this.rowCount = -1;
+        return rowCount;
+    }
+
+    public boolean isUpdate() {
+        return false;
+    }
+
+    public void execute(Connection connection) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        if (!autoCommit) {
+            rowCount = getTemplate().executeQueryForEach(connection, getParameterObject(), rowHandler);
+            return;
+        }
+        connection.setAutoCommit(false);
+        boolean success = false;
+        try {
+            rowCount = getTemplate().executeQueryForEach(connection, getParameterObject(), rowHandler);
+            connection.commit();
+            success = true;
+        } finally {
+            try {
+                if (!success) {
+                    connection.rollback();
+                }
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+}
@@ -31,4 +31,12 @@ public class QueryForListTransaction extends TemplateTransaction {
     public void execute(Connection connection) throws SQLException {
         resultList = getTemplate().executeQueryForList(connection, getParameterObject());
     }
+
+    List getResultList() {
+        return resultList;
+    }
+
+    void setResultList(List resultList) {
+        this.resultList = resultList;
+    }
 }
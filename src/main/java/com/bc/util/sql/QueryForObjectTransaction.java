@@ -30,4 +30,12 @@ public class QueryForObjectTransaction extends TemplateTransaction {
     public void execute(Connection connection) throws SQLException {
         resultObject = getTemplate().executeQueryForObject(connection, getParameterObject());
     }
+
+    Object getResultObject() {
+        return resultObject;
+    }
+
+    void setResultObject(Object resultObject) {
+        this.resultObject = resultObject;
+    }
 }
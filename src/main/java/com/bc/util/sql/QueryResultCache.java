@@ -0,0 +1,427 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache for the results of queries, used by the {@link CachingTransactionManager}. Results are keyed by the
+ * SQL, result type and custom result converters of a template and the parameter values, so templates converting
+ * results differently do not share entries. Entries expire after a time-to-live and the least recently used entries
+ * are evicted if the cache is full.
+ * <p/>
+ * Each entry records the tables read by its query. {@link #invalidateTables(Collection)} removes all entries which
+ * depend on one of the given tables. The table names are extracted from the SQL by a simple scan for the table names
+ * following <code>FROM</code>, <code>JOIN</code>, <code>INTO</code>, <code>UPDATE</code> and <code>TABLE</code>;
+ * an update for which no table can be found invalidates the whole cache.
+ * <p/>
+ * The memory used is estimated from the sizes of the cached strings, numbers, dates, arrays, collections, maps and
+ * the fields of Java Beans. Since the rows of a result list share the same layout, the size of a list is estimated
+ * from a few sample rows and the row count. Cached result objects are shared between all readers and must not be
+ * modified.
+ */
+public class QueryResultCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000L;
+
+    private static final SqlObjectNameScanner TABLE_NAME_SCANNER = new SqlObjectNameScanner(
+            new HashSet<String>(Arrays.asList("FROM", "JOIN", "INTO", "UPDATE", "TABLE")), false, false);
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<Key, CacheEntry> entries;
+    private final Map<String, Long> tableVersions;
+    private final Map<String, Set<String>> tableNamesCache;
+    private long globalVersion;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+    private long estimatedBytes;
+
+    public QueryResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Constructs a new query result cache.
+     *
+     * @param maxEntries       the maximum number of cached results, must be greater than zero
+     * @param timeToLiveMillis the time after which a cached result expires, must be greater than zero
+     */
+    public QueryResultCache(int maxEntries, long timeToLiveMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be greater than zero");
+        }
+        if (timeToLiveMillis < 1) {
+            throw new IllegalArgumentException("timeToLiveMillis must be greater than zero");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest) {
+                if (size() > QueryResultCache.this.maxEntries) {
+                    evictionCount++;
+                    estimatedBytes -= eldest.getValue().estimatedBytes;
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.tableVersions = new HashMap<String, Long>();
+        this.tableNamesCache = new ConcurrentHashMap<String, Set<String>>();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * @return the ratio of hits to the total number of lookups, zero if there has not been any lookup
+     */
+    public synchronized double getHitRatio() {
+        final long total = hitCount + missCount;
+        return total > 0 ? (double) hitCount / total : 0.0;
+    }
+
+    /**
+     * @return the estimated number of bytes used by the cached results
+     */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Removes all entries which depend on one of the given tables.
+     *
+     * @param tableNames the table names, case-insensitive
+     */
+    public synchronized void invalidateTables(Collection<String> tableNames) {
+        final Set<String> upperCaseNames = new HashSet<String>();
+        for (String tableName : tableNames) {
+            final String name = tableName.toUpperCase();
+            upperCaseNames.add(name);
+            final Long version = tableVersions.get(name);
+            tableVersions.put(name, version != null ? version + 1 : 1L);
+        }
+        for (Iterator<CacheEntry> it = entries.values().iterator(); it.hasNext();) {
+            final CacheEntry entry = it.next();
+            if (!Collections.disjoint(entry.tableNames, upperCaseNames)) {
+                remove(it, entry);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void invalidateAll() {
+        globalVersion++;
+        invalidationCount += entries.size();
+        entries.clear();
+        estimatedBytes = 0;
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public synchronized void clear() {
+        invalidateAll();
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        invalidationCount = 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates the key for the given template and parameter object.
+     */
+    static Key createKey(Template template, Object parameterObject) {
+        final com.bc.util.prop.Property[] properties = template.getParameterProperties();
+        final Object[] values;
+        if (properties != null && parameterObject != null) {
+            values = new Object[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                values[i] = properties[i].getValue(parameterObject);
+            }
+        } else {
+            values = new Object[0];
+        }
+        return new Key(template.getSql(), template.getResultType(), template.getCustomResultConverters(), values);
+    }
+
+    /**
+     * Looks up a cached result.
+     *
+     * @return the cached result or null
+     */
+    synchronized Object get(Key key) {
+        final CacheEntry entry = entries.get(key);
+        if (entry != null) {
+            if (System.currentTimeMillis() < entry.expiryTime) {
+                hitCount++;
+                return entry.result;
+            }
+            estimatedBytes -= entry.estimatedBytes;
+            entries.remove(key);
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Gets the current version of the given tables. A result read while the version has been taken is only cached
+     * if the tables are not invalidated until it is {@link #put put} into the cache.
+     */
+    synchronized long getVersion(Set<String> tableNames) {
+        long version = globalVersion;
+        for (String tableName : tableNames) {
+            final Long tableVersion = tableVersions.get(tableName);
+            if (tableVersion != null) {
+                version += tableVersion;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Caches the given result unless the tables have been invalidated since the given version has been taken.
+     */
+    synchronized void put(Key key, Set<String> tableNames, long version, Object result) {
+        if (getVersion(tableNames) != version) {
+            return;
+        }
+        final CacheEntry entry = new CacheEntry(tableNames, result, System.currentTimeMillis() + timeToLiveMillis,
+                                                estimateResultSize(result) + key.estimatedBytes);
+        final CacheEntry oldEntry = entries.put(key, entry);
+        if (oldEntry != null) {
+            estimatedBytes -= oldEntry.estimatedBytes;
+        }
+        estimatedBytes += entry.estimatedBytes;
+    }
+
+    /**
+     * Gets the names of the tables referenced by the given SQL, in upper case. The result is cached per SQL.
+     */
+    Set<String> getTableNames(String sql) {
+        Set<String> tableNames = tableNamesCache.get(sql);
+        if (tableNames == null) {
+            tableNames = Collections.unmodifiableSet(parseTableNames(sql));
+            if (tableNamesCache.size() < 10 * maxEntries) {
+                tableNamesCache.put(sql, tableNames);
+            }
+        }
+        return tableNames;
+    }
+
+    static Set<String> parseTableNames(String sql) {
+        return TABLE_NAME_SCANNER.scan(sql);
+    }
+
+    private void remove(Iterator<CacheEntry> it, CacheEntry entry) {
+        it.remove();
+        estimatedBytes -= entry.estimatedBytes;
+        invalidationCount++;
+    }
+
+    private static final Map<Class, Long> SHALLOW_SIZE_MAP = new ConcurrentHashMap<Class, Long>();
+    private static final int SAMPLE_ROW_COUNT = 4;
+
+    /**
+     * Estimates the size of a query result. The size of a result list is extrapolated from the sizes of a few rows
+     * evenly distributed over the list, so the rows are not walked one by one.
+     */
+    static long estimateResultSize(Object result) {
+        if (!(result instanceof List)) {
+            return estimateSize(result, 2);
+        }
+        final List list = (List) result;
+        final int rowCount = list.size();
+        long size = 40 + 32L * rowCount;
+        if (rowCount > 0) {
+            final int sampleCount = Math.min(rowCount, SAMPLE_ROW_COUNT);
+            long sampleSize = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                sampleSize += estimateSize(list.get((int) ((long) i * rowCount / sampleCount)), 2);
+            }
+            size += sampleSize * rowCount / sampleCount;
+        }
+        return size;
+    }
+
+    static long estimateSize(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return 16;
+        }
+        if (value instanceof java.util.Date) {
+            return 24;
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            long size = 16 + 8L * length;
+            if (!value.getClass().getComponentType().isPrimitive() && depth > 0) {
+                for (int i = 0; i < length; i++) {
+                    size += estimateSize(Array.get(value, i), depth - 1);
+                }
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 40;
+            for (Object element : (Collection) value) {
+                size += 32 + estimateSize(element, depth);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = 48;
+            for (Object o : ((Map) value).entrySet()) {
+                final Map.Entry mapEntry = (Map.Entry) o;
+                size += 32 + estimateSize(mapEntry.getKey(), depth) + estimateSize(mapEntry.getValue(), depth);
+            }
+            return size;
+        }
+        long size = getShallowSize(value.getClass());
+        if (depth > 0) {
+            for (Class type = value.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (!field.getType().isPrimitive() && !Modifier.isStatic(field.getModifiers())) {
+                        try {
+                            field.setAccessible(true);
+                            size += estimateSize(field.get(value), depth - 1);
+                        } catch (Exception e) {
+                            // not accessible, count the reference only
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long getShallowSize(Class type) {
+        Long size = SHALLOW_SIZE_MAP.get(type);
+        if (size == null) {
+            long s = 16;
+            for (Class t = type; t != null && t != Object.class; t = t.getSuperclass()) {
+                for (Field field : t.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        final Class fieldType = field.getType();
+                        s += fieldType == long.class || fieldType == double.class ? 8 :
+                             fieldType == byte.class || fieldType == boolean.class ? 1 :
+                             fieldType == short.class || fieldType == char.class ? 2 : 4;
+                    }
+                }
+            }
+            size = (s + 7) / 8 * 8;
+            SHALLOW_SIZE_MAP.put(type, size);
+        }
+        return size;
+    }
+
+    static final class Key {
+
+        private final String sql;
+        private final Class resultType;
+        private final Object[] resultConverters;
+        private final Object[] values;
+        private final int hash;
+        private final long estimatedBytes;
+
+        private Key(String sql, Class resultType, Object[] resultConverters, Object[] values) {
+            this.sql = sql;
+            this.resultType = resultType;
+            this.resultConverters = resultConverters;
+            this.values = values;
+            this.hash = 31 * (31 * (31 * sql.hashCode() + (resultType != null ? resultType.hashCode() : 0)) +
+                              Arrays.hashCode(resultConverters)) + Arrays.deepHashCode(values);
+            this.estimatedBytes = 48 + estimateSize(values, 1);
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return hash == key.hash && sql.equals(key.sql) && resultType == key.resultType &&
+                   Arrays.equals(resultConverters, key.resultConverters) && Arrays.deepEquals(values, key.values);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final Set<String> tableNames;
+        private final Object result;
+        private final long expiryTime;
+        private final long estimatedBytes;
+
+        private CacheEntry(Set<String> tableNames, Object result, long expiryTime, long estimatedBytes) {
+            this.tableNames = tableNames;
+            this.result = result;
+            this.expiryTime = expiryTime;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
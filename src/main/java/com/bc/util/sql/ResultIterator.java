@@ -0,0 +1,110 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator over the result objects of a query which reads the underlying result set on demand. The result set
+ * and its statement are closed when the last row has been read, or when {@link #close()} is called.
+ * <p/>
+ * Database errors occurring while iterating are rethrown as <code>RuntimeException</code>s having the original
+ * <code>SQLException</code> as cause.
+ *
+ * @see Template#executeQueryForIterator(java.sql.Connection, Object)
+ */
+public class ResultIterator implements Iterator {
+
+    private final Template template;
+    private final PreparedStatement stmt;
+    private final ResultSet rs;
+    private final ColumnLayout layout;
+    private Object nextObject;
+    private boolean nextFetched;
+    private boolean closed;
+
+    ResultIterator(Template template, PreparedStatement stmt, ResultSet rs, ColumnLayout layout) {
+        this.template = template;
+        this.stmt = stmt;
+        this.rs = rs;
+        this.layout = layout;
+    }
+
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!nextFetched) {
+            try {
+                if (!rs.next()) {
+                    close();
+                    return false;
+                }
+                nextObject = template.createOutputObject(rs, layout);
+                nextFetched = true;
+            } catch (SQLException e) {
+                closeQuietly();
+                throw new RuntimeException(e);
+            } catch (RuntimeException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Object resultObject = nextObject;
+        nextObject = null;
+        nextFetched = false;
+        return resultObject;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the underlying result set and statement. Subsequent calls have no effect.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void close() throws SQLException {
+        if (!closed) {
+            closed = true;
+            nextObject = null;
+            try {
+                rs.close();
+            } finally {
+                stmt.close();
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (SQLException e) {
+            // ignore, the original error is reported
+        }
+    }
+}
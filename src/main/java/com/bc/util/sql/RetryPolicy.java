@@ -0,0 +1,245 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed transaction is retried and how long to wait before the next attempt. Used by the
+ * {@link RetryingTransactionManager}.
+ * <p/>
+ * An exception is retryable if it or one of its causes or chained exceptions is
+ * <ul>
+ * <li>a serialization failure (SQLState <code>40001</code>) or a deadlock (SQLState <code>40P01</code>),</li>
+ * <li>one of a few vendor codes without a standard SQLState: MySQL lock wait timeout (1205), Oracle deadlock (60) and
+ * serialization failure (8177), or</li>
+ * <li>a <code>SQLTransientException</code> other than a connection or rollback exception.</li>
+ * </ul>
+ * Other transaction rollbacks, e.g. <code>40002</code> integrity constraint violations, are not retried, since they
+ * fail again.
+ * <p/>
+ * Connection failures (SQLState class <code>08</code>, <code>SQLRecoverableException</code> and
+ * <code>SQLTransientConnectionException</code>) are only retried for transactions which can safely be executed
+ * twice, see {@link #isIdempotent(Transaction)}: if the connection breaks during the commit of an update, it is
+ * unknown whether the update has been committed.
+ * <p/>
+ * Further SQLState prefixes can be added with {@link #addRetryableSqlState(String)}.
+ * <p/>
+ * The delay before retry <i>n</i> grows exponentially, <code>initialDelayMillis * multiplier<sup>n-1</sup></code>,
+ * up to <code>maxDelayMillis</code>. A random jitter reduces it by up to the given fraction, so that transactions
+ * which failed on the same deadlock do not collide again.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 20L;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2000L;
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int ORACLE_DEADLOCK = 60;
+    private static final int ORACLE_SERIALIZATION_FAILURE = 8177;
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final List<String> retryableSqlStates;
+
+    /**
+     * Constructs a retry policy with default values.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MULTIPLIER,
+             DEFAULT_JITTER);
+    }
+
+    /**
+     * Constructs a retry policy.
+     *
+     * @param maxAttempts        the maximum number of attempts per transaction including the first one, at least one
+     * @param initialDelayMillis the delay before the first retry
+     * @param maxDelayMillis     the maximum delay before a retry
+     * @param multiplier         the factor the delay is multiplied with for each further retry, at least one
+     * @param jitter             the maximum fraction by which a delay is randomly reduced, in the range 0 to 1
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, double multiplier,
+                       double jitter) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be greater than zero");
+        }
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("illegal delay range");
+        }
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must not be less than one");
+        }
+        if (jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("jitter out of range");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.retryableSqlStates = new CopyOnWriteArrayList<String>();
+        this.retryableSqlStates.add("40001");
+        this.retryableSqlStates.add("40P01");
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Adds an SQLState or SQLState prefix which is considered retryable.
+     *
+     * @param sqlStatePrefix the SQLState prefix, e.g. a vendor specific state such as <code>"HY008"</code>
+     */
+    public void addRetryableSqlState(String sqlStatePrefix) {
+        if (sqlStatePrefix == null || sqlStatePrefix.length() == 0) {
+            throw new IllegalArgumentException("sqlStatePrefix is empty");
+        }
+        retryableSqlStates.add(sqlStatePrefix);
+    }
+
+    /**
+     * Tests whether the given exception denotes a transient failure, after which a transaction which cannot safely be
+     * executed twice may succeed if it is executed again. Equivalent to <code>isRetryable(e, false)</code>.
+     *
+     * @param e the exception
+     *
+     * @return true, if the transaction can be retried
+     */
+    public boolean isRetryable(SQLException e) {
+        return isRetryable(e, false);
+    }
+
+    /**
+     * Tests whether the given transaction can be retried after it failed with the given exception.
+     *
+     * @param e           the exception
+     * @param transaction the failed transaction
+     *
+     * @return true, if the transaction can be retried
+     */
+    public boolean isRetryable(SQLException e, Transaction transaction) {
+        return isRetryable(e, isIdempotent(transaction));
+    }
+
+    /**
+     * Tests whether the given exception denotes a transient failure, after which the transaction may succeed if it is
+     * executed again. Override in order to classify further exceptions.
+     *
+     * @param e          the exception
+     * @param idempotent whether the failed transaction can safely be executed twice
+     *
+     * @return true, if the transaction can be retried
+     */
+    public boolean isRetryable(SQLException e, boolean idempotent) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                for (SQLException se = (SQLException) t; se != null; se = se.getNextException()) {
+                    if (isRetryableException(se, idempotent)) {
+                        return true;
+                    }
+                }
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether the given transaction can safely be executed twice, so that it can be retried after a connection
+     * failure. These are read-only transactions and those marked as {@link IdempotentTransaction}. Override in order
+     * to classify further transactions.
+     *
+     * @param transaction the transaction
+     *
+     * @return true, if the transaction is idempotent
+     */
+    public boolean isIdempotent(Transaction transaction) {
+        return !transaction.isUpdate() || transaction instanceof IdempotentTransaction;
+    }
+
+    /**
+     * Gets the delay before the given retry.
+     *
+     * @param retry the number of the retry, starting at one for the second attempt
+     *
+     * @return the delay in milliseconds
+     */
+    public long getDelayMillis(int retry) {
+        return getDelayMillis(retry, ThreadLocalRandom.current());
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    long getDelayMillis(int retry, Random random) {
+        double delay = initialDelayMillis * Math.pow(multiplier, Math.max(0, retry - 1));
+        if (delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        return Math.round(delay * (1.0 - jitter * random.nextDouble()));
+    }
+
+    private boolean isRetryableException(SQLException e, boolean idempotent) {
+        final String sqlState = e.getSQLState();
+        if (e instanceof SQLRecoverableException || e instanceof SQLTransientConnectionException ||
+            sqlState != null && sqlState.startsWith("08")) {
+            return idempotent;
+        }
+        if (sqlState != null) {
+            for (String prefix : retryableSqlStates) {
+                if (sqlState.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        final int errorCode = e.getErrorCode();
+        if (errorCode == MYSQL_LOCK_WAIT_TIMEOUT || errorCode == ORACLE_DEADLOCK ||
+            errorCode == ORACLE_SERIALIZATION_FAILURE) {
+            return true;
+        }
+        if (e instanceof SQLTransactionRollbackException) {
+            // a rollback without a known SQLState, e.g. thrown by a driver mapping class 40 as a whole
+            return sqlState == null;
+        }
+        return e instanceof SQLTransientException;
+    }
+}
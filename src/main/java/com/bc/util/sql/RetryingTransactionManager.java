@@ -0,0 +1,148 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A transaction manager which executes transactions by means of another transaction manager and executes them again
+ * if they failed due to a transient error such as a deadlock or a serialization failure. The {@link RetryPolicy}
+ * decides which errors are transient, how often a transaction is attempted and how long to wait between attempts.
+ * <p/>
+ * Transactions are retried as a whole, so they must be repeatable: an update transaction must have been rolled back
+ * by the underlying transaction manager before it is executed again. Therefore transactions executed within a
+ * transaction context of a {@link SimpleTransactionManager} are never retried, since only the whole context can be
+ * rolled back. Update transactions are not retried after connection failures unless they are marked as
+ * {@link IdempotentTransaction}, since the update may have been committed before the connection broke.
+ */
+public class RetryingTransactionManager implements TransactionManager {
+
+    private final TransactionManager transactionManager;
+    private final RetryPolicy retryPolicy;
+    private final AtomicLong retryCount;
+    private final AtomicLong recoveredCount;
+    private final AtomicLong abortCount;
+    private final AtomicLong nonRetryableFailureCount;
+
+    /**
+     * Constructs a new retrying transaction manager.
+     *
+     * @param transactionManager the transaction manager which executes the transactions, must not be null
+     * @param retryPolicy        the retry policy, must not be null
+     */
+    public RetryingTransactionManager(TransactionManager transactionManager, RetryPolicy retryPolicy) {
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is null");
+        }
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("retryPolicy is null");
+        }
+        this.transactionManager = transactionManager;
+        this.retryPolicy = retryPolicy;
+        this.retryCount = new AtomicLong();
+        this.recoveredCount = new AtomicLong();
+        this.abortCount = new AtomicLong();
+        this.nonRetryableFailureCount = new AtomicLong();
+    }
+
+    public DataSource getDataSource() {
+        return transactionManager.getDataSource();
+    }
+
+    public TransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return the total number of retries
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return the number of transactions which succeeded after at least one retry
+     */
+    public long getRecoveredCount() {
+        return recoveredCount.get();
+    }
+
+    /**
+     * @return the number of transactions which were given up after retryable failures, because the maximum number of
+     *         attempts was reached or the thread was interrupted while waiting
+     */
+    public long getAbortCount() {
+        return abortCount.get();
+    }
+
+    /**
+     * @return the number of transactions which failed with an error that is not retryable
+     */
+    public long getNonRetryableFailureCount() {
+        return nonRetryableFailureCount.get();
+    }
+
+    /**
+     * Executes the given transaction, retrying it according to the retry policy.
+     *
+     * @param transaction the transaction
+     *
+     * @throws SQLException the error of the last attempt
+     */
+    public void execute(Transaction transaction) throws SQLException {
+        if (isInTransactionContext()) {
+            transactionManager.execute(transaction);
+            return;
+        }
+        int attempt = 1;
+        while (true) {
+            try {
+                transactionManager.execute(transaction);
+                if (attempt > 1) {
+                    recoveredCount.incrementAndGet();
+                }
+                return;
+            } catch (SQLException e) {
+                if (!retryPolicy.isRetryable(e, transaction)) {
+                    nonRetryableFailureCount.incrementAndGet();
+                    throw e;
+                }
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    abortCount.incrementAndGet();
+                    throw e;
+                }
+                final long delay = retryPolicy.getDelayMillis(attempt);
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        abortCount.incrementAndGet();
+                        throw e;
+                    }
+                }
+                retryCount.incrementAndGet();
+                attempt++;
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private boolean isInTransactionContext() {
+        return transactionManager instanceof SimpleTransactionManager &&
+               ((SimpleTransactionManager) transactionManager).isTransactionContextActive();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A transaction manager which routes update transactions to a primary database and read-only transactions to a set
+ * of read replicas. Replicas are chosen either {@link Balancing#ROUND_ROBIN round-robin} or by the
+ * {@link Balancing#LEAST_ACTIVE least number of active transactions}.
+ * <p/>
+ * Since replicas usually lag behind the primary, read-only transactions of a thread are routed to the primary as
+ * well for a configurable time after the thread has executed an update ("read your writes"). Read-only transactions
+ * executed within a transaction context of a primary {@link SimpleTransactionManager} always use the context's
+ * connection.
+ */
+public class RoutingTransactionManager implements TransactionManager {
+
+    /**
+     * The strategies for choosing a replica.
+     */
+    public enum Balancing {
+        ROUND_ROBIN,
+        LEAST_ACTIVE
+    }
+
+    private final TransactionManager primary;
+    private final TransactionManager[] replicas;
+    private final Balancing balancing;
+    private final long readYourWritesMillis;
+    private final AtomicInteger nextReplica;
+    private final AtomicInteger[] activeCounts;
+    private final AtomicLongArray replicaReadCounts;
+    private final AtomicLong primaryReadCount;
+    private final AtomicLong updateCount;
+    private final ThreadLocal<long[]> lastUpdateTime;
+
+    /**
+     * Constructs a new routing transaction manager.
+     *
+     * @param primary              the transaction manager for the primary database, must not be null
+     * @param replicas             the transaction managers for the replicas, must not be null. If empty, all
+     *                             transactions are executed by the primary.
+     * @param balancing            the strategy for choosing a replica, must not be null
+     * @param readYourWritesMillis the time after an update during which the read-only transactions of the same thread
+     *                             are routed to the primary, zero to disable
+     */
+    public RoutingTransactionManager(TransactionManager primary, List<? extends TransactionManager> replicas,
+                                     Balancing balancing, long readYourWritesMillis) {
+        if (primary == null) {
+            throw new IllegalArgumentException("primary is null");
+        }
+        if (replicas == null) {
+            throw new IllegalArgumentException("replicas is null");
+        }
+        if (balancing == null) {
+            throw new IllegalArgumentException("balancing is null");
+        }
+        if (readYourWritesMillis < 0) {
+            throw new IllegalArgumentException("readYourWritesMillis is negative");
+        }
+        this.primary = primary;
+        this.replicas = replicas.toArray(new TransactionManager[replicas.size()]);
+        this.balancing = balancing;
+        this.readYourWritesMillis = readYourWritesMillis;
+        this.nextReplica = new AtomicInteger();
+        this.activeCounts = new AtomicInteger[this.replicas.length];
+        for (int i = 0; i < activeCounts.length; i++) {
+            activeCounts[i] = new AtomicInteger();
+        }
+        this.replicaReadCounts = new AtomicLongArray(this.replicas.length);
+        this.primaryReadCount = new AtomicLong();
+        this.updateCount = new AtomicLong();
+        this.lastUpdateTime = new ThreadLocal<long[]>() {
+            protected long[] initialValue() {
+                return new long[]{Long.MIN_VALUE};
+            }
+        };
+    }
+
+    /**
+     * Creates a routing transaction manager which executes transactions by {@link SimpleTransactionManager}s for the
+     * given data sources.
+     *
+     * @param primary              the data source of the primary database, must not be null
+     * @param replicas             the data sources of the replicas, must not be null
+     * @param balancing            the strategy for choosing a replica, must not be null
+     * @param readYourWritesMillis the time after an update during which the read-only transactions of the same thread
+     *                             are routed to the primary, zero to disable
+     *
+     * @return the routing transaction manager
+     */
+    public static RoutingTransactionManager create(DataSource primary, List<? extends DataSource> replicas,
+                                                   Balancing balancing, long readYourWritesMillis) {
+        if (replicas == null) {
+            throw new IllegalArgumentException("replicas is null");
+        }
+        final TransactionManager[] replicaManagers = new TransactionManager[replicas.size()];
+        for (int i = 0; i < replicaManagers.length; i++) {
+            replicaManagers[i] = SimpleTransactionManager.create(replicas.get(i));
+        }
+        return new RoutingTransactionManager(SimpleTransactionManager.create(primary),
+                                             Arrays.asList(replicaManagers), balancing,
+                                             readYourWritesMillis);
+    }
+
+    /**
+     * @return the data source of the primary database
+     */
+    public DataSource getDataSource() {
+        return primary.getDataSource();
+    }
+
+    public TransactionManager getPrimary() {
+        return primary;
+    }
+
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    public TransactionManager getReplica(int index) {
+        return replicas[index];
+    }
+
+    public Balancing getBalancing() {
+        return balancing;
+    }
+
+    public long getReadYourWritesMillis() {
+        return readYourWritesMillis;
+    }
+
+    /**
+     * @param index the replica index
+     *
+     * @return the number of read-only transactions currently executed by the given replica
+     */
+    public int getActiveCount(int index) {
+        return activeCounts[index].get();
+    }
+
+    /**
+     * @param index the replica index
+     *
+     * @return the number of read-only transactions executed by the given replica
+     */
+    public long getReplicaReadCount(int index) {
+        return replicaReadCounts.get(index);
+    }
+
+    /**
+     * @return the number of read-only transactions executed by the primary
+     */
+    public long getPrimaryReadCount() {
+        return primaryReadCount.get();
+    }
+
+    /**
+     * @return the number of update transactions executed
+     */
+    public long getUpdateCount() {
+        return updateCount.get();
+    }
+
+    /**
+     * Executes the given transaction by the primary if it is an update, otherwise by a replica.
+     *
+     * @param transaction the transaction
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void execute(Transaction transaction) throws SQLException {
+        if (transaction.isUpdate()) {
+            try {
+                primary.execute(transaction);
+            } finally {
+                // also after failures, since parts of the update may have been committed
+                lastUpdateTime.get()[0] = System.currentTimeMillis();
+                updateCount.incrementAndGet();
+            }
+            return;
+        }
+        if (replicas.length == 0 || isPrimaryRequired()) {
+            primaryReadCount.incrementAndGet();
+            primary.execute(transaction);
+            return;
+        }
+        final int index = chooseReplica();
+        activeCounts[index].incrementAndGet();
+        try {
+            replicaReadCounts.incrementAndGet(index);
+            replicas[index].execute(transaction);
+        } finally {
+            activeCounts[index].decrementAndGet();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private boolean isPrimaryRequired() {
+        if (primary instanceof SimpleTransactionManager &&
+            ((SimpleTransactionManager) primary).isTransactionContextActive()) {
+            return true;
+        }
+        if (readYourWritesMillis > 0) {
+            final long lastUpdate = lastUpdateTime.get()[0];
+            return lastUpdate != Long.MIN_VALUE && System.currentTimeMillis() - lastUpdate < readYourWritesMillis;
+        }
+        return false;
+    }
+
+    private int chooseReplica() {
+        final int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+        if (balancing == Balancing.ROUND_ROBIN) {
+            return start;
+        }
+        // least active, starting at the round-robin position so that ties are spread evenly
+        int index = start;
+        int minActive = activeCounts[start].get();
+        for (int i = 1; i < replicas.length && minActive > 0; i++) {
+            final int j = (start + i) % replicas.length;
+            final int active = activeCounts[j].get();
+            if (active < minActive) {
+                index = j;
+                minActive = active;
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the result objects of a query one by one.
+ *
+ * @see Template#executeQueryForEach(java.sql.Connection, Object, RowHandler)
+ * @see QueryForEachTransaction
+ */
+public interface RowHandler {
+
+    /**
+     * Handles a single result object.
+     *
+     * @param resultObject the result object created for the current row
+     * @throws SQLException if a database error occurs
+     */
+    void handleRow(Object resultObject) throws SQLException;
+}
@@ -0,0 +1,404 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import com.bc.util.prop.BeanProperty;
+import com.bc.util.prop.Property;
+import com.bc.util.sql.conv.DefaultValueConverter;
+import com.bc.util.sql.conv.JdbcToJavaValueConverter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+
+/**
+ * Maps result set rows to Java Bean result objects without reflective calls. A row mapper is specialized once for a
+ * compiled template: the result object is created and its properties are set through method handles. When bound to
+ * the {@link ColumnLayout} of a query, each property is read by column index with a getter chosen from the SQL type of
+ * the column and the property type. Properties of primitive types are read with the corresponding typed getter of the
+ * result set (<code>getInt</code>, <code>getDouble</code>, ...) and passed to the setter without boxing; strings,
+ * boxed numbers, dates and byte arrays are read with <code>getString</code>, <code>getInt</code>,
+ * <code>getTimestamp</code>, <code>getBytes</code>, ... if the column type matches.
+ * <p/>
+ * Values of all other property types are read with <code>getObject</code> and converted by the converter of the
+ * {@link DefaultValueConverter} for the property type, so the results are the same as for the reflective mapping in
+ * {@link Template}.
+ */
+final class RowMapper {
+
+    private final Class resultType;
+    private final MethodHandle constructor;
+    private final Property[] properties;
+    private final MethodHandle[] setters;
+    private volatile Binding binding;
+
+    private RowMapper(Class resultType, MethodHandle constructor, Property[] properties, MethodHandle[] setters) {
+        this.resultType = resultType;
+        this.constructor = constructor;
+        this.properties = properties;
+        this.setters = setters;
+    }
+
+    /**
+     * Creates a row mapper for the given result type and properties.
+     *
+     * @param resultType the result type
+     * @param properties the result properties
+     *
+     * @return the row mapper or null if the result type or one of the properties cannot be mapped this way, e.g.
+     *         for nested properties or non-public Java Beans
+     */
+    static RowMapper create(Class resultType, Property[] properties) {
+        if (resultType == null || properties == null || resultType.isInterface() ||
+            Modifier.isAbstract(resultType.getModifiers())) {
+            return null;
+        }
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            final MethodHandle constructor = lookup.findConstructor(resultType, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            final MethodHandle[] setters = new MethodHandle[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                if (!(properties[i] instanceof BeanProperty)) {
+                    return null;
+                }
+                final Method setter = ((BeanProperty) properties[i]).getSetter();
+                if (setter == null) {
+                    return null;
+                }
+                setters[i] = lookup.unreflect(setter);
+            }
+            return new RowMapper(resultType, constructor, properties, setters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a new result object for the current row of the given result set.
+     *
+     * @param rs     the result set
+     * @param layout the column layout of the result set, resolved for the result properties of this mapper
+     *
+     * @return the result object
+     *
+     * @throws SQLException if a database error occurs
+     */
+    Object mapRow(ResultSet rs, ColumnLayout layout) throws SQLException {
+        final ColumnWriter[] writers = getWriters(layout);
+        final Object resultObject;
+        try {
+            resultObject = (Object) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new RuntimeException("failed to create instance of '" + resultType.getName() + "'", t);
+        }
+        for (int i = 0; i < writers.length; i++) {
+            try {
+                writers[i].write(rs, resultObject);
+            } catch (SQLException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t.getClass().getName() + " during Conversion of property '" +
+                                           properties[i].getName() + "' of object '" + resultObject + "': " +
+                                           t.getMessage(), t);
+            }
+        }
+        return resultObject;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private ColumnWriter[] getWriters(ColumnLayout layout) {
+        Binding b = binding;
+        if (b == null || b.layout != layout) {
+            final ColumnWriter[] writers = new ColumnWriter[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                writers[i] = createWriter(properties[i].getType(), setters[i],
+                                          layout.getColumnIndex(i), layout.getColumnType(i), properties[i]);
+            }
+            b = new Binding(layout, writers);
+            binding = b;
+        }
+        return b.writers;
+    }
+
+    private static ColumnWriter createWriter(Class type, MethodHandle setter, int column, int sqlType,
+                                             Property property) {
+        if (type == int.class) {
+            return new IntWriter(setter.asType(MethodType.methodType(void.class, Object.class, int.class)), column);
+        } else if (type == long.class) {
+            return new LongWriter(setter.asType(MethodType.methodType(void.class, Object.class, long.class)), column);
+        } else if (type == double.class) {
+            return new DoubleWriter(setter.asType(MethodType.methodType(void.class, Object.class, double.class)),
+                                    column);
+        } else if (type == float.class) {
+            return new FloatWriter(setter.asType(MethodType.methodType(void.class, Object.class, float.class)),
+                                   column);
+        } else if (type == short.class) {
+            return new ShortWriter(setter.asType(MethodType.methodType(void.class, Object.class, short.class)),
+                                   column);
+        } else if (type == byte.class) {
+            return new ByteWriter(setter.asType(MethodType.methodType(void.class, Object.class, byte.class)), column);
+        } else if (type == boolean.class) {
+            return new BooleanWriter(setter.asType(MethodType.methodType(void.class, Object.class, boolean.class)),
+                                     column);
+        } else if (type == char.class) {
+            return new CharWriter(setter.asType(MethodType.methodType(void.class, Object.class, char.class)), column);
+        }
+        final MethodHandle objectSetter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        if (type == String.class && isCharacterType(sqlType)) {
+            return new StringWriter(objectSetter, column);
+        } else if (type == Integer.class && isIntegerType(sqlType)) {
+            return new BoxedIntWriter(objectSetter, column);
+        } else if (type == Long.class && (isIntegerType(sqlType) || sqlType == Types.BIGINT)) {
+            return new BoxedLongWriter(objectSetter, column);
+        } else if (type == Double.class && isFloatingPointType(sqlType)) {
+            return new BoxedDoubleWriter(objectSetter, column);
+        } else if (type == Date.class && (sqlType == Types.TIMESTAMP || sqlType == Types.DATE)) {
+            return new DateWriter(objectSetter, column);
+        } else if (type == byte[].class && isBinaryType(sqlType)) {
+            return new BytesWriter(objectSetter, column);
+        }
+        return new ObjectWriter(objectSetter, column, property,
+                                DefaultValueConverter.getJdbcToJavaValueConverter(type));
+    }
+
+    private static boolean isCharacterType(int sqlType) {
+        return sqlType == Types.CHAR || sqlType == Types.VARCHAR || sqlType == Types.LONGVARCHAR ||
+               sqlType == Types.NCHAR || sqlType == Types.NVARCHAR || sqlType == Types.LONGNVARCHAR;
+    }
+
+    private static boolean isIntegerType(int sqlType) {
+        return sqlType == Types.INTEGER || sqlType == Types.SMALLINT || sqlType == Types.TINYINT;
+    }
+
+    private static boolean isFloatingPointType(int sqlType) {
+        return sqlType == Types.DOUBLE || sqlType == Types.FLOAT || sqlType == Types.REAL;
+    }
+
+    private static boolean isBinaryType(int sqlType) {
+        return sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY;
+    }
+
+    private static final class Binding {
+
+        final ColumnLayout layout;
+        final ColumnWriter[] writers;
+
+        Binding(ColumnLayout layout, ColumnWriter[] writers) {
+            this.layout = layout;
+            this.writers = writers;
+        }
+    }
+
+    private abstract static class ColumnWriter {
+
+        final MethodHandle setter;
+        final int column;
+
+        ColumnWriter(MethodHandle setter, int column) {
+            this.setter = setter;
+            this.column = column;
+        }
+
+        abstract void write(ResultSet rs, Object resultObject) throws Throwable;
+    }
+
+    // Note: the typed getters return zero for SQL NULL values, which is what the DefaultValueConverter does for
+    // primitive property types.
+
+    private static final class IntWriter extends ColumnWriter {
+
+        IntWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, rs.getInt(column));
+        }
+    }
+
+    private static final class LongWriter extends ColumnWriter {
+
+        LongWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, rs.getLong(column));
+        }
+    }
+
+    private static final class DoubleWriter extends ColumnWriter {
+
+        DoubleWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, rs.getDouble(column));
+        }
+    }
+
+    private static final class FloatWriter extends ColumnWriter {
+
+        FloatWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, rs.getFloat(column));
+        }
+    }
+
+    private static final class ShortWriter extends ColumnWriter {
+
+        ShortWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, rs.getShort(column));
+        }
+    }
+
+    private static final class ByteWriter extends ColumnWriter {
+
+        ByteWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, rs.getByte(column));
+        }
+    }
+
+    private static final class BooleanWriter extends ColumnWriter {
+
+        BooleanWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, rs.getBoolean(column));
+        }
+    }
+
+    private static final class CharWriter extends ColumnWriter {
+
+        CharWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, (char) (rs.getInt(column) & 0xffff));
+        }
+    }
+
+    // The writers below are only chosen if the column type matches the property type, so that the typed getter
+    // returns the same value as the DefaultValueConverter would for the value of getObject().
+
+    private static final class StringWriter extends ColumnWriter {
+
+        StringWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, (Object) rs.getString(column));
+        }
+    }
+
+    private static final class BoxedIntWriter extends ColumnWriter {
+
+        BoxedIntWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            final int value = rs.getInt(column);
+            setter.invokeExact(resultObject, (Object) (rs.wasNull() ? null : Integer.valueOf(value)));
+        }
+    }
+
+    private static final class BoxedLongWriter extends ColumnWriter {
+
+        BoxedLongWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            final long value = rs.getLong(column);
+            setter.invokeExact(resultObject, (Object) (rs.wasNull() ? null : Long.valueOf(value)));
+        }
+    }
+
+    private static final class BoxedDoubleWriter extends ColumnWriter {
+
+        BoxedDoubleWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            final double value = rs.getDouble(column);
+            setter.invokeExact(resultObject, (Object) (rs.wasNull() ? null : Double.valueOf(value)));
+        }
+    }
+
+    private static final class DateWriter extends ColumnWriter {
+
+        DateWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            final Timestamp timestamp = rs.getTimestamp(column);
+            setter.invokeExact(resultObject, (Object) (timestamp != null ? new Date(timestamp.getTime()) : null));
+        }
+    }
+
+    private static final class BytesWriter extends ColumnWriter {
+
+        BytesWriter(MethodHandle setter, int column) {
+            super(setter, column);
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            setter.invokeExact(resultObject, (Object) rs.getBytes(column));
+        }
+    }
+
+    private static final class ObjectWriter extends ColumnWriter {
+
+        private final Property property;
+        private final JdbcToJavaValueConverter converter;
+
+        ObjectWriter(MethodHandle setter, int column, Property property, JdbcToJavaValueConverter converter) {
+            super(setter, column);
+            this.property = property;
+            this.converter = converter;
+        }
+
+        void write(ResultSet rs, Object resultObject) throws Throwable {
+            final Object javaValue = converter.convertJdbcToJavaValue(property, rs.getObject(column));
+            setter.invokeExact(resultObject, javaValue);
+        }
+    }
+}
@@ -7,13 +7,27 @@
 package com.bc.util.sql;
 
 import java.io.*;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
+/**
+ * Executes SQL scripts. By default, each statement is executed on its own under the auto-commit mode of the
+ * connection.
+ * <p/>
+ * In {@link #setBulkMode bulk mode}, which is intended for loading large data dumps, the script is streamed statement
+ * by statement and the statements are grouped into JDBC batches. If a commit interval is set, auto-commit is switched
+ * off and the connection is committed after every given number of statements. Bulk mode also recognizes semicolons
+ * within quoted strings and block comments.
+ */
 public class ScriptRunner {
 
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     private Connection connection;
     private LineNumberReader reader;
     private StringBuffer buffer;
@@ -21,11 +35,17 @@ public class ScriptRunner {
     private Logger logger;
     private int lineNumber;
     private String sql;
+    private boolean bulkMode;
+    private int batchSize;
+    private int commitInterval;
+    private long statementCount;
+    private long elapsedMillis;
 
     public ScriptRunner() {
         errorHandler = null;
         lineNumber = 0;
         sql = "";
+        batchSize = DEFAULT_BATCH_SIZE;
     }
 
     public Logger getLogger() {
@@ -52,6 +72,75 @@ public class ScriptRunner {
         return sql;
     }
 
+    public boolean isBulkMode() {
+        return bulkMode;
+    }
+
+    /**
+     * Sets whether scripts are executed in bulk mode. If a statement of a batch fails, the error is reported for this
+     * statement. If the error handler does not rethrow the error, the remaining statements of the batch are executed
+     * one by one.
+     *
+     * @param bulkMode true, if statements are executed in batches
+     */
+    public void setBulkMode(boolean bulkMode) {
+        this.bulkMode = bulkMode;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of statements executed in a single batch in bulk mode.
+     *
+     * @param batchSize the batch size, must be greater than zero
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than zero");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * Sets the number of statements after which the connection is committed in bulk mode. If the script fails, the
+     * statements since the last commit are rolled back, regardless of the initial auto-commit mode of the connection.
+     *
+     * @param commitInterval the commit interval, zero to keep the auto-commit mode of the connection
+     */
+    public void setCommitInterval(int commitInterval) {
+        if (commitInterval < 0) {
+            throw new IllegalArgumentException("commitInterval is negative");
+        }
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * @return the number of statements executed by the last script run
+     */
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * @return the time taken by the last script run in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the number of statements per second executed by the last script run
+     */
+    public double getStatementsPerSecond() {
+        return elapsedMillis > 0 ? 1000.0 * statementCount / elapsedMillis : 0.0;
+    }
+
     public void logError(SQLException e, String statement) {
         if (logger != null) {
             logger.severe("SQL script error, before or at line " + lineNumber + ": " + e.getMessage() + "\n" +
@@ -95,11 +184,21 @@ public class ScriptRunner {
     public void runScript(final Connection connection, final Reader reader) throws IOException,
             SQLException {
         initScriptExecution(connection, reader);
+        final long startTime = System.currentTimeMillis();
         try {
-            runScriptImpl();
+            if (bulkMode) {
+                runBulkScriptImpl();
+            } else {
+                runScriptImpl();
+            }
         } finally {
+            elapsedMillis = System.currentTimeMillis() - startTime;
             endScriptExecution();
         }
+        if (logger != null) {
+            logger.info(statementCount + " SQL statement(s) executed in " + elapsedMillis + " ms (" +
+                        Math.round(getStatementsPerSecond()) + " statements/s)");
+        }
     }
 
     private void runScriptImpl() throws IOException,
@@ -124,12 +223,136 @@ public class ScriptRunner {
         consumeSql();
     }
 
+    private void runBulkScriptImpl() throws IOException, SQLException {
+        final ScriptStatementReader statementReader = new ScriptStatementReader(reader);
+        final boolean autoCommit = connection.getAutoCommit();
+        final boolean commit = commitInterval > 0;
+        if (commit && autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        boolean success = false;
+        try {
+            final Statement stmt = connection.createStatement();
+            try {
+                final List<String> batch = new ArrayList<String>(batchSize);
+                final List<Integer> batchLineNumbers = new ArrayList<Integer>(batchSize);
+                long uncommittedCount = 0;
+                String statement;
+                while ((statement = statementReader.readStatement()) != null) {
+                    lineNumber = statementReader.getLineNumber();
+                    sql = statement;
+                    stmt.addBatch(statement);
+                    batch.add(statement);
+                    batchLineNumbers.add(lineNumber);
+                    uncommittedCount++;
+                    if (batch.size() == batchSize || commit && uncommittedCount == commitInterval) {
+                        executeBatch(stmt, batch, batchLineNumbers);
+                    }
+                    if (commit && uncommittedCount == commitInterval) {
+                        connection.commit();
+                        uncommittedCount = 0;
+                    }
+                }
+                executeBatch(stmt, batch, batchLineNumbers);
+                if (commit && uncommittedCount > 0) {
+                    connection.commit();
+                }
+            } finally {
+                stmt.close();
+            }
+            success = true;
+        } finally {
+            if (commit) {
+                try {
+                    if (!success) {
+                        connection.rollback();
+                    }
+                } finally {
+                    if (autoCommit) {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes a batch of statements and clears the given lists. The failing statement is found by the update counts
+     * of the {@link BatchUpdateException}. If the error handler does not rethrow the error, the statements of the
+     * batch which the driver has not executed are executed one by one, as without bulk mode. Only if the driver does
+     * not tell which statements have been executed, the rest of the batch is skipped.
+     */
+    private void executeBatch(Statement stmt, List<String> batch, List<Integer> batchLineNumbers) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            stmt.executeBatch();
+            statementCount += batch.size();
+        } catch (SQLException e) {
+            stmt.clearBatch();
+            final int[] updateCounts = e instanceof BatchUpdateException ?
+                                       ((BatchUpdateException) e).getUpdateCounts() : null;
+            if (updateCounts == null) {
+                logError(e, null);
+                handleError(e);
+            } else if (updateCounts.length < batch.size()) {
+                // the driver has stopped at the failing statement
+                final int failedIndex = updateCounts.length;
+                statementCount += failedIndex;
+                handleBatchError(e, batch.get(failedIndex), batchLineNumbers.get(failedIndex));
+                for (int i = failedIndex + 1; i < batch.size(); i++) {
+                    lineNumber = batchLineNumbers.get(i);
+                    executeStatement(batch.get(i));
+                }
+            } else {
+                // the driver has continued after the failing statements
+                for (int i = 0; i < batch.size(); i++) {
+                    if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                        handleBatchError(e, batch.get(i), batchLineNumbers.get(i));
+                    } else {
+                        statementCount++;
+                    }
+                }
+            }
+        } finally {
+            batch.clear();
+            batchLineNumbers.clear();
+        }
+    }
+
+    private void handleBatchError(SQLException e, String statement, int statementLineNumber) throws SQLException {
+        sql = statement;
+        lineNumber = statementLineNumber;
+        logError(e, null);
+        handleError(e);
+    }
+
+    private void executeStatement(String statement) throws SQLException {
+        try {
+            executeSql(statement);
+        } catch (SQLException e) {
+            logError(e, null);
+            handleError(e);
+        }
+    }
+
+    private void handleError(SQLException e) throws SQLException {
+        if (errorHandler != null) {
+            errorHandler.handleError(this, e);
+        } else {
+            throw e;
+        }
+    }
+
     private void initScriptExecution(Connection connection, Reader reader) {
         this.connection = connection;
         this.reader = new LineNumberReader(reader);
         this.buffer = new StringBuffer();
         this.sql = "";
         this.lineNumber = 0;
+        this.statementCount = 0;
+        this.elapsedMillis = 0;
     }
 
     private void endScriptExecution() {
@@ -161,6 +384,7 @@ public class ScriptRunner {
         final Statement stmt = connection.createStatement();
         stmt.executeUpdate(this.sql);
         stmt.close();
+        statementCount++;
     }
 
     public interface ErrorHandler {
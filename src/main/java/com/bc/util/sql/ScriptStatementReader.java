@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the statements of an SQL script one by one from a character stream, so that only a single statement is held
+ * in memory at a time. Statements are terminated by a semicolon. Semicolons within single-quoted string literals and
+ * double-quoted identifiers, <code>--</code> line comments and <code>/* ... *&#47;</code> block comments are
+ * recognized. Comments are replaced by a single space.
+ */
+class ScriptStatementReader {
+
+    private static final int NONE = -2;
+
+    private final Reader reader;
+    private final StringBuilder buffer;
+    private int pushback;
+    private int lineNumber;
+
+    ScriptStatementReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+        this.buffer = new StringBuilder();
+        this.pushback = NONE;
+        this.lineNumber = 1;
+    }
+
+    /**
+     * @return the number of the line the reader is currently positioned at, starting with one
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Reads the next non-empty statement.
+     *
+     * @return the statement without the terminating semicolon and surrounding whitespace, or null at the end of the
+     *         script
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    String readStatement() throws IOException {
+        buffer.setLength(0);
+        while (true) {
+            final int c = read();
+            if (c == -1) {
+                return buffer.length() > 0 ? takeStatement() : null;
+            }
+            if (c == ';') {
+                if (buffer.length() > 0) {
+                    return takeStatement();
+                }
+            } else if (c == '\'' || c == '"') {
+                buffer.append((char) c);
+                readQuoted(c);
+            } else if (c == '-' && peek() == '-') {
+                skipLineComment();
+                appendSpace();
+            } else if (c == '/' && peek() == '*') {
+                read();
+                skipBlockComment();
+                appendSpace();
+            } else if (Character.isWhitespace(c)) {
+                appendSpace();
+            } else {
+                buffer.append((char) c);
+            }
+        }
+    }
+
+    private String takeStatement() {
+        int length = buffer.length();
+        while (length > 0 && buffer.charAt(length - 1) == ' ') {
+            length--;
+        }
+        buffer.setLength(length);
+        return length > 0 ? buffer.toString() : null;
+    }
+
+    private void appendSpace() {
+        // leading whitespace is dropped, runs of whitespace are collapsed
+        if (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != ' ') {
+            buffer.append(' ');
+        }
+    }
+
+    private void readQuoted(int quote) throws IOException {
+        while (true) {
+            final int c = read();
+            if (c == -1) {
+                return;
+            }
+            buffer.append((char) c);
+            if (c == quote) {
+                // a doubled quote is an escaped quote and continues the literal
+                if (peek() != quote) {
+                    return;
+                }
+                buffer.append((char) read());
+            }
+        }
+    }
+
+    private void skipLineComment() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != '\n');
+    }
+
+    private void skipBlockComment() throws IOException {
+        int c = read();
+        while (c != -1) {
+            final int next = read();
+            if (c == '*' && next == '/') {
+                return;
+            }
+            c = next;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pushback == NONE) {
+            pushback = reader.read();
+        }
+        return pushback;
+    }
+
+    private int read() throws IOException {
+        final int c;
+        if (pushback != NONE) {
+            c = pushback;
+            pushback = NONE;
+        } else {
+            c = reader.read();
+        }
+        if (c == '\n') {
+            lineNumber++;
+        }
+        return c;
+    }
+}
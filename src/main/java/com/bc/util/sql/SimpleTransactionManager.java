@@ -6,19 +6,70 @@
  */
 package com.bc.util.sql;
 
+import org.apache.commons.dbcp.DelegatingConnection;
+
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
+/**
+ * A transaction manager which borrows a connection from a data source for each transaction executed and commits
+ * update transactions immediately.
+ * <p/>
+ * Alternatively, work can be grouped in a transaction context bound to the current thread. The context methods are
+ * not part of the {@link TransactionManager} interface, so the manager must be created by the constructor:
+ * <pre>
+ *     SimpleTransactionManager tm = new SimpleTransactionManager(dataSource);
+ *     tm.begin();
+ *     try {
+ *         tm.execute(t1);
+ *         tm.execute(t2);
+ *         tm.commit();
+ *     } catch (SQLException e) {
+ *         tm.rollback();
+ *         throw e;
+ *     }
+ * </pre>
+ * While a context is active, all transactions executed by the thread share a single connection and are committed
+ * once by the outermost {@link #commit()}. Contexts can be nested: an inner {@link #begin()} sets a savepoint, and the
+ * corresponding {@link #rollback()} only rolls back to this savepoint.
+ * <p/>
+ * Prepared statements can be cached per physical connection, see {@link #setStatementCacheCapacity(int)}.
+ */
 public class SimpleTransactionManager implements TransactionManager {
 
+    private static final Logger logger = Logger.getLogger(SimpleTransactionManager.class.getName());
+
     private final DataSource dataSource;
+    private volatile int statementCacheCapacity;
+    private final AtomicLong statementCacheHitCount;
+    private final AtomicLong statementCacheMissCount;
+    private final Map<Connection, StatementCache> statementCaches;
+    private final ThreadLocal<TransactionContext> transactionContext;
 
-    private SimpleTransactionManager(DataSource dataSource) {
+    /**
+     * Creates a transaction manager which also provides the thread-bound transaction context methods
+     * {@link #begin()}, {@link #commit()} and {@link #rollback()}.
+     *
+     * @param dataSource the data source
+     */
+    public SimpleTransactionManager(DataSource dataSource) {
         if (dataSource == null) {
             throw new IllegalArgumentException("datasource is null");
         }
         this.dataSource = dataSource;
+        this.statementCacheHitCount = new AtomicLong();
+        this.statementCacheMissCount = new AtomicLong();
+        this.statementCaches = new IdentityHashMap<Connection, StatementCache>();
+        this.transactionContext = new ThreadLocal<TransactionContext>();
     }
 
     public static TransactionManager create(DataSource dataSource) {
@@ -29,8 +80,186 @@ public class SimpleTransactionManager implements TransactionManager {
         return dataSource;
     }
 
+    public int getStatementCacheCapacity() {
+        return statementCacheCapacity;
+    }
+
+    /**
+     * Sets the capacity of the {@link StatementCache}s used for the physical connections behind the connections
+     * borrowed from the data source. Caching is disabled by default.
+     * <p/>
+     * A cache is kept as long as its physical connection is open, so statements are only reused across transactions
+     * if the data source is a pool which keeps its physical connections open. For a commons-dbcp pool such as the
+     * {@link PooledDataSource}, the physical connection is found if access to the underlying connections is allowed.
+     * Other connections are taken as physical connections; if they are closed when returned, their cache is dropped.
+     * Note that commons-dbcp can also pool prepared statements itself, which makes this cache redundant.
+     *
+     * @param statementCacheCapacity the maximum number of idle statements per connection, zero disables caching
+     */
+    public void setStatementCacheCapacity(int statementCacheCapacity) {
+        if (statementCacheCapacity < 0) {
+            throw new IllegalArgumentException("statementCacheCapacity is negative");
+        }
+        this.statementCacheCapacity = statementCacheCapacity;
+    }
+
+    public long getStatementCacheHitCount() {
+        return statementCacheHitCount.get();
+    }
+
+    public long getStatementCacheMissCount() {
+        return statementCacheMissCount.get();
+    }
+
+    /**
+     * @return the ratio of statement cache hits to the total number of statements prepared, zero if none has been
+     *         prepared yet
+     */
+    public double getStatementCacheHitRate() {
+        final long hits = statementCacheHitCount.get();
+        final long total = hits + statementCacheMissCount.get();
+        return total > 0 ? (double) hits / total : 0.0;
+    }
+
+    /**
+     * Begins a transaction context for the current thread. If no context is active, a connection is borrowed from the
+     * data source and bound to the thread, otherwise a nested context is begun by setting a savepoint.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void begin() throws SQLException {
+        final TransactionContext context = transactionContext.get();
+        if (context != null) {
+            context.savepoints.add(context.connection.setSavepoint("SP" + (context.savepoints.size() + 1)));
+            context.callbackMarks.add(context.commitCallbacks.size());
+            return;
+        }
+        final Lease lease = borrowConnection();
+        boolean success = false;
+        try {
+            final boolean autoCommit = lease.connection.getAutoCommit();
+            if (autoCommit) {
+                lease.connection.setAutoCommit(false);
+            }
+            transactionContext.set(new TransactionContext(lease, autoCommit));
+            success = true;
+        } finally {
+            if (!success) {
+                releaseConnection(lease);
+            }
+        }
+    }
+
+    /**
+     * Commits the innermost transaction context of the current thread. A nested context only releases its savepoint,
+     * the work is committed when the outermost context is committed. The connection is then returned to the data
+     * source and the commit callbacks of the context are run.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void commit() throws SQLException {
+        final TransactionContext context = getTransactionContext();
+        if (!context.savepoints.isEmpty()) {
+            final Savepoint savepoint = context.savepoints.remove(context.savepoints.size() - 1);
+            context.callbackMarks.remove(context.callbackMarks.size() - 1);
+            context.connection.releaseSavepoint(savepoint);
+            return;
+        }
+        try {
+            try {
+                context.connection.commit();
+            } finally {
+                endTransactionContext(context);
+            }
+        } finally {
+            // also if the commit failed, since it is unknown whether the work has been committed
+            for (Runnable callback : context.commitCallbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * Rolls back the innermost transaction context of the current thread. A nested context rolls back to its
+     * savepoint, the outermost context rolls back all work and returns the connection to the data source.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void rollback() throws SQLException {
+        final TransactionContext context = getTransactionContext();
+        if (!context.savepoints.isEmpty()) {
+            final Savepoint savepoint = context.savepoints.remove(context.savepoints.size() - 1);
+            final int mark = context.callbackMarks.remove(context.callbackMarks.size() - 1);
+            context.commitCallbacks.subList(mark, context.commitCallbacks.size()).clear();
+            context.connection.rollback(savepoint);
+            return;
+        }
+        try {
+            context.connection.rollback();
+        } finally {
+            endTransactionContext(context);
+        }
+    }
+
+    /**
+     * Registers a callback which is run after the transaction context of the current thread has been committed, e.g.
+     * in order to invalidate cached data modified within the context. The callback is dropped if the work of the
+     * context is rolled back; if it is registered in a nested context, a rollback of the nested context suffices.
+     *
+     * @param callback the callback
+     *
+     * @throws IllegalStateException if no transaction context is active
+     */
+    public void addCommitCallback(Runnable callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is null");
+        }
+        getTransactionContext().commitCallbacks.add(callback);
+    }
+
+    /**
+     * @return true, if a transaction context is active for the current thread
+     */
+    public boolean isTransactionContextActive() {
+        return transactionContext.get() != null;
+    }
+
+    /**
+     * @return the nesting depth of the transaction context of the current thread, zero if no context is active
+     */
+    public int getTransactionContextDepth() {
+        final TransactionContext context = transactionContext.get();
+        return context != null ? context.savepoints.size() + 1 : 0;
+    }
+
+    /**
+     * Gets the connection bound to the current thread, e.g. in order to execute {@link Template}s directly within a
+     * transaction context. The connection must not be closed, committed or rolled back by the caller.
+     *
+     * @return the connection of the transaction context, or null if no context is active
+     */
+    public Connection getTransactionContextConnection() {
+        final TransactionContext context = transactionContext.get();
+        return context != null ? context.connection : null;
+    }
+
+    /**
+     * Executes the given transaction. If a transaction context is active for the current thread, the transaction is
+     * executed using its connection and is committed or rolled back together with the context. Otherwise a connection
+     * is borrowed for the transaction and update transactions are committed immediately.
+     *
+     * @param transaction the transaction
+     *
+     * @throws SQLException if a database error occurs
+     */
     public void execute(Transaction transaction) throws SQLException {
-        final Connection connection = dataSource.getConnection();
+        final TransactionContext context = transactionContext.get();
+        if (context != null) {
+            transaction.execute(context.connection);
+            return;
+        }
+        final Lease lease = borrowConnection();
+        final Connection connection = lease.connection;
         boolean mustResetAutoCommit = false;
         try {
             if (transaction.isUpdate()) {
@@ -39,26 +268,12 @@ public class SimpleTransactionManager implements TransactionManager {
                     mustResetAutoCommit = true;
                 }
                 try {
-//                    System.out.println(transaction.getClass().getName());
-//                    if (transaction.getClass().getName().equals("com.bc.util.sql.UpdateTransaction")) {
-//                        System.out.println("Transaction: " + ((UpdateTransaction) transaction).getTemplate().getSql());
-//                    }
                     transaction.execute(connection);
                 } catch (SQLException e) {
-
-                    if (transaction instanceof TemplateTransaction ||
-                            transaction instanceof UpdateTransaction) {
-                        final TemplateTransaction trans = (TemplateTransaction) transaction;
-                        final String sql = trans.getTemplate().getSql();
-                        System.out.println("Last SQL statement causing the error: " + sql);
+                    if (transaction instanceof TemplateTransaction) {
+                        final String sql = ((TemplateTransaction) transaction).getTemplate().getSql();
+                        logger.warning("Last SQL statement causing the error: " + sql);
                     }
-
-                    else if (transaction instanceof CompositeTransaction){
-                        final CompositeTransaction trans = (CompositeTransaction) transaction;
-//                        final String sql = trans.getTemplate().getSql();
-//                        System.out.println("Last SQL statement causing the error: " + sql);
-                     }
-
                     connection.rollback();
                     throw e;
                 }
@@ -67,10 +282,157 @@ public class SimpleTransactionManager implements TransactionManager {
                 transaction.execute(connection);
             }
         } finally {
-            if (mustResetAutoCommit) {
-                connection.setAutoCommit(true);
+            try {
+                if (mustResetAutoCommit) {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                releaseConnection(lease);
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Borrows a connection from the data source. If statement caching is enabled, the connection is wrapped by the
+     * cache of its physical connection.
+     */
+    private Lease borrowConnection() throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        final int capacity = statementCacheCapacity;
+        if (capacity == 0) {
+            return new Lease(connection, null, null);
+        }
+        boolean success = false;
+        try {
+            final Connection physicalConnection = getPhysicalConnection(connection);
+            if (physicalConnection == null) {
+                success = true;
+                return new Lease(connection, null, null);
+            }
+            StatementCache statementCache;
+            synchronized (statementCaches) {
+                statementCache = statementCaches.get(physicalConnection);
+                if (statementCache == null || statementCache.getCapacity() != capacity) {
+                    if (statementCache != null) {
+                        statementCache.close();
+                    }
+                    // a new physical connection, forget the caches of the ones closed in the meantime
+                    for (Iterator<Map.Entry<Connection, StatementCache>> it = statementCaches.entrySet().iterator();
+                         it.hasNext();) {
+                        final Map.Entry<Connection, StatementCache> entry = it.next();
+                        if (entry.getKey().isClosed()) {
+                            entry.getValue().close();
+                            it.remove();
+                        }
+                    }
+                    statementCache = new StatementCache(physicalConnection, capacity);
+                    statementCaches.put(physicalConnection, statementCache);
+                }
+            }
+            final Lease lease = new Lease(statementCache.wrap(connection), physicalConnection, statementCache);
+            success = true;
+            return lease;
+        } finally {
+            if (!success) {
+                connection.close();
             }
-            connection.close();
+        }
+    }
+
+    /**
+     * Closes a borrowed connection, which returns it to the data source. The statement cache is dropped if the
+     * physical connection has been closed.
+     */
+    private void releaseConnection(Lease lease) throws SQLException {
+        try {
+            lease.connection.close();
+        } finally {
+            final StatementCache statementCache = lease.statementCache;
+            if (statementCache != null) {
+                statementCacheHitCount.addAndGet(statementCache.getHitCount() - lease.hitCount);
+                statementCacheMissCount.addAndGet(statementCache.getMissCount() - lease.missCount);
+                if (lease.physicalConnection.isClosed()) {
+                    synchronized (statementCaches) {
+                        if (statementCaches.get(lease.physicalConnection) == statementCache) {
+                            statementCaches.remove(lease.physicalConnection);
+                        }
+                    }
+                    statementCache.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the physical connection, or null if it is not accessible
+     */
+    private static Connection getPhysicalConnection(Connection connection) {
+        if (connection instanceof DelegatingConnection) {
+            return ((DelegatingConnection) connection).getInnermostDelegate();
+        }
+        return connection;
+    }
+
+    private TransactionContext getTransactionContext() {
+        final TransactionContext context = transactionContext.get();
+        if (context == null) {
+            throw new IllegalStateException("no transaction context active");
+        }
+        return context;
+    }
+
+    private void endTransactionContext(TransactionContext context) throws SQLException {
+        transactionContext.remove();
+        try {
+            if (context.mustResetAutoCommit) {
+                context.connection.setAutoCommit(true);
+            }
+        } finally {
+            releaseConnection(context.lease);
+        }
+    }
+
+    /**
+     * A connection borrowed from the data source, together with the statement cache wrapping it.
+     */
+    private static class Lease {
+
+        private final Connection connection;
+        private final Connection physicalConnection;
+        private final StatementCache statementCache;
+        private final int hitCount;
+        private final int missCount;
+
+        private Lease(Connection connection, Connection physicalConnection, StatementCache statementCache) {
+            this.connection = connection;
+            this.physicalConnection = physicalConnection;
+            this.statementCache = statementCache;
+            this.hitCount = statementCache != null ? statementCache.getHitCount() : 0;
+            this.missCount = statementCache != null ? statementCache.getMissCount() : 0;
+        }
+    }
+
+    private static class TransactionContext {
+
+        private final Lease lease;
+        private final Connection connection;
+        private final boolean mustResetAutoCommit;
+        private final List<Savepoint> savepoints;
+        private final List<Runnable> commitCallbacks;
+        // the number of commit callbacks registered before each savepoint
+        private final List<Integer> callbackMarks;
+
+        private TransactionContext(Lease lease, boolean mustResetAutoCommit) {
+            this.lease = lease;
+            this.connection = lease.connection;
+            this.mustResetAutoCommit = mustResetAutoCommit;
+            this.savepoints = new ArrayList<Savepoint>();
+            this.commitCallbacks = new ArrayList<Runnable>();
+            this.callbackMarks = new ArrayList<Integer>();
         }
     }
 }
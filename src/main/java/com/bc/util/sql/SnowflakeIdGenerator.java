@@ -0,0 +1,200 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free generator for unique 64-bit identifiers which can be used as primary keys under high insert rates.
+ * <p/>
+ * An identifier is composed of 41 bits for the milliseconds since the {@link #getEpoch() epoch}, 10 bits for the
+ * {@link #getNodeId() node ID} and 12 bits for a sequence number, so that each node can issue 4096 identifiers per
+ * millisecond. Identifiers issued by generators with different node IDs never collide.
+ * <p/>
+ * The last issued timestamp and sequence number are kept in a single atomic counter which is advanced by
+ * compare-and-set. If the sequence numbers of a millisecond are exhausted, or if the system clock moves backwards,
+ * the generator continues with the following timestamps, ahead of the clock. It fails with an
+ * <code>IllegalStateException</code> if it would have to run ahead of the clock by more than the
+ * {@link #getMaxDriftMillis() maximum drift}, which happens if the clock has been set back considerably.
+ * <p/>
+ * With a {@link #getBlockSize() block size} greater than one, each thread reserves a block of consecutive identifiers
+ * at once, so that the shared counter is only touched once per block. Identifiers are then still unique, but only
+ * ordered per thread.
+ */
+public class SnowflakeIdGenerator {
+
+    /**
+     * The default epoch, 2004-01-01T00:00:00Z.
+     */
+    public static final long DEFAULT_EPOCH = 1072915200000L;
+    public static final long DEFAULT_MAX_DRIFT_MILLIS = 5000L;
+
+    public static final int NODE_ID_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_ID_BITS) - 1;
+
+    private final long epoch;
+    private final int nodeId;
+    private final int blockSize;
+    private final long maxDriftMillis;
+    private final AtomicLong lastTick;
+    private final ThreadLocal<long[]> threadBlock;
+
+    /**
+     * Constructs a new generator using the default epoch and issuing one identifier at a time.
+     *
+     * @param nodeId the node ID in the range 0 to {@link #MAX_NODE_ID}
+     */
+    public SnowflakeIdGenerator(int nodeId) {
+        this(DEFAULT_EPOCH, nodeId, 1, DEFAULT_MAX_DRIFT_MILLIS);
+    }
+
+    /**
+     * Constructs a new generator.
+     *
+     * @param epoch          the epoch in milliseconds since 1970-01-01T00:00:00Z, must not be in the future
+     * @param nodeId         the node ID in the range 0 to {@link #MAX_NODE_ID}
+     * @param blockSize      the number of identifiers reserved per thread at once, at least one
+     * @param maxDriftMillis the maximum time the generator may run ahead of the clock, must not be negative
+     */
+    public SnowflakeIdGenerator(long epoch, int nodeId, int blockSize, long maxDriftMillis) {
+        if (epoch < 0 || epoch > System.currentTimeMillis()) {
+            throw new IllegalArgumentException("epoch out of range");
+        }
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId out of range");
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be greater than zero");
+        }
+        if (maxDriftMillis < 0) {
+            throw new IllegalArgumentException("maxDriftMillis is negative");
+        }
+        this.epoch = epoch;
+        this.nodeId = nodeId;
+        this.blockSize = blockSize;
+        this.maxDriftMillis = maxDriftMillis;
+        this.lastTick = new AtomicLong(-1L);
+        this.threadBlock = blockSize > 1 ? new ThreadLocal<long[]>() : null;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getMaxDriftMillis() {
+        return maxDriftMillis;
+    }
+
+    /**
+     * Gets the next unique identifier.
+     *
+     * @return the identifier, never negative
+     *
+     * @throws IllegalStateException if the clock has been set back by more than the maximum drift
+     */
+    public long getNextLong() {
+        if (threadBlock == null) {
+            return toId(reserve(1));
+        }
+        long[] block = threadBlock.get();
+        if (block == null) {
+            block = new long[2];
+            threadBlock.set(block);
+        }
+        if (block[0] == block[1]) {
+            block[0] = reserve(blockSize);
+            block[1] = block[0] + blockSize;
+        }
+        return toId(block[0]++);
+    }
+
+    /**
+     * Gets the next unique identifier as string.
+     *
+     * @return the identifier as hexadecimal string
+     *
+     * @throws IllegalStateException if the clock has been set back by more than the maximum drift
+     */
+    public String getNextString() {
+        return Long.toHexString(getNextLong());
+    }
+
+    /**
+     * @param id an identifier issued by this generator
+     *
+     * @return the time in milliseconds since 1970-01-01T00:00:00Z encoded in the given identifier
+     */
+    public long getTimestamp(long id) {
+        return (id >>> (NODE_ID_BITS + SEQUENCE_BITS)) + epoch;
+    }
+
+    /**
+     * @param id an identifier issued by a generator
+     *
+     * @return the node ID encoded in the given identifier
+     */
+    public static int getNodeId(long id) {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+
+    /**
+     * @param id an identifier issued by a generator
+     *
+     * @return the sequence number encoded in the given identifier
+     */
+    public static int getSequence(long id) {
+        return (int) id & ((1 << SEQUENCE_BITS) - 1);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the current time in milliseconds since 1970-01-01T00:00:00Z, overridden in tests
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Reserves the given number of consecutive ticks. A tick is the timestamp relative to the epoch shifted left by
+     * the number of sequence bits plus the sequence number, so that sequence overflows carry into the timestamp.
+     *
+     * @return the first reserved tick
+     */
+    private long reserve(int count) {
+        while (true) {
+            final long last = lastTick.get();
+            final long now = currentTimeMillis() - epoch;
+            final long first = Math.max(now << SEQUENCE_BITS, last + 1);
+            final long end = first + count - 1;
+            final long drift = (end >>> SEQUENCE_BITS) - now;
+            if (drift > maxDriftMillis) {
+                throw new IllegalStateException("clock moved backwards, generator is " + drift + " ms ahead");
+            }
+            if (lastTick.compareAndSet(last, end)) {
+                return first;
+            }
+        }
+    }
+
+    private long toId(long tick) {
+        final long timestamp = tick >>> SEQUENCE_BITS;
+        final long sequence = tick & ((1 << SEQUENCE_BITS) - 1);
+        return (timestamp << (NODE_ID_BITS + SEQUENCE_BITS)) | ((long) nodeId << SEQUENCE_BITS) | sequence;
+    }
+}
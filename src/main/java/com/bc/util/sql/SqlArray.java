@@ -0,0 +1,99 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.util.Collection;
+
+/**
+ * An array parameter value together with the SQL type name of its elements. A {@link Template} binds it as a
+ * <code>java.sql.Array</code> created by <code>Connection.createArrayOf</code>, so that the driver knows the element
+ * type. Drivers which do not implement <code>createArrayOf</code> get the plain Java array.
+ */
+public class SqlArray {
+
+    private final String typeName;
+    private final Object[] elements;
+
+    /**
+     * Creates an array parameter value.
+     *
+     * @param typeName the SQL type name of the elements as accepted by <code>Connection.createArrayOf</code>,
+     *                 e.g. <code>"integer"</code> or <code>"varchar"</code>
+     * @param elements the elements
+     */
+    public SqlArray(String typeName, Object[] elements) {
+        if (typeName == null) {
+            throw new IllegalArgumentException("typeName is null");
+        }
+        if (elements == null) {
+            throw new IllegalArgumentException("elements is null");
+        }
+        this.typeName = typeName;
+        this.elements = elements;
+    }
+
+    /**
+     * Creates an array parameter value whose element type name is derived from the class of the first non-null
+     * value.
+     *
+     * @param values the elements, must contain a non-null value of a type known to {@link #getTypeName(Class)}
+     *
+     * @return the array parameter value
+     */
+    public static SqlArray create(Collection values) {
+        for (Object value : values) {
+            if (value != null) {
+                final String typeName = getTypeName(value.getClass());
+                if (typeName == null) {
+                    throw new IllegalArgumentException("no SQL array type for " + value.getClass().getName());
+                }
+                return new SqlArray(typeName, values.toArray());
+            }
+        }
+        throw new IllegalArgumentException("values contain no element of known type");
+    }
+
+    /**
+     * Gets the standard SQL type name for array elements of the given Java type.
+     *
+     * @param type the Java type
+     *
+     * @return the type name, or null if the type is not known
+     */
+    public static String getTypeName(Class type) {
+        if (type == String.class) {
+            return "varchar";
+        } else if (type == Integer.class) {
+            return "integer";
+        } else if (type == Long.class) {
+            return "bigint";
+        } else if (type == Short.class) {
+            return "smallint";
+        } else if (type == Float.class) {
+            return "real";
+        } else if (type == Double.class) {
+            return "double precision";
+        } else if (type == Boolean.class) {
+            return "boolean";
+        } else if (type == java.math.BigDecimal.class) {
+            return "numeric";
+        } else if (type == java.sql.Date.class) {
+            return "date";
+        } else if (type == java.sql.Timestamp.class) {
+            return "timestamp";
+        }
+        return null;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public Object[] getElements() {
+        return elements;
+    }
+}
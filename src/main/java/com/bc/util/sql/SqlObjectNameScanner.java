@@ -0,0 +1,123 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Finds the names of the database objects referenced by SQL text by a simple scan for the names following a set of
+ * keywords. The names following <code>FROM</code> are read as a comma-separated list with optional aliases, after
+ * the other keywords a single name is read. Names are returned in upper case and without quotes; for qualified names
+ * the unqualified name is registered as well, so that qualified and unqualified references match.
+ */
+final class SqlObjectNameScanner {
+
+    private static final Set<String> CLAUSE_KEYWORDS = new HashSet<String>(Arrays.asList(
+            "WHERE", "GROUP", "ORDER", "HAVING", "UNION", "EXCEPT", "INTERSECT", "MINUS", "LIMIT", "OFFSET",
+            "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "OUTER", "CROSS", "NATURAL", "ON", "USING", "SET", "VALUES",
+            "SELECT", "FOR", "WITH"));
+
+    private final Set<String> keywords;
+    private final boolean existenceClauseSkipped;
+    private final boolean qualifierRegistered;
+
+    /**
+     * @param keywords               the keywords, in upper case, which are followed by object names
+     * @param existenceClauseSkipped true, if <code>IF [NOT] EXISTS</code> after a keyword is skipped, otherwise it
+     *                               ends the names
+     * @param qualifierRegistered    true, if the qualifier of a qualified name, e.g. the schema, is registered as
+     *                               an object name as well
+     */
+    SqlObjectNameScanner(Set<String> keywords, boolean existenceClauseSkipped, boolean qualifierRegistered) {
+        this.keywords = keywords;
+        this.existenceClauseSkipped = existenceClauseSkipped;
+        this.qualifierRegistered = qualifierRegistered;
+    }
+
+    /**
+     * Gets the names following one of the keywords in the given SQL, in upper case.
+     */
+    Set<String> scan(String sql) {
+        final Set<String> names = new HashSet<String>();
+        final List<String> tokens = tokenize(sql);
+        for (int i = 0; i < tokens.size(); i++) {
+            final String token = tokens.get(i);
+            if (!keywords.contains(token)) {
+                continue;
+            }
+            final boolean fromClause = token.equals("FROM");
+            int j = i + 1;
+            while (j < tokens.size()) {
+                final String name = tokens.get(j);
+                if (existenceClauseSkipped && (name.equals("IF") || name.equals("NOT") || name.equals("EXISTS"))) {
+                    j++;
+                    continue;
+                }
+                if (name.equals("(") || CLAUSE_KEYWORDS.contains(name) || name.equals("IF")) {
+                    break;
+                }
+                if (!name.equals(",")) {
+                    addName(names, name);
+                }
+                if (!fromClause) {
+                    break;
+                }
+                // skip an alias, continue with the next table of a comma-separated list
+                j++;
+                while (j < tokens.size() && !tokens.get(j).equals(",") && !tokens.get(j).equals("(") &&
+                       !tokens.get(j).equals(")") && !CLAUSE_KEYWORDS.contains(tokens.get(j))) {
+                    j++;
+                }
+                if (j < tokens.size() && tokens.get(j).equals(",")) {
+                    j++;
+                } else {
+                    break;
+                }
+            }
+        }
+        return names;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private static List<String> tokenize(String sql) {
+        final StringTokenizer st = new StringTokenizer(sql, " \t\n\r,()", true);
+        final List<String> tokens = new ArrayList<String>();
+        while (st.hasMoreTokens()) {
+            final String token = st.nextToken();
+            if (token.equals(",") || token.equals("(") || token.equals(")")) {
+                tokens.add(token);
+            } else if (token.trim().length() > 0) {
+                tokens.add(token.toUpperCase());
+            }
+        }
+        return tokens;
+    }
+
+    private void addName(Set<String> names, String name) {
+        name = name.replace("\"", "").replace("`", "");
+        if (name.length() == 0 || name.startsWith("${")) {
+            return;
+        }
+        names.add(name);
+        final int dotIndex = name.lastIndexOf('.');
+        if (dotIndex >= 0 && dotIndex < name.length() - 1) {
+            names.add(name.substring(dotIndex + 1));
+            if (qualifierRegistered && dotIndex > 0) {
+                // the qualifier, e.g. the schema, must exist before the object can be created
+                addName(names, name.substring(0, dotIndex));
+            }
+        }
+    }
+}
@@ -22,13 +22,26 @@ public class SqlUtils {
         }
     }
 
-    // @todo 2 tb/tb add test and javadoc
+    /**
+     * Appends an OR-expression for the semicolon-separated alternatives of a column value pattern. Since the
+     * resulting SQL depends on the number of alternatives, consider using {@link CriteriaBuilder}, which produces SQL
+     * that can be reused by the {@link TemplateCache} and the {@link StatementCache}.
+     *
+     * @see #appendWildcardAlternatives(String, String, String, Map, List, boolean)
+     */
     public static void appendWildcardAlternatives(String columnName, String columnValuePattern, String parameterName,
                                                   Map parameterMap, List criteriaList) {
         appendWildcardAlternatives(columnName, columnValuePattern, parameterName, parameterMap, criteriaList, true);
     }
 
-    // @todo 2 tb/tb add test and javadoc
+    /**
+     * Appends an OR-expression for the semicolon-separated alternatives of a column value pattern. A <code>*</code>
+     * is a wildcard, alternatives containing wildcards are matched with <code>LIKE</code>, all others with
+     * <code>=</code>. The parameters are named <code>parameterName</code>, <code>parameterName_2</code>,
+     * <code>parameterName_2_3</code> and so on.
+     *
+     * @see CriteriaBuilder#addWildcardAlternatives
+     */
     public static void appendWildcardAlternatives(String columnName, String columnValuePattern, String parameterName,
                                                   Map parameterMap, List criteriaList, boolean underscoreSensitive) {
         final StringTokenizer st = new StringTokenizer(columnValuePattern, ";");
@@ -74,13 +87,51 @@ public class SqlUtils {
     }
 
     public static BasicDataSource createDatasource(DataSourceConfig dataSourceConfig) {
-        final BasicDataSource result = new BasicDataSource();
+        return createPooledDataSource(dataSourceConfig);
+    }
+
+    /**
+     * Creates a pooled data source for the given configuration. The returned data source records metrics about
+     * borrowing connections, see {@link PooledDataSource}.
+     * <p/>
+     * Note that abandoned connections are only reclaimed by commons-dbcp when a connection is borrowed while the pool
+     * is nearly exhausted, and that prepared statement pooling makes the {@link StatementCache} of the
+     * {@link SimpleTransactionManager} redundant.
+     *
+     * @param dataSourceConfig the configuration, must not be null
+     *
+     * @return the pooled data source
+     */
+    public static PooledDataSource createPooledDataSource(DataSourceConfig dataSourceConfig) {
+        if (dataSourceConfig == null) {
+            throw new IllegalArgumentException("dataSourceConfig is null");
+        }
+        final PooledDataSource result = new PooledDataSource();
 
         result.setDriverClassName(dataSourceConfig.getDriver());
         result.setUrl(dataSourceConfig.getUrl());
         result.setUsername(dataSourceConfig.getUsername());
         result.setPassword(dataSourceConfig.getPassword());
 
+        result.setInitialSize(dataSourceConfig.getInitialSize());
+        result.setMaxActive(dataSourceConfig.getMaxActive());
+        result.setMaxIdle(dataSourceConfig.getMaxIdle());
+        result.setMinIdle(dataSourceConfig.getMinIdle());
+        result.setMaxWait(dataSourceConfig.getMaxWait());
+
+        result.setValidationQuery(dataSourceConfig.getValidationQuery());
+        result.setTestOnBorrow(dataSourceConfig.isTestOnBorrow());
+        result.setTestWhileIdle(dataSourceConfig.isTestWhileIdle());
+        result.setTimeBetweenEvictionRunsMillis(dataSourceConfig.getTimeBetweenEvictionRunsMillis());
+        result.setMinEvictableIdleTimeMillis(dataSourceConfig.getMinEvictableIdleTimeMillis());
+
+        result.setPoolPreparedStatements(dataSourceConfig.isPoolPreparedStatements());
+        result.setMaxOpenPreparedStatements(dataSourceConfig.getMaxOpenPreparedStatements());
+
+        result.setRemoveAbandoned(dataSourceConfig.isRemoveAbandoned());
+        result.setRemoveAbandonedTimeout(dataSourceConfig.getRemoveAbandonedTimeout());
+        result.setLogAbandoned(dataSourceConfig.isLogAbandoned());
+
         return result;
     }
 
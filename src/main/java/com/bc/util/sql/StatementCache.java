@@ -0,0 +1,294 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of prepared statements for a single database connection.
+ * <p/>
+ * The cache provides a {@link #getConnection() caching connection} which can be used in place of the original one.
+ * Calls to <code>prepareStatement(String)</code> on the caching connection return an idle cached statement for the
+ * same SQL if available. Closing such a statement does not close it but returns it to the cache. Closing the caching
+ * connection closes all cached statements and the original connection. Since nothing else changes for the callers,
+ * {@link Template}s and transactions such as the {@link QueryForCountTransaction} use the cache transparently.
+ * <p/>
+ * A cache can also outlive the connections handed out by a pool for the same physical connection: {@link #wrap}
+ * returns a caching view of a pooled connection whose <code>close()</code> only returns the pooled connection, while
+ * the statements stay prepared on the physical connection the cache has been created for.
+ * <p/>
+ * Idle statements handed out again have their fetch size, maximum number of rows and query timeout reset to the
+ * defaults, so settings of a previous caller do not leak into the next one.
+ * <p/>
+ * Instances of this class are meant to be used by one thread at a time, just as the connection itself.
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private final Connection connection;
+    private final Connection cachingConnection;
+    private final LinkedHashMap<String, PreparedStatement> idleStatements;
+    private final int capacity;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+    private boolean closed;
+
+    /**
+     * Constructs a new statement cache for the given connection.
+     *
+     * @param connection the connection, must not be null
+     * @param capacity   the maximum number of idle statements kept open
+     */
+    public StatementCache(Connection connection, int capacity) {
+        if (connection == null) {
+            throw new IllegalArgumentException("connection is null");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity is negative");
+        }
+        this.connection = connection;
+        this.capacity = capacity;
+        this.idleStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.capacity) {
+                    evictionCount++;
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.cachingConnection = createCachingConnection(connection, true);
+    }
+
+    /**
+     * Gets the caching connection which delegates all calls to the original connection, except for
+     * <code>prepareStatement(String)</code> and <code>close()</code>.
+     *
+     * @return the caching connection, never null
+     */
+    public Connection getConnection() {
+        return cachingConnection;
+    }
+
+    /**
+     * Gets a caching view of another connection to the same physical connection, e.g. a connection borrowed from a
+     * pool. All calls are delegated to the given connection, except for <code>prepareStatement(String)</code>, which
+     * uses this cache. Closing the view closes the given connection, but neither this cache nor its statements.
+     *
+     * @param connection the connection, must not be null
+     *
+     * @return the caching view, never null
+     */
+    public Connection wrap(Connection connection) {
+        if (connection == null) {
+            throw new IllegalArgumentException("connection is null");
+        }
+        return createCachingConnection(connection, false);
+    }
+
+    /**
+     * Prepares a statement for the given SQL or takes an idle one from the cache. The statement must be closed after
+     * use in order to return it to the cache.
+     *
+     * @param sql the SQL code
+     *
+     * @return the prepared statement, never null
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(sql, cachingConnection);
+    }
+
+    /**
+     * Closes all idle statements. Statements still in use are closed when they are released.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (Iterator<PreparedStatement> it = idleStatements.values().iterator(); it.hasNext();) {
+                closeQuietly(it.next());
+            }
+            idleStatements.clear();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        return idleStatements.size();
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the ratio of hits to the total number of statements prepared, zero if none has been prepared yet
+     */
+    public double getHitRate() {
+        final int total = hitCount + missCount;
+        return total > 0 ? (double) hitCount / total : 0.0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private Connection createCachingConnection(Connection target, boolean closeCache) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class},
+                                                   new ConnectionHandler(target, closeCache));
+    }
+
+    private PreparedStatement prepareStatement(String sql, Connection owner) throws SQLException {
+        if (closed) {
+            throw new SQLException("statement cache is closed");
+        }
+        PreparedStatement stmt = idleStatements.remove(sql);
+        if (stmt != null) {
+            hitCount++;
+            try {
+                stmt.setFetchSize(0);
+                stmt.setMaxRows(0);
+                stmt.setQueryTimeout(0);
+            } catch (SQLException e) {
+                closeQuietly(stmt);
+                throw e;
+            }
+        } else {
+            missCount++;
+            stmt = connection.prepareStatement(sql);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                                          new Class[]{PreparedStatement.class},
+                                                          new StatementHandler(sql, stmt, owner));
+    }
+
+    private void release(String sql, PreparedStatement stmt) {
+        if (closed || capacity == 0 || idleStatements.containsKey(sql)) {
+            closeQuietly(stmt);
+            return;
+        }
+        try {
+            stmt.clearParameters();
+            stmt.clearBatch();
+        } catch (SQLException e) {
+            closeQuietly(stmt);
+            return;
+        }
+        idleStatements.put(sql, stmt);
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // ignore, the statement is discarded anyway
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final boolean closeCache;
+
+        private ConnectionHandler(Connection target, boolean closeCache) {
+            this.target = target;
+            this.closeCache = closeCache;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (name.equals("prepareStatement") && args.length == 1) {
+                return prepareStatement((String) args[0], (Connection) proxy);
+            } else if (name.equals("close") && args == null) {
+                if (closeCache) {
+                    StatementCache.this.close();
+                }
+                return StatementCache.invoke(target, method, args);
+            } else if (name.equals("equals") && args.length == 1) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode") && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            return StatementCache.invoke(target, method, args);
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+
+        private final String sql;
+        private final PreparedStatement stmt;
+        private final Connection owner;
+        private boolean released;
+
+        private StatementHandler(String sql, PreparedStatement stmt, Connection owner) {
+            this.sql = sql;
+            this.stmt = stmt;
+            this.owner = owner;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (name.equals("close") && args == null) {
+                if (!released) {
+                    released = true;
+                    release(sql, stmt);
+                }
+                return null;
+            } else if (name.equals("isClosed") && args == null) {
+                return released || stmt.isClosed();
+            } else if (name.equals("getConnection") && args == null) {
+                return owner;
+            } else if (name.equals("equals") && args.length == 1) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode") && args == null) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString") && args == null) {
+                return stmt.toString();
+            }
+            if (released) {
+                throw new SQLException("statement is closed");
+            }
+            return StatementCache.invoke(stmt, method, args);
+        }
+    }
+}
@@ -4,25 +4,30 @@
  */
 package com.bc.util.sql;
 
+import com.bc.util.geom.Geometry;
 import com.bc.util.prop.Property;
-import com.bc.util.prop.PropertyNotFoundException;
-import com.bc.util.prop.PropertyParser;
 import com.bc.util.sql.conv.DefaultValueConverter;
 import com.bc.util.sql.conv.JavaToJdbcValueConverter;
 import com.bc.util.sql.conv.JdbcToJavaValueConverter;
 import com.bc.util.sql.conv.ValueConverter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.ParseException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 /**
  * <p> A utility class which represents a dynamic template for SQL. Instances of this class are created using "template
@@ -46,16 +51,24 @@ import java.util.StringTokenizer;
  */
 public class Template {
 
+    private final CompiledTemplate compiledTemplate;
     private final String sql;
     private final Class parameterType;
     private final Class resultType;
     private final Property[] parameterProperties;
     private final Property[] resultProperties;
-    private final ValueProperty resultValueProperty;
+    private final Property resultValueProperty;
     private Map javaToJdbcValueConverterMap;
     private Map jdbcToJavaValueConverterMap;
     private final JavaToJdbcValueConverter defaultJavaToJdbcValueConverter;
     private final JdbcToJavaValueConverter defaultJdbcToJavaValueConverter;
+    private JavaToJdbcValueConverter[] parameterConverters;
+    private JdbcToJavaValueConverter[] resultConverters;
+    private JdbcToJavaValueConverter resultValueConverter;
+    private JdbcToJavaValueConverter[] customResultConverters;
+    private RowMapper rowMapper;
+    private ValueConverter geometryConverter;
+    private int fetchSize;
 
     /**
      * Constructs a new template using the given template SQL, parameter and result types.
@@ -69,46 +82,45 @@ public class Template {
      *                      interface.
      */
     public Template(String templateSql, Class parameterType, Class resultType) {
-        final StringTokenizer st = new StringTokenizer(templateSql, " \t\n\r,()", false);
-        final List paramNameList = new ArrayList();
-        final List resultNameList = new ArrayList();
-        boolean asSeen = false;
-        while (st.hasMoreTokens()) {
-            final String token = st.nextToken();
-            if (!asSeen) {
-                if (token.equalsIgnoreCase("AS")) {
-                    asSeen = true;
-                } else if (token.startsWith("${") && token.endsWith("}")) {
-                    paramNameList.add(token);
-                }
-            } else {
-                resultNameList.add(token);
-                asSeen = false;
-            }
-        }
-        if (paramNameList.size() > 0) {
-            final StringBuffer sb = new StringBuffer(templateSql);
-            for (int i = 0; i < paramNameList.size(); i++) {
-                final String token = (String) paramNameList.get(i);
-                final int index = sb.indexOf(token);
-                sb.replace(index, index + token.length(), "?");
-                paramNameList.set(i, token.substring(2, token.length() - 1));
-            }
-            templateSql = sb.toString();
+        this(new CompiledTemplate(templateSql, parameterType, resultType));
+    }
+
+    /**
+     * Constructs a new template from an already compiled template. Compiled templates can be shared, e.g. by obtaining
+     * them from a {@link TemplateCache}, whereas the value converters added to this template only apply to this
+     * instance.
+     *
+     * @param compiledTemplate the compiled template, must not be null
+     */
+    public Template(CompiledTemplate compiledTemplate) {
+        if (compiledTemplate == null) {
+            throw new IllegalArgumentException("compiledTemplate is null");
         }
 
         final ValueConverter defaultValueConverter = new DefaultValueConverter();
 
-        this.sql = templateSql;
-        this.parameterType = parameterType;
-        this.resultType = resultType;
-        this.resultValueProperty = isValueType(resultType) ? new ValueProperty(resultType) : null;
-        this.parameterProperties = createProperties(paramNameList, parameterType, true);
-        this.resultProperties = createProperties(resultNameList, resultType, true);
+        this.compiledTemplate = compiledTemplate;
+        this.sql = compiledTemplate.getSql();
+        this.parameterType = compiledTemplate.getParameterType();
+        this.resultType = compiledTemplate.getResultType();
+        this.resultValueProperty = compiledTemplate.getResultValueProperty();
+        this.parameterProperties = compiledTemplate.getParameterProperties();
+        this.resultProperties = compiledTemplate.getResultProperties();
         this.javaToJdbcValueConverterMap = null;
         this.jdbcToJavaValueConverterMap = null;
         this.defaultJavaToJdbcValueConverter = defaultValueConverter;
         this.defaultJdbcToJavaValueConverter = defaultValueConverter;
+        updateParameterConverters();
+        updateResultConverters();
+    }
+
+    /**
+     * Gets the compiled template this template is based on.
+     *
+     * @return the compiled template, never null
+     */
+    public CompiledTemplate getCompiledTemplate() {
+        return compiledTemplate;
     }
 
     /**
@@ -157,11 +169,57 @@ public class Template {
         return resultProperties;
     }
 
+    /**
+     * Gets the number of rows fetched from the database at once when executing queries.
+     *
+     * @return the fetch size, zero if the driver's default is used
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Sets the number of rows fetched from the database at once when executing queries. A moderate fetch size keeps
+     * the memory consumption of {@link #executeQueryForEach} and {@link #executeQueryForIterator} constant for large
+     * result sets. Note that some drivers only use server-side cursors if auto-commit is off.
+     *
+     * @param fetchSize the fetch size, zero to use the driver's default
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("fetchSize is negative");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Gets the converter used for all geometry properties of this template.
+     *
+     * @return the geometry converter, or null if the default converter is used
+     */
+    public ValueConverter getGeometryConverter() {
+        return geometryConverter;
+    }
+
+    /**
+     * Sets the converter used for all parameter and result properties of this template whose type is a
+     * {@link com.bc.util.geom.Geometry}, e.g. a {@link com.bc.util.sql.conv.WKBGeometryConverter} in order to store
+     * geometries in binary form. Converters added for single properties take precedence.
+     *
+     * @param geometryConverter the geometry converter, or null to use the default converter
+     */
+    public void setGeometryConverter(ValueConverter geometryConverter) {
+        this.geometryConverter = geometryConverter;
+        updateParameterConverters();
+        updateResultConverters();
+    }
+
     public void addJavaToJdbcValueConverter(String name, JavaToJdbcValueConverter converter) {
         if (javaToJdbcValueConverterMap == null) {
             javaToJdbcValueConverterMap = new HashMap();
         }
         javaToJdbcValueConverterMap.put(name, converter);
+        updateParameterConverters();
     }
 
     public void removeJavaToJdbcValueConverter(String name) {
@@ -170,6 +228,7 @@ public class Template {
             if (javaToJdbcValueConverterMap.isEmpty()) {
                 javaToJdbcValueConverterMap = null;
             }
+            updateParameterConverters();
         }
     }
 
@@ -178,6 +237,7 @@ public class Template {
             jdbcToJavaValueConverterMap = new HashMap();
         }
         jdbcToJavaValueConverterMap.put(name, converter);
+        updateResultConverters();
     }
 
     public void removeJdbcToJavaValueConverter(String name) {
@@ -186,16 +246,17 @@ public class Template {
             if (jdbcToJavaValueConverterMap.isEmpty()) {
                 jdbcToJavaValueConverterMap = null;
             }
+            updateResultConverters();
         }
     }
 
     public Object executeQueryForObject(Connection connection, Object parameterObject) throws SQLException {
-        final PreparedStatement stmt = prepareStatement(connection, parameterObject);
+        final PreparedStatement stmt = prepareQuery(connection, parameterObject);
         try {
             final ResultSet rs = stmt.executeQuery();
             try {
                 if (rs.next()) {
-                    return createOutputObject(rs);
+                    return createOutputObject(rs, compiledTemplate.getColumnLayout(rs));
                 }
 
                 // @todo 2 ok/** fail if more than one result available?
@@ -260,12 +321,13 @@ public class Template {
     
     public void executeQueryForCollection(Connection connection, Object parameterObject, Collection resultContainer)
 			throws SQLException {
-		final PreparedStatement stmt = prepareStatement(connection, parameterObject);
+		final PreparedStatement stmt = prepareQuery(connection, parameterObject);
         try {
             final ResultSet rs = stmt.executeQuery();
             try {
+                final ColumnLayout layout = compiledTemplate.getColumnLayout(rs);
                 while (rs.next()) {
-                    final Object outputObject = createOutputObject(rs);
+                    final Object outputObject = createOutputObject(rs, layout);
                     resultContainer.add(outputObject);
                 }
             } finally {
@@ -276,6 +338,74 @@ public class Template {
         }
 	}
 
+    /**
+     * Executes the query represented by this template and passes each result object to the given row handler as soon
+     * as it has been read. In contrast to {@link #executeQueryForCollection} no result object is retained, so that
+     * result sets of any size can be processed in constant memory. The statement and the result set are closed before
+     * this method returns.
+     *
+     * @param connection      the database connection, must not be null
+     * @param parameterObject the parameter object providing the property values, can be null if this template does not
+     *                        have parameters
+     * @param rowHandler      the handler receiving the result objects, must not be null
+     *
+     * @return the number of rows handled
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public int executeQueryForEach(Connection connection, Object parameterObject, RowHandler rowHandler)
+            throws SQLException {
+        if (rowHandler == null) {
+            throw new IllegalArgumentException("rowHandler is null");
+        }
+        int rowCount = 0;
+        final PreparedStatement stmt = prepareQuery(connection, parameterObject);
+        try {
+            final ResultSet rs = stmt.executeQuery();
+            try {
+                final ColumnLayout layout = compiledTemplate.getColumnLayout(rs);
+                while (rs.next()) {
+                    rowHandler.handleRow(createOutputObject(rs, layout));
+                    rowCount++;
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+        return rowCount;
+    }
+
+    /**
+     * Executes the query represented by this template and returns an iterator over the result objects. The result set
+     * is kept open and read while iterating. It is closed as soon as the iterator is exhausted; callers which stop
+     * iterating early must call {@link ResultIterator#close()}.
+     *
+     * @param connection      the database connection, must not be null. It must not be closed while iterating.
+     * @param parameterObject the parameter object providing the property values, can be null if this template does not
+     *                        have parameters
+     *
+     * @return the iterator over the result objects, never null
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public ResultIterator executeQueryForIterator(Connection connection, Object parameterObject) throws SQLException {
+        final PreparedStatement stmt = prepareQuery(connection, parameterObject);
+        try {
+            final ResultSet rs = stmt.executeQuery();
+            try {
+                return new ResultIterator(this, stmt, rs, compiledTemplate.getColumnLayout(rs));
+            } catch (SQLException e) {
+                rs.close();
+                throw e;
+            }
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
     public Integer executeCount(Connection connection, Object parameterObject) throws SQLException {
         final Integer count;
         final PreparedStatement stmt = prepareStatement(connection, parameterObject);
@@ -315,6 +445,60 @@ public class Template {
         }
     }
 
+    /**
+     * Executes an update statement for each of the given parameter objects using JDBC batch updates. A single
+     * statement is prepared, the parameter values of up to <code>batchSize</code> parameter objects are added to the
+     * current batch before it is sent to the database in one round trip.
+     *
+     * @param connection       the database connection, must not be null
+     * @param parameterObjects the parameter objects providing the property values, must not be null
+     * @param batchSize        the maximum number of rows sent to the database in one batch, must be greater than zero
+     *
+     * @return the update counts, one for each parameter object in iteration order
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public int[] executeBatch(Connection connection, Iterable parameterObjects, int batchSize) throws SQLException {
+        if (parameterObjects == null) {
+            throw new IllegalArgumentException("parameterObjects is null");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than zero");
+        }
+        // sized by the number of parameter objects if known, otherwise grown on demand
+        final int expectedCount = parameterObjects instanceof Collection ? ((Collection) parameterObjects).size() : 0;
+        int[] updateCounts = new int[expectedCount];
+        int numUpdateCounts = 0;
+        int numBatched = 0;
+        final PreparedStatement stmt = connection.prepareStatement(sql);
+        try {
+            for (Object parameterObject : parameterObjects) {
+                setParameters(stmt, parameterObject);
+                stmt.addBatch();
+                numBatched++;
+                if (numBatched == batchSize) {
+                    final int[] batchUpdateCounts = stmt.executeBatch();
+                    updateCounts = appendUpdateCounts(updateCounts, numUpdateCounts, batchUpdateCounts);
+                    numUpdateCounts += batchUpdateCounts.length;
+                    numBatched = 0;
+                }
+            }
+            if (numBatched > 0) {
+                final int[] batchUpdateCounts = stmt.executeBatch();
+                updateCounts = appendUpdateCounts(updateCounts, numUpdateCounts, batchUpdateCounts);
+                numUpdateCounts += batchUpdateCounts.length;
+            }
+        } finally {
+            stmt.close();
+        }
+        if (numUpdateCounts == updateCounts.length) {
+            return updateCounts;
+        }
+        final int[] result = new int[numUpdateCounts];
+        System.arraycopy(updateCounts, 0, result, 0, numUpdateCounts);
+        return result;
+    }
+
     /**
      * Creates a prepared statement for the given connection and parameter object. The provided parameter object
      * provides the parameter values for the statement via its properties.
@@ -328,7 +512,29 @@ public class Template {
      * @throws SQLException if a database error occurs
      */
     public PreparedStatement prepareStatement(Connection connection, Object parameterObject) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(sql);
+        final PreparedStatement stmt = connection.prepareStatement(sql);
+        boolean success = false;
+        try {
+            setParameters(stmt, parameterObject);
+            success = true;
+        } finally {
+            if (!success) {
+                stmt.close();
+            }
+        }
+        return stmt;
+    }
+
+    /**
+     * Sets the parameters of the given prepared statement to the property values of the given parameter object.
+     *
+     * @param stmt            a statement prepared for the SQL of this template, must not be null
+     * @param parameterObject the parameter object providing the property values, can be null if this template does not
+     *                        have parameters
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void setParameters(PreparedStatement stmt, Object parameterObject) throws SQLException {
         if (parameterProperties != null) {
             if (parameterObject == null) {
                 throw new IllegalArgumentException("parameterObject is null");
@@ -336,26 +542,137 @@ public class Template {
             if (parameterObject != null && !parameterType.isAssignableFrom(parameterObject.getClass())) {
                 throw new IllegalArgumentException("parameterObject is not a " + parameterType.getName());
             }
+            final JavaToJdbcValueConverter[] converters = parameterConverters;
             for (int i = 0; i < parameterProperties.length; i++) {
                 final Property property = parameterProperties[i];
                 final Object javaValue = property.getValue(parameterObject);
-                final Object jdbcValue = convertJavaToJdbcValue(property, javaValue);
-                stmt.setObject(i + 1, jdbcValue);
+                final Object jdbcValue = converters[i].convertJavaToJdbcValue(property, javaValue);
+                setParameter(stmt, i + 1, jdbcValue);
+            }
+        }
+    }
+
+    /**
+     * Sets a single parameter. Streams, channels and byte buffers are streamed to the database instead of being
+     * passed to <code>setObject</code>, so that large objects need not be held in memory. Drivers which do not
+     * implement the JDBC 4 methods for streams of unknown length get the stream contents as an array.
+     */
+    static void setParameter(PreparedStatement stmt, int index, Object jdbcValue) throws SQLException {
+        if (jdbcValue instanceof ReadableByteChannel) {
+            jdbcValue = Channels.newInputStream((ReadableByteChannel) jdbcValue);
+        }
+        if (jdbcValue instanceof ByteBuffer) {
+            final ByteBuffer buffer = ((ByteBuffer) jdbcValue).duplicate();
+            stmt.setBinaryStream(index, new ByteBufferInputStream(buffer), buffer.remaining());
+        } else if (jdbcValue instanceof InputStream) {
+            try {
+                stmt.setBinaryStream(index, (InputStream) jdbcValue);
+            } catch (AbstractMethodError e) {
+                stmt.setBytes(index, readFully((InputStream) jdbcValue));
+            }
+        } else if (jdbcValue instanceof Reader) {
+            try {
+                stmt.setCharacterStream(index, (Reader) jdbcValue);
+            } catch (AbstractMethodError e) {
+                stmt.setString(index, readFully((Reader) jdbcValue));
+            }
+        } else if (jdbcValue instanceof SqlArray) {
+            final SqlArray array = (SqlArray) jdbcValue;
+            try {
+                stmt.setArray(index, stmt.getConnection().createArrayOf(array.getTypeName(), array.getElements()));
+            } catch (AbstractMethodError e) {
+                stmt.setObject(index, array.getElements());
+            } catch (SQLFeatureNotSupportedException e) {
+                stmt.setObject(index, array.getElements());
+            }
+        } else {
+            stmt.setObject(index, jdbcValue);
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws SQLException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new SQLException("failed to read parameter stream: " + e.getMessage(), e);
+        }
+    }
+
+    private static String readFully(Reader reader) throws SQLException {
+        try {
+            final StringBuilder sb = new StringBuilder();
+            final char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            throw new SQLException("failed to read parameter stream: " + e.getMessage(), e);
+        }
+    }
+
+    private PreparedStatement prepareQuery(Connection connection, Object parameterObject) throws SQLException {
+        final PreparedStatement stmt = prepareStatement(connection, parameterObject);
+        if (fetchSize > 0) {
+            try {
+                stmt.setFetchSize(fetchSize);
+            } catch (SQLException e) {
+                stmt.close();
+                throw e;
             }
         }
         return stmt;
     }
 
-    private Object createOutputObject(ResultSet rs) throws SQLException {
-        if (isValueType(resultType)) {
+    private static int[] appendUpdateCounts(int[] updateCounts, int numUpdateCounts, int[] batchUpdateCounts) {
+        if (numUpdateCounts + batchUpdateCounts.length > updateCounts.length) {
+            final int[] newUpdateCounts = new int[Math.max(2 * updateCounts.length,
+                                                           numUpdateCounts + batchUpdateCounts.length)];
+            System.arraycopy(updateCounts, 0, newUpdateCounts, 0, numUpdateCounts);
+            updateCounts = newUpdateCounts;
+        }
+        System.arraycopy(batchUpdateCounts, 0, updateCounts, numUpdateCounts, batchUpdateCounts.length);
+        return updateCounts;
+    }
+
+    /**
+     * Gets the result converters which differ from the default conversion, e.g. converters added for a property or
+     * the geometry converter. Results of templates with equal SQL are only interchangeable if these are equal.
+     *
+     * @return the converters in the order of the result properties, with null for each property converted by
+     *         default, or null if all results are converted by default
+     */
+    JdbcToJavaValueConverter[] getCustomResultConverters() {
+        return customResultConverters;
+    }
+
+    /**
+     * Creates the result object for the current row. Columns are read by their index in the given layout. Java Bean
+     * results are mapped by the specialized {@link RowMapper} of the compiled template unless a result property is
+     * converted by a value converter or the geometry converter of this template, in which case all values are read
+     * with <code>getObject</code> and converted reflectively.
+     */
+    Object createOutputObject(ResultSet rs, ColumnLayout layout) throws SQLException {
+        final RowMapper rowMapper = this.rowMapper;
+        if (rowMapper != null) {
+            return rowMapper.mapRow(rs, layout);
+        }
+        if (resultValueProperty != null) {
             final Property property = resultValueProperty;
             final Object jdbcValue;
             if (resultProperties != null) {
-                jdbcValue = rs.getObject(property.getName());
+                jdbcValue = rs.getObject(layout.getColumnIndex(0));
             } else {
                 jdbcValue = rs.getObject(1);
             }
-            return convertJdbcToJavaValue(property, jdbcValue);
+            return resultValueConverter.convertJdbcToJavaValue(property, jdbcValue);
         } else {
             final Object resultObject;
             if (Map.class.isAssignableFrom(resultType)) {
@@ -369,12 +686,13 @@ public class Template {
                     throw new RuntimeException(e);
                 }
             }
+            final JdbcToJavaValueConverter[] converters = resultConverters;
             for (int i = 0; i < resultProperties.length; i++) {
                 final Property property = resultProperties[i];
-                final Object jdbcValue = rs.getObject(property.getName());
+                final Object jdbcValue = rs.getObject(layout.getColumnIndex(i));
                 final Object javaValue;
                 try {
-                    javaValue = convertJdbcToJavaValue(property, jdbcValue);
+                    javaValue = converters[i].convertJdbcToJavaValue(property, jdbcValue);
                 } catch (RuntimeException e) {
                     throw new RuntimeException(e.getClass().getName() + " during Conversion of property '" +
                                                property.getName() + "' of object '" + resultObject + "': " + e.getMessage(),
@@ -386,149 +704,123 @@ public class Template {
         }
     }
 
-    private Object convertJavaToJdbcValue(final Property property, final Object javaValue) {
-        JavaToJdbcValueConverter javaToJdbcValueConverter = getJavaToJdbcValueConverter(property);
-        return javaToJdbcValueConverter.convertJavaToJdbcValue(property, javaValue);
-    }
-
     /**
-     * @param property
-     *
-     * @return never null
+     * Resolves the converter for each parameter property, so that parameters are converted without lookups.
      */
-    private JavaToJdbcValueConverter getJavaToJdbcValueConverter(final Property property) {
-        JavaToJdbcValueConverter javaToJdbcValueConverter = null;
-        if (javaToJdbcValueConverterMap != null) {
-            javaToJdbcValueConverter = (JavaToJdbcValueConverter) javaToJdbcValueConverterMap.get(property.getName());
-        }
-        if (javaToJdbcValueConverter == null) {
-            javaToJdbcValueConverter = defaultJavaToJdbcValueConverter;
+    private void updateParameterConverters() {
+        if (parameterProperties == null) {
+            parameterConverters = null;
+            return;
         }
-        if (javaToJdbcValueConverter == null) {
-            throw new IllegalStateException("no default javaToJdbcValueConverter available");
+        final JavaToJdbcValueConverter[] converters = new JavaToJdbcValueConverter[parameterProperties.length];
+        for (int i = 0; i < converters.length; i++) {
+            final String name = parameterProperties[i].getName();
+            JavaToJdbcValueConverter converter = null;
+            if (javaToJdbcValueConverterMap != null) {
+                converter = (JavaToJdbcValueConverter) javaToJdbcValueConverterMap.get(name);
+            }
+            if (converter == null && isGeometryProperty(parameterProperties[i])) {
+                converter = geometryConverter;
+            }
+            converters[i] = converter != null ? converter : defaultJavaToJdbcValueConverter;
         }
-        return javaToJdbcValueConverter;
-    }
-
-    private Object convertJdbcToJavaValue(final Property property, final Object jdbcValue) {
-        JdbcToJavaValueConverter jdbcToJavaValueConverter = getJdbcToJavaValueConverter(property);
-        return jdbcToJavaValueConverter.convertJdbcToJavaValue(property, jdbcValue);
+        parameterConverters = converters;
     }
 
     /**
-     * @param property
-     *
-     * @return never null
+     * Resolves the converter for each result property. Unless a converter has been added for a property, the default
+     * converter precompiled for the type of the property is used. The row mapper of the compiled template is only used
+     * if all properties are converted by their default converters.
      */
-    private JdbcToJavaValueConverter getJdbcToJavaValueConverter(final Property property) {
-        JdbcToJavaValueConverter jdbcToJavaValueConverter = null;
-        if (jdbcToJavaValueConverterMap != null) {
-            jdbcToJavaValueConverter = (JdbcToJavaValueConverter) jdbcToJavaValueConverterMap.get(property.getName());
-        }
-        if (jdbcToJavaValueConverter == null) {
-            jdbcToJavaValueConverter = defaultJdbcToJavaValueConverter;
-        }
-        if (jdbcToJavaValueConverter == null) {
-            throw new IllegalStateException("no default jdbcToJavaValueConverter available");
+    private void updateResultConverters() {
+        customResultConverters = null;
+        if (resultValueProperty != null) {
+            final JdbcToJavaValueConverter defaultConverter = compiledTemplate.getResultValueConverter();
+            resultValueConverter = getJdbcToJavaValueConverter(resultValueProperty, defaultConverter);
+            if (!isDefaultConverter(resultValueConverter, defaultConverter)) {
+                customResultConverters = new JdbcToJavaValueConverter[]{resultValueConverter};
+            }
         }
-        return jdbcToJavaValueConverter;
-    }
-
-
-    private static Property[] createProperties(final List nameList, final Class beanType, boolean strict) {
-        if (nameList == null || beanType == null) {
-            return null;
+        if (resultProperties == null) {
+            resultConverters = null;
+            rowMapper = null;
+            return;
         }
-        ArrayList propertyList = new ArrayList();
-        if (isValueType(beanType)) {
-            for (int i = 0; i < nameList.size(); i++) {
-                final String propertyName = (String) nameList.get(i);
-                if (propertyName.equalsIgnoreCase(ValueProperty.NAME)) {
-                    final Property property = new ValueProperty(beanType);
-                    propertyList.add(property);
-                } else if (strict) {
-                    throw new IllegalArgumentException("parameter property '" + ValueProperty.NAME + "' expected but found '" +
-                                                       propertyName + "'");
-                }
-            }
-        } else {
-            for (int i = 0; i < nameList.size(); i++) {
-                final String propertyName = (String) nameList.get(i);
-                try {
-                    final Property property = PropertyParser.parseProperty(beanType, propertyName);
-                    propertyList.add(property);
-                } catch (ParseException e) {
-                    if (strict) {
-                        throw new RuntimeException(
-                                "failed to parse parameter property '" + propertyName + "' for class '" + beanType.getName() + "'",
-                                e);
-                    }
-                } catch (PropertyNotFoundException e) {
-                    if (strict) {
-                        throw new RuntimeException(
-                                "parameter property '" + propertyName + "' not found in class '" + beanType.getName() + "'",
-                                e);
-                    }
-                }
+        final JdbcToJavaValueConverter[] defaultConverters = compiledTemplate.getResultConverters();
+        final JdbcToJavaValueConverter[] converters = new JdbcToJavaValueConverter[resultProperties.length];
+        final JdbcToJavaValueConverter[] customConverters = new JdbcToJavaValueConverter[resultProperties.length];
+        boolean defaultConversion = true;
+        for (int i = 0; i < converters.length; i++) {
+            final JdbcToJavaValueConverter defaultConverter = defaultConverters != null ? defaultConverters[i] : null;
+            converters[i] = getJdbcToJavaValueConverter(resultProperties[i], defaultConverter);
+            if (!isDefaultConverter(converters[i], defaultConverter)) {
+                customConverters[i] = converters[i];
+                defaultConversion = false;
             }
         }
-        if (propertyList.size() == 0) {
-            return null;
+        resultConverters = converters;
+        rowMapper = defaultConversion ? compiledTemplate.getRowMapper() : null;
+        if (!defaultConversion) {
+            customResultConverters = customConverters;
         }
-        Property[] properties = new Property[propertyList.size()];
-        propertyList.toArray(properties);
-        return properties;
     }
 
-    private static boolean isValueType(final Class beanType) {
-        if (beanType == null) {
-            return false;
-        }
-        return beanType.isPrimitive() ||
-               java.lang.Boolean.class.isAssignableFrom(beanType) ||
-               java.lang.Character.class.isAssignableFrom(beanType) ||
-               java.lang.Number.class.isAssignableFrom(beanType) ||
-               java.lang.String.class.isAssignableFrom(beanType) ||
-               java.util.Date.class.isAssignableFrom(beanType);
+    private boolean isDefaultConverter(JdbcToJavaValueConverter converter, JdbcToJavaValueConverter defaultConverter) {
+        return converter == defaultConverter || converter == defaultJdbcToJavaValueConverter;
     }
 
-    private static class ValueProperty implements Property {
-
-        private static final String NAME = "value";
-        private final Class type;
+    private boolean isGeometryProperty(Property property) {
+        return geometryConverter != null && Geometry.class.isAssignableFrom(property.getType());
+    }
 
-        public String getTreeAsString() {
-            return "ValueProperty['" + NAME + "'," + type + "]";
+    /**
+     * @return never null
+     */
+    private JdbcToJavaValueConverter getJdbcToJavaValueConverter(Property property,
+                                                                 JdbcToJavaValueConverter defaultConverter) {
+        JdbcToJavaValueConverter converter = null;
+        if (jdbcToJavaValueConverterMap != null) {
+            converter = (JdbcToJavaValueConverter) jdbcToJavaValueConverterMap.get(property.getName());
         }
-
-        public ValueProperty(Class type) {
-            this.type = type;
+        if (converter == null && isGeometryProperty(property)) {
+            converter = geometryConverter;
         }
-
-        public String getName() {
-            return NAME;
+        if (converter == null) {
+            converter = defaultConverter;
         }
-
-        public Class getType() {
-            return type;
+        if (converter == null) {
+            // the property type is not fixed, convert by the type at the time of the conversion
+            converter = defaultJdbcToJavaValueConverter;
         }
+        return converter;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
 
-        public Object getValue(Object beanInstance) {
-            return beanInstance;
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
         }
 
-        public void setValue(Object beanInstance, Object value) {
-            throw new IllegalStateException("cannot set special property '" + getName() + "'");
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
         }
 
-        public boolean isAssignable(Object beanInstance) {
-            return true;
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
         }
 
-        public void makeAssignable(Object beanInstance) {
+        public int available() {
+            return buffer.remaining();
         }
     }
-
 }
-
-
@@ -0,0 +1,182 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe, size-bounded cache of {@link CompiledTemplate}s keyed by template SQL, parameter type and result type.
+ * When the cache is full, the least recently used entry is evicted.
+ * <p/>
+ * The {@link TemplateTransaction} obtains its templates from the {@link #getInstance() shared instance}. Setting the
+ * capacity of a cache to zero disables caching.
+ */
+public class TemplateCache {
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private static final TemplateCache instance = new TemplateCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<Key, CompiledTemplate> entries;
+    private int capacity;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructs a new template cache.
+     *
+     * @param capacity the maximum number of compiled templates held, zero disables caching
+     */
+    public TemplateCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity is negative");
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, CompiledTemplate>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, CompiledTemplate> eldest) {
+                if (size() > TemplateCache.this.capacity) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all {@link TemplateTransaction}s
+     */
+    public static TemplateCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the compiled template for the given template SQL, parameter and result types. If the cache does not yet
+     * contain it, the template is compiled and added to the cache.
+     *
+     * @param templateSql   the template SQL, must not be null
+     * @param parameterType the type of parameter objects, can be null
+     * @param resultType    the type of result objects, can be null
+     *
+     * @return the compiled template, never null
+     */
+    public CompiledTemplate get(String templateSql, Class parameterType, Class resultType) {
+        if (templateSql == null) {
+            throw new IllegalArgumentException("templateSql is null");
+        }
+        final Key key = new Key(templateSql, parameterType, resultType);
+        synchronized (this) {
+            final CompiledTemplate compiledTemplate = entries.get(key);
+            if (compiledTemplate != null) {
+                hitCount++;
+                return compiledTemplate;
+            }
+            missCount++;
+        }
+        // compile outside of the lock, concurrent misses for the same key simply produce equal instances
+        final CompiledTemplate compiledTemplate = new CompiledTemplate(templateSql, parameterType, resultType);
+        synchronized (this) {
+            if (capacity > 0) {
+                final CompiledTemplate other = entries.get(key);
+                if (other != null) {
+                    return other;
+                }
+                entries.put(key, compiledTemplate);
+            }
+        }
+        return compiledTemplate;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of compiled templates held. Surplus entries are evicted immediately.
+     *
+     * @param capacity the capacity, zero disables caching
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity is negative");
+        }
+        this.capacity = capacity;
+        while (entries.size() > capacity) {
+            final Key eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+            evictionCount++;
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Removes all entries and resets the hit, miss and eviction counters.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private static final class Key {
+
+        private final String templateSql;
+        private final Class parameterType;
+        private final Class resultType;
+        private final int hashCode;
+
+        private Key(String templateSql, Class parameterType, Class resultType) {
+            this.templateSql = templateSql;
+            this.parameterType = parameterType;
+            this.resultType = resultType;
+            int h = templateSql.hashCode();
+            h = 31 * h + (parameterType != null ? parameterType.hashCode() : 0);
+            h = 31 * h + (resultType != null ? resultType.hashCode() : 0);
+            this.hashCode = h;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode &&
+                   parameterType == other.parameterType &&
+                   resultType == other.resultType &&
+                   templateSql.equals(other.templateSql);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -29,16 +29,29 @@ public abstract class TemplateTransaction implements Transaction {
 
     /**
      * Constructs a new template transaction for the given template SQL, result type and input object. If the input
-     * object is not null, the parameter type for the template is taken from the parameter object.
+     * object is not null, the parameter type for the template is taken from the parameter object. The compiled form
+     * of the template SQL is obtained from the shared {@link TemplateCache}.
      *
      * @param templateSql     the template SQL, refer to {@link Template} for it's syntax. Must not be null.
      * @param resultType      the type of the result, can be null no result object is expected
      * @param parameterObject the parameter object, can be null if the template SQL does not contain parameters
      */
     protected TemplateTransaction(String templateSql, Class resultType, Object parameterObject) {
-        this.template = new Template(templateSql,
-                                     parameterObject != null ? parameterObject.getClass() : null,
-                                     resultType);
+        this(templateSql, parameterObject != null ? parameterObject.getClass() : null, resultType, parameterObject);
+    }
+
+    /**
+     * Constructs a new template transaction for the given template SQL, parameter type, result type and input object.
+     * Use this constructor if the parameter type cannot be derived from the parameter object.
+     *
+     * @param templateSql     the template SQL, refer to {@link Template} for it's syntax. Must not be null.
+     * @param parameterType   the type of parameter objects, can be null if the template SQL does not contain
+     *                        parameters
+     * @param resultType      the type of the result, can be null no result object is expected
+     * @param parameterObject the parameter object, can be null
+     */
+    protected TemplateTransaction(String templateSql, Class parameterType, Class resultType, Object parameterObject) {
+        this.template = new Template(TemplateCache.getInstance().get(templateSql, parameterType, resultType));
         this.parameterObject = parameterObject;
     }
 
@@ -6,29 +6,31 @@
  */
 package com.bc.util.sql;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Provides a thread-safe generator for unique identifiers which can be used as primary keys.
+ * <p/>
+ * The identifiers are the current time in milliseconds, or the last identifier plus one if that is not greater. The
+ * generator is lock-free, but it still hands out at most one identifier per millisecond before it runs ahead of the
+ * clock. Use a {@link SnowflakeIdGenerator} for high insert rates.
  */
 public class TimestampIdGenerator {
 
     public static String getPrefix() {
-        if (prefix == null) {
-            prefix = ("" + Math.random() + "0000000000000").substring(2, 12);
-        }
-        return prefix;
+        return PREFIX;
     }
 
     public static long getNextLong() {
-        synchronized (TimestampIdGenerator.class) {
-            long result = System.currentTimeMillis();
-            // he/** - preserve a real unique Id!!! An Id lastId +1 can be already in use.
-            // comment ok: with TimestampIdGenerator the only case would be two processes writing
-            // to the database at the same time.
-            if (result <= lastId) {
-                result = lastId + 1;
+        // he/** - preserve a real unique Id!!! An Id lastId +1 can be already in use.
+        // comment ok: with TimestampIdGenerator the only case would be two processes writing
+        // to the database at the same time.
+        while (true) {
+            final long last = lastId.get();
+            final long result = Math.max(System.currentTimeMillis(), last + 1);
+            if (lastId.compareAndSet(last, result)) {
+                return result;
             }
-            lastId = result;
-            return result;
         }
     }
 
@@ -40,7 +42,7 @@ public class TimestampIdGenerator {
     /////// END OF PUBLIC
     ////////////////////////////////////////////////////////////////////////////////
 
-    private static long lastId = System.currentTimeMillis();
-    private static String prefix = null;
+    private static final AtomicLong lastId = new AtomicLong(System.currentTimeMillis());
+    private static final String PREFIX = ("" + Math.random() + "0000000000000").substring(2, 12);
 
 }
@@ -6,14 +6,71 @@ package com.bc.util.sql.conv;
 
 import com.bc.util.geom.Geometry;
 import com.bc.util.geom.GeometryParser;
+import com.bc.util.geom.WKBConstants;
+import com.bc.util.geom.WKBReader;
 import com.bc.util.prop.Property;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.sql.Blob;
+import java.sql.Clob;
 import java.sql.SQLException;
 import java.text.ParseException;
 
+/**
+ * The default value converter used by {@link com.bc.util.sql.Template}s.
+ * <p/>
+ * Large objects can be read without copying them onto the heap. <code>BLOB</code> and binary values are converted to
+ * properties of type {@link InputStream} and {@link ReadableByteChannel}, and <code>CLOB</code> and character values
+ * to properties of type {@link Reader}. These streams read directly from the database and are only valid as long as
+ * the result set row they have been read from, so they should be consumed within a
+ * {@link com.bc.util.sql.RowHandler}. For properties of type {@link ByteBuffer} or {@link MappedByteBuffer}, binary
+ * values are spooled to a temporary file which is mapped into memory; such buffers remain valid after the result set
+ * has been closed.
+ * <p/>
+ * On the parameter side, streams, channels and byte buffers are passed through and set with
+ * <code>setBinaryStream</code> or <code>setCharacterStream</code> by the template.
+ * <p/>
+ * Geometries are written as WKT text unless a {@link #setDefaultGeometryConverter default geometry converter}, e.g.
+ * a {@link WKBGeometryConverter}, has been set. They are read from WKT text as well as from (E)WKB, independently of
+ * the converter set.
+ */
 public class DefaultValueConverter implements ValueConverter {
 
+    private static volatile JavaToJdbcValueConverter defaultGeometryConverter;
+
+    /**
+     * @return the converter used for geometry values by all default value converters, or null if geometries are
+     *         written as WKT text
+     */
+    public static JavaToJdbcValueConverter getDefaultGeometryConverter() {
+        return defaultGeometryConverter;
+    }
+
+    /**
+     * Sets the converter used for geometry values by all default value converters. Templates can override it with
+     * {@link com.bc.util.sql.Template#setGeometryConverter}.
+     *
+     * @param geometryConverter the geometry converter, or null to write geometries as WKT text
+     */
+    public static void setDefaultGeometryConverter(JavaToJdbcValueConverter geometryConverter) {
+        defaultGeometryConverter = geometryConverter;
+    }
+
     public Object convertJavaToJdbcValue(Property property, Object javaValue) {
         if (javaValue == null) {
             return null;
@@ -25,99 +82,390 @@ public class DefaultValueConverter implements ValueConverter {
         } else if (javaValue instanceof Boolean) {
             jdbcValue = (Boolean) javaValue ? 1 : 0;
         } else if (javaValue instanceof Geometry) {
-            final Geometry geometry = (Geometry) javaValue;
-            jdbcValue = geometry.getAsText();
+            final JavaToJdbcValueConverter geometryConverter = defaultGeometryConverter;
+            if (geometryConverter != null) {
+                jdbcValue = geometryConverter.convertJavaToJdbcValue(property, javaValue);
+            } else {
+                final Geometry geometry = (Geometry) javaValue;
+                jdbcValue = geometry.getAsText();
+            }
         } else {
             // add more here if required
         }
         return jdbcValue;
     }
 
+    /**
+     * Converts a JDBC value to a value of the type of the given property. This method dispatches to the converter
+     * returned by {@link #getJdbcToJavaValueConverter(Class)} for the property type; callers converting many values
+     * of the same property should obtain that converter once and call it directly.
+     */
     public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
-        Object javaValue = jdbcValue;
-        if (jdbcValue == null) {
-            if (boolean.class.equals(property.getType())) {
-                javaValue = Boolean.FALSE;
-            } else if (char.class.equals(property.getType())) {
-                javaValue = '\000';
-            } else if (byte.class.equals(property.getType())) {
-                javaValue = (byte) 0;
-            } else if (short.class.equals(property.getType())) {
-                javaValue = (short) 0;
-            } else if (int.class.equals(property.getType())) {
-                javaValue = 0;
-            } else if (long.class.equals(property.getType())) {
-                javaValue = 0L;
-            } else if (float.class.equals(property.getType())) {
-                javaValue = 0.0f;
-            } else if (double.class.equals(property.getType())) {
-                javaValue = 0.0;
-            }
-        } else if (jdbcValue instanceof Number) {
-            final Number jdbcNumber = (Number) jdbcValue;
-            if (Boolean.class.equals(property.getType()) || boolean.class.equals(property.getType())) {
-                javaValue = Boolean.valueOf(jdbcNumber.intValue() != 0);
-            } else if (Character.class.equals(property.getType()) || char.class.equals(property.getType())) {
-                javaValue = (char) (jdbcNumber.intValue() & 0xffff);
-            } else if (Byte.class.equals(property.getType()) || byte.class.equals(property.getType())) {
-                javaValue = jdbcNumber.byteValue();
-            } else if (Short.class.equals(property.getType()) || short.class.equals(property.getType())) {
-                javaValue = jdbcNumber.shortValue();
-            } else if (Integer.class.equals(property.getType()) || int.class.equals(property.getType())) {
-                javaValue = jdbcNumber.intValue();
-            } else if (Long.class.equals(property.getType()) || long.class.equals(property.getType())) {
-                javaValue = jdbcNumber.longValue();
-            } else if (Float.class.equals(property.getType()) || float.class.equals(property.getType())) {
-                javaValue = jdbcNumber.floatValue();
-            } else if (Double.class.equals(property.getType()) || double.class.equals(property.getType())) {
-                javaValue = jdbcNumber.doubleValue();
-            } else if (String.class.equals(property.getType())) {
-                javaValue = jdbcNumber.toString();
-            }
-        } else if (jdbcValue instanceof String) {
-            if (Geometry.class.isAssignableFrom(property.getType())) {
-                try {
-                    javaValue = new GeometryParser().parseWKT((String) jdbcValue);
-                } catch (ParseException e) {
-                    // todo - 3 tb/** eventually define new exception class here
-                    throw new IllegalArgumentException(e.getMessage());
+        return getJdbcToJavaValueConverter(property.getType()).convertJdbcToJavaValue(property, jdbcValue);
+    }
+
+    /**
+     * Gets the converter which converts JDBC values to values of the given property type the same way as
+     * {@link #convertJdbcToJavaValue} does. The converter is specialized for the type, so that only the JDBC value
+     * has to be inspected. Converters are shared and stateless.
+     *
+     * @param type the property type, must not be null
+     *
+     * @return the converter, never null
+     */
+    public static JdbcToJavaValueConverter getJdbcToJavaValueConverter(Class type) {
+        return (JdbcToJavaValueConverter) JDBC_TO_JAVA_CONVERTERS.get(type);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private static final ClassValue JDBC_TO_JAVA_CONVERTERS = new ClassValue() {
+        protected Object computeValue(Class type) {
+            return createJdbcToJavaValueConverter(type);
+        }
+    };
+
+    private static JdbcToJavaValueConverter createJdbcToJavaValueConverter(Class type) {
+        if (type == boolean.class || type == Boolean.class) {
+            return new NumberConverter(type == boolean.class ? Boolean.FALSE : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return Boolean.valueOf(jdbcNumber.intValue() != 0);
                 }
+            };
+        } else if (type == char.class || type == Character.class) {
+            return new NumberConverter(type == char.class ? (Object) '\000' : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return (char) (jdbcNumber.intValue() & 0xffff);
+                }
+            };
+        } else if (type == byte.class || type == Byte.class) {
+            return new NumberConverter(type == byte.class ? (Object) (byte) 0 : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return jdbcNumber.byteValue();
+                }
+            };
+        } else if (type == short.class || type == Short.class) {
+            return new NumberConverter(type == short.class ? (Object) (short) 0 : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return jdbcNumber.shortValue();
+                }
+            };
+        } else if (type == int.class || type == Integer.class) {
+            return new NumberConverter(type == int.class ? (Object) 0 : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return jdbcNumber instanceof Integer ? jdbcNumber : (Object) jdbcNumber.intValue();
+                }
+            };
+        } else if (type == long.class || type == Long.class) {
+            return new NumberConverter(type == long.class ? (Object) 0L : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return jdbcNumber instanceof Long ? jdbcNumber : (Object) jdbcNumber.longValue();
+                }
+            };
+        } else if (type == float.class || type == Float.class) {
+            return new NumberConverter(type == float.class ? (Object) 0.0f : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return jdbcNumber instanceof Float ? jdbcNumber : (Object) jdbcNumber.floatValue();
+                }
+            };
+        } else if (type == double.class || type == Double.class) {
+            return new NumberConverter(type == double.class ? (Object) 0.0 : null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return jdbcNumber instanceof Double ? jdbcNumber : (Object) jdbcNumber.doubleValue();
+                }
+            };
+        } else if (type == String.class) {
+            return new NumberConverter(null) {
+                Object convertNumber(Number jdbcNumber) {
+                    return jdbcNumber.toString();
+                }
+
+                Object convertOther(Object jdbcValue) {
+                    if (jdbcValue instanceof Clob) {
+                        final Clob clob = (Clob) jdbcValue;
+                        try {
+                            return clob.getSubString(1, toArrayLength(clob.length()));
+                        } catch (SQLException e) {
+                            throw new IllegalArgumentException(e.getMessage());
+                        }
+                    }
+                    return jdbcValue;
+                }
+            };
+        } else if (Geometry.class.isAssignableFrom(type)) {
+            return new GeometryConverter();
+        } else if (type == java.util.Date.class) {
+            return new DateConverter();
+        } else if (type == byte[].class) {
+            return new BlobConverter();
+        } else if (type == InputStream.class) {
+            return new InputStreamConverter();
+        } else if (type == ReadableByteChannel.class) {
+            return new ChannelConverter();
+        } else if (type == Reader.class) {
+            return new ReaderConverter();
+        } else if (type == ByteBuffer.class || type == MappedByteBuffer.class) {
+            return new MappedBufferConverter(type == MappedByteBuffer.class);
+        }
+        return IdentityConverter.INSTANCE;
+    }
+
+    private static final class IdentityConverter implements JdbcToJavaValueConverter {
+
+        private static final IdentityConverter INSTANCE = new IdentityConverter();
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            return jdbcValue;
+        }
+    }
+
+    /**
+     * Converts numbers to the property type, null to the default value of primitive types and passes other values.
+     */
+    private abstract static class NumberConverter implements JdbcToJavaValueConverter {
+
+        private final Object nullValue;
+
+        NumberConverter(Object nullValue) {
+            this.nullValue = nullValue;
+        }
+
+        public final Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            if (jdbcValue instanceof Number) {
+                return convertNumber((Number) jdbcValue);
             }
+            return jdbcValue != null ? convertOther(jdbcValue) : nullValue;
+        }
 
-        } else if ((jdbcValue instanceof byte[])) {
-            if (Geometry.class.isAssignableFrom(property.getType())) {
-                try {
-                    javaValue = new GeometryParser().parseWKT(new String((byte[]) jdbcValue));
-                } catch (ParseException e) {
-                    // todo - 3 tb/** eventually define new exception class here
-                    throw new IllegalArgumentException(e.getMessage());
+        abstract Object convertNumber(Number jdbcNumber);
+
+        Object convertOther(Object jdbcValue) {
+            return jdbcValue;
+        }
+    }
+
+    /**
+     * Reads geometries from WKT text, (E)WKB bytes, BLOBs holding (E)WKB or hexadecimal EWKB strings as returned by
+     * PostGIS. The format is detected from the value.
+     */
+    private static final class GeometryConverter implements JdbcToJavaValueConverter {
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            try {
+                if (jdbcValue instanceof String) {
+                    final String text = (String) jdbcValue;
+                    if (isHexWKB(text)) {
+                        return new WKBReader().read(decodeHex(text));
+                    }
+                    return new GeometryParser().parseWKT(text);
+                } else if (jdbcValue instanceof byte[]) {
+                    final byte[] bytes = (byte[]) jdbcValue;
+                    if (isWKB(bytes)) {
+                        return new WKBReader().read(bytes);
+                    }
+                    return new GeometryParser().parseWKT(new String(bytes));
+                } else if (jdbcValue instanceof Blob) {
+                    final InputStream inputStream = ((Blob) jdbcValue).getBinaryStream();
+                    try {
+                        return new WKBReader().read(new BufferedInputStream(inputStream));
+                    } finally {
+                        inputStream.close();
+                    }
                 }
+            } catch (ParseException e) {
+                // todo - 3 tb/** eventually define new exception class here
+                throw new IllegalArgumentException(e.getMessage());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("invalid WKB geometry: " + e.getMessage());
+            } catch (SQLException e) {
+                throw new IllegalArgumentException(e.getMessage());
             }
-        } else if (jdbcValue instanceof java.sql.Timestamp) {
-            if (java.util.Date.class.equals(property.getType())) {
-                javaValue = new java.util.Date(((java.sql.Timestamp) jdbcValue).getTime());
+            return jdbcValue;
+        }
+
+        private static boolean isWKB(byte[] bytes) {
+            // WKB starts with the byte order marker, WKT with a letter
+            return bytes.length > 0 && (bytes[0] == WKBConstants.XDR || bytes[0] == WKBConstants.NDR);
+        }
+
+        private static boolean isHexWKB(String text) {
+            if (text.length() < 10 || text.length() % 2 != 0 || text.charAt(0) != '0' ||
+                (text.charAt(1) != '0' && text.charAt(1) != '1')) {
+                return false;
             }
-        } else if (jdbcValue instanceof java.sql.Date) {
-            if (java.util.Date.class.equals(property.getType())) {
-                javaValue = new java.util.Date(((java.sql.Date) jdbcValue).getTime());
+            for (int i = 2; i < text.length(); i++) {
+                if (Character.digit(text.charAt(i), 16) < 0) {
+                    return false;
+                }
             }
-        } else if (jdbcValue instanceof Blob && property.getType().equals(byte[].class)) {
-            Blob blob = (Blob) jdbcValue;
+            return true;
+        }
+
+        private static byte[] decodeHex(String text) {
+            final byte[] bytes = new byte[text.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (Character.digit(text.charAt(2 * i), 16) << 4 |
+                                   Character.digit(text.charAt(2 * i + 1), 16));
+            }
+            return bytes;
+        }
+    }
+
+    private static final class DateConverter implements JdbcToJavaValueConverter {
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            if (jdbcValue instanceof java.sql.Timestamp || jdbcValue instanceof java.sql.Date) {
+                return new java.util.Date(((java.util.Date) jdbcValue).getTime());
+            }
+            return jdbcValue;
+        }
+    }
+
+    private static final class BlobConverter implements JdbcToJavaValueConverter {
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            if (!(jdbcValue instanceof Blob)) {
+                return jdbcValue;
+            }
+            final Blob blob = (Blob) jdbcValue;
             try {
-                long llength = (int) blob.length();
-                // completely artificial limit of 42 megabytes...
-                if (llength > 42 * 1024 * 1024) {
-                    throw new IllegalStateException("blob too large to assign to byte[] (limit is 42M)");
+                return blob.getBytes(1, toArrayLength(blob.length()));
+            } catch (SQLException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+    }
+
+    private static final class InputStreamConverter implements JdbcToJavaValueConverter {
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            return toInputStream(jdbcValue);
+        }
+    }
+
+    private static final class ChannelConverter implements JdbcToJavaValueConverter {
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            final Object value = toInputStream(jdbcValue);
+            return value instanceof InputStream ? Channels.newChannel((InputStream) value) : value;
+        }
+    }
+
+    private static final class ReaderConverter implements JdbcToJavaValueConverter {
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            try {
+                if (jdbcValue instanceof Clob) {
+                    return ((Clob) jdbcValue).getCharacterStream();
                 }
-                int length = (int) llength;
-                javaValue = blob.getBytes(1, length);
             } catch (SQLException e) {
                 throw new IllegalArgumentException(e.getMessage());
             }
+            if (jdbcValue instanceof String) {
+                return new StringReader((String) jdbcValue);
+            }
+            return jdbcValue;
+        }
+    }
 
-        } else {
-            // add more here if required
+    private static final class MappedBufferConverter implements JdbcToJavaValueConverter {
+
+        private final boolean mappedOnly;
+
+        MappedBufferConverter(boolean mappedOnly) {
+            this.mappedOnly = mappedOnly;
+        }
+
+        public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+            if (jdbcValue instanceof byte[] && !mappedOnly) {
+                return ByteBuffer.wrap((byte[]) jdbcValue);
+            }
+            if (jdbcValue instanceof Blob) {
+                try {
+                    checkBufferLength(((Blob) jdbcValue).length());
+                } catch (SQLException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            }
+            final Object value = toInputStream(jdbcValue);
+            if (!(value instanceof InputStream)) {
+                return value;
+            }
+            try {
+                return spool((InputStream) value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static Object toInputStream(Object jdbcValue) {
+        try {
+            if (jdbcValue instanceof Blob) {
+                return ((Blob) jdbcValue).getBinaryStream();
+            }
+        } catch (SQLException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (jdbcValue instanceof byte[]) {
+            return new ByteArrayInputStream((byte[]) jdbcValue);
+        }
+        return jdbcValue;
+    }
+
+    /**
+     * Copies the given stream into a temporary file and maps the file into memory. The file is deleted right after
+     * mapping where the platform permits, otherwise on exit. Since a byte buffer cannot hold more than 2 GB, larger
+     * objects are rejected as soon as the limit is exceeded.
+     */
+    private static MappedByteBuffer spool(InputStream inputStream) throws IOException {
+        final File file = File.createTempFile("lob", ".tmp");
+        try {
+            try {
+                final OutputStream outputStream = Files.newOutputStream(file.toPath());
+                try {
+                    final byte[] buffer = new byte[8192];
+                    long length = 0;
+                    int n;
+                    while ((n = inputStream.read(buffer)) != -1) {
+                        length += n;
+                        checkBufferLength(length);
+                        outputStream.write(buffer, 0, n);
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
+            }
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static void checkBufferLength(long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("large object too large for a byte buffer (more than " +
+                                            Integer.MAX_VALUE + " bytes), use a stream or channel property instead");
+        }
+    }
+
+    private static int toArrayLength(long length) {
+        // the maximum array size supported by common VMs
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("large object too large for an array (" + length + " bytes), " +
+                                            "use a stream or byte buffer property instead");
         }
-        return javaValue;
+        return (int) length;
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql.conv;
+
+import com.bc.util.geom.Geometry;
+import com.bc.util.geom.WKBWriter;
+import com.bc.util.prop.Property;
+
+import java.nio.ByteOrder;
+
+/**
+ * A value converter which writes geometries in Well-Known Binary format, or in the PostGIS extended format (EWKB) if
+ * a spatial reference system identifier is given. Binary geometries are considerably smaller and faster to convert
+ * than WKT text. Geometries are read back by the {@link DefaultValueConverter}, which accepts both formats. All
+ * other values are converted by the {@link DefaultValueConverter}.
+ * <p/>
+ * The converter can be used for single properties, for all geometry properties of a template with
+ * {@link com.bc.util.sql.Template#setGeometryConverter}, or for all templates with
+ * {@link DefaultValueConverter#setDefaultGeometryConverter}.
+ */
+public class WKBGeometryConverter implements ValueConverter {
+
+    private final ByteOrder byteOrder;
+    private final int srid;
+    private final DefaultValueConverter defaultValueConverter;
+
+    /**
+     * Constructs a converter writing plain WKB in big endian byte order.
+     */
+    public WKBGeometryConverter() {
+        this(ByteOrder.BIG_ENDIAN, 0);
+    }
+
+    /**
+     * Constructs a converter writing EWKB with the given SRID in big endian byte order.
+     *
+     * @param srid the SRID, or 0 to write plain WKB
+     */
+    public WKBGeometryConverter(int srid) {
+        this(ByteOrder.BIG_ENDIAN, srid);
+    }
+
+    /**
+     * Constructs a converter writing (E)WKB.
+     *
+     * @param byteOrder the byte order, must not be null
+     * @param srid      the SRID, or 0 to write plain WKB
+     */
+    public WKBGeometryConverter(ByteOrder byteOrder, int srid) {
+        if (byteOrder == null) {
+            throw new IllegalArgumentException("byteOrder is null");
+        }
+        this.byteOrder = byteOrder;
+        this.srid = srid;
+        this.defaultValueConverter = new DefaultValueConverter();
+    }
+
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    public int getSRID() {
+        return srid;
+    }
+
+    public Object convertJavaToJdbcValue(Property property, Object javaValue) {
+        if (javaValue instanceof Geometry) {
+            // writers are not thread-safe, but cheap to create
+            return new WKBWriter(byteOrder, srid).write((Geometry) javaValue);
+        }
+        return defaultValueConverter.convertJavaToJdbcValue(property, javaValue);
+    }
+
+    public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+        return defaultValueConverter.convertJdbcToJavaValue(property, jdbcValue);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import junit.framework.TestCase;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.text.ParseException;
+
+public class CoordinateSequenceTest extends TestCase {
+
+    public void testCreateDropsClosingPoints() {
+        final CoordinateSequence cs = CoordinateSequence.create(new double[]{0, 0, 4, 0, 4, 4, 0, 0, 1, 1, 2, 1, 2, 2},
+                                                                new int[]{0, 4}, true);
+        assertTrue(cs.isClosed());
+        assertEquals(2, cs.getRingCount());
+        assertEquals(6, cs.getPointCount());
+        assertEquals(0, cs.getRingOffset(0));
+        assertEquals(3, cs.getRingOffset(1));
+        assertEquals(6, cs.getRingOffset(2));
+        assertEquals(1.0, cs.getX(3), 0.0);
+        assertEquals(2.0, cs.getY(5), 0.0);
+        assertEquals(new Rectangle2D.Double(0, 0, 4, 4), cs.getBounds());
+
+        final CoordinateSequence open = CoordinateSequence.create(new double[]{0, 0, 4, 0, 0, 0}, false);
+        assertEquals(3, open.getPointCount());
+
+        try {
+            CoordinateSequence.create(new double[]{0, 0, 1}, false);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            CoordinateSequence.create(new double[]{0, 0, 1, 1}, new int[]{1}, false);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testShape() {
+        final CoordinateSequence cs = CoordinateSequence.create(new double[]{0, 0, 4, 0, 4, 4, 0, 4}, true);
+        final Shape shape = cs.createShape();
+        assertEquals(new Rectangle2D.Double(0, 0, 4, 4), shape.getBounds2D());
+        assertTrue(shape.contains(1, 1));
+        assertFalse(shape.contains(5, 1));
+        assertTrue(shape.intersects(3, 3, 2, 2));
+        assertTrue(shape.contains(1, 1, 2, 2));
+
+        final PathIterator it = shape.getPathIterator(AffineTransform.getTranslateInstance(10, 0));
+        final double[] c = new double[6];
+        assertEquals(PathIterator.SEG_MOVETO, it.currentSegment(c));
+        assertEquals(10.0, c[0], 0.0);
+        it.next();
+        assertEquals(PathIterator.SEG_LINETO, it.currentSegment(c));
+        assertEquals(14.0, c[0], 0.0);
+        it.next();
+        it.next();
+        it.next();
+        assertEquals(PathIterator.SEG_CLOSE, it.currentSegment(c));
+        it.next();
+        assertTrue(it.isDone());
+    }
+
+    public void testCreateFromShape() {
+        final GeneralPath gp = new GeneralPath();
+        gp.moveTo(1, 2);
+        gp.lineTo(3, 4);
+        gp.lineTo(5, 6);
+        gp.lineTo(1, 2);
+        gp.closePath();
+        gp.moveTo(7, 8);
+        gp.lineTo(9, 10);
+        gp.lineTo(11, 12);
+        gp.closePath();
+
+        final CoordinateSequence polygon = new PolygonGeometry(gp).getCoordinates();
+        assertEquals(2, polygon.getRingCount());
+        assertEquals(6, polygon.getPointCount());
+
+        final CoordinateSequence lineString = new LineStringGeometry(gp).getCoordinates();
+        assertEquals(2, lineString.getRingCount());
+        assertEquals(8, lineString.getPointCount());
+        assertEquals(7.0, lineString.getX(7), 0.0);
+    }
+
+    public void testDoublePrecisionIsKept() throws Exception {
+        final String wkt = "POLYGON((0.1 0.123456789,10.000000001 0,10 10.987654321,0.1 0.123456789))";
+        final PolygonGeometry polygon = (PolygonGeometry) new GeometryParser().parseWKT(wkt);
+        assertEquals(wkt, polygon.getAsText());
+        assertEquals(0.123456789, polygon.getCoordinates().getY(0), 0.0);
+
+        final Geometry read = new WKBReader().read(new WKBWriter().write(polygon));
+        assertEquals(wkt, read.getAsText());
+
+        final LineStringGeometry lineString = (LineStringGeometry) new GeometryParser().parseWKT(
+                "LINESTRING(1.000000001 2,3 4)");
+        assertEquals("LINESTRING(1.000000001 2,3 4)", lineString.getAsText());
+    }
+
+    public void testShapeIsNotCopied() throws ParseException {
+        final Geometry polygon = new GeometryParser().parseWKT("POLYGON((0 0,1 0,1 1,0 0))");
+        assertSame(polygon.getAsShape(), polygon.getAsShape());
+    }
+
+    public void testSerialization() throws Exception {
+        final GeneralPath gp = new GeneralPath();
+        gp.moveTo(1, 2);
+        gp.lineTo(3, 4);
+        gp.lineTo(5, 6);
+        gp.closePath();
+        final Geometry[] geometries = {
+                new PolygonGeometry(gp),
+                new GeometryParser().parseWKT("POLYGON((1 2,3 4,5 6,1 2))")
+        };
+        for (Geometry geometry : geometries) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(geometry);
+            out.close();
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            final Geometry copy = (Geometry) in.readObject();
+            assertEquals("POLYGON((1 2,3 4,5 6,1 2))", copy.getAsText());
+            assertEquals(geometry, copy);
+        }
+    }
+}
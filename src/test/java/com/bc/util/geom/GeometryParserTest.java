@@ -11,6 +11,7 @@ import junit.framework.TestCase;
 import java.awt.Shape;
 import java.awt.geom.PathIterator;
 import java.text.ParseException;
+import java.util.Random;
 
 public class GeometryParserTest extends TestCase {
 
@@ -39,6 +40,8 @@ public class GeometryParserTest extends TestCase {
         assertParseExceptionThrown("Polygon((1 2,2 3,5 3),1 2,2 3,5 3))", "'(' expected");
         assertParseExceptionThrown("Polygon((1 2 2 3 5 3))", "',' or ')' expected");
         assertParseExceptionThrown("Polygon((1 2,2 3,5 3)(1 2,2 3,5 3))", "',' or ')' expected");
+        assertParseExceptionThrown("Polygon((1 2,2 3,5 3)", "',' or ')' expected");
+        assertParseExceptionThrown("LineString(1 2,2 3e)", "',' or ')' expected");
     }
 
     public void testPointParsing() throws ParseException {
@@ -195,6 +198,61 @@ public class GeometryParserTest extends TestCase {
         assertEquals(multiPolyTest, g.toString());
     }
 
+    public void testMultiPointAndMultiLineStringParsing() throws ParseException {
+        Geometry g;
+
+        g = parser.parseWKT("MULTIPOINT((2.3 4.5),(-3 1.9))");
+        assertEquals(MultiPointGeometry.class, g.getClass());
+        assertEquals(2, ((MultiPointGeometry) g).getPointCount());
+        assertEquals("MULTIPOINT((2.3 4.5),(-3 1.9))", g.toString());
+
+        g = parser.parseWKT("multilinestring((1 2,3 4),(5 6,7 8,9 10))");
+        assertEquals(MultiLineStringGeometry.class, g.getClass());
+        assertEquals(2, ((MultiLineStringGeometry) g).getLineStringCount());
+    }
+
+    public void testGeometryCollectionParsing() throws ParseException {
+        final Geometry g = parser.parseWKT("GEOMETRYCOLLECTION(POINT(1 2),LINESTRING(1 2,3 4),POLYGON((0 0,1 0,1 1)))");
+        assertEquals(GeometryCollection.class, g.getClass());
+        final GeometryCollection gc = (GeometryCollection) g;
+        assertEquals(3, gc.getGeometryCount());
+        assertEquals(PointGeometry.class, gc.getGeometry(0).getClass());
+        assertEquals(LineStringGeometry.class, gc.getGeometry(1).getClass());
+        assertEquals(PolygonGeometry.class, gc.getGeometry(2).getClass());
+    }
+
+    public void testNumberParsing() throws ParseException {
+        final String[] numbers = {
+                "0", "-0", "+7", "0.1", ".5", "5.", "-0.000123", "1e3", "1E-3", "2.5e+2", "123456789012345",
+                "1234567890123456789", "0.30000000000000004", "1e-30", "4.9e-324", "1.7976931348623157e308",
+                "-123.456e-7", "100000000000000000000000"
+        };
+        for (String number : numbers) {
+            final PointGeometry p = (PointGeometry) parser.parseWKT("POINT(" + number + " " + number + ")");
+            assertEquals(number, Double.parseDouble(number), p.getX(), 0.0);
+            assertEquals(number, Double.parseDouble(number), p.getY(), 0.0);
+        }
+        final Random random = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            final double d = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 10);
+            final String number = Double.toString(d);
+            final PointGeometry p = (PointGeometry) parser.parseWKT("POINT(" + number + " 0)");
+            assertEquals(number, d, p.getX(), 0.0);
+        }
+    }
+
+    public void testParserIsReusable() throws ParseException {
+        final StringBuilder wkt = new StringBuilder("POLYGON((0 0");
+        for (int i = 1; i < 1000; i++) {
+            wkt.append(',').append(i).append(' ').append(i % 7);
+        }
+        wkt.append("))");
+        final Geometry large = parser.parseWKT(wkt.toString());
+        assertEquals(PolygonGeometry.class, large.getClass());
+        assertEquals("POINT(3 4)", parser.parseWKT("POINT(3 4)").toString());
+        assertEquals(large, parser.parseWKT(wkt.toString()));
+    }
+
     private void assertMoveTo(PathIterator i, double[] c, final double x, final double y) {
         assertSegPoint(i, c, PathIterator.SEG_MOVETO, x, y);
     }
@@ -46,6 +46,27 @@ public class MultiPolygonGeometryTest extends TestCase {
         assertEquals(0, multi.getPolygonCount());
     }
 
+    public void testEnvelopeIsCachedUntilPolygonsChange() throws ParseException {
+        assertNull(multi.envelope());
+        final PolygonGeometry polygon_1 = (PolygonGeometry) parser.parseWKT("POLYGON((0 0,1 0,1 1,0 1,0 0))");
+        multi.addPolygon(polygon_1);
+        assertEquals(new Rectangle(0, 0, 1, 1), multi.envelope());
+        assertSame(multi.envelope(), multi.envelope());
+        final PointGeometry point = new PointGeometry(1.5, 1.5);
+        assertEquals(Geometry.FALSE, multi.getContains(point));
+
+        final PolygonGeometry polygon_2 = (PolygonGeometry) parser.parseWKT("POLYGON((1 1,2 1,2 2,1 2,1 1))");
+        multi.addPolygon(polygon_2);
+        assertEquals(new Rectangle(0, 0, 2, 2), multi.envelope());
+        assertEquals(Geometry.TRUE, multi.getContains(point));
+
+        multi.removePolygon(polygon_1);
+        assertEquals(new Rectangle(1, 1, 1, 1), multi.envelope());
+        assertEquals(new Rectangle(1, 1, 1, 1), multi.getEnvelope());
+        multi.removePolygon(polygon_2);
+        assertNull(multi.envelope());
+    }
+
     public void testGetPolygon() throws ParseException {
         final PolygonGeometry polygon_1 = (PolygonGeometry) parser.parseWKT("POLYGON((0 0,1 0,1 1,0 1,0 0))");
         multi.addPolygon(polygon_1);
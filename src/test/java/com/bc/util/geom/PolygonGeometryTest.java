@@ -18,7 +18,11 @@ package com.bc.util.geom;
 
 import junit.framework.TestCase;
 
+import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
 import java.text.ParseException;
+import java.util.Random;
 
 public class PolygonGeometryTest extends TestCase {
 
@@ -108,4 +112,80 @@ public class PolygonGeometryTest extends TestCase {
         assertEquals(3.5, centerPoint.getX());
         assertEquals(3.0, centerPoint.getY());
     }
+
+    public void testEnvelope() throws ParseException {
+        final AbstractGeometry poly = (AbstractGeometry) parser.parseWKT("POLYGON((1 1,6 1,6 3,4 5,1 5,1 1))");
+        assertEquals(new Rectangle2D.Double(1, 1, 5, 4), poly.getEnvelope());
+        poly.getEnvelope().setRect(0, 0, 1, 1);
+        assertEquals(new Rectangle2D.Double(1, 1, 5, 4), poly.getEnvelope());
+
+        assertEquals(new Rectangle2D.Double(2, 3, 4, 0), new PolygonGeometry(new Rectangle2D.Double(2, 3, 4, 0))
+                .getEnvelope());
+        assertEquals(new Rectangle2D.Double(2, 3, 0, 0), new PointGeometry(2, 3).getEnvelope());
+
+        final MultiPolygonGeometry multi = new MultiPolygonGeometry();
+        assertNull(multi.getEnvelope());
+        multi.addPolygon((PolygonGeometry) poly);
+        multi.addPolygon((PolygonGeometry) parser.parseWKT("POLYGON((10 10,11 10,11 11,10 10))"));
+        assertEquals(new Rectangle2D.Double(1, 1, 10, 10), multi.getEnvelope());
+        assertEquals(Geometry.TRUE, multi.getDisjoint(parser.parseWKT("POLYGON((20 20,21 20,21 21,20 20))")));
+        assertEquals(Geometry.FALSE, multi.getContains(parser.parseWKT("POLYGON((2 2,12 2,12 3,2 2))")));
+    }
+
+    public void testPointInPolygon() throws ParseException {
+        // an exterior ring with a hole, and a second polygon with the hole in the same orientation
+        final String[] wkts = {
+                "POLYGON((0 0,10 0,10 10,0 10,0 0),(2 2,2 8,8 8,8 2,2 2))",
+                "POLYGON((0 0,10 0,5 5,10 10,0 10,0 0),(1 1,2 1,2 9,1 9,1 1))"
+        };
+        final Random random = new Random(1);
+        for (String wkt : wkts) {
+            final PolygonGeometry poly = (PolygonGeometry) parser.parseWKT(wkt);
+            final GeneralPath path = new GeneralPath();
+            path.append(poly.getAsShape().getPathIterator(null), false);
+            for (int i = 0; i < 2000; i++) {
+                // half of the points on the grid, to hit vertices and edges
+                final double x = i % 2 == 0 ? random.nextInt(13) - 1 : 12 * random.nextDouble() - 1;
+                final double y = i % 2 == 0 ? random.nextInt(13) - 1 : 12 * random.nextDouble() - 1;
+                final boolean expected = path.contains(x, y);
+                assertEquals(wkt + ": " + x + " " + y, expected, poly.getAsShape().contains(x, y));
+                assertEquals(expected ? Geometry.TRUE : Geometry.FALSE, poly.getContains(new PointGeometry(x, y)));
+                assertEquals(expected ? Geometry.FALSE : Geometry.TRUE, new PointGeometry(x, y).getDisjoint(poly));
+            }
+        }
+    }
+
+    public void testRectangles() throws ParseException {
+        final Geometry poly = parser.parseWKT("POLYGON((1 1,5 1,5 3,3 3,3 5,1 5,1 1))");
+        final Geometry[] rectangles = {
+                parser.parseWKT("POLYGON((1 1,2 1,2 2,1 2,1 1))"),
+                parser.parseWKT("POLYGON((1.5 1.5,1.5 4.5,2.5 4.5,2.5 1.5))"),
+                parser.parseWKT("POLYGON((2 2,4 2,4 4,2 4,2 2))"),
+                parser.parseWKT("POLYGON((3.5 3.5,6 3.5,6 6,3.5 6,3.5 3.5))"),
+                parser.parseWKT("POLYGON((0 0,6 0,6 6,0 6,0 0))"),
+                new PolygonGeometry(new Rectangle2D.Double(4, 2, 0.5, 0.5)),
+        };
+        for (Geometry rectangle : rectangles) {
+            assertTrue(((ShapeGeometry) rectangle).isRectangle());
+            assertEquals(rectangle.toString(), getDisjointByArea(poly, rectangle), poly.getDisjoint(rectangle));
+            assertEquals(rectangle.toString(), getDisjointByArea(rectangle, poly), rectangle.getDisjoint(poly));
+            assertEquals(rectangle.toString(), getContainsByArea(poly, rectangle), poly.getContains(rectangle));
+            assertEquals(rectangle.toString(), getContainsByArea(rectangle, poly), rectangle.getContains(poly));
+        }
+        assertFalse(((ShapeGeometry) poly).isRectangle());
+        assertFalse(((ShapeGeometry) parser.parseWKT("POLYGON((0 0,1 1,0 2,-1 1,0 0))")).isRectangle());
+    }
+
+    private static int getDisjointByArea(Geometry g1, Geometry g2) {
+        final Area area = new Area(g1.getAsShape());
+        area.intersect(new Area(g2.getAsShape()));
+        return area.isEmpty() ? Geometry.TRUE : Geometry.FALSE;
+    }
+
+    private static int getContainsByArea(Geometry g1, Geometry g2) {
+        final Area area = new Area(g1.getAsShape());
+        final Area area2 = new Area(g2.getAsShape());
+        area.intersect(area2);
+        return area.equals(area2) ? Geometry.TRUE : Geometry.FALSE;
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import junit.framework.TestCase;
+
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PreparedGeometryTest extends TestCase {
+
+    private GeometryParser parser;
+
+    protected void setUp() throws Exception {
+        parser = new GeometryParser();
+    }
+
+    public void testDelegation() throws ParseException {
+        final Geometry polygon = parser.parseWKT("POLYGON((0 0,10 0,10 10,0 10,0 0),(2 2,2 8,8 8,8 2,2 2))");
+        final PreparedGeometry prepared = new PreparedGeometry(polygon);
+        assertSame(polygon, prepared.getGeometry());
+        assertSame(polygon, new PreparedGeometry(prepared).getGeometry());
+        assertEquals(Geometry.POLYGON, prepared.getGeometryType());
+        assertEquals(2, prepared.getDimension());
+        assertEquals(polygon.getAsText(), prepared.getAsText());
+        assertEquals(new Rectangle2D.Double(0, 0, 10, 10), prepared.getEnvelope());
+        assertEquals(Geometry.TRUE, prepared.getEquals(polygon));
+        assertEquals(Geometry.UNKNOWN, prepared.getDisjoint(null));
+        try {
+            new PreparedGeometry(null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testPredicates() throws ParseException {
+        final PreparedGeometry prepared = new PreparedGeometry(
+                parser.parseWKT("POLYGON((0 0,10 0,10 10,0 10,0 0),(2 2,2 8,8 8,8 2,2 2))"));
+
+        // inside the hole, around the hole, crossing the hole, outside
+        assertPredicates(prepared, "POLYGON((3 3,7 3,7 7,3 7,3 3))", Geometry.TRUE, Geometry.FALSE);
+        assertPredicates(prepared, "POLYGON((1 1,9 1,9 9,1 9,1 1))", Geometry.FALSE, Geometry.FALSE);
+        assertPredicates(prepared, "POLYGON((1 1,3 1,3 3,1 3,1 1))", Geometry.FALSE, Geometry.FALSE);
+        assertPredicates(prepared, "POLYGON((0.5 0.5,1.5 0.5,1.5 1.5,0.5 0.5))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((20 20,30 20,30 30,20 20))", Geometry.TRUE, Geometry.FALSE);
+        assertPredicates(prepared, "POLYGON((-1 -1,11 -1,11 11,-1 11,-1 -1))", Geometry.FALSE, Geometry.FALSE);
+
+        // touching the boundary from inside and outside
+        assertPredicates(prepared, "POLYGON((0 0,1 0,1 1,0 1,0 0))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((10 0,11 0,11 1,10 1,10 0))", Geometry.TRUE, Geometry.FALSE);
+
+        assertPredicates(prepared, "POINT(1 1)", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POINT(5 5)", Geometry.TRUE, Geometry.FALSE);
+        assertPredicates(prepared, "MULTIPOINT((5 5),(1 1))", Geometry.FALSE, Geometry.FALSE);
+        assertPredicates(prepared, "MULTIPOLYGON(((0.5 0.5,1.5 0.5,1.5 1.5,0.5 0.5)),((9 9,9.5 9,9.5 9.5,9 9)))",
+                         Geometry.FALSE, Geometry.TRUE);
+
+        final PreparedGeometry outer = new PreparedGeometry(
+                parser.parseWKT("POLYGON((-1 -1,11 -1,11 11,-1 11,-1 -1))"));
+        assertEquals(Geometry.TRUE, outer.getContains(prepared));
+        assertEquals(Geometry.TRUE, prepared.getWithin(outer));
+        assertEquals(Geometry.TRUE, prepared.getIntersects(outer));
+    }
+
+    /**
+     * Compares the predicates of prepared polygons, multi-polygons and rectangles with the predicates of the wrapped
+     * geometries for random candidates.
+     */
+    public void testAgreesWithGeometry() {
+        final Random random = new Random(7);
+        final List<Geometry> geometries = new ArrayList<Geometry>();
+        geometries.add(createStar(random, 50, 50, 40, 200, true));
+        geometries.add(createStar(random, 50, 50, 40, 7, false));
+        geometries.add(new PolygonGeometry(new Rectangle2D.Double(20, 30, 50, 40)));
+        final MultiPolygonGeometry multi = new MultiPolygonGeometry();
+        multi.addPolygon(createStar(random, 30, 30, 20, 30, true));
+        multi.addPolygon(createStar(random, 75, 70, 20, 30, false));
+        geometries.add(multi);
+
+        for (Geometry geometry : geometries) {
+            final PreparedGeometry prepared = new PreparedGeometry(geometry);
+            for (int i = 0; i < 400; i++) {
+                final double x = 100 * random.nextDouble();
+                final double y = 100 * random.nextDouble();
+                final Geometry candidate;
+                switch (i % 3) {
+                    case 0:
+                        candidate = new PointGeometry(x, y);
+                        break;
+                    case 1:
+                        candidate = new PolygonGeometry(new Rectangle2D.Double(x, y, 20 * random.nextDouble(),
+                                                                               20 * random.nextDouble()));
+                        break;
+                    default:
+                        candidate = createStar(random, x, y, 2 + 15 * random.nextDouble(), 12, i % 2 == 0);
+                        break;
+                }
+                final String message = geometry.getGeometryType() + ": " + candidate;
+                assertEquals(message, geometry.getDisjoint(candidate), prepared.getDisjoint(candidate));
+                assertEquals(message, geometry.getContains(candidate), prepared.getContains(candidate));
+                assertEquals(message, candidate.getContains(geometry), prepared.getWithin(candidate));
+            }
+        }
+    }
+
+    public void testSerialization() throws Exception {
+        final PreparedGeometry prepared = new PreparedGeometry(parser.parseWKT("POLYGON((0 0,10 0,10 10,0 0))"));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(prepared);
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final PreparedGeometry copy = (PreparedGeometry) in.readObject();
+        assertEquals(Geometry.TRUE, copy.getContains(new PointGeometry(8, 2)));
+        assertEquals(Geometry.FALSE, copy.getContains(new PointGeometry(2, 8)));
+    }
+
+    /**
+     * A multi-polygon whose polygons overlap with opposite orientation contains the points of each polygon.
+     */
+    public void testOverlappingPolygons() throws ParseException {
+        final MultiPolygonGeometry multi = new MultiPolygonGeometry();
+        final double[] outer = {0, 0, 10, 0, 10, 10, 0, 10};
+        final double[] inner = {2, 2, 2, 8, 8, 8, 8, 2};
+        multi.addPolygon(new PolygonGeometry(CoordinateSequence.create(outer, true)));
+        multi.addPolygon(new PolygonGeometry(CoordinateSequence.create(inner, true)));
+        final PreparedGeometry prepared = new PreparedGeometry(multi);
+        assertPredicates(prepared, "POINT(5 5)", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POINT(1 1)", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((4 4,6 4,6 6,4 6,4 4))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((1 4,3 4,3 6,1 6,1 4))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((9 4,11 4,11 6,9 6,9 4))", Geometry.FALSE, Geometry.FALSE);
+        assertPredicates(prepared, "POLYGON((12 4,13 4,13 6,12 6,12 4))", Geometry.TRUE, Geometry.FALSE);
+    }
+
+    /**
+     * A polygon created from a shape keeps the even-odd winding rule of the shape.
+     */
+    public void testEvenOddShape() throws ParseException {
+        final GeneralPath path = new GeneralPath(GeneralPath.WIND_EVEN_ODD);
+        path.append(new Rectangle2D.Double(0, 0, 10, 10), false);
+        path.append(new Rectangle2D.Double(2, 2, 6, 6), false);
+        final PolygonGeometry polygon = new PolygonGeometry(path);
+        final PreparedGeometry prepared = new PreparedGeometry(polygon);
+        assertEquals(Geometry.FALSE, polygon.getContains(new PointGeometry(5, 5)));
+        assertPredicates(prepared, "POINT(5 5)", Geometry.TRUE, Geometry.FALSE);
+        assertPredicates(prepared, "POINT(1 5)", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((4 4,6 4,6 6,4 6,4 4))", Geometry.TRUE, Geometry.FALSE);
+        assertPredicates(prepared, "POLYGON((0.5 4,1.5 4,1.5 6,0.5 6,0.5 4))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((1 4,3 4,3 6,1 6,1 4))", Geometry.FALSE, Geometry.FALSE);
+    }
+
+    /**
+     * With the non-zero winding rule, a ring inside a ring of the same orientation does not bound a hole, so its edges
+     * have the interior on both sides.
+     */
+    public void testNestedRingsOfSameOrientation() throws ParseException {
+        final PolygonGeometry polygon = new PolygonGeometry(CoordinateSequence.create(
+                new double[]{0, 0, 10, 0, 10, 10, 0, 10, 2, 2, 8, 2, 8, 8, 2, 8}, new int[]{0, 4}, true));
+        final PreparedGeometry prepared = new PreparedGeometry(polygon);
+        assertPredicates(prepared, "POINT(5 5)", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((1 4,3 4,1 6,1 4))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((4 4,6 4,4 6,4 4))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((1 1,9 1,1 9,1 1))", Geometry.FALSE, Geometry.TRUE);
+        assertPredicates(prepared, "POLYGON((9 4,11 4,9 6,9 4))", Geometry.FALSE, Geometry.FALSE);
+    }
+
+    /**
+     * Tests candidates against a large polygon with many edges per band.
+     */
+    public void testLargePolygon() {
+        final Random random = new Random(11);
+        final PolygonGeometry area = createStar(random, 50, 50, 45, 1000, true);
+        final PreparedGeometry prepared = new PreparedGeometry(area);
+        for (int i = 0; i < 50; i++) {
+            final Geometry candidate = createStar(random, 100 * random.nextDouble(), 100 * random.nextDouble(), 2, 8,
+                                                  false);
+            assertEquals(area.getIntersects(candidate), prepared.getIntersects(candidate));
+            assertEquals(area.getContains(candidate), prepared.getContains(candidate));
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private void assertPredicates(PreparedGeometry prepared, String wkt, int disjoint, int contains)
+            throws ParseException {
+        final Geometry candidate = parser.parseWKT(wkt);
+        final Geometry geometry = prepared.getGeometry();
+        assertEquals(wkt, disjoint, prepared.getDisjoint(candidate));
+        assertEquals(wkt, disjoint == Geometry.TRUE ? Geometry.FALSE : Geometry.TRUE,
+                     prepared.getIntersects(candidate));
+        assertEquals(wkt, contains, prepared.getContains(candidate));
+        assertEquals(wkt, geometry.getDisjoint(candidate), prepared.getDisjoint(candidate));
+        assertEquals(wkt, geometry.getContains(candidate), prepared.getContains(candidate));
+    }
+
+    /**
+     * Creates a star-shaped polygon with random radii, optionally with a hole around the center.
+     */
+    private static PolygonGeometry createStar(Random random, double x, double y, double radius, int pointCount,
+                                              boolean hole) {
+        final double[] coordinates = new double[2 * pointCount + (hole ? 8 : 0)];
+        for (int i = 0; i < pointCount; i++) {
+            final double angle = 2 * Math.PI * i / pointCount;
+            final double r = radius * (0.5 + 0.5 * random.nextDouble());
+            coordinates[2 * i] = x + r * Math.cos(angle);
+            coordinates[2 * i + 1] = y + r * Math.sin(angle);
+        }
+        if (!hole) {
+            return new PolygonGeometry(CoordinateSequence.create(coordinates, true));
+        }
+        final double h = 0.2 * radius;
+        final double[] square = {x - h, y - h, x - h, y + h, x + h, y + h, x + h, y - h};
+        System.arraycopy(square, 0, coordinates, 2 * pointCount, square.length);
+        return new PolygonGeometry(CoordinateSequence.create(coordinates, new int[]{0, pointCount}, true));
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.geom;
+
+import junit.framework.TestCase;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class SpatialIndexTest extends TestCase {
+
+    private List<Geometry> geometries;
+
+    protected void setUp() throws Exception {
+        geometries = createGeometries(new Random(1), 2000);
+    }
+
+    public void testEmpty() {
+        final STRtree<Integer> strTree = new STRtree<Integer>();
+        final RTree<Integer> rTree = new RTree<Integer>();
+        for (AbstractRTree<Integer> tree : Arrays.asList(strTree, rTree)) {
+            assertEquals(0, tree.size());
+            assertNull(tree.getBounds());
+            assertEquals(0, tree.query(new Rectangle2D.Double(0, 0, 10, 10)).size());
+            assertEquals(0, tree.queryNearest(0, 0, 5).size());
+            assertEquals(0, tree.queryContains(0, 0).size());
+        }
+        assertFalse(rTree.remove(new PointGeometry(0, 0), 0));
+    }
+
+    public void testIllegalArguments() {
+        try {
+            new STRtree<Integer>(3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new RTree<Integer>().insert(new MultiPolygonGeometry(), 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        final STRtree<Integer> tree = new STRtree<Integer>();
+        tree.add(new PointGeometry(1, 2), 1);
+        tree.build();
+        try {
+            tree.add(new PointGeometry(1, 2), 2);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            tree.queryNearest(0, 0, -1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSTRtree() {
+        final STRtree<Integer> tree = new STRtree<Integer>(8);
+        for (int i = 0; i < geometries.size(); i++) {
+            tree.add(geometries.get(i), i);
+        }
+        assertEquals(geometries.size(), tree.size());
+        // 2000 entries need 250 leaves, 32 nodes, 4 nodes and the root
+        assertEquals(4, tree.getHeight());
+        assertValid(tree, tree.root(), 0);
+        assertQueries(tree);
+    }
+
+    public void testRTree() {
+        final RTree<Integer> tree = new RTree<Integer>(8);
+        for (int i = 0; i < geometries.size(); i++) {
+            tree.insert(geometries.get(i), i);
+        }
+        assertEquals(geometries.size(), tree.size());
+        assertValid(tree, tree.root(), 0);
+        assertQueries(tree);
+
+        // remove every other item, then insert them again
+        for (int i = 0; i < geometries.size(); i += 2) {
+            assertTrue(tree.remove(geometries.get(i), i));
+            assertFalse(tree.remove(geometries.get(i), i));
+        }
+        assertEquals(geometries.size() / 2, tree.size());
+        assertValid(tree, tree.root(), 0);
+        final Rectangle2D window = new Rectangle2D.Double(20, 30, 25, 10);
+        for (Integer i : tree.query(window)) {
+            assertTrue(i % 2 == 1);
+        }
+        for (int i = 0; i < geometries.size(); i += 2) {
+            tree.insert(geometries.get(i), i);
+        }
+        assertValid(tree, tree.root(), 0);
+        assertQueries(tree);
+
+        for (int i = 0; i < geometries.size(); i++) {
+            assertTrue(tree.remove(geometries.get(i), i));
+        }
+        assertEquals(0, tree.size());
+        assertEquals(1, tree.getHeight());
+        assertNull(tree.getBounds());
+    }
+
+    public void testNearestIsExact() throws Exception {
+        final GeometryParser parser = new GeometryParser();
+        final STRtree<String> tree = new STRtree<String>();
+        // the envelope of the diagonal line is nearer to the query point than the point
+        tree.add(parser.parseWKT("LINESTRING(0 0,10 10)"), "line");
+        tree.add(parser.parseWKT("POINT(8 3)"), "point");
+        tree.add(parser.parseWKT("POLYGON((20 0,30 0,30 10,20 10,20 0))"), "polygon");
+        assertEquals(Arrays.asList("point", "line", "polygon"), tree.queryNearest(9, 2, 3));
+        assertEquals(Arrays.asList("polygon"), tree.queryNearest(25, 5, 1));
+        assertEquals(Arrays.asList("polygon"), tree.queryContains(25, 5));
+    }
+
+    public void testRTreeRemovesRegions() {
+        // removing all items of a region dissolves internal nodes, whose subtrees are inserted again
+        final RTree<Integer> tree = new RTree<Integer>(4);
+        for (int i = 0; i < geometries.size(); i++) {
+            tree.insert(geometries.get(i), i);
+        }
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < geometries.size(); i++) {
+            final Rectangle2D e = AbstractGeometry.envelopeOf(geometries.get(i));
+            if (e.getMinX() < 50 && e.getMinY() < 50) {
+                assertTrue(tree.remove(geometries.get(i), i));
+            } else {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected.size(), tree.size());
+        assertValid(tree, tree.root(), 0);
+        assertEquals(expected, sorted(tree.query(new Rectangle2D.Double(-10, -10, 120, 120))));
+        for (Integer i : expected) {
+            assertTrue(tree.remove(geometries.get(i), i));
+            assertFalse(tree.remove(geometries.get(i), i));
+        }
+        assertEquals(0, tree.size());
+        assertEquals(1, tree.getHeight());
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private void assertQueries(SpatialIndex<Integer> tree) {
+        final Random random = new Random(4);
+        for (int n = 0; n < 50; n++) {
+            final double x = 110 * random.nextDouble() - 5;
+            final double y = 110 * random.nextDouble() - 5;
+            final Rectangle2D window = new Rectangle2D.Double(x, y, 10 * random.nextDouble(), 10 * random.nextDouble());
+            final Geometry query = new PolygonGeometry(window);
+            final PointGeometry point = new PointGeometry(x, y);
+
+            final List<Integer> expectedWindow = new ArrayList<Integer>();
+            final List<Integer> expectedIntersects = new ArrayList<Integer>();
+            final List<Integer> expectedWithin = new ArrayList<Integer>();
+            final List<Integer> expectedContains = new ArrayList<Integer>();
+            for (int i = 0; i < geometries.size(); i++) {
+                final Geometry g = geometries.get(i);
+                if (AbstractGeometry.intersects(AbstractGeometry.envelopeOf(g), window)) {
+                    expectedWindow.add(i);
+                }
+                if (g.getIntersects(query) == Geometry.TRUE) {
+                    expectedIntersects.add(i);
+                }
+                if (g.getWithin(query) == Geometry.TRUE) {
+                    expectedWithin.add(i);
+                }
+                if (g.getDimension() == 2 && g.getContains(point) == Geometry.TRUE) {
+                    expectedContains.add(i);
+                }
+            }
+            assertEquals(expectedWindow, sorted(tree.query(window)));
+            assertEquals(expectedIntersects, sorted(tree.queryIntersects(query)));
+            assertEquals(expectedWithin, sorted(tree.queryWithin(query)));
+            assertEquals(expectedContains, sorted(tree.queryContains(x, y)));
+
+            final List<Integer> nearest = tree.queryNearest(x, y, 10);
+            assertEquals(10, nearest.size());
+            assertEquals(10, new HashSet<Integer>(nearest).size());
+            final double[] distances = new double[geometries.size()];
+            for (int i = 0; i < geometries.size(); i++) {
+                distances[i] = AbstractGeometry.distance(geometries.get(i), x, y);
+            }
+            final double[] sortedDistances = distances.clone();
+            Arrays.sort(sortedDistances);
+            for (int i = 0; i < nearest.size(); i++) {
+                assertEquals(sortedDistances[i], distances[nearest.get(i)], 1.0e-10);
+            }
+        }
+    }
+
+    private static List<Integer> sorted(List<Integer> list) {
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Asserts that the envelopes of the nodes are the unions of the envelopes of their children, and that all leaves
+     * are on the same level. Nodes of an {@link RTree} have at least 40% of the node capacity as children, except
+     * the root.
+     *
+     * @return the height of the subtree
+     */
+    private static int assertValid(AbstractRTree tree, AbstractRTree.Node node, int minCount) {
+        assertTrue(node.count <= tree.getNodeCapacity());
+        assertTrue(node.count >= minCount);
+        int height = -1;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < node.count; i++) {
+            final AbstractRTree.Bounded child = node.children[i];
+            minX = Math.min(minX, child.minX);
+            minY = Math.min(minY, child.minY);
+            maxX = Math.max(maxX, child.maxX);
+            maxY = Math.max(maxY, child.maxY);
+            if (node.leaf) {
+                assertTrue(child instanceof AbstractRTree.Entry);
+            } else {
+                final int minChildCount = tree instanceof RTree ? getMinCount(tree) : 1;
+                final int h = assertValid(tree, (AbstractRTree.Node) child, minChildCount);
+                assertTrue(height == -1 || height == h);
+                height = h;
+            }
+        }
+        if (node.count > 0) {
+            assertEquals(minX, node.minX, 0.0);
+            assertEquals(minY, node.minY, 0.0);
+            assertEquals(maxX, node.maxX, 0.0);
+            assertEquals(maxY, node.maxY, 0.0);
+        }
+        return node.leaf ? 1 : height + 1;
+    }
+
+    private static int getMinCount(AbstractRTree tree) {
+        return Math.max(2, (2 * tree.getNodeCapacity()) / 5);
+    }
+
+    /**
+     * Creates triangles, rectangles, line strings and points in the area from (0, 0) to (100, 100).
+     */
+    private static List<Geometry> createGeometries(Random random, int count) {
+        final List<Geometry> list = new ArrayList<Geometry>(count);
+        for (int i = 0; i < count; i++) {
+            final double x = 100 * random.nextDouble();
+            final double y = 100 * random.nextDouble();
+            final double w = 2 * random.nextDouble();
+            final double h = 2 * random.nextDouble();
+            switch (i % 4) {
+                case 0:
+                    list.add(new PolygonGeometry(CoordinateSequence.create(new double[]{x, y, x + w, y, x, y + h},
+                                                                           true)));
+                    break;
+                case 1:
+                    list.add(new PolygonGeometry(new Rectangle2D.Double(x, y, w, h)));
+                    break;
+                case 2:
+                    list.add(new LineStringGeometry(CoordinateSequence.create(new double[]{x, y, x + w, y + h},
+                                                                              false)));
+                    break;
+                default:
+                    list.add(new PointGeometry(x, y));
+                    break;
+            }
+        }
+        return list;
+    }
+}
@@ -146,4 +146,17 @@ public class WKBReaderTest extends WKBTestCase {
 		Geometry geometry = reader.read(wkb);
 		assertEquals(mpgg, geometry);
 	}
+
+	public void testReadEWKB() throws Exception {
+		byte[] ewkb = hexToBytes("0101000020E6100000000000000000F03F000000000000F03F");
+		assertEquals(point, reader.read(ewkb));
+		assertEquals(4326, reader.getSRID());
+
+		byte[] wkbZ = hexToBytes("0101000080000000000000F03F000000000000F03F0000000000002440");
+		assertEquals(point, reader.read(wkbZ));
+		assertEquals(0, reader.getSRID());
+
+		// byte order switches back to big endian for the second geometry
+		assertEquals(point, reader.read(hexToBytes("00000000013FF00000000000003FF0000000000000")));
+	}
 }
@@ -51,6 +51,14 @@ public class WKBWriterTest extends WKBTestCase {
 		assertEquals(expected, bs);
 	}
 
+	public void testWriteEWKB() throws Exception {
+		WKBWriter writer = new WKBWriter(ByteOrder.LITTLE_ENDIAN, 4326);
+		byte[] expected = hexToBytes("0101000020E6100000000000000000F03F000000000000F03F");
+		assertEquals(expected, writer.write(point_1_1));
+		// the writer can be reused
+		assertEquals(expected, writer.write(point_1_1));
+	}
+
 	public void testWriteLineString() throws Exception {
 		GeneralPath gp = new GeneralPath();
 		gp.moveTo(1, 2);
@@ -0,0 +1,146 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+import org.hsqldb.jdbc.jdbcDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncTransactionManagerTest extends TestCase {
+
+    public void testParallelQueries() throws Exception {
+        final jdbcDataSource dataSource = new jdbcDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:.");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        final TransactionManager tm = SimpleTransactionManager.create(dataSource);
+        tm.execute(new UpdateTransaction("CREATE TABLE ATM1 (CI INTEGER)"));
+        final AsyncTransactionManager atm = new AsyncTransactionManager(tm, 4, -1L);
+        try {
+            atm.submit(new UpdateTransaction("INSERT INTO ATM1 VALUES(1)")).get();
+
+            final List<QueryForCountTransaction> queries = new ArrayList<QueryForCountTransaction>();
+            for (int i = 0; i < 8; i++) {
+                queries.add(new QueryForCountTransaction("ATM1"));
+            }
+            atm.submitAll(queries).get();
+            for (QueryForCountTransaction query : queries) {
+                assertEquals(1, query.fetchCount());
+            }
+
+            final CompletableFuture<UpdateTransaction> failed =
+                    atm.submit(new UpdateTransaction("INSERT INTO ATM2 VALUES(1)"));
+            try {
+                failed.get();
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof SQLException);
+            }
+        } finally {
+            atm.shutdown();
+            assertTrue(atm.awaitTermination(1000));
+            tm.execute(new UpdateTransaction("DROP TABLE ATM1"));
+        }
+    }
+
+    public void testBackPressure() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AsyncTransactionManager atm = new AsyncTransactionManager(new BlockingTransactionManager(), 2, 50L);
+        try {
+            final Transaction t = new Transaction() {
+                public boolean isUpdate() {
+                    return false;
+                }
+
+                public void execute(Connection connection) throws SQLException {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new SQLException(e);
+                    }
+                }
+            };
+            final CompletableFuture<Transaction> f1 = atm.submit(t);
+            final CompletableFuture<Transaction> f2 = atm.submit(t);
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            assertEquals(2, atm.getActiveCount());
+
+            final CompletableFuture<Transaction> f3 = atm.submit(t);
+            try {
+                f3.get();
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+            assertSame(t, f1.get());
+            assertSame(t, f2.get());
+            assertEquals(0, atm.getActiveCount());
+        } finally {
+            atm.shutdown();
+        }
+    }
+
+    public void testThreadsAreDaemons() throws Exception {
+        final AsyncTransactionManager atm = new AsyncTransactionManager(new BlockingTransactionManager(), 2, -1L);
+        try {
+            final Thread[] threads = new Thread[1];
+            atm.submit(new Transaction() {
+                public boolean isUpdate() {
+                    return false;
+                }
+
+                public void execute(Connection connection) {
+                    threads[0] = Thread.currentThread();
+                }
+            }).get();
+            assertTrue(threads[0].isDaemon());
+            if (!atm.isUsingVirtualThreads()) {
+                assertTrue(threads[0].getName(), threads[0].getName().matches("AsyncTransactionManager-\\d+-thread-1"));
+            }
+        } finally {
+            atm.shutdown();
+        }
+    }
+
+    public void testIllegalArguments() {
+        try {
+            new AsyncTransactionManager(null, 1, -1L);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new AsyncTransactionManager(new BlockingTransactionManager(), 0, -1L);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static class BlockingTransactionManager implements TransactionManager {
+
+        public DataSource getDataSource() {
+            return null;
+        }
+
+        public void execute(Transaction transaction) throws SQLException {
+            transaction.execute(null);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import com.bc.util.prop.Property;
+import com.bc.util.sql.conv.JdbcToJavaValueConverter;
+import junit.framework.TestCase;
+import org.hsqldb.jdbc.jdbcDataSource;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class CachingTransactionManagerTest extends TestCase {
+
+    private SimpleTransactionManager stm;
+
+    protected void setUp() throws Exception {
+        final jdbcDataSource dataSource = new jdbcDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:ctm");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        stm = new SimpleTransactionManager(dataSource);
+        stm.execute(new UpdateTransaction("CREATE TABLE CTM1 (ID INTEGER, NAME VARCHAR)"));
+        stm.execute(new UpdateTransaction("CREATE TABLE CTM2 (ID INTEGER)"));
+        stm.execute(new UpdateTransaction("INSERT INTO CTM1 VALUES(1, 'a')"));
+        stm.execute(new UpdateTransaction("INSERT INTO CTM2 VALUES(1)"));
+    }
+
+    protected void tearDown() throws Exception {
+        stm.execute(new UpdateTransaction("DROP TABLE CTM1"));
+        stm.execute(new UpdateTransaction("DROP TABLE CTM2"));
+    }
+
+    public void testParseTableNames() {
+        assertEquals(new HashSet<String>(Arrays.asList("A", "B", "S.C", "C")),
+                     QueryResultCache.parseTableNames("SELECT x FROM a, b AS bb, s.c WHERE a.id = b.id"));
+        assertEquals(new HashSet<String>(Arrays.asList("A", "B", "D")),
+                     QueryResultCache.parseTableNames("select * from a join b on a.id = b.id " +
+                                                      "where a.x in (select y from d)"));
+        assertEquals(new HashSet<String>(Arrays.asList("T")),
+                     QueryResultCache.parseTableNames("UPDATE t SET x = ? WHERE y = ?"));
+        assertEquals(new HashSet<String>(Arrays.asList("T")),
+                     QueryResultCache.parseTableNames("INSERT INTO t (x, y) VALUES (?, ?)"));
+        assertEquals(new HashSet<String>(Arrays.asList("T")),
+                     QueryResultCache.parseTableNames("DELETE FROM t WHERE x = ?"));
+    }
+
+    public void testCachingAndInvalidation() throws SQLException {
+        final QueryResultCache cache = new QueryResultCache(10, 60000);
+        final CachingTransactionManager tm = new CachingTransactionManager(stm, cache);
+
+        assertEquals(Arrays.asList("a"), queryNames(tm, 1));
+        assertEquals(Arrays.asList("a"), queryNames(tm, 1));
+        assertEquals(Arrays.asList(), queryNames(tm, 2));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3.0, cache.getHitRatio(), 1e-10);
+        assertEquals(2, cache.getSize());
+        assertTrue(cache.getEstimatedBytes() > 0);
+
+        // an update of another table keeps the cached results
+        tm.execute(new UpdateTransaction("INSERT INTO CTM2 VALUES(2)"));
+        assertEquals(2, cache.getSize());
+
+        // an update executed by the underlying transaction manager is not seen
+        stm.execute(new UpdateTransaction("UPDATE CTM1 SET NAME = 'b'"));
+        assertEquals(Arrays.asList("a"), queryNames(tm, 1));
+
+        tm.execute(new UpdateTransaction("UPDATE CTM1 SET NAME = 'c'"));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getEstimatedBytes());
+        assertEquals(Arrays.asList("c"), queryNames(tm, 1));
+
+        final QueryForObjectTransaction t = new QueryForObjectTransaction("SELECT NAME AS value FROM CTM1",
+                                                                          String.class, null);
+        tm.execute(t);
+        assertEquals("c", t.fetchResultObject());
+        tm.execute(t);
+        assertEquals("c", t.fetchResultObject());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    public void testTemplatesWithDifferentConvertersDoNotShareResults() throws SQLException {
+        final QueryResultCache cache = new QueryResultCache(10, 60000);
+        final CachingTransactionManager tm = new CachingTransactionManager(stm, cache);
+        final JdbcToJavaValueConverter upperCase = new JdbcToJavaValueConverter() {
+            public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+                return ((String) jdbcValue).toUpperCase();
+            }
+        };
+        final String sql = "SELECT NAME AS value FROM CTM1";
+
+        final QueryForObjectTransaction plain = new QueryForObjectTransaction(sql, String.class, null);
+        tm.execute(plain);
+        assertEquals("a", plain.fetchResultObject());
+
+        final QueryForObjectTransaction converted = new QueryForObjectTransaction(sql, String.class, null);
+        converted.getTemplate().addJdbcToJavaValueConverter("value", upperCase);
+        tm.execute(converted);
+        assertEquals("A", converted.fetchResultObject());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getSize());
+
+        // templates with equal converters share the cached result
+        final QueryForObjectTransaction converted2 = new QueryForObjectTransaction(sql, String.class, null);
+        converted2.getTemplate().addJdbcToJavaValueConverter("value", upperCase);
+        tm.execute(converted2);
+        assertEquals("A", converted2.fetchResultObject());
+        final QueryForObjectTransaction plain2 = new QueryForObjectTransaction(sql, String.class, null);
+        tm.execute(plain2);
+        assertEquals("a", plain2.fetchResultObject());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    public void testEviction() throws SQLException {
+        final QueryResultCache cache = new QueryResultCache(2, 60000);
+        final CachingTransactionManager tm = new CachingTransactionManager(stm, cache);
+        queryNames(tm, 1);
+        queryNames(tm, 2);
+        queryNames(tm, 3);
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        queryNames(tm, 3);
+        assertEquals(1, cache.getHitCount());
+        queryNames(tm, 1);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testTransactionContextBypassesCache() throws SQLException {
+        final QueryResultCache cache = new QueryResultCache();
+        final CachingTransactionManager tm = new CachingTransactionManager(stm, cache);
+        assertEquals(Arrays.asList("a"), queryNames(tm, 1));
+        stm.begin();
+        try {
+            tm.execute(new UpdateTransaction("UPDATE CTM1 SET NAME = 'b'"));
+            assertEquals(Arrays.asList("b"), queryNames(tm, 1));
+            // the cached result is kept until the context is committed
+            assertEquals(1, cache.getSize());
+        } finally {
+            stm.rollback();
+        }
+        assertEquals(Arrays.asList("a"), queryNames(tm, 1));
+    }
+
+    public void testUpdateInTransactionContextInvalidatesAfterCommit() throws SQLException {
+        final QueryResultCache cache = new QueryResultCache();
+        final CachingTransactionManager tm = new CachingTransactionManager(stm, cache);
+        assertEquals(Arrays.asList("a"), queryNames(tm, 1));
+        assertEquals(1, cache.getSize());
+
+        stm.begin();
+        try {
+            tm.execute(new UpdateTransaction("UPDATE CTM1 SET NAME = 'b'"));
+            assertEquals(1, cache.getSize());
+        } finally {
+            stm.rollback();
+        }
+        assertEquals(1, cache.getSize());
+        assertEquals(Arrays.asList("a"), queryNames(tm, 1));
+        assertEquals(1, cache.getHitCount());
+
+        // the update of a nested context which is rolled back does not invalidate the cache
+        stm.begin();
+        stm.begin();
+        tm.execute(new UpdateTransaction("UPDATE CTM1 SET NAME = 'b'"));
+        stm.rollback();
+        tm.execute(new UpdateTransaction("INSERT INTO CTM2 VALUES(2)"));
+        stm.commit();
+        assertEquals(1, cache.getSize());
+
+        stm.begin();
+        try {
+            tm.execute(new UpdateTransaction("UPDATE CTM1 SET NAME = 'c'"));
+            assertEquals(1, cache.getSize());
+            stm.commit();
+        } catch (SQLException e) {
+            stm.rollback();
+            throw e;
+        }
+        assertEquals(0, cache.getSize());
+        assertEquals(Arrays.asList("c"), queryNames(tm, 1));
+    }
+
+    public void testEstimateResultSize() {
+        final List<String> rows = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add("row" + (i % 10));
+        }
+        assertEquals(QueryResultCache.estimateSize(rows, 2), QueryResultCache.estimateResultSize(rows));
+        assertEquals(QueryResultCache.estimateSize("abc", 2), QueryResultCache.estimateResultSize("abc"));
+        assertEquals(40, QueryResultCache.estimateResultSize(new ArrayList()));
+    }
+
+    private static List queryNames(TransactionManager tm, int id) throws SQLException {
+        final IdBean param = new IdBean();
+        param.setId(id);
+        final QueryForListTransaction t = new QueryForListTransaction(
+                "SELECT NAME AS value FROM CTM1 WHERE ID = ${id}", String.class, param);
+        tm.execute(t);
+        return t.fetchResultList();
+    }
+
+    public static class IdBean {
+
+        private int id;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+    }
+}
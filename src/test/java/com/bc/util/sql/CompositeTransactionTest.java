@@ -0,0 +1,162 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CompositeTransactionTest extends TestCase {
+
+    public void testSequentialExecution() throws SQLException {
+        final CompositeTransaction ct = new CompositeTransaction();
+        final RecordingTransaction[] children = new RecordingTransaction[100000];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new RecordingTransaction(false);
+            ct.addTransaction(children[i]);
+        }
+        final RecordingTransaction independent = new RecordingTransaction(false);
+        ct.addIndependentTransaction(independent);
+        assertFalse(ct.isUpdate());
+
+        ct.execute(null);
+        for (RecordingTransaction child : children) {
+            assertSame(Thread.currentThread(), child.thread);
+        }
+        assertSame(Thread.currentThread(), independent.thread);
+    }
+
+    public void testParallelExecution() throws SQLException {
+        final AsyncTransactionManager atm = new AsyncTransactionManager(new DirectTransactionManager(), 2, -1L);
+        try {
+            final CompositeTransaction ct = new CompositeTransaction();
+            ct.setAsyncTransactionManager(atm);
+            final RecordingTransaction update = new RecordingTransaction(true);
+            final RecordingTransaction q1 = new RecordingTransaction(false);
+            final RecordingTransaction q2 = new RecordingTransaction(false);
+            ct.addTransaction(update);
+            ct.addIndependentTransaction(q1);
+            ct.addIndependentTransaction(q2);
+            assertTrue(ct.isUpdate());
+
+            ct.execute(null);
+            assertSame(Thread.currentThread(), update.thread);
+            assertNotNull(q1.thread);
+            assertNotSame(Thread.currentThread(), q1.thread);
+            assertNotNull(q2.thread);
+            assertNotSame(Thread.currentThread(), q2.thread);
+
+            final RecordingTransaction failing = new RecordingTransaction(false);
+            failing.fail = true;
+            ct.addIndependentTransaction(failing);
+            try {
+                ct.execute(null);
+                fail();
+            } catch (SQLException expected) {
+                assertEquals("failed", expected.getMessage());
+            }
+        } finally {
+            atm.shutdown();
+        }
+    }
+
+    public void testInterruptWaitsForIndependentTransactions() throws Exception {
+        final AsyncTransactionManager atm = new AsyncTransactionManager(new DirectTransactionManager(), 2, -1L);
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicBoolean completed = new AtomicBoolean();
+            final CompositeTransaction ct = new CompositeTransaction();
+            ct.setAsyncTransactionManager(atm);
+            ct.addIndependentTransaction(new Transaction() {
+                public boolean isUpdate() {
+                    return false;
+                }
+
+                public void execute(Connection connection) throws SQLException {
+                    started.countDown();
+                    try {
+                        release.await();
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        throw new SQLException(e.getMessage(), e);
+                    }
+                    completed.set(true);
+                }
+            });
+            final Thread caller = Thread.currentThread();
+            final Thread interrupter = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        started.await();
+                        caller.interrupt();
+                    } catch (InterruptedException e) {
+                        // ignore, the test fails
+                    } finally {
+                        release.countDown();
+                    }
+                }
+            });
+            interrupter.start();
+            try {
+                ct.execute(null);
+                assertTrue(completed.get());
+                assertTrue(Thread.interrupted());
+            } finally {
+                Thread.interrupted();
+                interrupter.join();
+            }
+        } finally {
+            atm.shutdown();
+        }
+    }
+
+    public void testIndependentTransactionMustBeReadOnly() {
+        try {
+            new CompositeTransaction().addIndependentTransaction(new RecordingTransaction(true));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static class RecordingTransaction implements Transaction {
+
+        private final boolean update;
+        private volatile Thread thread;
+        private boolean fail;
+
+        private RecordingTransaction(boolean update) {
+            this.update = update;
+        }
+
+        public boolean isUpdate() {
+            return update;
+        }
+
+        public void execute(Connection connection) throws SQLException {
+            thread = Thread.currentThread();
+            if (fail) {
+                throw new SQLException("failed");
+            }
+        }
+    }
+
+    private static class DirectTransactionManager implements TransactionManager {
+
+        public DataSource getDataSource() {
+            return null;
+        }
+
+        public void execute(Transaction transaction) throws SQLException {
+            transaction.execute(null);
+        }
+    }
+}
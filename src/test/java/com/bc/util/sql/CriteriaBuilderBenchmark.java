@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares queries whose criteria are built by {@link SqlUtils#appendWildcardAlternatives} with queries whose criteria
+ * are built by {@link CriteriaBuilder}. Two costs are timed for the same random column value patterns:
+ * <ul>
+ * <li>building the SQL and the parameter map only,</li>
+ * <li>executing the queries by a {@link SimpleTransactionManager} with a statement cache, which includes compiling
+ * the templates by the shared {@link TemplateCache} and preparing the statements by the {@link StatementCache}.</li>
+ * </ul>
+ * Each measurement is run once for warming up and then timed. This is not a unit test, run it with the test classpath:
+ * <pre>
+ *     mvn test-compile exec:java -Dexec.mainClass=com.bc.util.sql.CriteriaBuilderBenchmark \
+ *         -Dexec.classpathScope=test
+ * </pre>
+ */
+public class CriteriaBuilderBenchmark {
+
+    private static final int PATTERN_COUNT = 2000;
+    private static final int BUILD_ROUNDS = 20;
+    private static final int QUERY_ROUNDS = 3;
+    private static final int ROW_COUNT = 1000;
+    private static final String SELECT_SQL = "SELECT T.ID AS value FROM CBB T";
+
+    public static void main(String[] args) throws SQLException {
+        final List<String> patterns = createPatterns(PATTERN_COUNT, new Random(42));
+
+        System.out.println("Building SQL for " + PATTERN_COUNT + " patterns, " + BUILD_ROUNDS + " rounds:");
+        for (int i = 0; i < 2; i++) {
+            final boolean timed = i == 1;
+            runBuild("SqlUtils", patterns, false, timed);
+            runBuild("CriteriaBuilder", patterns, true, timed);
+        }
+
+        final DataSourceConfig config = new DataSourceConfig("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:benchmark",
+                                                             "sa", "");
+        config.setMaxActive(1);
+        config.setMaxIdle(1);
+        final PooledDataSource dataSource = SqlUtils.createPooledDataSource(config);
+        try {
+            final TransactionManager tm = SimpleTransactionManager.create(dataSource);
+            tm.execute(new UpdateTransaction("CREATE TABLE CBB (ID INTEGER, NAME VARCHAR)"));
+            for (int i = 0; i < ROW_COUNT; i++) {
+                tm.execute(new UpdateTransaction("INSERT INTO CBB VALUES (" + i + ", 'v" + (i % 40) + "')"));
+            }
+            System.out.println("Executing queries for " + PATTERN_COUNT + " patterns, " + QUERY_ROUNDS + " rounds:");
+            for (int i = 0; i < 2; i++) {
+                final boolean timed = i == 1;
+                runQueries("SqlUtils", dataSource, patterns, false, timed);
+                runQueries("CriteriaBuilder", dataSource, patterns, true, timed);
+            }
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates patterns of 1 to 40 alternatives, every tenth of which is a wildcard pattern.
+     */
+    private static List<String> createPatterns(int count, Random random) {
+        final List<String> patterns = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            final StringBuilder pattern = new StringBuilder();
+            final int alternativeCount = 1 + random.nextInt(40);
+            for (int j = 0; j < alternativeCount; j++) {
+                pattern.append(random.nextInt(10) == 0 ? "v" + j + "*" : "v" + j).append(';');
+            }
+            patterns.add(pattern.toString());
+        }
+        return patterns;
+    }
+
+    private static void runBuild(String name, List<String> patterns, boolean criteriaBuilder, boolean timed) {
+        long checksum = 0;
+        final long startTime = System.nanoTime();
+        for (int round = 0; round < BUILD_ROUNDS; round++) {
+            for (String pattern : patterns) {
+                final Map parameterMap = new HashMap();
+                checksum += buildSql(pattern, criteriaBuilder, parameterMap).length() + parameterMap.size();
+            }
+        }
+        final long elapsedNanos = System.nanoTime() - startTime;
+        if (timed) {
+            final int count = BUILD_ROUNDS * patterns.size();
+            System.out.println(String.format("  %-16s %8.1f ms  %8.2f us/query  (checksum %d)",
+                                             name, elapsedNanos / 1.0e6, elapsedNanos / 1.0e3 / count, checksum));
+        }
+    }
+
+    private static void runQueries(String name, PooledDataSource dataSource, List<String> patterns,
+                                   boolean criteriaBuilder, boolean timed) throws SQLException {
+        final TemplateCache templateCache = TemplateCache.getInstance();
+        templateCache.clear();
+        final SimpleTransactionManager tm = new SimpleTransactionManager(dataSource);
+        tm.setStatementCacheCapacity(StatementCache.DEFAULT_CAPACITY);
+        long rowCount = 0;
+        final long startTime = System.nanoTime();
+        for (int round = 0; round < QUERY_ROUNDS; round++) {
+            for (String pattern : patterns) {
+                final Map parameterMap = new HashMap();
+                final String sql = buildSql(pattern, criteriaBuilder, parameterMap);
+                final QueryForListTransaction t = new QueryForListTransaction(sql, Integer.class, parameterMap);
+                tm.execute(t);
+                rowCount += t.fetchResultList().size();
+            }
+        }
+        final long elapsedNanos = System.nanoTime() - startTime;
+        if (timed) {
+            final int count = QUERY_ROUNDS * patterns.size();
+            System.out.println(String.format("  %-16s %8.1f ms  %8.2f us/query  (rows %d)",
+                                             name, elapsedNanos / 1.0e6, elapsedNanos / 1.0e3 / count, rowCount));
+            System.out.println(String.format("  %-16s template cache: %d misses, %d evictions; " +
+                                             "statement cache: %d misses, hit rate %.3f",
+                                             "", templateCache.getMissCount(), templateCache.getEvictionCount(),
+                                             tm.getStatementCacheMissCount(), tm.getStatementCacheHitRate()));
+        }
+    }
+
+    private static String buildSql(String pattern, boolean criteriaBuilder, Map parameterMap) {
+        final StringBuffer sql = new StringBuffer(SELECT_SQL);
+        if (criteriaBuilder) {
+            final CriteriaBuilder builder = new CriteriaBuilder();
+            builder.addWildcardAlternatives("T.NAME", pattern, true);
+            builder.appendTo(sql);
+            parameterMap.putAll(builder.getParameterMap());
+        } else {
+            final ArrayList criteria = new ArrayList();
+            SqlUtils.appendWildcardAlternatives("T.NAME", pattern, "name", parameterMap, criteria);
+            SqlUtils.appendCriteriaToSqlBuffer(criteria, sql);
+        }
+        return sql.toString();
+    }
+}
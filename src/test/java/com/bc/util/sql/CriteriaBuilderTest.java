@@ -0,0 +1,244 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+import org.hsqldb.jdbc.jdbcDataSource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class CriteriaBuilderTest extends TestCase {
+
+    public void testBucketSize() {
+        assertEquals(1, CriteriaBuilder.getBucketSize(1));
+        assertEquals(2, CriteriaBuilder.getBucketSize(2));
+        assertEquals(4, CriteriaBuilder.getBucketSize(3));
+        assertEquals(8, CriteriaBuilder.getBucketSize(5));
+        assertEquals(64, CriteriaBuilder.getBucketSize(64));
+        try {
+            CriteriaBuilder.getBucketSize(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testInListIsPadded() {
+        final CriteriaBuilder builder = new CriteriaBuilder();
+        builder.addEquals("T.A", "x");
+        builder.addIn("T.B", Arrays.asList(1, 2, 3));
+        builder.addIn("T.C", Collections.emptyList());
+        builder.addIn("T.D", Arrays.asList(5));
+
+        final List<String> criteria = builder.getCriteria();
+        assertEquals(3, criteria.size());
+        assertEquals("T.A = ${c0_}", criteria.get(0));
+        assertEquals("T.B IN (${c1_0}, ${c1_1}, ${c1_2}, ${c1_3})", criteria.get(1));
+        assertEquals("T.D = ${c2_0}", criteria.get(2));
+
+        final Map<String, Object> parameterMap = builder.getParameterMap();
+        assertEquals(6, parameterMap.size());
+        assertEquals("x", parameterMap.get("c0_"));
+        assertEquals(3, parameterMap.get("c1_2"));
+        assertEquals(3, parameterMap.get("c1_3"));
+        assertEquals(5, parameterMap.get("c2_0"));
+
+        final StringBuffer sql = new StringBuffer("SELECT * FROM T");
+        builder.appendTo(sql);
+        assertEquals("SELECT * FROM T WHERE T.A = ${c0_}\n AND T.B IN (${c1_0}, ${c1_1}, ${c1_2}, ${c1_3})\n" +
+                     " AND T.D = ${c2_0}\n", sql.toString());
+    }
+
+    public void testLongInListIsSplit() {
+        final CriteriaBuilder builder = new CriteriaBuilder();
+        builder.setMaxInListSize(3);
+        assertEquals(2, builder.getMaxInListSize());
+        builder.addIn("A", Arrays.asList(1, 2, 3));
+        assertEquals("(A IN (${c0_0}, ${c0_1}) OR A IN (${c0_2}, ${c0_3}))", builder.getCriteria().get(0));
+        assertEquals(3, builder.getParameterMap().get("c0_3"));
+    }
+
+    public void testArrayParameters() {
+        final CriteriaBuilder builder = new CriteriaBuilder();
+        builder.setArrayParameters(true);
+        builder.addIn("A", Arrays.asList(1, 2, 3));
+        builder.addIn("B", Arrays.asList(null, 4L));
+        builder.addIn("C", Arrays.asList(new java.math.BigInteger("5")), "numeric");
+        builder.addWildcardAlternatives("D", "x;y", true);
+        assertEquals(Arrays.asList("A = ANY(${c0_})", "B = ANY(${c1_})", "C = ANY(${c2_})", "D = ANY(${c3_v})"),
+                     builder.getCriteria());
+        assertArray("integer", new Object[]{1, 2, 3}, builder.getParameterMap().get("c0_"));
+        assertArray("bigint", new Object[]{null, 4L}, builder.getParameterMap().get("c1_"));
+        assertArray("numeric", new Object[]{new java.math.BigInteger("5")}, builder.getParameterMap().get("c2_"));
+        assertArray("varchar", new Object[]{"x", "y"}, builder.getParameterMap().get("c3_v"));
+        try {
+            builder.addIn("E", Arrays.asList(new Object()));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testArrayParameterIsBoundAsSqlArray() throws SQLException {
+        final List<String> calls = new ArrayList<String>();
+        final SqlArray array = new SqlArray("integer", new Object[]{1, 2});
+        Template.setParameter(createStatementProxy(calls, true), 1, array);
+        assertEquals(Arrays.asList("getConnection", "createArrayOf(integer, [1, 2])", "setArray(1)"), calls);
+
+        // drivers without createArrayOf get the plain array
+        calls.clear();
+        Template.setParameter(createStatementProxy(calls, false), 1, array);
+        assertEquals(Arrays.asList("getConnection", "createArrayOf(integer, [1, 2])", "setObject(1, [1, 2])"),
+                     calls);
+    }
+
+    public void testWildcardAlternatives() {
+        final CriteriaBuilder builder = new CriteriaBuilder();
+        builder.addWildcardAlternatives("N", "a;b*; c ;d_e", true);
+        builder.addWildcardAlternatives("M", "x", true);
+        builder.addWildcardAlternatives("O", " ; ", true);
+        builder.addWildcardAlternatives("P", "a_b", false);
+
+        final List<String> criteria = builder.getCriteria();
+        assertEquals(3, criteria.size());
+        assertEquals("(N IN (${c0_v0}, ${c0_v1}) OR N LIKE ${c0_p0} OR N LIKE ${c0_p1})", criteria.get(0));
+        assertEquals("M = ${c1_v0}", criteria.get(1));
+        assertEquals("P = ${c2_v0}", criteria.get(2));
+
+        final Map<String, Object> parameterMap = builder.getParameterMap();
+        assertEquals("a", parameterMap.get("c0_v0"));
+        assertEquals("c", parameterMap.get("c0_v1"));
+        assertEquals("b%", parameterMap.get("c0_p0"));
+        assertEquals("d\\_e", parameterMap.get("c0_p1"));
+        assertEquals("a_b", parameterMap.get("c2_v0"));
+    }
+
+    public void testQuery() throws SQLException {
+        final jdbcDataSource dataSource = new jdbcDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:criteria");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        final TransactionManager tm = SimpleTransactionManager.create(dataSource);
+        tm.execute(new UpdateTransaction("CREATE TABLE CB (ID INTEGER, NAME VARCHAR)"));
+        try {
+            for (int i = 0; i < 10; i++) {
+                tm.execute(new UpdateTransaction("INSERT INTO CB VALUES (" + i + ", 'n" + i + "')"));
+            }
+            final CriteriaBuilder builder = new CriteriaBuilder();
+            builder.addIn("ID", Arrays.asList(1, 2, 3, 4, 5));
+            builder.addWildcardAlternatives("NAME", "n1;n3;n5*", true);
+            final StringBuffer sql = new StringBuffer("SELECT ID AS value FROM CB");
+            builder.appendTo(sql);
+            sql.append(" ORDER BY ID");
+
+            final QueryForListTransaction t = new QueryForListTransaction(sql.toString(), Integer.class,
+                                                                          builder.getParameterMap());
+            tm.execute(t);
+            assertEquals(Arrays.asList(1, 3, 5), t.fetchResultList());
+        } finally {
+            tm.execute(new UpdateTransaction("DROP TABLE CB"));
+        }
+    }
+
+    /**
+     * Compares the number of distinct statements produced by {@link CriteriaBuilder} and by {@link SqlUtils} for
+     * randomly sized alternatives.
+     */
+    public void testFewerStatementsThanSqlUtils() {
+        final int n = 2000;
+        final List<String> patterns = new ArrayList<String>(n);
+        final Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            final StringBuilder pattern = new StringBuilder();
+            final int count = 1 + random.nextInt(40);
+            for (int j = 0; j < count; j++) {
+                pattern.append(random.nextInt(10) == 0 ? "p" + j + "*" : "v" + j).append(';');
+            }
+            patterns.add(pattern.toString());
+        }
+
+        final Set<String> oldStatements = new HashSet<String>();
+        for (String pattern : patterns) {
+            final ArrayList criteria = new ArrayList();
+            SqlUtils.appendWildcardAlternatives("T.NAME", pattern, "name", new HashMap(), criteria);
+            final StringBuffer sql = new StringBuffer("SELECT T.ID AS value FROM T");
+            SqlUtils.appendCriteriaToSqlBuffer(criteria, sql);
+            oldStatements.add(sql.toString());
+        }
+
+        final Set<String> newStatements = new HashSet<String>();
+        for (String pattern : patterns) {
+            final CriteriaBuilder builder = new CriteriaBuilder();
+            builder.addWildcardAlternatives("T.NAME", pattern, true);
+            final StringBuffer sql = new StringBuffer("SELECT T.ID AS value FROM T");
+            builder.appendTo(sql);
+            newStatements.add(sql.toString());
+        }
+
+        // at most 7 IN-list sizes times 4 LIKE-chain lengths (0, 1, 2 and 4 alternatives, rarely 8)
+        assertTrue(newStatements.size() <= 40);
+        assertTrue(oldStatements.size() > 10 * newStatements.size());
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private static void assertArray(String expectedTypeName, Object[] expectedElements, Object value) {
+        assertTrue(value instanceof SqlArray);
+        assertEquals(expectedTypeName, ((SqlArray) value).getTypeName());
+        assertTrue(Arrays.equals(expectedElements, ((SqlArray) value).getElements()));
+    }
+
+    /**
+     * Creates a prepared statement recording the calls which bind an array parameter. The connection of the
+     * statement either creates arrays or does not implement <code>createArrayOf</code>, as JDBC 3 drivers.
+     */
+    private static PreparedStatement createStatementProxy(final List<String> calls, final boolean arraySupported) {
+        final Connection connection = (Connection) Proxy.newProxyInstance(
+                CriteriaBuilderTest.class.getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                calls.add(method.getName() + "(" + args[0] + ", " + Arrays.toString((Object[]) args[1]) + ")");
+                if (!arraySupported) {
+                    throw new AbstractMethodError(method.getName());
+                }
+                return Proxy.newProxyInstance(CriteriaBuilderTest.class.getClassLoader(), new Class[]{Array.class},
+                                              new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                });
+            }
+        });
+        return (PreparedStatement) Proxy.newProxyInstance(
+                CriteriaBuilderTest.class.getClassLoader(), new Class[]{PreparedStatement.class},
+                new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getConnection")) {
+                    calls.add("getConnection");
+                    return connection;
+                }
+                final Object value = args[1] instanceof Object[] ? Arrays.toString((Object[]) args[1]) : null;
+                calls.add(method.getName() + "(" + args[0] + (value != null ? ", " + value : "") + ")");
+                return null;
+            }
+        });
+    }
+}
@@ -1,11 +1,21 @@
 package com.bc.util.sql;
 
+import com.bc.util.geom.Geometry;
 import com.bc.util.geom.GeometryParser;
 import com.bc.util.geom.PointGeometry;
+import com.bc.util.geom.WKBReader;
+import com.bc.util.prop.Property;
+import com.bc.util.sql.conv.DefaultValueConverter;
+import com.bc.util.sql.conv.ValueConverter;
+import com.bc.util.sql.conv.WKBGeometryConverter;
 import junit.framework.TestCase;
 
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.List;
@@ -39,6 +49,124 @@ public class GeometryPersistenceTest extends TestCase {
 
     }
 
+    public void testBinaryGeometries() throws SQLException, ParseException, IOException {
+        final Connection connection = DriverManager.getConnection("jdbc:hsqldb:.", "sa", "");
+        try {
+            execute(connection, "CREATE TABLE GPT1 (ID INTEGER, ROI LONGVARBINARY, WKT VARCHAR)");
+            final Geometry polygon = wktParser.parseWKT("POLYGON((1 1,5 1,5 5,1 5,1 1))");
+            final G g = new G();
+            g.setId(1);
+            g.setRoi(polygon);
+
+            final Template insert = new Template("INSERT INTO GPT1 VALUES(${id}, ${roi}, NULL)", G.class, null);
+            insert.setGeometryConverter(new WKBGeometryConverter(4326));
+            insert.executeUpdate(connection, g);
+
+            final Template query = new Template("SELECT ID AS id, ROI AS roi FROM GPT1 WHERE ID = ${value}",
+                                                Integer.class, G.class);
+            assertEquals(polygon, ((G) query.executeQueryForObject(connection, 1)).getRoi());
+
+            final Statement stmt = connection.createStatement();
+            final ResultSet rs = stmt.executeQuery("SELECT ROI FROM GPT1 WHERE ID = 1");
+            assertTrue(rs.next());
+            final byte[] ewkb = rs.getBytes(1);
+            stmt.close();
+            final WKBReader reader = new WKBReader();
+            assertEquals(polygon, reader.read(ewkb));
+            assertEquals(4326, reader.getSRID());
+            assertTrue(ewkb.length < polygon.getAsText().length() * 4);
+
+            DefaultValueConverter.setDefaultGeometryConverter(new WKBGeometryConverter());
+            try {
+                g.setId(2);
+                g.setRoi(new PointGeometry(3, 4));
+                final Template defaultInsert = new Template("INSERT INTO GPT1 VALUES(${id}, ${roi}, NULL)",
+                                                            G.class, null);
+                defaultInsert.executeUpdate(connection, g);
+            } finally {
+                DefaultValueConverter.setDefaultGeometryConverter(null);
+            }
+            assertEquals(new PointGeometry(3, 4), ((G) query.executeQueryForObject(connection, 2)).getRoi());
+
+            // text and hexadecimal EWKB are still read
+            execute(connection, "INSERT INTO GPT1 VALUES(3, NULL, 'POINT(1 2)')");
+            execute(connection,
+                    "INSERT INTO GPT1 VALUES(4, NULL, '0101000020E6100000000000000000F03F000000000000F03F')");
+            final Template queryText = new Template("SELECT ID AS id, WKT AS roi FROM GPT1 WHERE ID = ${value}",
+                                                    Integer.class, G.class);
+            assertEquals(new PointGeometry(1, 2), ((G) queryText.executeQueryForObject(connection, 3)).getRoi());
+            assertEquals(new PointGeometry(1, 1), ((G) queryText.executeQueryForObject(connection, 4)).getRoi());
+        } finally {
+            execute(connection, "DROP TABLE GPT1");
+            connection.close();
+        }
+    }
+
+    public void testGeometryConverterIsUsedForResults() throws SQLException, ParseException {
+        final Connection connection = DriverManager.getConnection("jdbc:hsqldb:.", "sa", "");
+        try {
+            execute(connection, "CREATE TABLE GPT2 (ID INTEGER, ROI VARCHAR)");
+            execute(connection, "INSERT INTO GPT2 VALUES(1, 'POINT(1 2)')");
+            final Template query = new Template("SELECT ID AS id, ROI AS roi FROM GPT2 WHERE ID = ${value}",
+                                                Integer.class, G.class);
+            assertEquals(new PointGeometry(1, 2), ((G) query.executeQueryForObject(connection, 1)).getRoi());
+
+            // the converter reads the text with swapped coordinates
+            query.setGeometryConverter(new ValueConverter() {
+                public Object convertJavaToJdbcValue(Property property, Object javaValue) {
+                    return javaValue;
+                }
+
+                public Object convertJdbcToJavaValue(Property property, Object jdbcValue) {
+                    try {
+                        final PointGeometry p = (PointGeometry) wktParser.parseWKT((String) jdbcValue);
+                        return new PointGeometry(p.getY(), p.getX());
+                    } catch (ParseException e) {
+                        throw new IllegalArgumentException(e.getMessage());
+                    }
+                }
+            });
+            final G g = (G) query.executeQueryForObject(connection, 1);
+            assertEquals(1, g.getId());
+            assertEquals(new PointGeometry(2, 1), g.getRoi());
+            assertEquals(new PointGeometry(2, 1), ((G) query.executeQueryForList(connection, 1).get(0)).getRoi());
+
+            query.setGeometryConverter(null);
+            assertEquals(new PointGeometry(1, 2), ((G) query.executeQueryForObject(connection, 1)).getRoi());
+        } finally {
+            execute(connection, "DROP TABLE GPT2");
+            connection.close();
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        final Statement stmt = connection.createStatement();
+        stmt.execute(sql);
+        stmt.close();
+    }
+
+    public static class G {
+
+        private int id;
+        private Geometry roi;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public Geometry getRoi() {
+            return roi;
+        }
+
+        public void setRoi(Geometry roi) {
+            this.roi = roi;
+        }
+    }
+
     public final void dontTestThatGeometryIsInsertedCorrectly() throws SQLException,
             ParseException {
         final String tableName = "lwedkjfl";
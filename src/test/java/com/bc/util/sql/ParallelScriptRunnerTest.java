@@ -0,0 +1,135 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+import org.hsqldb.jdbc.jdbcDataSource;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ParallelScriptRunnerTest extends TestCase {
+
+    private jdbcDataSource dataSource;
+
+    protected void setUp() throws Exception {
+        dataSource = new jdbcDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:psr");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+    }
+
+    protected void tearDown() throws Exception {
+        final TransactionManager tm = SimpleTransactionManager.create(dataSource);
+        tm.execute(new UpdateTransaction("DROP TABLE PSR1 IF EXISTS"));
+        tm.execute(new UpdateTransaction("DROP TABLE PSR2 IF EXISTS"));
+    }
+
+    public void testScanObjectNames() {
+        assertEquals(new HashSet<String>(Arrays.asList("I1", "T1")),
+                     ParallelScriptRunner.scanObjectNames("CREATE INDEX I1 ON T1 (X);"));
+        assertEquals(new HashSet<String>(Arrays.asList("T2", "T1")),
+                     ParallelScriptRunner.scanObjectNames("CREATE TABLE IF NOT EXISTS T2 (ID INTEGER " +
+                                                          "REFERENCES T1 (ID));"));
+    }
+
+    public void testSchemaQualifiedNamesDependOnSchema() {
+        final Set<String> schema = ParallelScriptRunner.scanObjectNames("CREATE SCHEMA S AUTHORIZATION DBA;\n" +
+                                                                        "CREATE TABLE S.T (ID INTEGER);");
+        final Set<String> table = ParallelScriptRunner.scanObjectNames("CREATE TABLE S.U (ID INTEGER);");
+        assertEquals(new HashSet<String>(Arrays.asList("S", "S.T", "T")), schema);
+        assertEquals(new HashSet<String>(Arrays.asList("S", "S.U", "U")), table);
+        assertFalse(Collections.disjoint(schema, table));
+
+        assertEquals(new HashSet<String>(Arrays.asList("F", "P", "D", "TR", "T1", "TY")),
+                     ParallelScriptRunner.scanObjectNames("CREATE FUNCTION F(X INTEGER) RETURNS INTEGER;\n" +
+                                                          "DROP PROCEDURE P;\n" +
+                                                          "CREATE DOMAIN D AS INTEGER;\n" +
+                                                          "CREATE TRIGGER TR AFTER INSERT ON T1 CALL \"X\";\n" +
+                                                          "CREATE TYPE TY AS (X INTEGER);"));
+    }
+
+    public void testUnclassifiedStatementsAreBarriers() {
+        assertEquals(0, ParallelScriptRunner.scanObjectNames("CREATE TABLE T1 (ID INTEGER);\n" +
+                                                             "CALL P(1);").size());
+        assertEquals(0, ParallelScriptRunner.scanObjectNames("GRANT SELECT ON T1 TO PUBLIC;").size());
+        assertEquals(0, ParallelScriptRunner.scanObjectNames("CREATE ALIAS A FOR \"x.y\";").size());
+        assertEquals(0, ParallelScriptRunner.scanObjectNames("DROP USER U;").size());
+        assertEquals(new HashSet<String>(Arrays.asList("I1", "T1")),
+                     ParallelScriptRunner.scanObjectNames("CREATE UNIQUE INDEX I1 ON T1 (X);"));
+    }
+
+    public void testRunSections() throws SQLException {
+        final String script = "CREATE TABLE PSR1 (ID INTEGER, NAME VARCHAR);\n" +
+                              "CREATE TABLE PSR2 (ID INTEGER);\n" +
+                              "-- @section index1\n" +
+                              "CREATE INDEX PSR1_I ON PSR1 (ID);\n" +
+                              "INSERT INTO PSR1 VALUES (1, 'a');\n" +
+                              "-- @section index2\n" +
+                              "CREATE INDEX PSR2_I ON PSR2 (ID);\n" +
+                              "INSERT INTO PSR2 VALUES (1);\n";
+        final ParallelScriptRunner runner = new ParallelScriptRunner(dataSource, 4);
+        runner.addScriptSections("schema", script);
+        assertEquals(3, runner.getScriptCount());
+        runner.run();
+
+        final List<ParallelScriptRunner.Timing> timings = runner.getTimings();
+        assertEquals(3, timings.size());
+        assertEquals("schema", timings.get(0).getName());
+        assertEquals("schema#index1", timings.get(1).getName());
+        assertEquals("schema#index2", timings.get(2).getName());
+        assertEquals(0, timings.get(0).getDependencyCount());
+        assertEquals(1, timings.get(1).getDependencyCount());
+        assertEquals(1, timings.get(2).getDependencyCount());
+        for (ParallelScriptRunner.Timing timing : timings) {
+            assertTrue(timing.isExecuted());
+            assertEquals(2, timing.getStatementCount());
+        }
+
+        final QueryForCountTransaction t = new QueryForCountTransaction("PSR1");
+        SimpleTransactionManager.create(dataSource).execute(t);
+        assertEquals(1, t.fetchCount());
+    }
+
+    public void testFailureStopsDependentScripts() {
+        final ParallelScriptRunner runner = new ParallelScriptRunner(dataSource, 2);
+        runner.addScript("create", "CREATE TABLE PSR1 (ID INTEGER);");
+        runner.addScript("fail", "INSERT INTO PSR1 VALUES ('x', 'y');");
+        runner.addScript("insert", "INSERT INTO PSR1 VALUES (1);");
+        try {
+            runner.run();
+            fail();
+        } catch (SQLException expected) {
+        }
+        final List<ParallelScriptRunner.Timing> timings = runner.getTimings();
+        assertTrue(timings.get(0).isExecuted());
+        assertFalse(timings.get(1).isExecuted());
+        assertFalse(timings.get(2).isExecuted());
+        assertEquals(-1, timings.get(2).getStartMillis());
+    }
+
+    public void testFailureStopsIndependentScripts() {
+        // with a single thread, the independent script is started after the failed one
+        final ParallelScriptRunner runner = new ParallelScriptRunner(dataSource, 1);
+        runner.addScript("fail", "INSERT INTO PSR2 VALUES (1);");
+        runner.addScript("create", "CREATE TABLE PSR1 (ID INTEGER);");
+        try {
+            runner.run();
+            fail();
+        } catch (SQLException expected) {
+        }
+        final List<ParallelScriptRunner.Timing> timings = runner.getTimings();
+        assertEquals(0, timings.get(1).getDependencyCount());
+        assertFalse(timings.get(0).isExecuted());
+        assertFalse(timings.get(1).isExecuted());
+        assertEquals(-1, timings.get(1).getStartMillis());
+    }
+}
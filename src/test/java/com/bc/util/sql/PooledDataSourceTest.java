@@ -0,0 +1,90 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public class PooledDataSourceTest extends TestCase {
+
+    private PooledDataSource dataSource;
+
+    protected void setUp() throws Exception {
+        final DataSourceConfig config = new DataSourceConfig("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:pooltest",
+                                                             "sa", "");
+        config.setMaxActive(2);
+        config.setMaxIdle(2);
+        config.setMaxWait(50);
+        config.setValidationQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        config.setPoolPreparedStatements(true);
+        dataSource = SqlUtils.createPooledDataSource(config);
+    }
+
+    protected void tearDown() throws Exception {
+        dataSource.close();
+        dataSource = null;
+    }
+
+    public void testConfiguration() {
+        assertEquals(2, dataSource.getMaxActive());
+        assertEquals(50, dataSource.getMaxWait());
+        assertEquals("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS", dataSource.getValidationQuery());
+        assertTrue(dataSource.isPoolPreparedStatements());
+        assertFalse(dataSource.getRemoveAbandoned());
+    }
+
+    public void testBorrowMetrics() throws SQLException {
+        final Connection c1 = dataSource.getConnection();
+        final Connection c2 = dataSource.getConnection();
+        assertEquals(2, dataSource.getNumActive());
+        assertEquals(0, dataSource.getNumIdle());
+
+        try {
+            dataSource.getConnection();
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertEquals(3, dataSource.getBorrowCount());
+        assertEquals(1, dataSource.getBorrowFailureCount());
+        assertTrue(dataSource.getMaxWaitTimeMillis() >= 40);
+
+        c1.close();
+        c2.close();
+        assertEquals(0, dataSource.getNumActive());
+        assertEquals(2, dataSource.getNumIdle());
+
+        dataSource.resetMetrics();
+        assertEquals(0, dataSource.getBorrowCount());
+        assertEquals(0, dataSource.getBorrowFailureCount());
+    }
+
+    public void testLatencyHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(50));
+
+        histogram.record(500L);           // 0.5 us
+        histogram.record(3000L);          // 3 us
+        histogram.record(3000000L);       // 3 ms
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(4, histogram.getCount());
+        assertEquals(1, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(2));
+        assertEquals(1, histogram.getBucketCount(12));
+        assertEquals(1, histogram.getBucketCount(LatencyHistogram.BUCKET_COUNT - 1));
+        assertEquals(Long.MAX_VALUE, histogram.getMaxNanos());
+
+        assertEquals(4, histogram.getPercentileMicros(50));
+        assertEquals(4096, histogram.getPercentileMicros(75));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileMicros(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getBucketCount(2));
+    }
+}
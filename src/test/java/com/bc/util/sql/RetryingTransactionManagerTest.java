@@ -0,0 +1,175 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Random;
+
+public class RetryingTransactionManagerTest extends TestCase {
+
+    public void testRetryableClassification() {
+        final RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isRetryable(new SQLException("serialization failure", "40001")));
+        assertTrue(policy.isRetryable(new SQLException("deadlock", "40P01")));
+        assertTrue(policy.isRetryable(new SQLException("lock wait timeout", "HY000", 1205)));
+        assertTrue(policy.isRetryable(new SQLTimeoutException("timeout")));
+        assertFalse(policy.isRetryable(new SQLException("syntax error", "42000")));
+        assertFalse(policy.isRetryable(new SQLException("integrity constraint violation", "40002")));
+        assertFalse(policy.isRetryable(new SQLTransactionRollbackException("integrity", "40002")));
+        assertTrue(policy.isRetryable(new SQLTransactionRollbackException("rollback")));
+        assertFalse(policy.isRetryable(new SQLException("no state")));
+
+        final SQLException chained = new SQLException("batch failed", "HY000");
+        chained.setNextException(new SQLException("deadlock", "40001"));
+        assertTrue(policy.isRetryable(chained));
+        assertTrue(policy.isRetryable(new SQLException("wrapped", new SQLException("deadlock", "40001"))));
+
+        assertFalse(policy.isRetryable(new SQLException("timeout", "HY008")));
+        policy.addRetryableSqlState("HY008");
+        assertTrue(policy.isRetryable(new SQLException("timeout", "HY008")));
+    }
+
+    public void testConnectionFailures() {
+        final RetryPolicy policy = new RetryPolicy();
+        final SQLException linkFailure = new SQLException("link failure", "08S01");
+        final SQLException reset = new SQLTransientConnectionException("reset");
+        final SQLException closed = new SQLRecoverableException("closed");
+
+        final Transaction update = new UpdateTransaction("UPDATE X SET Y = Y + 1");
+        assertFalse(policy.isIdempotent(update));
+        assertFalse(policy.isRetryable(linkFailure, update));
+        assertFalse(policy.isRetryable(reset, update));
+        assertFalse(policy.isRetryable(closed, update));
+        assertFalse(policy.isRetryable(linkFailure));
+
+        final Transaction query = new QueryForCountTransaction("X");
+        assertTrue(policy.isIdempotent(query));
+        assertTrue(policy.isRetryable(linkFailure, query));
+        assertTrue(policy.isRetryable(reset, query));
+        assertTrue(policy.isRetryable(closed, query));
+
+        final Transaction idempotentUpdate = new IdempotentUpdate();
+        assertTrue(policy.isIdempotent(idempotentUpdate));
+        assertTrue(policy.isRetryable(linkFailure, idempotentUpdate));
+        assertFalse(policy.isRetryable(new SQLException("syntax error", "42000"), idempotentUpdate));
+    }
+
+    public void testExponentialBackoff() {
+        final RetryPolicy policy = new RetryPolicy(10, 10, 100, 2.0, 0.0);
+        assertEquals(10, policy.getDelayMillis(1));
+        assertEquals(20, policy.getDelayMillis(2));
+        assertEquals(40, policy.getDelayMillis(3));
+        assertEquals(100, policy.getDelayMillis(5));
+
+        final RetryPolicy jittered = new RetryPolicy(10, 100, 1000, 2.0, 0.5);
+        final Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            final long delay = jittered.getDelayMillis(2, random);
+            assertTrue(delay >= 100 && delay <= 200);
+        }
+    }
+
+    public void testRetries() throws SQLException {
+        final FailingTransactionManager ftm = new FailingTransactionManager();
+        final RetryingTransactionManager tm = new RetryingTransactionManager(ftm, new RetryPolicy(3, 0, 0, 1.0, 0.0));
+
+        ftm.failures = 2;
+        ftm.sqlState = "40001";
+        tm.execute(new UpdateTransaction("UPDATE X SET Y = 1"));
+        assertEquals(3, ftm.attempts);
+        assertEquals(2, tm.getRetryCount());
+        assertEquals(1, tm.getRecoveredCount());
+        assertEquals(0, tm.getAbortCount());
+
+        ftm.attempts = 0;
+        ftm.failures = 3;
+        try {
+            tm.execute(new UpdateTransaction("UPDATE X SET Y = 1"));
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertEquals(3, ftm.attempts);
+        assertEquals(4, tm.getRetryCount());
+        assertEquals(1, tm.getAbortCount());
+
+        ftm.attempts = 0;
+        ftm.failures = 1;
+        ftm.sqlState = "42000";
+        try {
+            tm.execute(new UpdateTransaction("UPDATE X SET Y = 1"));
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertEquals(1, ftm.attempts);
+        assertEquals(1, tm.getNonRetryableFailureCount());
+
+        ftm.attempts = 0;
+        ftm.sqlState = "40002";
+        try {
+            tm.execute(new UpdateTransaction("UPDATE X SET Y = 1"));
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertEquals(1, ftm.attempts);
+        assertEquals(2, tm.getNonRetryableFailureCount());
+
+        // a connection failure is retried for queries, but not for updates
+        ftm.attempts = 0;
+        ftm.sqlState = "08S01";
+        try {
+            tm.execute(new UpdateTransaction("UPDATE X SET Y = Y + 1"));
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertEquals(1, ftm.attempts);
+        assertEquals(3, tm.getNonRetryableFailureCount());
+
+        ftm.attempts = 0;
+        tm.execute(new QueryForCountTransaction("X"));
+        assertEquals(2, ftm.attempts);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private static class IdempotentUpdate implements IdempotentTransaction {
+
+        public boolean isUpdate() {
+            return true;
+        }
+
+        public void execute(Connection connection) throws SQLException {
+        }
+    }
+
+    private static class FailingTransactionManager implements TransactionManager {
+
+        private int failures;
+        private int attempts;
+        private String sqlState;
+
+        public DataSource getDataSource() {
+            return null;
+        }
+
+        public void execute(Transaction transaction) throws SQLException {
+            attempts++;
+            if (attempts <= failures) {
+                throw new SQLException("failure " + attempts, sqlState);
+            }
+        }
+    }
+}
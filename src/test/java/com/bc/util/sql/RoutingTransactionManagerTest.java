@@ -0,0 +1,109 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+import org.hsqldb.jdbc.jdbcDataSource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+public class RoutingTransactionManagerTest extends TestCase {
+
+    private DataSource primary;
+    private DataSource replica;
+
+    protected void setUp() throws Exception {
+        primary = createDataSource("jdbc:hsqldb:mem:rtmprimary");
+        replica = createDataSource("jdbc:hsqldb:mem:rtmreplica");
+        final TransactionManager ptm = SimpleTransactionManager.create(primary);
+        ptm.execute(new UpdateTransaction("CREATE TABLE RTM1 (CS VARCHAR)"));
+        ptm.execute(new UpdateTransaction("INSERT INTO RTM1 VALUES('primary')"));
+        final TransactionManager rtm = SimpleTransactionManager.create(replica);
+        rtm.execute(new UpdateTransaction("CREATE TABLE RTM1 (CS VARCHAR)"));
+        rtm.execute(new UpdateTransaction("INSERT INTO RTM1 VALUES('replica')"));
+    }
+
+    protected void tearDown() throws Exception {
+        SimpleTransactionManager.create(primary).execute(new UpdateTransaction("DROP TABLE RTM1"));
+        SimpleTransactionManager.create(replica).execute(new UpdateTransaction("DROP TABLE RTM1"));
+    }
+
+    public void testReadsGoToReplicas() throws SQLException {
+        final RoutingTransactionManager tm = RoutingTransactionManager.create(
+                primary, Arrays.asList(replica, replica), RoutingTransactionManager.Balancing.ROUND_ROBIN, 0);
+        assertEquals("replica", query(tm));
+        assertEquals("replica", query(tm));
+        assertEquals(1, tm.getReplicaReadCount(0));
+        assertEquals(1, tm.getReplicaReadCount(1));
+
+        tm.execute(new UpdateTransaction("INSERT INTO RTM1 VALUES('primary2')"));
+        assertEquals(1, tm.getUpdateCount());
+        assertEquals(2, count(primary));
+        assertEquals(1, count(replica));
+        assertEquals("replica", query(tm));
+        assertEquals(0, tm.getPrimaryReadCount());
+    }
+
+    public void testReadYourWrites() throws SQLException {
+        final RoutingTransactionManager tm = RoutingTransactionManager.create(
+                primary, Arrays.asList(replica), RoutingTransactionManager.Balancing.LEAST_ACTIVE, 60000);
+        assertEquals("replica", query(tm));
+
+        tm.execute(new UpdateTransaction("UPDATE RTM1 SET CS = 'updated'"));
+        assertEquals("updated", query(tm));
+        assertEquals(1, tm.getPrimaryReadCount());
+
+        final String[] result = new String[1];
+        final Thread thread = new Thread() {
+            public void run() {
+                try {
+                    result[0] = query(tm);
+                } catch (SQLException e) {
+                    result[0] = e.getMessage();
+                }
+            }
+        };
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            fail();
+        }
+        assertEquals("replica", result[0]);
+    }
+
+    public void testNoReplicas() throws SQLException {
+        final RoutingTransactionManager tm = new RoutingTransactionManager(
+                SimpleTransactionManager.create(primary), Arrays.<TransactionManager>asList(),
+                RoutingTransactionManager.Balancing.ROUND_ROBIN, 0);
+        assertEquals("primary", query(tm));
+        assertSame(primary, tm.getDataSource());
+    }
+
+    private static String query(TransactionManager tm) throws SQLException {
+        final QueryForObjectTransaction t = new QueryForObjectTransaction("SELECT CS AS value FROM RTM1",
+                                                                          String.class, null);
+        tm.execute(t);
+        return (String) t.fetchResultObject();
+    }
+
+    private static int count(DataSource dataSource) throws SQLException {
+        final QueryForCountTransaction t = new QueryForCountTransaction("RTM1");
+        SimpleTransactionManager.create(dataSource).execute(t);
+        return t.fetchCount();
+    }
+
+    private static DataSource createDataSource(String url) {
+        final jdbcDataSource dataSource = new jdbcDataSource();
+        dataSource.setDatabase(url);
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        return dataSource;
+    }
+}
@@ -7,12 +7,17 @@ package com.bc.util.sql;
 import com.bc.util.prop.PropertyNotFoundException;
 import junit.framework.TestCase;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 
 public class ScriptRunnerTest extends TestCase {
@@ -73,4 +78,139 @@ public class ScriptRunnerTest extends TestCase {
         stmt.execute("DROP TABLE _T1");
         stmt.close();
     }
+
+    public void testRunScriptInBulkMode() throws SQLException {
+        final StringBuilder sqlScript = new StringBuilder();
+        sqlScript.append("/* create the test table;\n   with a block comment */\n");
+        sqlScript.append("CREATE TABLE _T2 (CI INTEGER, CS VARCHAR);\n");
+        for (int i = 0; i < 25; i++) {
+            sqlScript.append("INSERT INTO _T2 VALUES(").append(i).append(", 'a;b -- ''c''');");
+            sqlScript.append(" -- comment;\n");
+        }
+        sqlScript.append("INSERT INTO _T2\n  VALUES(99, 'multi\nline')");
+
+        final ScriptRunner scriptRunner = new ScriptRunner();
+        scriptRunner.setBulkMode(true);
+        scriptRunner.setBatchSize(10);
+        scriptRunner.setCommitInterval(7);
+        scriptRunner.runScriptFromText(connection, sqlScript.toString());
+        assertEquals("INSERT INTO _T2 VALUES(99, 'multi\nline')", scriptRunner.getSql());
+        assertEquals(27, scriptRunner.getStatementCount());
+        assertTrue(scriptRunner.getStatementsPerSecond() >= 0.0);
+        assertTrue(connection.getAutoCommit());
+
+        Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT (*) FROM _T2 WHERE CS = 'a;b -- ''c'''");
+        rs.next();
+        assertEquals(25, rs.getInt(1));
+        rs.close();
+        rs = stmt.executeQuery("SELECT COUNT (*) FROM _T2");
+        rs.next();
+        assertEquals(26, rs.getInt(1));
+        rs.close();
+        stmt.execute("DROP TABLE _T2");
+        stmt.close();
+    }
+
+    public void testBulkModeReportsFailingStatement() throws SQLException {
+        final ScriptRunner scriptRunner = new ScriptRunner();
+        scriptRunner.setBulkMode(true);
+        try {
+            scriptRunner.runScriptFromText(connection, "CREATE TABLE _T3 (CI INTEGER);\n" +
+                                                       "INSERT INTO _T3 VALUES(1);\n" +
+                                                       "INSERT INTO _X3 VALUES(2);\n" +
+                                                       "INSERT INTO _T3 VALUES(3);\n" +
+                                                       "INSERT INTO _T3 VALUES(4);\n");
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertEquals("INSERT INTO _X3 VALUES(2)", scriptRunner.getSql());
+        assertEquals(3, scriptRunner.getLineNumber());
+        assertEquals(2, scriptRunner.getStatementCount());
+        dropTable("_T3");
+    }
+
+    public void testBulkModeExecutesRestOfBatchAfterHandledError() throws SQLException {
+        final List<String> failed = new ArrayList<String>();
+        final ScriptRunner scriptRunner = new ScriptRunner();
+        scriptRunner.setBulkMode(true);
+        scriptRunner.setBatchSize(4);
+        scriptRunner.setErrorHandler(new ScriptRunner.ErrorHandler() {
+            public void handleError(ScriptRunner scriptRunner, SQLException e) {
+                failed.add(scriptRunner.getLineNumber() + ": " + scriptRunner.getSql());
+            }
+        });
+        scriptRunner.runScriptFromText(connection, "CREATE TABLE _T4 (CI INTEGER);\n" +
+                                                   "INSERT INTO _X4 VALUES(1);\n" +
+                                                   "INSERT INTO _T4 VALUES(2);\n" +
+                                                   "INSERT INTO _X4 VALUES(3);\n" +
+                                                   "INSERT INTO _T4 VALUES(4);\n" +
+                                                   "INSERT INTO _T4 VALUES(5);\n");
+        assertEquals(Arrays.asList("2: INSERT INTO _X4 VALUES(1)", "4: INSERT INTO _X4 VALUES(3)"), failed);
+        assertEquals(4, scriptRunner.getStatementCount());
+        assertEquals(3, countRows("_T4"));
+        dropTable("_T4");
+    }
+
+    public void testBulkModeRollsBackOnError() throws SQLException {
+        final Statement stmt = connection.createStatement();
+        stmt.execute("CREATE TABLE _T5 (CI INTEGER)");
+        stmt.close();
+        final String script = "INSERT INTO _T5 VALUES(1);\n" +
+                              "INSERT INTO _T5 VALUES(2);\n" +
+                              "INSERT INTO _T5 VALUES(3);\n" +
+                              "INSERT INTO _X5 VALUES(4);\n";
+        final ScriptRunner scriptRunner = new ScriptRunner();
+        scriptRunner.setBulkMode(true);
+        scriptRunner.setBatchSize(1);
+        scriptRunner.setCommitInterval(2);
+        try {
+            scriptRunner.runScriptFromText(connection, script);
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertTrue(connection.getAutoCommit());
+        assertEquals(2, countRows("_T5"));
+
+        connection.setAutoCommit(false);
+        try {
+            scriptRunner.runScriptFromText(connection, script);
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertFalse(connection.getAutoCommit());
+        assertEquals(4, countRows("_T5"));
+        connection.setAutoCommit(true);
+        dropTable("_T5");
+    }
+
+    public void testScriptStatementReader() throws IOException {
+        final ScriptStatementReader reader = new ScriptStatementReader(new StringReader(
+                "-- header\n;; SELECT 1 /* ; */ FROM  \"A;B\"  ;\n\n  DELETE FROM T WHERE X = '''' --x\n"));
+        assertEquals("SELECT 1 FROM \"A;B\"", reader.readStatement());
+        assertEquals(2, reader.getLineNumber());
+        assertEquals("DELETE FROM T WHERE X = ''''", reader.readStatement());
+        assertNull(reader.readStatement());
+        assertEquals(5, reader.getLineNumber());
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    /////// END OF PUBLIC
+    ////////////////////////////////////////////////////////////////////////////////
+
+    private int countRows(String tableName) throws SQLException {
+        final Statement stmt = connection.createStatement();
+        final ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tableName);
+        rs.next();
+        final int count = rs.getInt(1);
+        rs.close();
+        stmt.close();
+        return count;
+    }
+
+    private void dropTable(String tableName) throws SQLException {
+        final Statement stmt = connection.createStatement();
+        stmt.execute("DROP TABLE " + tableName);
+        stmt.close();
+    }
 }
@@ -7,6 +7,10 @@
 package com.bc.util.sql;
 
 import junit.framework.TestCase;
+import org.hsqldb.jdbc.jdbcDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
 
 public class SimpleTransactionManagerTest extends TestCase {
 
@@ -28,6 +32,121 @@ public class SimpleTransactionManagerTest extends TestCase {
             fail();
         } catch (IllegalArgumentException expected) {
         }
+        try {
+            new SimpleTransactionManager(null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testTransactionContext() throws SQLException {
+        final jdbcDataSource dataSource = new jdbcDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:.");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        final SimpleTransactionManager tm = new SimpleTransactionManager(dataSource);
+        tm.execute(new UpdateTransaction("CREATE TABLE STM1 (CI INTEGER)"));
+        try {
+            assertFalse(tm.isTransactionContextActive());
+            assertEquals(0, tm.getTransactionContextDepth());
+
+            tm.begin();
+            final Connection connection = tm.getTransactionContextConnection();
+            assertNotNull(connection);
+            assertFalse(connection.getAutoCommit());
+            tm.execute(new UpdateTransaction("INSERT INTO STM1 VALUES(1)"));
+
+            tm.begin();
+            assertEquals(2, tm.getTransactionContextDepth());
+            assertSame(connection, tm.getTransactionContextConnection());
+            tm.execute(new UpdateTransaction("INSERT INTO STM1 VALUES(2)"));
+            tm.rollback();
+
+            tm.begin();
+            tm.execute(new UpdateTransaction("INSERT INTO STM1 VALUES(3)"));
+            tm.commit();
+
+            assertEquals(1, tm.getTransactionContextDepth());
+            assertEquals(2, count(tm));
+            tm.commit();
+            assertFalse(tm.isTransactionContextActive());
+            assertEquals(2, count(tm));
+
+            tm.begin();
+            tm.execute(new UpdateTransaction("INSERT INTO STM1 VALUES(4)"));
+            tm.rollback();
+            assertEquals(2, count(tm));
+
+            try {
+                tm.commit();
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            tm.execute(new UpdateTransaction("DROP TABLE STM1"));
+        }
+    }
+
+    public void testStatementsAreReusedAcrossTransactions() throws SQLException {
+        final PooledDataSource dataSource = new PooledDataSource();
+        dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        dataSource.setUrl("jdbc:hsqldb:mem:stm2");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setMaxActive(1);
+        final SimpleTransactionManager tm = new SimpleTransactionManager(dataSource);
+        assertEquals(0, tm.getStatementCacheCapacity());
+        tm.setStatementCacheCapacity(8);
+        tm.execute(new UpdateTransaction("CREATE TABLE STM2 (CI INTEGER)"));
+        try {
+            tm.execute(new UpdateTransaction("INSERT INTO STM2 VALUES(1)"));
+            final long missCount = tm.getStatementCacheMissCount();
+            assertEquals(1, count(tm, "STM2"));
+            assertEquals(1, count(tm, "STM2"));
+            assertEquals(missCount + 1, tm.getStatementCacheMissCount());
+            assertEquals(1, tm.getStatementCacheHitCount());
+
+            tm.begin();
+            assertEquals(1, count(tm, "STM2"));
+            tm.commit();
+            assertEquals(2, tm.getStatementCacheHitCount());
+        } finally {
+            tm.execute(new UpdateTransaction("DROP TABLE STM2"));
+            try {
+                dataSource.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    public void testStatementsAreNotReusedWithoutPool() throws SQLException {
+        final jdbcDataSource dataSource = new jdbcDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:.");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        final SimpleTransactionManager tm = new SimpleTransactionManager(dataSource);
+        tm.setStatementCacheCapacity(8);
+        tm.execute(new UpdateTransaction("CREATE TABLE STM3 (CI INTEGER)"));
+        try {
+            assertEquals(0, count(tm, "STM3"));
+            assertEquals(0, count(tm, "STM3"));
+            assertEquals(0, tm.getStatementCacheHitCount());
+        } finally {
+            tm.execute(new UpdateTransaction("DROP TABLE STM3"));
+        }
+    }
+
+    private static int count(SimpleTransactionManager tm, String table) throws SQLException {
+        final QueryForCountTransaction t = new QueryForCountTransaction(table);
+        tm.execute(t);
+        return t.fetchCount();
+    }
+
+    private static int count(SimpleTransactionManager tm) throws SQLException {
+        final QueryForCountTransaction t = new QueryForCountTransaction("STM1");
+        tm.execute(t);
+        return t.fetchCount();
     }
 //
 //    class DummyTransaction extends Assert implements Transaction {
@@ -0,0 +1,114 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class SnowflakeIdGeneratorTest extends TestCase {
+
+    public void testIdLayout() {
+        final TestGenerator generator = new TestGenerator(1, 5);
+        generator.time = SnowflakeIdGenerator.DEFAULT_EPOCH + 1000;
+
+        final long id1 = generator.getNextLong();
+        final long id2 = generator.getNextLong();
+        assertEquals(SnowflakeIdGenerator.DEFAULT_EPOCH + 1000, generator.getTimestamp(id1));
+        assertEquals(5, SnowflakeIdGenerator.getNodeId(id1));
+        assertEquals(0, SnowflakeIdGenerator.getSequence(id1));
+        assertEquals(1, SnowflakeIdGenerator.getSequence(id2));
+
+        generator.time++;
+        final long id3 = generator.getNextLong();
+        assertEquals(SnowflakeIdGenerator.DEFAULT_EPOCH + 1001, generator.getTimestamp(id3));
+        assertEquals(0, SnowflakeIdGenerator.getSequence(id3));
+        assertEquals(Long.toHexString(id3 + 1), generator.getNextString());
+    }
+
+    public void testSequenceOverflowAndClockRegression() {
+        final TestGenerator generator = new TestGenerator(1, 0);
+        generator.time = SnowflakeIdGenerator.DEFAULT_EPOCH + 1000;
+
+        long last = -1;
+        for (int i = 0; i < 4097; i++) {
+            final long id = generator.getNextLong();
+            assertTrue(id > last);
+            last = id;
+        }
+        assertEquals(SnowflakeIdGenerator.DEFAULT_EPOCH + 1001, generator.getTimestamp(last));
+        assertEquals(0, SnowflakeIdGenerator.getSequence(last));
+
+        generator.time -= 100;
+        final long id = generator.getNextLong();
+        assertTrue(id > last);
+
+        generator.time -= SnowflakeIdGenerator.DEFAULT_MAX_DRIFT_MILLIS;
+        try {
+            generator.getNextLong();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testBlockReservation() throws InterruptedException {
+        final SnowflakeIdGenerator generator = new SnowflakeIdGenerator(SnowflakeIdGenerator.DEFAULT_EPOCH, 3, 16,
+                                                                        SnowflakeIdGenerator.DEFAULT_MAX_DRIFT_MILLIS);
+        final long id1 = generator.getNextLong();
+        final long id2 = generator.getNextLong();
+        assertEquals(id1 + 1, id2);
+
+        final long[][] ids = new long[4][1000];
+        final Thread[] threads = new Thread[ids.length];
+        for (int t = 0; t < threads.length; t++) {
+            final long[] threadIds = ids[t];
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < threadIds.length; i++) {
+                        threadIds[i] = generator.getNextLong();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        final Set<Long> idSet = new HashSet<Long>();
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            for (int i = 0; i < ids[t].length; i++) {
+                assertTrue(idSet.add(ids[t][i]));
+                assertEquals(3, SnowflakeIdGenerator.getNodeId(ids[t][i]));
+            }
+        }
+    }
+
+    public void testIllegalArguments() {
+        try {
+            new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID + 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new SnowflakeIdGenerator(SnowflakeIdGenerator.DEFAULT_EPOCH, 0, 0, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static class TestGenerator extends SnowflakeIdGenerator {
+
+        private long time;
+
+        private TestGenerator(int blockSize, int nodeId) {
+            super(DEFAULT_EPOCH, nodeId, blockSize, DEFAULT_MAX_DRIFT_MILLIS);
+        }
+
+        long currentTimeMillis() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class StatementCacheTest extends TestCase {
+
+    private Connection connection;
+
+    protected void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection("jdbc:hsqldb:.", "sa", "");
+        final Statement stmt = connection.createStatement();
+        stmt.execute("CREATE TABLE SC1 (CI INTEGER, CS VARCHAR)");
+        stmt.execute("INSERT INTO SC1 VALUES(1, 'A')");
+        stmt.execute("INSERT INTO SC1 VALUES(2, 'B')");
+        stmt.close();
+    }
+
+    protected void tearDown() throws Exception {
+        final Statement stmt = connection.createStatement();
+        stmt.execute("DROP TABLE SC1");
+        stmt.close();
+        connection.close();
+        connection = null;
+    }
+
+    public void testTemplateReusesStatements() throws SQLException {
+        final StatementCache cache = new StatementCache(connection, 4);
+        final Connection cachingConnection = cache.getConnection();
+        final Template t = new Template("SELECT CS AS value FROM SC1 WHERE CI = ${value}", Integer.class, String.class);
+
+        assertEquals("A", t.executeQueryForObject(cachingConnection, 1));
+        assertEquals("B", t.executeQueryForObject(cachingConnection, 2));
+        assertEquals("A", t.executeQueryForObject(cachingConnection, 1));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getSize());
+        assertEquals(2.0 / 3.0, cache.getHitRate(), 1e-10);
+    }
+
+    public void testStatementSettingsAreReset() throws SQLException {
+        final StatementCache cache = new StatementCache(connection, 4);
+        PreparedStatement stmt = cache.prepareStatement("SELECT CI FROM SC1");
+        stmt.setMaxRows(1);
+        stmt.setQueryTimeout(5);
+        stmt.close();
+        stmt = cache.prepareStatement("SELECT CI FROM SC1");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, stmt.getMaxRows());
+        assertEquals(0, stmt.getQueryTimeout());
+        stmt.close();
+    }
+
+    public void testWrappedConnectionKeepsStatements() throws SQLException {
+        final StatementCache cache = new StatementCache(connection, 4);
+        final Connection wrapped = cache.wrap(connection);
+        final PreparedStatement stmt = wrapped.prepareStatement("SELECT CI FROM SC1");
+        assertSame(wrapped, stmt.getConnection());
+        stmt.close();
+        assertEquals(1, cache.getSize());
+        assertFalse(cache.isClosed());
+    }
+
+    public void testQueryForCountTransactionUsesCache() throws SQLException {
+        final StatementCache cache = new StatementCache(connection, 4);
+        final QueryForCountTransaction t = new QueryForCountTransaction("SC1");
+        t.execute(cache.getConnection());
+        assertEquals(2, t.fetchCount());
+        t.execute(cache.getConnection());
+        assertEquals(2, t.fetchCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testStatementsInUseAreNotShared() throws SQLException {
+        final StatementCache cache = new StatementCache(connection, 4);
+        final PreparedStatement s1 = cache.prepareStatement("SELECT * FROM SC1");
+        final PreparedStatement s2 = cache.prepareStatement("SELECT * FROM SC1");
+        assertEquals(2, cache.getMissCount());
+        s1.close();
+        s2.close();
+        assertEquals(1, cache.getSize());
+
+        assertTrue(s1.isClosed());
+        try {
+            s1.executeQuery();
+            fail();
+        } catch (SQLException expected) {
+        }
+    }
+
+    public void testEviction() throws SQLException {
+        final StatementCache cache = new StatementCache(connection, 1);
+        cache.prepareStatement("SELECT CI FROM SC1").close();
+        cache.prepareStatement("SELECT CS FROM SC1").close();
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    public void testClose() throws SQLException {
+        final StatementCache cache = new StatementCache(connection, 4);
+        cache.prepareStatement("SELECT CI FROM SC1").close();
+        assertEquals(1, cache.getSize());
+        cache.close();
+        assertEquals(0, cache.getSize());
+        try {
+            cache.prepareStatement("SELECT CI FROM SC1");
+            fail();
+        } catch (SQLException expected) {
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 Brockmann Consult GmbH. All right reserved.
+ * http://www.brockmann-consult.de
+ */
+package com.bc.util.sql;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class TemplateCacheTest extends TestCase {
+
+    private static final String SQL = "SELECT T1.CI AS pi, T1.CS AS ps FROM T1 WHERE T1.CF <= ${value}";
+
+    public void testHitsAndMisses() {
+        final TemplateCache cache = new TemplateCache(10);
+
+        final CompiledTemplate t1 = cache.get(SQL, Double.class, TemplateTest.P.class);
+        assertEquals("SELECT T1.CI AS pi, T1.CS AS ps FROM T1 WHERE T1.CF <= ?", t1.getSql());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        final CompiledTemplate t2 = cache.get(SQL, Double.class, TemplateTest.P.class);
+        assertSame(t1, t2);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        final CompiledTemplate t3 = cache.get(SQL, Double.class, Map.class);
+        assertNotSame(t1, t3);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        final TemplateCache cache = new TemplateCache(2);
+
+        final CompiledTemplate a = cache.get("SELECT 1 FROM A", null, null);
+        final CompiledTemplate b = cache.get("SELECT 1 FROM B", null, null);
+        assertSame(a, cache.get("SELECT 1 FROM A", null, null));
+
+        cache.get("SELECT 1 FROM C", null, null);
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+
+        assertSame(a, cache.get("SELECT 1 FROM A", null, null));
+        assertNotSame(b, cache.get("SELECT 1 FROM B", null, null));
+
+        cache.setCapacity(1);
+        assertEquals(1, cache.getSize());
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    public void testZeroCapacityDisablesCaching() {
+        final TemplateCache cache = new TemplateCache(0);
+        final CompiledTemplate t1 = cache.get(SQL, Double.class, TemplateTest.P.class);
+        final CompiledTemplate t2 = cache.get(SQL, Double.class, TemplateTest.P.class);
+        assertNotSame(t1, t2);
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testSharedBeanPropertiesAndUnsharedMapProperties() {
+        final TemplateCache cache = new TemplateCache(10);
+
+        final CompiledTemplate beanTemplate = cache.get(SQL, Double.class, TemplateTest.P.class);
+        assertSame(beanTemplate.getResultProperties(), beanTemplate.getResultProperties());
+
+        final CompiledTemplate mapTemplate = cache.get(SQL, Double.class, Map.class);
+        assertNotSame(mapTemplate.getResultProperties(), mapTemplate.getResultProperties());
+        assertEquals(2, mapTemplate.getResultProperties().length);
+    }
+
+    public void testIllegalArguments() {
+        try {
+            new TemplateCache(-1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new TemplateCache(1).get(null, null, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
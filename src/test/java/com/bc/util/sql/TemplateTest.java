@@ -7,15 +7,41 @@ package com.bc.util.sql;
 import com.bc.util.prop.Property;
 import com.bc.util.prop.PropertyNotFoundException;
 import com.bc.util.sql.conv.DefaultValueConverter;
+import com.bc.util.sql.conv.JdbcToJavaValueConverter;
 import junit.framework.TestCase;
-
+import org.hsqldb.jdbc.jdbcDataSource;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 
 public class TemplateTest extends TestCase {
@@ -182,17 +208,485 @@ public class TemplateTest extends TestCase {
         }
     }
 
+    public void testExecuteBatch() throws SQLException {
+        final List<Q> rows = new ArrayList<Q>();
+        for (int i = 0; i < 7; i++) {
+            final Q q = new Q();
+            q.setQi(10 + i);
+            q.setQs("S" + i);
+            rows.add(q);
+        }
+        final Template t = new Template("INSERT INTO T1 (CI, CS) VALUES (${qi}, ${qs})", Q.class, null);
+        final int[] updateCounts = t.executeBatch(connection, rows, 3);
+        assertEquals(7, updateCounts.length);
+        for (int i = 0; i < updateCounts.length; i++) {
+            assertEquals(1, updateCounts[i]);
+        }
+
+        final Template count = new Template("SELECT COUNT(*) FROM T1 WHERE CI >= 10", null, Integer.class);
+        assertEquals(7, count.executeQueryForObject(connection, null));
+
+        // the update counts do not depend on the batch size, also if the number of rows is not known in advance
+        final Iterable<Q> iterable = new Iterable<Q>() {
+            public Iterator<Q> iterator() {
+                return rows.iterator();
+            }
+        };
+        assertEquals(7, t.executeBatch(connection, iterable, 2).length);
+        assertEquals(7, t.executeBatch(connection, iterable, Integer.MAX_VALUE).length);
+        assertEquals(7, t.executeBatch(connection, rows, Integer.MAX_VALUE).length);
+        assertEquals(0, t.executeBatch(connection, new ArrayList<Q>(), Integer.MAX_VALUE).length);
+        assertEquals(28, count.executeQueryForObject(connection, null));
+
+        try {
+            t.executeBatch(connection, rows, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testBatchUpdateTransaction() throws SQLException {
+        final jdbcDataSource dataSource = new jdbcDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:.");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        final TransactionManager transactionManager = SimpleTransactionManager.create(dataSource);
+
+        final List<Map> rows = new ArrayList<Map>();
+        for (int i = 0; i < 5; i++) {
+            final Map<String, Object> row = new HashMap<String, Object>();
+            row.put("ci", 20 + i);
+            row.put("cs", "M" + i);
+            rows.add(row);
+        }
+        final BatchUpdateTransaction bt = new BatchUpdateTransaction("INSERT INTO T1 (CI, CS) VALUES (${ci}, ${cs})",
+                                                                     HashMap.class, rows, 2);
+        transactionManager.execute(bt);
+        assertEquals(5, bt.fetchResultValues().length);
+        assertNull(bt.fetchResultValues());
+
+        final QueryCountTransaction ct = new QueryCountTransaction("SELECT COUNT(*) FROM T1 WHERE CI >= 20", null);
+        transactionManager.execute(ct);
+        assertEquals(5, ct.fetchCount());
+    }
+
+    public void testExecuteQueryForEach() throws SQLException {
+        final Template t = new Template("SELECT T1.CI AS pi, T1.CS AS ps FROM T1 WHERE T1.CI > ${value} ORDER BY T1.CI",
+                                        Integer.class, P.class);
+        t.setFetchSize(2);
+        final List<String> names = new ArrayList<String>();
+        final int rowCount = t.executeQueryForEach(connection, 2, new RowHandler() {
+            public void handleRow(Object resultObject) {
+                names.add(((P) resultObject).getPs());
+            }
+        });
+        assertEquals(3, rowCount);
+        assertEquals("[CDE, DEF, 0xA]", names.toString());
+    }
+
+    public void testExecuteQueryForIterator() throws SQLException {
+        final Template t = new Template("SELECT T1.CI AS value FROM T1 ORDER BY T1.CI", null, Integer.class);
+
+        ResultIterator it = t.executeQueryForIterator(connection, null);
+        int sum = 0;
+        while (it.hasNext()) {
+            sum += (Integer) it.next();
+        }
+        assertEquals(15, sum);
+        assertTrue(it.isClosed());
+
+        it = t.executeQueryForIterator(connection, null);
+        assertEquals(1, it.next());
+        it.close();
+        assertTrue(it.isClosed());
+        assertFalse(it.hasNext());
+    }
+
+    public void testQueryForEachTransaction() throws SQLException {
+        final int[] sum = new int[1];
+        final List<Boolean> autoCommits = new ArrayList<Boolean>();
+        final QueryForEachTransaction qt = new QueryForEachTransaction("SELECT T1.CI AS value FROM T1",
+                                                                       Integer.class, null, new RowHandler() {
+            public void handleRow(Object resultObject) throws SQLException {
+                sum[0] += (Integer) resultObject;
+                autoCommits.add(connection.getAutoCommit());
+            }
+        }, 100);
+        assertFalse(qt.isUpdate());
+        assertTrue(connection.getAutoCommit());
+        qt.execute(connection);
+        assertEquals(5, qt.fetchRowCount());
+        assertEquals(-1, qt.fetchRowCount());
+        assertEquals(15, sum[0]);
+        // the rows are streamed with auto-commit switched off, then auto-commit is restored
+        assertEquals(Arrays.asList(false, false, false, false, false), autoCommits);
+        assertTrue(connection.getAutoCommit());
+
+        // a connection without auto-commit is left as it is
+        connection.setAutoCommit(false);
+        try {
+            qt.execute(connection);
+            assertEquals(5, qt.fetchRowCount());
+            assertFalse(connection.getAutoCommit());
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        // auto-commit is also restored if the row handler fails
+        final QueryForEachTransaction failing = new QueryForEachTransaction("SELECT T1.CI AS value FROM T1",
+                                                                            Integer.class, null, new RowHandler() {
+            public void handleRow(Object resultObject) throws SQLException {
+                throw new SQLException("failed");
+            }
+        });
+        try {
+            failing.execute(connection);
+            fail();
+        } catch (SQLException expected) {
+        }
+        assertTrue(connection.getAutoCommit());
+    }
+
+    public void testRowMapperMatchesReflectiveMapping() throws SQLException {
+        execute("INSERT INTO T1 VALUES(6, NULL, NULL, NULL)");
+        final String sql = "SELECT T1.CI AS pi, T1.CF AS pf, T1.CS AS ps, T1.CD AS pd FROM T1 ORDER BY T1.CI";
+
+        final Template mapped = new Template(sql, null, P.class);
+        assertNotNull(mapped.getCompiledTemplate().getRowMapper());
+        final List mappedList = mapped.executeQueryForList(connection, null);
+
+        final Template reflective = new Template(sql, null, P.class);
+        reflective.addJdbcToJavaValueConverter("unused", new DefaultValueConverter());
+        final List reflectiveList = reflective.executeQueryForList(connection, null);
+
+        assertEquals(6, mappedList.size());
+        assertEquals(reflectiveList.size(), mappedList.size());
+        for (int i = 0; i < mappedList.size(); i++) {
+            final P p1 = (P) mappedList.get(i);
+            final P p2 = (P) reflectiveList.get(i);
+            assertEquals(p2.getPi(), p1.getPi());
+            assertEquals(p2.getPf(), p1.getPf(), 0.0);
+            assertEquals(p2.getPs(), p1.getPs());
+            assertEquals(p2.getPd(), p1.getPd());
+            assertTrue(p1.getPd() == null || p1.getPd().getClass() == Date.class);
+        }
+        final P last = (P) mappedList.get(5);
+        assertEquals(6, last.getPi());
+        assertEquals(0.0, last.getPf(), 0.0);
+        assertNull(last.getPs());
+        assertNull(last.getPd());
+    }
+
+    public void testColumnLayoutIsResolvedOnce() throws SQLException {
+        final Template t = new Template("SELECT T1.CS AS ps, T1.CD AS pd, T1.CI AS pi FROM T1 WHERE T1.CI = ${value}",
+                                        Integer.class, P.class);
+        final P p = (P) t.executeQueryForObject(connection, 2);
+        assertEquals(2, p.getPi());
+        assertEquals("BCD", p.getPs());
+        assertType(Date.class, p.getPd());
+
+        final ResultSet rs = connection.createStatement().executeQuery("SELECT T1.CS, T1.CD, T1.CI FROM T1");
+        final ColumnLayout layout = t.getCompiledTemplate().getColumnLayout(rs);
+        rs.close();
+        assertEquals(3, layout.getColumnIndex(2));
+        assertEquals(Types.INTEGER, layout.getColumnType(2));
+        assertEquals(Types.DATE, layout.getColumnType(1));
+
+        assertEquals(3, ((P) t.executeQueryForObject(connection, 3)).getPi());
+        final ResultSet rs2 = connection.createStatement().executeQuery("SELECT T1.CS, T1.CD, T1.CI FROM T1");
+        assertSame(layout, t.getCompiledTemplate().getColumnLayout(rs2));
+        rs2.close();
+
+        final Template mt = new Template("SELECT T1.CS AS ps, T1.CI AS pi FROM T1 WHERE T1.CI = ${value}",
+                                         Integer.class, Map.class);
+        final Map m = (Map) mt.executeQueryForObject(connection, 4);
+        assertEquals("DEF", m.get("ps"));
+        assertEquals(4, m.get("pi"));
+    }
+
+    public void testNoRowMapperForMapsAndValues() {
+        assertNull(new Template("SELECT T1.CI AS pi FROM T1", null, Map.class).getCompiledTemplate().getRowMapper());
+        assertNull(new Template("SELECT T1.CI AS value FROM T1", null, Integer.class).getCompiledTemplate()
+                .getRowMapper());
+    }
+
+    public void testPrecompiledResultConverters() {
+        final java.sql.Timestamp timestamp = new java.sql.Timestamp(1000L);
+        final java.sql.Date date = new java.sql.Date(2000L);
+        final Object[] values = {null, 3, 2.5, "ABC", timestamp, date};
+        assertConversions(values, boolean.class, Boolean.FALSE, Boolean.TRUE, Boolean.TRUE, "ABC", timestamp, date);
+        assertConversions(values, Boolean.class, null, Boolean.TRUE, Boolean.TRUE, "ABC", timestamp, date);
+        assertConversions(values, char.class, '\000', '\003', '\002', "ABC", timestamp, date);
+        assertConversions(values, byte.class, (byte) 0, (byte) 3, (byte) 2, "ABC", timestamp, date);
+        assertConversions(values, short.class, (short) 0, (short) 3, (short) 2, "ABC", timestamp, date);
+        assertConversions(values, Short.class, null, (short) 3, (short) 2, "ABC", timestamp, date);
+        assertConversions(values, int.class, 0, 3, 2, "ABC", timestamp, date);
+        assertConversions(values, Integer.class, null, 3, 2, "ABC", timestamp, date);
+        assertConversions(values, long.class, 0L, 3L, 2L, "ABC", timestamp, date);
+        assertConversions(values, float.class, 0.0f, 3.0f, 2.5f, "ABC", timestamp, date);
+        assertConversions(values, double.class, 0.0, 3.0, 2.5, "ABC", timestamp, date);
+        assertConversions(values, Double.class, null, 3.0, 2.5, "ABC", timestamp, date);
+        assertConversions(values, String.class, null, "3", "2.5", "ABC", timestamp, date);
+        assertConversions(values, Date.class, null, 3, 2.5, "ABC", new Date(1000L), new Date(2000L));
+        assertConversions(values, byte[].class, values);
+        assertConversions(values, Object.class, values);
+
+        final Template t = new Template("SELECT T1.CI AS pi, T1.CS AS ps FROM T1", null, P.class);
+        final JdbcToJavaValueConverter[] defaultConverters = t.getCompiledTemplate().getResultConverters();
+        assertSame(DefaultValueConverter.getJdbcToJavaValueConverter(int.class), defaultConverters[0]);
+        assertSame(DefaultValueConverter.getJdbcToJavaValueConverter(String.class), defaultConverters[1]);
+        assertNull(new Template("SELECT T1.CI AS pi FROM T1", null, Map.class).getCompiledTemplate()
+                .getResultConverters());
+    }
+
+    public void testStreamingLargeObjects() throws SQLException, IOException {
+        execute("CREATE TABLE T2 (ID INTEGER, DATA LONGVARBINARY)");
+        try {
+            final byte[] data = new byte[100000];
+            new Random(5).nextBytes(data);
+            final Template insert = new Template("INSERT INTO T2 VALUES(${id}, ${stream})", S.class, null);
+            final S s = new S();
+            s.setId(1);
+            s.setStream(new ByteArrayInputStream(data));
+            assertEquals(1, insert.executeUpdate(connection, s));
+            s.setId(2);
+            s.setStream(null);
+            s.setBuffer(ByteBuffer.wrap(data, 10, 20));
+            final Template insertBuffer = new Template("INSERT INTO T2 VALUES(${id}, ${buffer})", S.class, null);
+            assertEquals(1, insertBuffer.executeUpdate(connection, s));
+
+            final Template query = new Template("SELECT ID AS id, DATA AS stream, DATA AS buffer FROM T2 " +
+                                                "WHERE ID = ${value}", Integer.class, S.class);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final S[] results = new S[1];
+            assertEquals(1, query.executeQueryForEach(connection, 1, new RowHandler() {
+                public void handleRow(Object resultObject) throws SQLException {
+                    // a stream is only valid while its row is current
+                    final S result = (S) resultObject;
+                    final byte[] buffer = new byte[4096];
+                    try {
+                        int n;
+                        while ((n = result.getStream().read(buffer)) != -1) {
+                            out.write(buffer, 0, n);
+                        }
+                    } catch (IOException e) {
+                        throw new SQLException(e.getMessage(), e);
+                    }
+                    results[0] = result;
+                }
+            }));
+            assertTrue(Arrays.equals(data, out.toByteArray()));
+            final S result = results[0];
+            assertEquals(data.length, result.getBuffer().remaining());
+            assertEquals(data[99999], result.getBuffer().get(99999));
+
+            final Template spool = new Template("SELECT DATA AS mapped FROM T2 WHERE ID = ${value}",
+                                                Integer.class, S.class);
+            final MappedByteBuffer mapped = ((S) spool.executeQueryForObject(connection, 2)).getMapped();
+            assertEquals(20, mapped.remaining());
+            assertEquals(data[10], mapped.get(0));
+            assertEquals(data[29], mapped.get(19));
+        } finally {
+            execute("DROP TABLE T2");
+        }
+    }
+
+    public void testStreamParameters() throws SQLException, IOException {
+        final List<String> calls = new ArrayList<String>();
+        final List<Object> values = new ArrayList<Object>();
+        final PreparedStatement stmt = createStatementProxy(calls, values, false);
+
+        final byte[] data = {1, 2, 3, 4, 5};
+        Template.setParameter(stmt, 1, new ByteArrayInputStream(data));
+        Template.setParameter(stmt, 2, Channels.newChannel(new ByteArrayInputStream(data)));
+        Template.setParameter(stmt, 3, ByteBuffer.wrap(data, 1, 3));
+        Template.setParameter(stmt, 4, new StringReader("abc"));
+        Template.setParameter(stmt, 5, "abc");
+        assertEquals(Arrays.asList("setBinaryStream(int,InputStream)", "setBinaryStream(int,InputStream)",
+                                   "setBinaryStream(int,InputStream,int)", "setCharacterStream(int,Reader)",
+                                   "setObject(int,Object)"), calls);
+        assertTrue(values.get(0) instanceof InputStream);
+        final InputStream bufferStream = (InputStream) values.get(2);
+        assertEquals(2, bufferStream.read());
+        assertEquals(3, bufferStream.read());
+        assertEquals(4, bufferStream.read());
+        assertEquals(-1, bufferStream.read());
+
+        // drivers without the JDBC 4 methods get the contents as an array
+        calls.clear();
+        values.clear();
+        final PreparedStatement jdbc3Stmt = createStatementProxy(calls, values, true);
+        Template.setParameter(jdbc3Stmt, 1, new ByteArrayInputStream(data));
+        Template.setParameter(jdbc3Stmt, 2, new StringReader("abc"));
+        assertEquals(Arrays.asList("setBinaryStream(int,InputStream)", "setBytes(int,byte[])",
+                                   "setCharacterStream(int,Reader)", "setString(int,String)"), calls);
+        assertTrue(Arrays.equals(data, (byte[]) values.get(1)));
+        assertEquals("abc", values.get(3));
+    }
+
+    public void testBlobTooLargeForBuffer() throws SQLException {
+        final Blob blob = (Blob) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Blob.class},
+                                                        new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("length")) {
+                    return 3L << 30;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        try {
+            new DefaultValueConverter().convertJdbcToJavaValue(new TypeProperty(ByteBuffer.class), blob);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testBlobConversion() throws SQLException {
+        final byte[] data = {1, 2, 3};
+        final DefaultValueConverter converter = new DefaultValueConverter();
+        final Object bytes = converter.convertJdbcToJavaValue(new TypeProperty(byte[].class), new SerialBlob(data));
+        assertTrue(Arrays.equals(data, (byte[]) bytes));
+        assertTrue(converter.convertJdbcToJavaValue(new TypeProperty(InputStream.class),
+                                                    new SerialBlob(data)) instanceof InputStream);
+        assertEquals("abc", converter.convertJdbcToJavaValue(new TypeProperty(String.class),
+                                                             new SerialClob("abc".toCharArray())));
+        assertTrue(converter.convertJdbcToJavaValue(new TypeProperty(Reader.class), "abc") instanceof Reader);
+    }
+
     private void execute(final String sql) throws SQLException {
         final Statement stmt = connection.createStatement();
         stmt.execute(sql);
         stmt.close();
     }
 
+    /**
+     * Creates a prepared statement which records the signatures and values of the calls of its setters.
+     *
+     * @param jdbc3 if true, the JDBC 4 setters for streams of unknown length are not implemented
+     */
+    private static PreparedStatement createStatementProxy(final List<String> calls, final List<Object> values,
+                                                          final boolean jdbc3) {
+        return (PreparedStatement) Proxy.newProxyInstance(TemplateTest.class.getClassLoader(),
+                                                          new Class[]{PreparedStatement.class},
+                                                          new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                final StringBuilder sb = new StringBuilder(method.getName()).append('(');
+                final Class[] types = method.getParameterTypes();
+                for (int i = 0; i < types.length; i++) {
+                    sb.append(i > 0 ? "," : "").append(types[i].getSimpleName());
+                }
+                calls.add(sb.append(')').toString());
+                values.add(args != null && args.length > 1 ? args[1] : null);
+                if (jdbc3 && types.length == 2 && (method.getName().equals("setBinaryStream") ||
+                                                   method.getName().equals("setCharacterStream"))) {
+                    throw new AbstractMethodError(method.getName());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asserts that the precompiled converter of the given type converts the given JDBC values to the expected values
+     * of the expected classes, and that the converted values can be assigned to a property of that type.
+     */
+    private static void assertConversions(Object[] jdbcValues, Class type, Object... expectedValues) {
+        final JdbcToJavaValueConverter converter = DefaultValueConverter.getJdbcToJavaValueConverter(type);
+        assertSame(converter, DefaultValueConverter.getJdbcToJavaValueConverter(type));
+        final Property property = new TypeProperty(type);
+        final Map<String, Object> bean = new HashMap<String, Object>();
+        for (int i = 0; i < jdbcValues.length; i++) {
+            final Object expected = expectedValues[i];
+            final Object actual = converter.convertJdbcToJavaValue(property, jdbcValues[i]);
+            assertEquals(type + " <- " + jdbcValues[i], expected, actual);
+            assertSame(expected != null ? expected.getClass() : null, actual != null ? actual.getClass() : null);
+            assertEquals(expected, new DefaultValueConverter().convertJdbcToJavaValue(property, jdbcValues[i]));
+            property.setValue(bean, actual);
+            assertSame(actual, property.getValue(bean));
+        }
+    }
+
     private void assertType(Class type, Object value) {
         assertNotNull(value);
         assertEquals(type, value.getClass());
     }
 
+    private static class TypeProperty implements Property {
+
+        private final Class type;
+
+        TypeProperty(Class type) {
+            this.type = type;
+        }
+
+        public String getName() {
+            return "value";
+        }
+
+        public Class getType() {
+            return type;
+        }
+
+        public Object getValue(Object beanInstance) {
+            return ((Map) beanInstance).get(getName());
+        }
+
+        public void setValue(Object beanInstance, Object value) {
+            ((Map) beanInstance).put(getName(), value);
+        }
+
+        public boolean isAssignable(Object beanInstance) {
+            return beanInstance instanceof Map;
+        }
+
+        public void makeAssignable(Object beanInstance) {
+        }
+
+        public String getTreeAsString() {
+            return "TypeProperty[" + type + "]";
+        }
+    }
+
+    public static class S {
+
+        private int id;
+        private InputStream stream;
+        private ByteBuffer buffer;
+        private MappedByteBuffer mapped;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public InputStream getStream() {
+            return stream;
+        }
+
+        public void setStream(InputStream stream) {
+            this.stream = stream;
+        }
+
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        public void setBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public MappedByteBuffer getMapped() {
+            return mapped;
+        }
+
+        public void setMapped(MappedByteBuffer mapped) {
+            this.mapped = mapped;
+        }
+    }
+
     public static class P {
 
         private int pi;